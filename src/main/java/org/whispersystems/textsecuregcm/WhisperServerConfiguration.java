@@ -17,8 +17,15 @@
 package org.whispersystems.textsecuregcm;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.whispersystems.textsecuregcm.configuration.AccountCacheConfiguration;
+import org.whispersystems.textsecuregcm.configuration.AccountEncodingConfiguration;
+import org.whispersystems.textsecuregcm.configuration.DatabaseReplicasConfiguration;
+import org.whispersystems.textsecuregcm.configuration.DirectoryConfiguration;
 import org.whispersystems.textsecuregcm.configuration.FederationConfiguration;
 import org.whispersystems.textsecuregcm.configuration.GraphiteConfiguration;
+import org.whispersystems.textsecuregcm.configuration.LocalDirectoryConfiguration;
+import org.whispersystems.textsecuregcm.configuration.MessageCacheConfiguration;
+import org.whispersystems.textsecuregcm.configuration.MessageStoreConfiguration;
 import org.whispersystems.textsecuregcm.configuration.PushConfiguration;
 import org.whispersystems.textsecuregcm.configuration.RateLimitsConfiguration;
 import org.whispersystems.textsecuregcm.configuration.RedPhoneConfiguration;
@@ -64,12 +71,32 @@ public class WhisperServerConfiguration extends Configuration {
   @NotNull
   @Valid
   @JsonProperty
-  private RedisConfiguration directory;
+  private DirectoryConfiguration directory;
 
   @Valid
   @NotNull
   @JsonProperty
-  private DataSourceFactory messageStore;
+  private MessageStoreConfiguration messageStore;
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private MessageCacheConfiguration messageCache = new MessageCacheConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private AccountCacheConfiguration accountCache = new AccountCacheConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private AccountEncodingConfiguration accountEncoding = new AccountEncodingConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private LocalDirectoryConfiguration localDirectory = new LocalDirectoryConfiguration();
 
   @Valid
   @NotNull
@@ -85,6 +112,11 @@ public class WhisperServerConfiguration extends Configuration {
   @JsonProperty
   private DataSourceFactory database = new DataSourceFactory();
 
+  @Valid
+  @NotNull
+  @JsonProperty
+  private DatabaseReplicasConfiguration databaseReplicas = new DatabaseReplicasConfiguration();
+
   @Valid
   @NotNull
   @JsonProperty
@@ -131,18 +163,38 @@ public class WhisperServerConfiguration extends Configuration {
     return cache;
   }
 
-  public RedisConfiguration getDirectoryConfiguration() {
+  public DirectoryConfiguration getDirectoryConfiguration() {
     return directory;
   }
 
-  public DataSourceFactory getMessageStoreConfiguration() {
+  public MessageStoreConfiguration getMessageStoreConfiguration() {
     return messageStore;
   }
 
+  public MessageCacheConfiguration getMessageCacheConfiguration() {
+    return messageCache;
+  }
+
+  public AccountCacheConfiguration getAccountCacheConfiguration() {
+    return accountCache;
+  }
+
+  public AccountEncodingConfiguration getAccountEncodingConfiguration() {
+    return accountEncoding;
+  }
+
+  public LocalDirectoryConfiguration getLocalDirectoryConfiguration() {
+    return localDirectory;
+  }
+
   public DataSourceFactory getDataSourceFactory() {
     return database;
   }
 
+  public DatabaseReplicasConfiguration getDatabaseReplicasConfiguration() {
+    return databaseReplicas;
+  }
+
   public RateLimitsConfiguration getLimitsConfiguration() {
     return limits;
   }
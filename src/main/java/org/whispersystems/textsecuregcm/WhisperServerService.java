@@ -33,6 +33,8 @@ import org.whispersystems.dropwizard.simpleauth.AuthValueFactoryProvider;
 import org.whispersystems.dropwizard.simpleauth.BasicCredentialAuthFilter;
 import org.whispersystems.textsecuregcm.auth.AccountAuthenticator;
 import org.whispersystems.textsecuregcm.auth.FederatedPeerAuthenticator;
+import org.whispersystems.textsecuregcm.configuration.MessageCacheConfiguration;
+import org.whispersystems.textsecuregcm.configuration.MessageStoreConfiguration;
 import org.whispersystems.textsecuregcm.controllers.AccountController;
 import org.whispersystems.textsecuregcm.controllers.AttachmentController;
 import org.whispersystems.textsecuregcm.controllers.DeviceController;
@@ -49,10 +51,12 @@ import org.whispersystems.textsecuregcm.federation.FederatedClientManager;
 import org.whispersystems.textsecuregcm.federation.FederatedPeer;
 import org.whispersystems.textsecuregcm.limits.RateLimiters;
 import org.whispersystems.textsecuregcm.liquibase.NameableMigrationsBundle;
+import org.whispersystems.textsecuregcm.liquibase.ShardedMigrationsBundle;
 import org.whispersystems.textsecuregcm.mappers.DeviceLimitExceededExceptionMapper;
 import org.whispersystems.textsecuregcm.mappers.IOExceptionMapper;
 import org.whispersystems.textsecuregcm.mappers.InvalidWebsocketAddressExceptionMapper;
 import org.whispersystems.textsecuregcm.mappers.RateLimitExceededExceptionMapper;
+import org.whispersystems.textsecuregcm.metrics.AccountCountGauge;
 import org.whispersystems.textsecuregcm.metrics.CpuUsageGauge;
 import org.whispersystems.textsecuregcm.metrics.FileDescriptorGauge;
 import org.whispersystems.textsecuregcm.metrics.FreeMemoryGauge;
@@ -71,23 +75,42 @@ import org.whispersystems.textsecuregcm.sms.SmsSender;
 import org.whispersystems.textsecuregcm.sms.TwilioSmsSender;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.Accounts;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
+import org.whispersystems.textsecuregcm.storage.AccountChangePruner;
+import org.whispersystems.textsecuregcm.storage.AccountCountCompactor;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.DirectoryManager;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.LastSeenFlusher;
+import org.whispersystems.textsecuregcm.storage.LocalDirectory;
+import org.whispersystems.textsecuregcm.storage.MessageBatchWriter;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.MessagePersister;
+import org.whispersystems.textsecuregcm.storage.MessagePartitionCreator;
+import org.whispersystems.textsecuregcm.storage.MessageRetention;
 import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.MessagesCache;
 import org.whispersystems.textsecuregcm.storage.MessagesManager;
 import org.whispersystems.textsecuregcm.storage.PendingAccounts;
 import org.whispersystems.textsecuregcm.storage.PendingAccountsManager;
 import org.whispersystems.textsecuregcm.storage.PendingDevices;
 import org.whispersystems.textsecuregcm.storage.PendingDevicesManager;
 import org.whispersystems.textsecuregcm.storage.PubSubManager;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+import org.whispersystems.textsecuregcm.storage.QueueDepthReconciler;
+import org.whispersystems.textsecuregcm.storage.QueueTrimmer;
+import org.whispersystems.textsecuregcm.storage.ReplicaLagMonitor;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.UrlSigner;
 import org.whispersystems.textsecuregcm.websocket.AuthenticatedConnectListener;
 import org.whispersystems.textsecuregcm.websocket.DeadLetterHandler;
 import org.whispersystems.textsecuregcm.websocket.ProvisioningConnectListener;
 import org.whispersystems.textsecuregcm.websocket.WebSocketAccountAuthenticator;
 import org.whispersystems.textsecuregcm.workers.DirectoryCommand;
+import org.whispersystems.textsecuregcm.workers.QueueDepthCommand;
+import org.whispersystems.textsecuregcm.workers.RebalanceMessagesCommand;
 import org.whispersystems.textsecuregcm.workers.TrimMessagesCommand;
 import org.whispersystems.textsecuregcm.workers.VacuumCommand;
 import org.whispersystems.websocket.WebSocketResourceProviderFactory;
@@ -99,6 +122,9 @@ import javax.servlet.ServletRegistration;
 import javax.ws.rs.client.Client;
 import java.security.Security;
 import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -122,6 +148,8 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
     bootstrap.addCommand(new DirectoryCommand());
     bootstrap.addCommand(new VacuumCommand());
     bootstrap.addCommand(new TrimMessagesCommand());
+    bootstrap.addCommand(new RebalanceMessagesCommand());
+    bootstrap.addCommand(new QueueDepthCommand());
     bootstrap.addBundle(new NameableMigrationsBundle<WhisperServerConfiguration>("accountdb", "accountsdb.xml") {
       @Override
       public DataSourceFactory getDataSourceFactory(WhisperServerConfiguration configuration) {
@@ -129,11 +157,16 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
       }
     });
 
-    bootstrap.addBundle(new NameableMigrationsBundle<WhisperServerConfiguration>("messagedb", "messagedb.xml") {
+    bootstrap.addBundle(new ShardedMigrationsBundle<WhisperServerConfiguration>("messagedb", "messagedb.xml") {
       @Override
       public DataSourceFactory getDataSourceFactory(WhisperServerConfiguration configuration) {
         return configuration.getMessageStoreConfiguration();
       }
+
+      @Override
+      public Map<String, DataSourceFactory> getDataSourceFactories(WhisperServerConfiguration configuration) {
+        return configuration.getMessageStoreConfiguration().getShards();
+      }
     });
   }
 
@@ -153,28 +186,102 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
 
     DBIFactory dbiFactory = new DBIFactory();
     DBI        database   = dbiFactory.build(environment, config.getDataSourceFactory(), "accountdb");
-    DBI        messagedb  = dbiFactory.build(environment, config.getMessageStoreConfiguration(), "messagedb");
 
     Accounts        accounts        = database.onDemand(Accounts.class);
     PendingAccounts pendingAccounts = database.onDemand(PendingAccounts.class);
     PendingDevices  pendingDevices  = database.onDemand(PendingDevices.class);
     Keys            keys            = database.onDemand(Keys.class);
-    Messages        messages        = messagedb.onDemand(Messages.class);
 
-    RedisClientFactory cacheClientFactory = new RedisClientFactory(config.getCacheConfiguration().getUrl());
-    JedisPool          cacheClient        = cacheClientFactory.getRedisClientPool();
-    JedisPool          directoryClient    = new RedisClientFactory(config.getDirectoryConfiguration().getUrl()).getRedisClientPool();
-    Client             httpClient         = initializeHttpClient(environment, config);
+    List<Pair<Accounts, ReplicaLagMonitor>> accountReplicas = new LinkedList<>();
+    List<Pair<Keys, ReplicaLagMonitor>>     keyReplicas     = new LinkedList<>();
+
+    for (int i=0;i<config.getDatabaseReplicasConfiguration().getReplicas().size();i++) {
+      String            name    = "accountdb-replica-" + i;
+      DBI               replica = dbiFactory.build(environment, config.getDatabaseReplicasConfiguration().getReplicas().get(i), name);
+      ReplicaLagMonitor monitor = new ReplicaLagMonitor(name, replica, config.getDatabaseReplicasConfiguration().getMaxLagMillis());
+
+      accountReplicas.add(new Pair<>(replica.onDemand(Accounts.class), monitor));
+      keyReplicas.add(new Pair<>(replica.onDemand(Keys.class), monitor));
+
+      environment.lifecycle().manage(monitor);
+    }
+
+    Map<String, Messages> messageShards = MessageShards.build(environment, config.getMessageStoreConfiguration().getShards());
+
+    MessageShards messages = new MessageShards(messageShards);
+
+    RedisClientFactory cacheClientFactory     = new RedisClientFactory(config.getCacheConfiguration().getUrl());
+    JedisPool          cacheClient            = cacheClientFactory.getRedisClientPool();
+    RedisClientFactory directoryClientFactory = new RedisClientFactory(config.getDirectoryConfiguration().getUrl());
+    JedisPool          directoryClient        = directoryClientFactory.getRedisClientPool();
+    Client             httpClient             = initializeHttpClient(environment, config);
+
+    QueueDepthCounter queueDepthCounter = new QueueDepthCounter(cacheClient);
+
+    MessageStoreConfiguration    messageStoreConfig = config.getMessageStoreConfiguration();
+    Optional<MessageBatchWriter> batchWriter        = Optional.absent();
+
+    if (messageStoreConfig.isBatchInserts()) {
+      batchWriter = Optional.of(new MessageBatchWriter(messages, messageStoreConfig.getBatchWindowMillis(), messageStoreConfig.getMaxBatchSize()));
+      environment.lifecycle().manage(batchWriter.get());
+    }
+
+    environment.lifecycle().manage(new MessagePartitionCreator(messageShards));
+
+    if (messageStoreConfig.isRetentionEnabled()) {
+      for (Map.Entry<String, Messages> shard : messageShards.entrySet()) {
+        environment.lifecycle().manage(new MessageRetention(shard.getKey(), shard.getValue(), queueDepthCounter, cacheClient,
+                                                            messageStoreConfig.getRetentionDays(),
+                                                            messageStoreConfig.getRetentionBatchSize(),
+                                                            messageStoreConfig.getRetentionPauseMillis()));
+      }
+    }
+
+    MessageCacheConfiguration messageCacheConfig = config.getMessageCacheConfiguration();
+    Optional<MessagesCache>   messagesCache      = Optional.absent();
+
+    if (messageCacheConfig.isEnabled()) {
+      JedisPool messageCacheClient = new RedisClientFactory(messageCacheConfig.getUrl()).getRedisClientPool();
+
+      messagesCache = Optional.of(new MessagesCache(messageCacheClient, messageCacheConfig.getMaxQueueDepth()));
+
+      environment.lifecycle().manage(new MessagePersister(messagesCache.get(), messages, messageCacheConfig.getPersistDelayMinutes()));
+      environment.healthChecks().register("messagecache", new RedisHealthCheck(messageCacheClient));
+    }
+
+    QueueDepthReconciler queueDepthReconciler = new QueueDepthReconciler(messages, messagesCache, queueDepthCounter, cacheClient);
+    QueueTrimmer         queueTrimmer         = new QueueTrimmer(messages, messagesCache, queueDepthCounter, queueDepthReconciler, messageStoreConfig.getMaxQueueDepth());
 
-    DirectoryManager           directory                  = new DirectoryManager(directoryClient);
+    environment.lifecycle().manage(queueDepthReconciler);
+    environment.lifecycle().manage(queueTrimmer);
+
+    DirectoryManager           directory                  = new DirectoryManager(directoryClient, config.getDirectoryConfiguration().isBinaryValues());
     PendingAccountsManager     pendingAccountsManager     = new PendingAccountsManager(pendingAccounts, cacheClient);
     PendingDevicesManager      pendingDevicesManager      = new PendingDevicesManager (pendingDevices, cacheClient );
-    AccountsManager            accountsManager            = new AccountsManager(accounts, directory, cacheClient);
     FederatedClientManager     federatedClientManager     = new FederatedClientManager(environment, config.getJerseyClientConfiguration(), config.getFederationConfiguration());
-    MessagesManager            messagesManager            = new MessagesManager(messages);
+    MessagesManager            messagesManager            = new MessagesManager(messages, batchWriter, messagesCache, queueDepthCounter, queueTrimmer, messageStoreConfig.getMaxQueueDepth());
     DeadLetterHandler          deadLetterHandler          = new DeadLetterHandler(messagesManager);
     DispatchManager            dispatchManager            = new DispatchManager(cacheClientFactory, Optional.<DispatchChannel>of(deadLetterHandler));
     PubSubManager              pubSubManager              = new PubSubManager(cacheClient, dispatchManager);
+    Optional<AccountCache>     accountCache               = Optional.absent();
+
+    Optional<LocalDirectory>   localDirectory             = Optional.absent();
+
+    if (config.getAccountCacheConfiguration().isEnabled()) {
+      accountCache = Optional.of(new AccountCache(pubSubManager, config.getAccountCacheConfiguration().getMaxSize(), config.getAccountCacheConfiguration().getTtlSeconds()));
+    }
+
+    if (config.getLocalDirectoryConfiguration().isEnabled()) {
+      PubSubManager directoryPubSubManager = new PubSubManager(directoryClient, new DispatchManager(directoryClientFactory, Optional.<DispatchChannel>absent()));
+      localDirectory = Optional.of(new LocalDirectory(directory, directoryPubSubManager));
+
+      environment.lifecycle().manage(directoryPubSubManager);
+      environment.lifecycle().manage(localDirectory.get());
+    }
+
+    AccountsManager            accountsManager            = new AccountsManager(new ReplicaRouter<>(accounts, accountReplicas), directory, cacheClient, accountCache,
+                                                                                  config.getAccountEncodingConfiguration().isBinaryCache(),
+                                                                                  config.getAccountEncodingConfiguration().isBinaryDatabase());
     PushServiceClient          pushServiceClient          = new PushServiceClient(httpClient, config.getPushConfiguration());
     WebsocketSender            websocketSender            = new WebsocketSender(messagesManager, pubSubManager);
     AccountAuthenticator       deviceAuthenticator        = new AccountAuthenticator(accountsManager                 );
@@ -186,17 +293,23 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
     SmsSender                smsSender           = new SmsSender(twilioSmsSender);
     UrlSigner                urlSigner           = new UrlSigner(config.getS3Configuration());
     PushSender               pushSender          = new PushSender(apnFallbackManager, pushServiceClient, websocketSender);
-    ReceiptSender            receiptSender       = new ReceiptSender(accountsManager, pushSender, federatedClientManager);
+    ReceiptSender            receiptSender       = new ReceiptSender(accountsManager, pushSender, federatedClientManager, environment.lifecycle().executorService("receipts").minThreads(8).maxThreads(8).build());
     FeedbackHandler          feedbackHandler     = new FeedbackHandler(pushServiceClient, accountsManager);
+    LastSeenFlusher          lastSeenFlusher     = new LastSeenFlusher(accountsManager);
     Optional<byte[]>         authorizationKey    = config.getRedphoneConfiguration().getAuthorizationKey();
 
     environment.lifecycle().manage(apnFallbackManager);
     environment.lifecycle().manage(pubSubManager);
+    if (accountCache.isPresent()) environment.lifecycle().manage(accountCache.get());
     environment.lifecycle().manage(feedbackHandler);
+    environment.lifecycle().manage(lastSeenFlusher);
+    environment.lifecycle().manage(new AccountCountCompactor(accountsManager));
+    environment.lifecycle().manage(new AccountChangePruner(accountsManager, directory, cacheClient));
 
     AttachmentController attachmentController = new AttachmentController(rateLimiters, federatedClientManager, urlSigner);
-    KeysControllerV1     keysControllerV1     = new KeysControllerV1(rateLimiters, keys, accountsManager, federatedClientManager);
-    KeysControllerV2     keysControllerV2     = new KeysControllerV2(rateLimiters, keys, accountsManager, federatedClientManager);
+    ReplicaRouter<Keys>  keysRouter           = new ReplicaRouter<>(keys, keyReplicas);
+    KeysControllerV1     keysControllerV1     = new KeysControllerV1(rateLimiters, keysRouter, accountsManager, federatedClientManager);
+    KeysControllerV2     keysControllerV2     = new KeysControllerV2(rateLimiters, keysRouter, accountsManager, federatedClientManager);
     MessageController    messageController    = new MessageController(rateLimiters, pushSender, receiptSender, accountsManager, messagesManager, federatedClientManager);
 
     environment.jersey().register(new AuthDynamicFeature(new BasicCredentialAuthFilter.Builder<Account>()
@@ -211,7 +324,7 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
 
     environment.jersey().register(new AccountController(pendingAccountsManager, accountsManager, rateLimiters, smsSender, messagesManager, new TimeProvider(), authorizationKey, config.getTestDevices()));
     environment.jersey().register(new DeviceController(pendingDevicesManager, accountsManager, messagesManager, rateLimiters));
-    environment.jersey().register(new DirectoryController(rateLimiters, directory));
+    environment.jersey().register(new DirectoryController(rateLimiters, directory, localDirectory));
     environment.jersey().register(new FederationControllerV1(accountsManager, attachmentController, messageController, keysControllerV1));
     environment.jersey().register(new FederationControllerV2(accountsManager, attachmentController, messageController, keysControllerV2));
     environment.jersey().register(new ReceiptController(receiptSender));
@@ -224,7 +337,7 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
     if (config.getWebsocketConfiguration().isEnabled()) {
       WebSocketEnvironment webSocketEnvironment = new WebSocketEnvironment(environment, config, 90000);
       webSocketEnvironment.setAuthenticator(new WebSocketAccountAuthenticator(deviceAuthenticator));
-      webSocketEnvironment.setConnectListener(new AuthenticatedConnectListener(accountsManager, pushSender, receiptSender, messagesManager, pubSubManager, apnFallbackManager));
+      webSocketEnvironment.setConnectListener(new AuthenticatedConnectListener(lastSeenFlusher, pushSender, receiptSender, messagesManager, pubSubManager, apnFallbackManager, environment.lifecycle().scheduledExecutorService("websocket-acks").threads(8).build()));
       webSocketEnvironment.jersey().register(new KeepAliveController(pubSubManager));
 
       WebSocketEnvironment provisioningEnvironment = new WebSocketEnvironment(environment, config);
@@ -268,6 +381,7 @@ public class WhisperServerService extends Application<WhisperServerConfiguration
     environment.metrics().register(name(NetworkSentGauge.class, "bytes_sent"), new NetworkSentGauge());
     environment.metrics().register(name(NetworkReceivedGauge.class, "bytes_received"), new NetworkReceivedGauge());
     environment.metrics().register(name(FileDescriptorGauge.class, "fd_count"), new FileDescriptorGauge());
+    environment.metrics().register(name(AccountCountGauge.class, "accounts"), new AccountCountGauge(accountsManager));
 
     if (config.getGraphiteConfiguration().isEnabled()) {
       GraphiteReporterFactory graphiteReporterFactory = new GraphiteReporterFactory();
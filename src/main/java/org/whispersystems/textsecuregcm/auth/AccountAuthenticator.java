@@ -41,9 +41,11 @@ public class AccountAuthenticator implements Authenticator<BasicCredentials, Acc
   private final Logger logger = LoggerFactory.getLogger(AccountAuthenticator.class);
 
   private final AccountsManager accountsManager;
+  private final CredentialCache credentialCache;
 
   public AccountAuthenticator(AccountsManager accountsManager) {
     this.accountsManager = accountsManager;
+    this.credentialCache = new CredentialCache();
   }
 
   @Override
@@ -64,7 +66,7 @@ public class AccountAuthenticator implements Authenticator<BasicCredentials, Acc
         return Optional.absent();
       }
 
-      if (device.get().getAuthenticationCredentials().verify(basicCredentials.getPassword())) {
+      if (credentialCache.verify(authorizationHeader.getNumber(), device.get(), basicCredentials.getPassword())) {
         authenticationSucceededMeter.mark();
         account.get().setAuthenticatedDevice(device.get());
         return account;
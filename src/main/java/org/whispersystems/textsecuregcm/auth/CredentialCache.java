@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.auth;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Remembers recently verified device credentials, so that repeated requests from
+ * a device skip hashing its password.  Each device keeps the stored salt and hashed
+ * token it was last verified against, along with the password it verified with.  A
+ * request is only let through on a hit when all three match exactly, so replacing a
+ * device's credentials or presenting any other password goes back to the stored
+ * credentials.
+ */
+public class CredentialCache {
+
+  private static final int  MAX_SIZE    = 100000;
+  private static final long TTL_MINUTES = 5;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          hitMeter       = metricRegistry.meter(name(CredentialCache.class, "hit"));
+  private final Meter          missMeter      = metricRegistry.meter(name(CredentialCache.class, "miss"));
+
+  private final Cache<Pair<String, Long>, VerifiedCredentials> verified = CacheBuilder.newBuilder()
+                                                                                      .maximumSize(MAX_SIZE)
+                                                                                      .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+                                                                                      .build();
+
+  public boolean verify(String number, Device device, String password) {
+    AuthenticationCredentials credentials = device.getAuthenticationCredentials();
+    Pair<String, Long>        cacheKey    = new Pair<>(number, device.getId());
+    VerifiedCredentials       presented   = new VerifiedCredentials(credentials, password);
+    VerifiedCredentials       cached      = verified.getIfPresent(cacheKey);
+
+    if (cached != null && cached.matches(presented)) {
+      hitMeter.mark();
+      return true;
+    }
+
+    missMeter.mark();
+
+    if (credentials.verify(password)) {
+      verified.put(cacheKey, presented);
+      return true;
+    }
+
+    return false;
+  }
+
+  private static class VerifiedCredentials {
+    private final byte[] salt;
+    private final byte[] hashedToken;
+    private final byte[] password;
+
+    private VerifiedCredentials(AuthenticationCredentials credentials, String password) {
+      this.salt        = getBytes(credentials.getSalt());
+      this.hashedToken = getBytes(credentials.getHashedAuthenticationToken());
+      this.password    = getBytes(password);
+    }
+
+    private boolean matches(VerifiedCredentials that) {
+      return MessageDigest.isEqual(this.salt, that.salt)               &
+             MessageDigest.isEqual(this.hashedToken, that.hashedToken) &
+             MessageDigest.isEqual(this.password, that.password);
+    }
+
+    private static byte[] getBytes(String value) {
+      return Strings.nullToEmpty(value).getBytes(Charsets.UTF_8);
+    }
+  }
+}
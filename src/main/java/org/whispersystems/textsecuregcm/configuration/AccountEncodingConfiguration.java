@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Selects the binary account encoding per store.  Either encoding is always
+ * readable, so each store can be switched over independently.
+ */
+public class AccountEncodingConfiguration {
+
+  @JsonProperty
+  private boolean binaryCache = false;
+
+  @JsonProperty
+  private boolean binaryDatabase = false;
+
+  public boolean isBinaryCache() {
+    return binaryCache;
+  }
+
+  public boolean isBinaryDatabase() {
+    return binaryDatabase;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.dropwizard.db.DataSourceFactory;
+
+public class DatabaseReplicasConfiguration {
+
+  /**
+   * Streaming replicas of the account database, used for reads that miss the cache.
+   */
+  @Valid
+  @NotNull
+  @JsonProperty
+  private List<DataSourceFactory> replicas = new LinkedList<>();
+
+  /**
+   * Replicas trailing the primary by more than this are skipped until they catch up.
+   */
+  @JsonProperty
+  @Min(0)
+  private long maxLagMillis = 5000;
+
+  public List<DataSourceFactory> getReplicas() {
+    return replicas;
+  }
+
+  public long getMaxLagMillis() {
+    return maxLagMillis;
+  }
+}
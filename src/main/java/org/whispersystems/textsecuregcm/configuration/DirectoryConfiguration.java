@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class DirectoryConfiguration extends RedisConfiguration {
+
+  /**
+   * Write directory entries in the compact binary encoding.  Every node reads both
+   * encodings, so this should only be enabled once all of them are running that code.
+   */
+  @JsonProperty
+  private boolean binaryValues = false;
+
+  public boolean isBinaryValues() {
+    return binaryValues;
+  }
+}
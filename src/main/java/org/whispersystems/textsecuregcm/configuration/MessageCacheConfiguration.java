@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class MessageCacheConfiguration {
+
+  @JsonProperty
+  private boolean enabled = false;
+
+  @JsonProperty
+  private String url;
+
+  /**
+   * How long a queue may sit in the cache before it is moved to the message store.
+   */
+  @JsonProperty
+  @Min(1)
+  private int persistDelayMinutes = 10;
+
+  /**
+   * Queues deeper than this are moved to the message store on the next persist pass.
+   */
+  @JsonProperty
+  @Min(1)
+  private int maxQueueDepth = 1000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public int getPersistDelayMinutes() {
+    return persistDelayMinutes;
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+}
@@ -1,14 +1,111 @@
 package org.whispersystems.textsecuregcm.configuration;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.hibernate.validator.constraints.NotEmpty;
 
-public class MessageStoreConfiguration {
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.dropwizard.db.DataSourceFactory;
+
+public class MessageStoreConfiguration extends DataSourceFactory {
+
+  public static final String DEFAULT_SHARD = "default";
+
+  /**
+   * Additional named message store shards, alongside this configuration, which is
+   * always the "default" shard (so that name is reserved).  Queues are assigned to
+   * shards by a consistent hash of the shard names, so renaming a shard moves its
+   * queues.  The messagedb migrate command applies the schema to every shard, or to
+   * one with --shard.
+   */
+  @Valid
+  @JsonProperty
+  private Map<String, DataSourceFactory> shards = new HashMap<>();
+
+  /**
+   * Collect concurrent inserts into group commits instead of committing each one.
+   */
+  @JsonProperty
+  private boolean batchInserts = false;
+
+  /**
+   * How long the first insert of a group commit waits for others to join it.
+   */
+  @JsonProperty
+  @Min(1)
+  private int batchWindowMillis = 5;
+
   @JsonProperty
-  @NotEmpty
-  private String url;
+  @Min(1)
+  private int maxBatchSize = 100;
+
+  /**
+   * Queued (non-receipt) messages kept per device, across the cache and the store,
+   * before the oldest are evicted.
+   */
+  @JsonProperty
+  @Min(1)
+  private int maxQueueDepth = 5000;
+
+  /**
+   * Expire messages continuously in the background, rather than only from the trim command.
+   */
+  @JsonProperty
+  private boolean retentionEnabled = false;
+
+  @JsonProperty
+  @Min(1)
+  private int retentionDays = 60;
+
+  /**
+   * Width of the id range deleted in each retention step.
+   */
+  @JsonProperty
+  @Min(1)
+  private int retentionBatchSize = 1000;
+
+  @JsonProperty
+  @Min(0)
+  private int retentionPauseMillis = 100;
+
+  public Map<String, DataSourceFactory> getShards() {
+    Map<String, DataSourceFactory> results = new HashMap<>(shards);
+    results.put(DEFAULT_SHARD, this);
+
+    return results;
+  }
+
+  public boolean isBatchInserts() {
+    return batchInserts;
+  }
+
+  public int getBatchWindowMillis() {
+    return batchWindowMillis;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  public boolean isRetentionEnabled() {
+    return retentionEnabled;
+  }
+
+  public int getRetentionDays() {
+    return retentionDays;
+  }
+
+  public int getRetentionBatchSize() {
+    return retentionBatchSize;
+  }
 
-  public String getUrl() {
-    return url;
+  public int getRetentionPauseMillis() {
+    return retentionPauseMillis;
   }
 }
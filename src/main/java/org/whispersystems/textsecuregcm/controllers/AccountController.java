@@ -226,49 +226,72 @@ public class AccountController {
   @PUT
   @Path("/gcm/")
   @Consumes(MediaType.APPLICATION_JSON)
-  public void setGcmRegistrationId(@Auth Account account, @Valid GcmRegistrationId registrationId) {
-    Device device = account.getAuthenticatedDevice().get();
-    device.setApnId(null);
-    device.setVoipApnId(null);
-    device.setGcmId(registrationId.getGcmRegistrationId());
-
-    if (registrationId.isWebSocketChannel()) device.setFetchesMessages(true);
-    else                                     device.setFetchesMessages(false);
+  public void setGcmRegistrationId(@Auth Account account, @Valid final GcmRegistrationId registrationId) {
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setApnId(null);
+        device.setVoipApnId(null);
+        device.setGcmId(registrationId.getGcmRegistrationId());
+
+        if (registrationId.isWebSocketChannel()) device.setFetchesMessages(true);
+        else                                     device.setFetchesMessages(false);
+      }
+    };
 
-    accounts.update(account);
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
   @DELETE
   @Path("/gcm/")
   public void deleteGcmRegistrationId(@Auth Account account) {
-    Device device = account.getAuthenticatedDevice().get();
-    device.setGcmId(null);
-    device.setFetchesMessages(false);
-    accounts.update(account);
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setGcmId(null);
+        device.setFetchesMessages(false);
+      }
+    };
+
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
   @PUT
   @Path("/apn/")
   @Consumes(MediaType.APPLICATION_JSON)
-  public void setApnRegistrationId(@Auth Account account, @Valid ApnRegistrationId registrationId) {
-    Device device = account.getAuthenticatedDevice().get();
-    device.setApnId(registrationId.getApnRegistrationId());
-    device.setVoipApnId(registrationId.getVoipRegistrationId());
-    device.setGcmId(null);
-    device.setFetchesMessages(true);
-    accounts.update(account);
+  public void setApnRegistrationId(@Auth Account account, @Valid final ApnRegistrationId registrationId) {
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setApnId(registrationId.getApnRegistrationId());
+        device.setVoipApnId(registrationId.getVoipRegistrationId());
+        device.setGcmId(null);
+        device.setFetchesMessages(true);
+      }
+    };
+
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
   @DELETE
   @Path("/apn/")
   public void deleteApnRegistrationId(@Auth Account account) {
-    Device device = account.getAuthenticatedDevice().get();
-    device.setApnId(null);
-    device.setFetchesMessages(false);
-    accounts.update(account);
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setApnId(null);
+        device.setFetchesMessages(false);
+      }
+    };
+
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
@@ -276,20 +299,24 @@ public class AccountController {
   @Path("/attributes/")
   @Consumes(MediaType.APPLICATION_JSON)
   public void setAccountAttributes(@Auth Account account,
-                                   @HeaderParam("X-Signal-Agent") String userAgent,
-                                   @Valid AccountAttributes attributes)
+                                   @HeaderParam("X-Signal-Agent") final String userAgent,
+                                   @Valid final AccountAttributes attributes)
   {
-    Device device = account.getAuthenticatedDevice().get();
-
-    device.setFetchesMessages(attributes.getFetchesMessages());
-    device.setName(attributes.getName());
-    device.setLastSeen(Util.todayInMillis());
-    device.setVoiceSupported(attributes.getVoice());
-    device.setRegistrationId(attributes.getRegistrationId());
-    device.setSignalingKey(attributes.getSignalingKey());
-    device.setUserAgent(userAgent);
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setFetchesMessages(attributes.getFetchesMessages());
+        device.setName(attributes.getName());
+        device.setLastSeen(Util.todayInMillis());
+        device.setVoiceSupported(attributes.getVoice());
+        device.setRegistrationId(attributes.getRegistrationId());
+        device.setSignalingKey(attributes.getSignalingKey());
+        device.setUserAgent(userAgent);
+      }
+    };
 
-    accounts.update(account);
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
@@ -97,13 +97,20 @@ public class DeviceController {
   @Timed
   @DELETE
   @Path("/{device_id}")
-  public void removeDevice(@Auth Account account, @PathParam("device_id") long deviceId) {
+  public void removeDevice(@Auth Account account, @PathParam("device_id") final long deviceId) {
     if (account.getAuthenticatedDevice().get().getId() != Device.MASTER_ID) {
       throw new WebApplicationException(Response.Status.UNAUTHORIZED);
     }
 
-    account.removeDevice(deviceId);
-    accounts.update(account);
+    AccountsManager.Mutation mutation = new AccountsManager.Mutation() {
+      @Override
+      public void apply(Account account) {
+        account.removeDevice(deviceId);
+      }
+    };
+
+    mutation.apply(account);
+    accounts.update(account, mutation);
     messages.clear(account.getNumber(), deviceId);
   }
 
@@ -165,18 +172,26 @@ public class DeviceController {
         throw new DeviceLimitExceededException(account.get().getDevices().size(), MAX_DEVICES);
       }
 
-      Device device = new Device();
+      final Device device = new Device();
       device.setName(accountAttributes.getName());
       device.setAuthenticationCredentials(new AuthenticationCredentials(password));
       device.setSignalingKey(accountAttributes.getSignalingKey());
       device.setFetchesMessages(accountAttributes.getFetchesMessages());
-      device.setId(account.get().getNextDeviceId());
       device.setRegistrationId(accountAttributes.getRegistrationId());
       device.setLastSeen(Util.todayInMillis());
       device.setCreated(System.currentTimeMillis());
 
-      account.get().addDevice(device);
-      accounts.update(account.get());
+      // A retry after a conflicting update may find another device has taken the id
+      AccountsManager.Mutation mutation = new AccountsManager.Mutation() {
+        @Override
+        public void apply(Account account) {
+          device.setId(account.getNextDeviceId());
+          account.addDevice(device);
+        }
+      };
+
+      mutation.apply(account.get());
+      accounts.update(account.get(), mutation);
 
       pendingDevices.remove(number);
 
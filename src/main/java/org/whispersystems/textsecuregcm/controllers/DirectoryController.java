@@ -29,6 +29,7 @@ import org.whispersystems.textsecuregcm.entities.ClientContacts;
 import org.whispersystems.textsecuregcm.limits.RateLimiters;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.LocalDirectory;
 import org.whispersystems.textsecuregcm.util.Base64;
 import org.whispersystems.textsecuregcm.util.Constants;
 
@@ -56,12 +57,20 @@ public class DirectoryController {
   private final MetricRegistry metricRegistry    = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Histogram      contactsHistogram = metricRegistry.histogram(name(getClass(), "contacts"));
 
-  private final RateLimiters     rateLimiters;
-  private final DirectoryManager directory;
+  private final RateLimiters             rateLimiters;
+  private final DirectoryManager         directory;
+  private final Optional<LocalDirectory> localDirectory;
 
   public DirectoryController(RateLimiters rateLimiters, DirectoryManager directory) {
-    this.directory    = directory;
-    this.rateLimiters = rateLimiters;
+    this(rateLimiters, directory, Optional.<LocalDirectory>absent());
+  }
+
+  public DirectoryController(RateLimiters rateLimiters, DirectoryManager directory,
+                             Optional<LocalDirectory> localDirectory)
+  {
+    this.directory      = directory;
+    this.rateLimiters   = rateLimiters;
+    this.localDirectory = localDirectory;
   }
 
   @Timed
@@ -74,7 +83,10 @@ public class DirectoryController {
     rateLimiters.getContactsLimiter().validate(account.getNumber());
 
     try {
-      Optional<ClientContact> contact = directory.get(decodeToken(token));
+      Optional<ClientContact> contact;
+
+      if (isLocalDirectoryReady()) contact = localDirectory.get().get(decodeToken(token));
+      else                         contact = directory.get(decodeToken(token));
 
       if (contact.isPresent()) return Response.ok().entity(contact.get()).build();
       else                     return Response.status(404).build();
@@ -103,7 +115,11 @@ public class DirectoryController {
         tokens.add(decodeToken(encodedContact));
       }
 
-      List<ClientContact> intersection = directory.get(tokens);
+      List<ClientContact> intersection;
+
+      if (isLocalDirectoryReady()) intersection = localDirectory.get().get(tokens);
+      else                         intersection = directory.get(tokens);
+
       return new ClientContacts(intersection);
     } catch (IOException e) {
       logger.info("Bad token", e);
@@ -111,6 +127,10 @@ public class DirectoryController {
     }
   }
 
+  private boolean isLocalDirectoryReady() {
+    return localDirectory.isPresent() && localDirectory.get().isReady();
+  }
+
   private byte[] decodeToken(String encoded) throws IOException {
     return Base64.decodeWithoutPadding(encoded.replace('-', '+').replace('_', '/'));
   }
@@ -18,11 +18,14 @@ package org.whispersystems.textsecuregcm.controllers;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.AccountCount;
 import org.whispersystems.textsecuregcm.entities.AttachmentUri;
 import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.entities.ClientContactPage;
 import org.whispersystems.textsecuregcm.entities.ClientContacts;
 import org.whispersystems.textsecuregcm.entities.IncomingMessageList;
 import org.whispersystems.textsecuregcm.entities.PreKeyResponseV1;
@@ -43,6 +46,7 @@ import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import io.dropwizard.auth.Auth;
 
@@ -55,6 +59,15 @@ public class FederationControllerV1 extends FederationController {
 
   private final KeysControllerV1 keysControllerV1;
 
+  /**
+   * Maps the offset a peer is expected to request next onto the id where its previous
+   * page ended, so that sequential offset paging doesn't rescan the skipped rows.
+   */
+  private final Cache<Integer, Long> offsetCursors = CacheBuilder.newBuilder()
+                                                                 .maximumSize(1000)
+                                                                 .expireAfterAccess(10, TimeUnit.MINUTES)
+                                                                 .build();
+
   public FederationControllerV1(AccountsManager accounts,
                                 AttachmentController attachmentController,
                                 MessageController messageController,
@@ -145,7 +158,34 @@ public class FederationControllerV1 extends FederationController {
   public ClientContacts getUserTokens(@Auth                FederatedPeer peer,
                                       @PathParam("offset") int offset)
   {
-    List<Account>       accountList    = accounts.getAll(offset, ACCOUNT_CHUNK_SIZE);
+    Long          cursor      = offsetCursors.getIfPresent(offset);
+    List<Account> accountList = cursor != null ? accounts.getAllFrom(cursor, ACCOUNT_CHUNK_SIZE) :
+                                                 accounts.getAll(offset, ACCOUNT_CHUNK_SIZE);
+
+    if (!accountList.isEmpty()) {
+      offsetCursors.put(offset + accountList.size(), accountList.get(accountList.size() - 1).getId());
+    }
+
+    return new ClientContacts(getClientContacts(accountList));
+  }
+
+  @Timed
+  @GET
+  @Path("/user_tokens/after/{cursor}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public ClientContactPage getUserTokensAfter(@Auth                FederatedPeer peer,
+                                              @PathParam("cursor") long cursor)
+  {
+    List<Account> accountList = accounts.getAllFrom(cursor, ACCOUNT_CHUNK_SIZE);
+
+    if (!accountList.isEmpty()) {
+      cursor = accountList.get(accountList.size() - 1).getId();
+    }
+
+    return new ClientContactPage(getClientContacts(accountList), cursor);
+  }
+
+  private List<ClientContact> getClientContacts(List<Account> accountList) {
     List<ClientContact> clientContacts = new LinkedList<>();
 
     for (Account account : accountList) {
@@ -159,6 +199,6 @@ public class FederationControllerV1 extends FederationController {
       clientContacts.add(clientContact);
     }
 
-    return new ClientContacts(clientContacts);
+    return clientContacts;
   }
 }
@@ -28,6 +28,7 @@ import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 import org.whispersystems.textsecuregcm.storage.KeyRecord;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Produces;
@@ -44,14 +45,16 @@ public class KeysController {
 
   protected final RateLimiters           rateLimiters;
   protected final Keys                   keys;
+  protected final ReplicaRouter<Keys>    keyReplicas;
   protected final AccountsManager        accounts;
   protected final FederatedClientManager federatedClientManager;
 
-  public KeysController(RateLimiters rateLimiters, Keys keys, AccountsManager accounts,
+  public KeysController(RateLimiters rateLimiters, ReplicaRouter<Keys> keys, AccountsManager accounts,
                         FederatedClientManager federatedClientManager)
   {
     this.rateLimiters           = rateLimiters;
-    this.keys                   = keys;
+    this.keys                   = keys.getPrimary();
+    this.keyReplicas            = keys;
     this.accounts               = accounts;
     this.federatedClientManager = federatedClientManager;
   }
@@ -59,7 +62,7 @@ public class KeysController {
   @GET
   @Produces(MediaType.APPLICATION_JSON)
   public PreKeyCount getStatus(@Auth Account account) {
-    int count = keys.getCount(account.getNumber(), account.getAuthenticatedDevice().get().getId());
+    int count = keyReplicas.getReplica().getCount(account.getNumber(), account.getAuthenticatedDevice().get().getId());
 
     if (count > 0) {
       count = count - 1;
@@ -31,6 +31,7 @@ import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 import org.whispersystems.textsecuregcm.storage.KeyRecord;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 
 import javax.validation.Valid;
 import javax.ws.rs.Consumes;
@@ -53,7 +54,7 @@ public class KeysControllerV1 extends KeysController {
 
   private final Logger logger = LoggerFactory.getLogger(KeysControllerV1.class);
 
-  public KeysControllerV1(RateLimiters rateLimiters, Keys keys, AccountsManager accounts,
+  public KeysControllerV1(RateLimiters rateLimiters, ReplicaRouter<Keys> keys, AccountsManager accounts,
                           FederatedClientManager federatedClientManager)
   {
     super(rateLimiters, keys, accounts, federatedClientManager);
@@ -63,12 +64,19 @@ public class KeysControllerV1 extends KeysController {
   @PUT
   @Consumes(MediaType.APPLICATION_JSON)
   public void setKeys(@Auth Account account, @Valid PreKeyStateV1 preKeys)  {
-    Device device      = account.getAuthenticatedDevice().get();
-    String identityKey = preKeys.getLastResortKey().getIdentityKey();
+    Device       device      = account.getAuthenticatedDevice().get();
+    final String identityKey = preKeys.getLastResortKey().getIdentityKey();
 
     if (!identityKey.equals(account.getIdentityKey())) {
-      account.setIdentityKey(identityKey);
-      accounts.update(account);
+      AccountsManager.Mutation mutation = new AccountsManager.Mutation() {
+        @Override
+        public void apply(Account account) {
+          account.setIdentityKey(identityKey);
+        }
+      };
+
+      mutation.apply(account);
+      accounts.update(account, mutation);
     }
 
     keys.store(account.getNumber(), device.getId(), preKeys.getKeys(), preKeys.getLastResortKey());
@@ -32,6 +32,7 @@ import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 import org.whispersystems.textsecuregcm.storage.KeyRecord;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 
 import javax.validation.Valid;
 import javax.ws.rs.Consumes;
@@ -52,7 +53,7 @@ import io.dropwizard.auth.Auth;
 @Path("/v2/keys")
 public class KeysControllerV2 extends KeysController {
 
-  public KeysControllerV2(RateLimiters rateLimiters, Keys keys, AccountsManager accounts,
+  public KeysControllerV2(RateLimiters rateLimiters, ReplicaRouter<Keys> keys, AccountsManager accounts,
                           FederatedClientManager federatedClientManager)
   {
     super(rateLimiters, keys, accounts, federatedClientManager);
@@ -62,22 +63,27 @@ public class KeysControllerV2 extends KeysController {
   @Timed
   @PUT
   @Consumes(MediaType.APPLICATION_JSON)
-  public void setKeys(@Auth Account account, @Valid PreKeyStateV2 preKeys)  {
-    Device  device        = account.getAuthenticatedDevice().get();
-    boolean updateAccount = false;
+  public void setKeys(@Auth Account account, @Valid final PreKeyStateV2 preKeys)  {
+    Device device = account.getAuthenticatedDevice().get();
 
-    if (!preKeys.getSignedPreKey().equals(device.getSignedPreKey())) {
-      device.setSignedPreKey(preKeys.getSignedPreKey());
-      updateAccount = true;
-    }
+    if (!preKeys.getSignedPreKey().equals(device.getSignedPreKey()) ||
+        !preKeys.getIdentityKey().equals(account.getIdentityKey()))
+    {
+      AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(device.getId()) {
+        @Override
+        public void apply(Account account) {
+          account.setIdentityKey(preKeys.getIdentityKey());
+          super.apply(account);
+        }
 
-    if (!preKeys.getIdentityKey().equals(account.getIdentityKey())) {
-      account.setIdentityKey(preKeys.getIdentityKey());
-      updateAccount = true;
-    }
+        @Override
+        public void apply(Device device) {
+          device.setSignedPreKey(preKeys.getSignedPreKey());
+        }
+      };
 
-    if (updateAccount) {
-      accounts.update(account);
+      mutation.apply(account);
+      accounts.update(account, mutation);
     }
 
     keys.store(account.getNumber(), device.getId(), preKeys.getPreKeys(), preKeys.getLastResortKey());
@@ -136,10 +142,16 @@ public class KeysControllerV2 extends KeysController {
   @PUT
   @Path("/signed")
   @Consumes(MediaType.APPLICATION_JSON)
-  public void setSignedKey(@Auth Account account, @Valid SignedPreKey signedPreKey) {
-    Device device = account.getAuthenticatedDevice().get();
-    device.setSignedPreKey(signedPreKey);
-    accounts.update(account);
+  public void setSignedKey(@Auth Account account, @Valid final SignedPreKey signedPreKey) {
+    AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(account.getAuthenticatedDevice().get().getId()) {
+      @Override
+      public void apply(Device device) {
+        device.setSignedPreKey(signedPreKey);
+      }
+    };
+
+    mutation.apply(account);
+    accounts.update(account, mutation);
   }
 
   @Timed
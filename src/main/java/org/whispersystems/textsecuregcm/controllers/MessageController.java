@@ -21,6 +21,7 @@ import com.google.common.base.Optional;
 import com.google.protobuf.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.AcknowledgedMessageList;
 import org.whispersystems.textsecuregcm.entities.IncomingMessage;
 import org.whispersystems.textsecuregcm.entities.IncomingMessageList;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
@@ -144,7 +145,9 @@ public class MessageController {
       throws IOException
   {
     try {
-      Optional<OutgoingMessageEntity> message = messagesManager.delete(account.getNumber(), source, timestamp);
+      Optional<OutgoingMessageEntity> message = messagesManager.delete(account.getNumber(),
+                                                                       account.getAuthenticatedDevice().get().getId(),
+                                                                       source, timestamp);
 
       if (message.isPresent() && message.get().getType() != Envelope.Type.RECEIPT_VALUE) {
         receiptSender.sendReceipt(account,
@@ -160,6 +163,25 @@ public class MessageController {
   }
 
 
+  @Timed
+  @PUT
+  @Path("/acknowledged")
+  @Consumes(MediaType.APPLICATION_JSON)
+  public void removePendingMessages(@Auth Account account,
+                                    @Valid AcknowledgedMessageList acknowledged)
+  {
+    List<OutgoingMessageEntity> messages = messagesManager.delete(account.getNumber(),
+                                                                  account.getAuthenticatedDevice().get().getId(),
+                                                                  acknowledged.getMessages());
+
+    for (OutgoingMessageEntity message : messages) {
+      if (message.getType() != Envelope.Type.RECEIPT_VALUE) {
+        receiptSender.sendReceiptAsync(account, message.getSource(), message.getTimestamp(),
+                                       Optional.fromNullable(message.getRelay()));
+      }
+    }
+  }
+
   private void sendLocalMessage(Account source,
                                 String destinationName,
                                 IncomingMessageList messages,
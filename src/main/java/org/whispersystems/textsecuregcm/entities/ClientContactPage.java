@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class ClientContactPage {
+
+  @JsonProperty
+  private List<ClientContact> contacts;
+
+  @JsonProperty
+  private long cursor;
+
+  public ClientContactPage(List<ClientContact> contacts, long cursor) {
+    this.contacts = contacts;
+    this.cursor   = cursor;
+  }
+
+  public ClientContactPage() {
+    this.contacts = new LinkedList<>();
+  }
+
+  public List<ClientContact> getContacts() {
+    return contacts;
+  }
+
+  public long getCursor() {
+    return cursor;
+  }
+}
@@ -8,6 +8,9 @@ public class OutgoingMessageEntity {
   @JsonIgnore
   private long id;
 
+  @JsonIgnore
+  private boolean cached;
+
   @JsonProperty
   private int type;
 
@@ -34,8 +37,16 @@ public class OutgoingMessageEntity {
   public OutgoingMessageEntity(long id, int type, String relay, long timestamp,
                                String source, int sourceDevice, byte[] message,
                                byte[] content)
+  {
+    this(id, false, type, relay, timestamp, source, sourceDevice, message, content);
+  }
+
+  public OutgoingMessageEntity(long id, boolean cached, int type, String relay, long timestamp,
+                               String source, int sourceDevice, byte[] message,
+                               byte[] content)
   {
     this.id           = id;
+    this.cached       = cached;
     this.type         = type;
     this.relay        = relay;
     this.timestamp    = timestamp;
@@ -77,4 +88,8 @@ public class OutgoingMessageEntity {
     return id;
   }
 
+  public boolean isCached() {
+    return cached;
+  }
+
 }
@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.AccountCount;
 import org.whispersystems.textsecuregcm.entities.AttachmentUri;
 import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.entities.ClientContactPage;
 import org.whispersystems.textsecuregcm.entities.ClientContacts;
 import org.whispersystems.textsecuregcm.entities.IncomingMessageList;
 import org.whispersystems.textsecuregcm.entities.PreKeyResponseV1;
@@ -66,13 +67,14 @@ public class FederatedClient {
 
   private final Logger logger = LoggerFactory.getLogger(FederatedClient.class);
 
-  private static final String USER_COUNT_PATH       = "/v1/federation/user_count";
-  private static final String USER_TOKENS_PATH      = "/v1/federation/user_tokens/%d";
-  private static final String RELAY_MESSAGE_PATH    = "/v1/federation/messages/%s/%d/%s";
-  private static final String PREKEY_PATH_DEVICE_V1 = "/v1/federation/key/%s/%s";
-  private static final String PREKEY_PATH_DEVICE_V2 = "/v2/federation/key/%s/%s";
-  private static final String ATTACHMENT_URI_PATH   = "/v1/federation/attachment/%d";
-  private static final String RECEIPT_PATH          = "/v1/receipt/%s/%d/%s/%d";
+  private static final String USER_COUNT_PATH        = "/v1/federation/user_count";
+  private static final String USER_TOKENS_PATH       = "/v1/federation/user_tokens/%d";
+  private static final String USER_TOKENS_AFTER_PATH = "/v1/federation/user_tokens/after/%d";
+  private static final String RELAY_MESSAGE_PATH     = "/v1/federation/messages/%s/%d/%s";
+  private static final String PREKEY_PATH_DEVICE_V1  = "/v1/federation/key/%s/%s";
+  private static final String PREKEY_PATH_DEVICE_V2  = "/v2/federation/key/%s/%s";
+  private static final String ATTACHMENT_URI_PATH    = "/v1/federation/attachment/%d";
+  private static final String RECEIPT_PATH           = "/v1/receipt/%s/%d/%s/%d";
 
   private final FederatedPeer peer;
   private final Client        client;
@@ -166,6 +168,21 @@ public class FederatedClient {
     }
   }
 
+  public Optional<ClientContactPage> getUserTokensAfter(long cursor) {
+    try {
+      ClientContactPage page = client.target(peer.getUrl())
+                                     .path(String.format(USER_TOKENS_AFTER_PATH, cursor))
+                                     .request()
+                                     .accept(MediaType.APPLICATION_JSON_TYPE)
+                                     .get(ClientContactPage.class);
+
+      return Optional.of(page);
+    } catch (ProcessingException | WebApplicationException e) {
+      logger.warn("User Tokens", e);
+      return Optional.absent();
+    }
+  }
+
   public void sendMessages(String source, long sourceDeviceId, String destination, IncomingMessageList messages)
       throws IOException
   {
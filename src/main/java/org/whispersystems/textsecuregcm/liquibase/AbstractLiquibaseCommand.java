@@ -2,8 +2,12 @@ package org.whispersystems.textsecuregcm.liquibase;
 
 import com.codahale.metrics.MetricRegistry;
 import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.util.Map;
 
 import io.dropwizard.Configuration;
 import io.dropwizard.cli.ConfiguredCommand;
@@ -17,6 +21,8 @@ import liquibase.exception.ValidationFailedException;
 
 public abstract class AbstractLiquibaseCommand<T extends Configuration> extends ConfiguredCommand<T> {
 
+  private final Logger logger = LoggerFactory.getLogger(AbstractLiquibaseCommand.class);
+
   private final DatabaseConfiguration<T> strategy;
   private final Class<T>                 configurationClass;
   private final String                   migrations;
@@ -38,9 +44,41 @@ public abstract class AbstractLiquibaseCommand<T extends Configuration> extends
   }
 
   @Override
-  @SuppressWarnings("UseOfSystemOutOrSystemErr")
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+
+    if (strategy instanceof ShardedDatabaseConfiguration) {
+      subparser.addArgument("-s", "--shard")
+               .dest("shard")
+               .help("only run against the named shard, rather than every shard");
+    }
+  }
+
+  @Override
   protected void run(Bootstrap<T> bootstrap, Namespace namespace, T configuration) throws Exception {
-    final PooledDataSourceFactory dbConfig = strategy.getDataSourceFactory(configuration);
+    if (strategy instanceof ShardedDatabaseConfiguration) {
+      Map<String, ? extends PooledDataSourceFactory> shards = ((ShardedDatabaseConfiguration<T>)strategy).getDataSourceFactories(configuration);
+      String                                         shard  = namespace.getString("shard");
+
+      if (shard != null) {
+        if (!shards.containsKey(shard)) {
+          throw new IllegalArgumentException("No such shard: " + shard);
+        }
+
+        runOn(namespace, shards.get(shard));
+      } else {
+        for (Map.Entry<String, ? extends PooledDataSourceFactory> entry : shards.entrySet()) {
+          logger.info("Running " + getName() + " against shard " + entry.getKey());
+          runOn(namespace, entry.getValue());
+        }
+      }
+    } else {
+      runOn(namespace, strategy.getDataSourceFactory(configuration));
+    }
+  }
+
+  @SuppressWarnings("UseOfSystemOutOrSystemErr")
+  private void runOn(Namespace namespace, PooledDataSourceFactory dbConfig) throws Exception {
     dbConfig.asSingleConnectionPool();
 
     try (final CloseableLiquibase liquibase = openLiquibase(dbConfig, namespace)) {
@@ -0,0 +1,15 @@
+package org.whispersystems.textsecuregcm.liquibase;
+
+import java.util.Map;
+
+import io.dropwizard.Configuration;
+import io.dropwizard.db.DatabaseConfiguration;
+import io.dropwizard.db.PooledDataSourceFactory;
+
+/**
+ * A database configuration spread over several named shards, each of which
+ * needs its own copy of the schema.
+ */
+public interface ShardedDatabaseConfiguration<T extends Configuration> extends DatabaseConfiguration<T> {
+  public Map<String, ? extends PooledDataSourceFactory> getDataSourceFactories(T configuration);
+}
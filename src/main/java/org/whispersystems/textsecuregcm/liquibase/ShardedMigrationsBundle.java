@@ -0,0 +1,15 @@
+package org.whispersystems.textsecuregcm.liquibase;
+
+import io.dropwizard.Configuration;
+
+/**
+ * A migrations bundle whose db command runs against every shard, or against
+ * the one named with --shard.
+ */
+public abstract class ShardedMigrationsBundle<T extends Configuration>
+    extends NameableMigrationsBundle<T> implements ShardedDatabaseConfiguration<T>
+{
+  public ShardedMigrationsBundle(String name, String migrations) {
+    super(name, migrations);
+  }
+}
@@ -0,0 +1,22 @@
+package org.whispersystems.textsecuregcm.metrics;
+
+
+import com.codahale.metrics.CachedGauge;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+
+import java.util.concurrent.TimeUnit;
+
+public class AccountCountGauge extends CachedGauge<Long> {
+
+  private final AccountsManager accountsManager;
+
+  public AccountCountGauge(AccountsManager accountsManager) {
+    super(1, TimeUnit.MINUTES);
+    this.accountsManager = accountsManager;
+  }
+
+  @Override
+  protected Long loadValue() {
+    return accountsManager.getCount();
+  }
+}
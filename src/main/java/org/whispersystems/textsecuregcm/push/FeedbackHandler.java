@@ -61,7 +61,7 @@ public class FeedbackHandler implements Managed, Runnable {
     }
   }
 
-  private void handleGcmUnregistered(UnregisteredEvent event) {
+  private void handleGcmUnregistered(final UnregisteredEvent event) {
     logger.info("Got GCM Unregistered: " + event.getNumber() + "," + event.getDeviceId());
 
     Optional<Account> account = accountsManager.get(event.getNumber());
@@ -69,29 +69,30 @@ public class FeedbackHandler implements Managed, Runnable {
     if (account.isPresent()) {
       Optional<Device> device = account.get().getDevice(event.getDeviceId());
 
-      if (device.isPresent()) {
-        if (event.getRegistrationId().equals(device.get().getGcmId())) {
-          logger.info("GCM Unregister GCM ID matches!");
-          if (device.get().getPushTimestamp() == 0 ||
-              event.getTimestamp() > device.get().getPushTimestamp())
-          {
-            logger.info("GCM Unregister Timestamp matches!");
+      if (device.isPresent() && isUnregistered(event, device.get().getGcmId(), device.get())) {
+        logger.info("GCM Unregister matches!");
+
+        AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(event.getDeviceId()) {
+          @Override
+          public void apply(Device device) {
+            if (!isUnregistered(event, device.getGcmId(), device)) return;
 
             if (event.getCanonicalId() != null && !event.getCanonicalId().isEmpty()) {
-              logger.info("It's a canonical ID update...");
-              device.get().setGcmId(event.getCanonicalId());
+              device.setGcmId(event.getCanonicalId());
             } else {
-              device.get().setGcmId(null);
-              device.get().setFetchesMessages(false);
+              device.setGcmId(null);
+              device.setFetchesMessages(false);
             }
-            accountsManager.update(account.get());
           }
-        }
+        };
+
+        mutation.apply(account.get());
+        accountsManager.update(account.get(), mutation);
       }
     }
   }
 
-  private void handleApnUnregistered(UnregisteredEvent event) {
+  private void handleApnUnregistered(final UnregisteredEvent event) {
     logger.info("Got APN Unregistered: " + event.getNumber() + "," + event.getDeviceId());
 
     Optional<Account> account = accountsManager.get(event.getNumber());
@@ -99,18 +100,30 @@ public class FeedbackHandler implements Managed, Runnable {
     if (account.isPresent()) {
       Optional<Device> device = account.get().getDevice(event.getDeviceId());
 
-      if (device.isPresent()) {
-        if (event.getRegistrationId().equals(device.get().getApnId())) {
-          logger.info("APN Unregister APN ID matches!");
-          if (device.get().getPushTimestamp() == 0 ||
-              event.getTimestamp() > device.get().getPushTimestamp())
-          {
-            logger.info("APN Unregister timestamp matches!");
-            device.get().setApnId(null);
-            accountsManager.update(account.get());
+      if (device.isPresent() && isUnregistered(event, device.get().getApnId(), device.get())) {
+        logger.info("APN Unregister matches!");
+
+        AccountsManager.Mutation mutation = new AccountsManager.DeviceMutation(event.getDeviceId()) {
+          @Override
+          public void apply(Device device) {
+            if (isUnregistered(event, device.getApnId(), device)) {
+              device.setApnId(null);
+            }
           }
-        }
+        };
+
+        mutation.apply(account.get());
+        accountsManager.update(account.get(), mutation);
       }
     }
   }
+
+  /**
+   * Checked again on every update attempt, since a concurrent re-registration
+   * may have replaced the push id this event refers to.
+   */
+  private static boolean isUnregistered(UnregisteredEvent event, String pushId, Device device) {
+    return event.getRegistrationId().equals(pushId) &&
+           (device.getPushTimestamp() == 0 || event.getTimestamp() > device.getPushTimestamp());
+  }
 }
@@ -1,6 +1,8 @@
 package org.whispersystems.textsecuregcm.push;
 
 import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.controllers.NoSuchUserException;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import org.whispersystems.textsecuregcm.federation.FederatedClientManager;
@@ -9,22 +11,48 @@ import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 
+import javax.ws.rs.WebApplicationException;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class ReceiptSender {
 
+  private final Logger logger = LoggerFactory.getLogger(ReceiptSender.class);
+
   private final PushSender             pushSender;
   private final FederatedClientManager federatedClientManager;
   private final AccountsManager        accountManager;
+  private final Executor               executor;
 
   public ReceiptSender(AccountsManager        accountManager,
                        PushSender             pushSender,
-                       FederatedClientManager federatedClientManager)
+                       FederatedClientManager federatedClientManager,
+                       Executor               executor)
   {
     this.federatedClientManager = federatedClientManager;
     this.accountManager         = accountManager;
     this.pushSender             = pushSender;
+    this.executor               = executor;
+  }
+
+  public void sendReceiptAsync(final Account source, final String destination,
+                               final long messageId, final Optional<String> relay)
+  {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sendReceipt(source, destination, messageId, relay);
+        } catch (NotPushRegisteredException e) {
+          logger.info("User no longer push registered for delivery receipt: " + e.getMessage());
+        } catch (NoSuchUserException | IOException | TransientPushFailureException e) {
+          logger.warn("Sending delivery receipt", e);
+        } catch (WebApplicationException e) {
+          logger.warn("Bad federated response for receipt: " + e.getResponse().getStatus());
+        }
+      }
+    });
   }
 
   public void sendReceipt(Account source, String destination,
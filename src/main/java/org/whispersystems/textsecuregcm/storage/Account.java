@@ -28,6 +28,7 @@ import java.util.Set;
 public class Account {
 
   public static final int MEMCACHE_VERION = 5;
+  public static final int MEMCACHE_BINARY_VERSION = 6;
 
   @JsonProperty
   private String number;
@@ -38,6 +39,12 @@ public class Account {
   @JsonProperty
   private String identityKey;
 
+  @JsonProperty
+  private long version;
+
+  @JsonIgnore
+  private long id;
+
   @JsonIgnore
   private Device authenticatedDevice;
 
@@ -49,6 +56,17 @@ public class Account {
     this.devices = devices;
   }
 
+  public Account(Account account) {
+    this.id          = account.id;
+    this.number      = account.number;
+    this.identityKey = account.identityKey;
+    this.version     = account.version;
+
+    for (Device device : account.devices) {
+      this.devices.add(new Device(device));
+    }
+  }
+
   public Optional<Device> getAuthenticatedDevice() {
     return Optional.fromNullable(authenticatedDevice);
   }
@@ -57,6 +75,22 @@ public class Account {
     this.authenticatedDevice = device;
   }
 
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
   public void setNumber(String number) {
     this.number = number;
   }
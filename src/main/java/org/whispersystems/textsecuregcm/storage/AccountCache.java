@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.dispatch.DispatchChannel;
+import org.whispersystems.textsecuregcm.util.Constants;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.whispersystems.textsecuregcm.storage.PubSubProtos.PubSubMessage;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * A bounded in-heap cache of parsed accounts, kept coherent across nodes by
+ * publishing the number of every changed account on a shared pubsub channel.
+ * Callers mutate accounts freely, so entries are copied on the way in and out.
+ */
+public class AccountCache implements Managed, DispatchChannel {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountCache.class);
+
+  private static final PubSubAddress INVALIDATION_ADDRESS = new PubSubAddress() {
+    @Override
+    public String serialize() {
+      return "ACCOUNT_INVALIDATIONS";
+    }
+  };
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          hitMeter       = metricRegistry.meter(name(AccountCache.class, "hit"));
+  private final Meter          missMeter      = metricRegistry.meter(name(AccountCache.class, "miss"));
+  private final Meter          evictedMeter   = metricRegistry.meter(name(AccountCache.class, "evicted"));
+
+  private final PubSubManager         pubSubManager;
+  private final Cache<String, Account> cache;
+
+  public AccountCache(PubSubManager pubSubManager, int maxSize, int ttlSeconds) {
+    this.pubSubManager = pubSubManager;
+    this.cache         = CacheBuilder.newBuilder()
+                                     .maximumSize(maxSize)
+                                     .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                                     .removalListener(new RemovalListener<String, Account>() {
+                                       @Override
+                                       public void onRemoval(RemovalNotification<String, Account> notification) {
+                                         if (notification.wasEvicted()) evictedMeter.mark();
+                                       }
+                                     })
+                                     .build();
+  }
+
+  @Override
+  public void start() throws Exception {
+    pubSubManager.subscribe(INVALIDATION_ADDRESS, this);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    pubSubManager.unsubscribe(INVALIDATION_ADDRESS, this);
+  }
+
+  public Optional<Account> get(String number) {
+    Account account = cache.getIfPresent(number);
+
+    if (account != null) {
+      hitMeter.mark();
+      return Optional.of(new Account(account));
+    } else {
+      missMeter.mark();
+      return Optional.absent();
+    }
+  }
+
+  public void put(Account account) {
+    cache.put(account.getNumber(), new Account(account));
+  }
+
+  public void invalidate(String number) {
+    cache.invalidate(number);
+    pubSubManager.publish(INVALIDATION_ADDRESS, PubSubMessage.newBuilder()
+                                                             .setType(PubSubMessage.Type.DELIVER)
+                                                             .setContent(ByteString.copyFromUtf8(number))
+                                                             .build());
+  }
+
+  @Override
+  public void onDispatchMessage(String channel, byte[] message) {
+    try {
+      PubSubMessage pubSubMessage = PubSubMessage.parseFrom(message);
+
+      if (pubSubMessage.getType() == PubSubMessage.Type.DELIVER) {
+        cache.invalidate(pubSubMessage.getContent().toStringUtf8());
+      }
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Protobuf parse error", e);
+    }
+  }
+
+  @Override
+  public void onDispatchSubscribed(String channel) {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void onDispatchUnsubscribed(String channel) {
+    logger.warn("Account invalidation channel unsubscribed");
+    cache.invalidateAll();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Periodically removes logged account writes that the directory has already applied,
+ * and any older than {@link AccountsManager#CHANGE_RETENTION_MILLIS} if the directory
+ * update has stopped running, so that account_changes doesn't grow without bound.
+ * Each pass holds a lease, so that only one node prunes at a time.
+ */
+public class AccountChangePruner implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountChangePruner.class);
+
+  private static final long INTERVAL_MINUTES = 60;
+  private static final long LEASE_MILLIS     = TimeUnit.MINUTES.toMillis(10);
+
+  private final AccountsManager  accountsManager;
+  private final DirectoryManager directory;
+  private final Lease            lease;
+
+  private ScheduledExecutorService executor;
+
+  public AccountChangePruner(AccountsManager accountsManager, DirectoryManager directory, JedisPool jedisPool) {
+    this.accountsManager = accountsManager;
+    this.directory       = directory;
+    this.lease           = new Lease(jedisPool, "account_change_pruner", LEASE_MILLIS);
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      if (!lease.acquire()) {
+        return;
+      }
+
+      try {
+        long           horizon    = accountsManager.getChangeHorizon();
+        long           before     = horizon - AccountsManager.CHANGE_RETENTION_MILLIS;
+        Optional<Long> checkpoint = directory.getCheckpoint();
+
+        if (checkpoint.isPresent()) {
+          before = Math.max(before, Math.min(checkpoint.get(), horizon));
+        }
+
+        accountsManager.removeChangesBefore(before);
+      } finally {
+        lease.release();
+      }
+    } catch (Throwable t) {
+      logger.warn("Error pruning account changes", t);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.whispersystems.textsecuregcm.auth.AuthenticationCredentials;
+import org.whispersystems.textsecuregcm.entities.SignedPreKey;
+import org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord;
+import org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord;
+import org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Maps accounts to and from the {@link AccountRecord} described by
+ * protobuf/AccountRecord.proto, stored behind a single leading version byte.
+ */
+public class AccountCodec {
+
+  private static final int VERSION = 1;
+
+  public static byte[] encode(Account account) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+      baos.write(VERSION);
+      toRecord(account).writeTo(baos);
+
+      return baos.toByteArray();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public static Account decode(byte[] serialized) throws IOException {
+    if (serialized.length == 0 || serialized[0] != VERSION) {
+      throw new IOException("Unsupported account encoding version: " + (serialized.length == 0 ? "none" : serialized[0]));
+    }
+
+    try {
+      return fromRecord(AccountRecord.parseFrom(Arrays.copyOfRange(serialized, 1, serialized.length)));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static AccountRecord toRecord(Account account) {
+    AccountRecord.Builder record = AccountRecord.newBuilder();
+
+    if (account.getNumber()      != null) record.setNumber(account.getNumber());
+    if (account.getIdentityKey() != null) record.setIdentityKey(account.getIdentityKey());
+
+    for (Device device : account.getDevices()) {
+      record.addDevices(toRecord(device));
+    }
+
+    return record.setVersion(account.getVersion()).build();
+  }
+
+  private static Account fromRecord(AccountRecord record) {
+    Account account = new Account();
+
+    if (record.hasNumber())      account.setNumber(record.getNumber());
+    if (record.hasIdentityKey()) account.setIdentityKey(record.getIdentityKey());
+
+    for (DeviceRecord device : record.getDevicesList()) {
+      account.addDevice(fromRecord(device));
+    }
+
+    account.setVersion(record.getVersion());
+
+    return account;
+  }
+
+  private static DeviceRecord toRecord(Device device) {
+    DeviceRecord.Builder record = DeviceRecord.newBuilder();
+    String               token  = device.getAuthenticationCredentials().getHashedAuthenticationToken();
+    String               salt   = device.getAuthenticationCredentials().getSalt();
+
+    record.setId(device.getId());
+
+    if (token                    != null) record.setAuthToken(token);
+    if (salt                     != null) record.setSalt(salt);
+    if (device.getName()         != null) record.setName(device.getName());
+    if (device.getSignalingKey() != null) record.setSignalingKey(device.getSignalingKey());
+    if (device.getGcmId()        != null) record.setGcmId(device.getGcmId());
+    if (device.getApnId()        != null) record.setApnId(device.getApnId());
+    if (device.getVoipApnId()    != null) record.setVoipApnId(device.getVoipApnId());
+    if (device.getSignedPreKey() != null) record.setSignedPreKey(toRecord(device.getSignedPreKey()));
+    if (device.getUserAgent()    != null) record.setUserAgent(device.getUserAgent());
+
+    return record.setPushTimestamp(device.getPushTimestamp())
+                 .setFetchesMessages(device.getFetchesMessages())
+                 .setRegistrationId(device.getRegistrationId())
+                 .setLastSeen(device.getLastSeen())
+                 .setCreated(device.getCreated())
+                 .setVoice(device.isVoiceSupported())
+                 .build();
+  }
+
+  private static Device fromRecord(DeviceRecord record) {
+    Device device = new Device();
+
+    device.setId(record.getId());
+    device.setAuthenticationCredentials(new AuthenticationCredentials(record.hasAuthToken() ? record.getAuthToken() : null,
+                                                                      record.hasSalt()      ? record.getSalt()      : null));
+
+    if (record.hasName())         device.setName(record.getName());
+    if (record.hasSignalingKey()) device.setSignalingKey(record.getSignalingKey());
+    if (record.hasGcmId())        device.setGcmId(record.getGcmId());
+    if (record.hasApnId())        device.setApnId(record.getApnId());
+    if (record.hasVoipApnId())    device.setVoipApnId(record.getVoipApnId());
+    if (record.hasSignedPreKey()) device.setSignedPreKey(fromRecord(record.getSignedPreKey()));
+    if (record.hasUserAgent())    device.setUserAgent(record.getUserAgent());
+
+    device.setPushTimestamp(record.getPushTimestamp());
+    device.setFetchesMessages(record.getFetchesMessages());
+    device.setRegistrationId(record.getRegistrationId());
+    device.setLastSeen(record.getLastSeen());
+    device.setCreated(record.getCreated());
+    device.setVoiceSupported(record.getVoice());
+
+    return device;
+  }
+
+  private static SignedPreKeyRecord toRecord(SignedPreKey signedPreKey) {
+    SignedPreKeyRecord.Builder record = SignedPreKeyRecord.newBuilder().setKeyId(signedPreKey.getKeyId());
+
+    if (signedPreKey.getPublicKey() != null) record.setPublicKey(signedPreKey.getPublicKey());
+    if (signedPreKey.getSignature() != null) record.setSignature(signedPreKey.getSignature());
+
+    return record.build();
+  }
+
+  private static SignedPreKey fromRecord(SignedPreKeyRecord record) {
+    return new SignedPreKey(record.getKeyId(),
+                            record.hasPublicKey() ? record.getPublicKey() : null,
+                            record.hasSignature() ? record.getSignature() : null);
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Periodically folds the delta rows appended to account_count by registrations and
+ * removals back into one row, so that counting accounts stays cheap.  Compactions
+ * running on several nodes at once only add an empty row.
+ */
+public class AccountCountCompactor implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountCountCompactor.class);
+
+  private static final int INTERVAL_MINUTES = 10;
+
+  private final AccountsManager accountsManager;
+
+  private ScheduledExecutorService executor;
+
+  public AccountCountCompactor(AccountsManager accountsManager) {
+    this.accountsManager = accountsManager;
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      accountsManager.compactCount();
+    } catch (Throwable t) {
+      logger.warn("Error compacting account count", t);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pages through the accounts table by id, so that each query seeks directly
+ * to where the previous one ended rather than re-scanning an offset.
+ */
+public class AccountIterator implements Iterator<Account> {
+
+  private final Accounts accounts;
+  private final int      fetchSize;
+
+  private Iterator<Account> page      = Collections.emptyIterator();
+  private long              lastId    = 0;
+  private boolean           exhausted = false;
+
+  public AccountIterator(Accounts accounts, int fetchSize) {
+    this.accounts  = accounts;
+    this.fetchSize = fetchSize;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!page.hasNext() && !exhausted) {
+      List<Account> next = accounts.getAllFrom(lastId, fetchSize);
+
+      if (!next.isEmpty()) lastId = next.get(next.size() - 1).getId();
+
+      exhausted = next.size() < fetchSize;
+      page      = next.iterator();
+    }
+
+    return page.hasNext();
+  }
+
+  @Override
+  public Account next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    return page.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
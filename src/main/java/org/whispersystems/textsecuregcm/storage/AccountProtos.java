@@ -0,0 +1,4185 @@
+// Generated by the protocol buffer compiler.  DO NOT EDIT!
+// source: AccountRecord.proto
+
+package org.whispersystems.textsecuregcm.storage;
+
+public final class AccountProtos {
+  private AccountProtos() {}
+  public static void registerAllExtensions(
+      com.google.protobuf.ExtensionRegistry registry) {
+  }
+  public interface AccountRecordOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string number = 1;
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    boolean hasNumber();
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    java.lang.String getNumber();
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getNumberBytes();
+
+    // optional string identityKey = 2;
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    boolean hasIdentityKey();
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    java.lang.String getIdentityKey();
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getIdentityKeyBytes();
+
+    // repeated .textsecure.DeviceRecord devices = 3;
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> 
+        getDevicesList();
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord getDevices(int index);
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    int getDevicesCount();
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    java.util.List<? extends org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder> 
+        getDevicesOrBuilderList();
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder getDevicesOrBuilder(
+        int index);
+
+    // optional uint64 version = 4;
+    /**
+     * <code>optional uint64 version = 4;</code>
+     */
+    boolean hasVersion();
+    /**
+     * <code>optional uint64 version = 4;</code>
+     */
+    long getVersion();
+  }
+  /**
+   * Protobuf type {@code textsecure.AccountRecord}
+   */
+  public static final class AccountRecord extends
+      com.google.protobuf.GeneratedMessage
+      implements AccountRecordOrBuilder {
+    // Use AccountRecord.newBuilder() to construct.
+    private AccountRecord(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private AccountRecord(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final AccountRecord defaultInstance;
+    public static AccountRecord getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public AccountRecord getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private AccountRecord(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              number_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              identityKey_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              if (!((mutable_bitField0_ & 0x00000004) == 0x00000004)) {
+                devices_ = new java.util.ArrayList<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord>();
+                mutable_bitField0_ |= 0x00000004;
+              }
+              devices_.add(input.readMessage(org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.PARSER, extensionRegistry));
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000004;
+              version_ = input.readUInt64();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        if (((mutable_bitField0_ & 0x00000004) == 0x00000004)) {
+          devices_ = java.util.Collections.unmodifiableList(devices_);
+        }
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_AccountRecord_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_AccountRecord_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<AccountRecord> PARSER =
+        new com.google.protobuf.AbstractParser<AccountRecord>() {
+      public AccountRecord parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new AccountRecord(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<AccountRecord> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string number = 1;
+    public static final int NUMBER_FIELD_NUMBER = 1;
+    private java.lang.Object number_;
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    public boolean hasNumber() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    public java.lang.String getNumber() {
+      java.lang.Object ref = number_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          number_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string number = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getNumberBytes() {
+      java.lang.Object ref = number_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        number_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string identityKey = 2;
+    public static final int IDENTITYKEY_FIELD_NUMBER = 2;
+    private java.lang.Object identityKey_;
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    public boolean hasIdentityKey() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    public java.lang.String getIdentityKey() {
+      java.lang.Object ref = identityKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          identityKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string identityKey = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getIdentityKeyBytes() {
+      java.lang.Object ref = identityKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        identityKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // repeated .textsecure.DeviceRecord devices = 3;
+    public static final int DEVICES_FIELD_NUMBER = 3;
+    private java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> devices_;
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    public java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> getDevicesList() {
+      return devices_;
+    }
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    public java.util.List<? extends org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder> 
+        getDevicesOrBuilderList() {
+      return devices_;
+    }
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    public int getDevicesCount() {
+      return devices_.size();
+    }
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord getDevices(int index) {
+      return devices_.get(index);
+    }
+    /**
+     * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+     */
+    public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder getDevicesOrBuilder(
+        int index) {
+      return devices_.get(index);
+    }
+
+    // optional uint64 version = 4;
+    public static final int VERSION_FIELD_NUMBER = 4;
+    private long version_;
+    /**
+     * <code>optional uint64 version = 4;</code>
+     */
+    public boolean hasVersion() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional uint64 version = 4;</code>
+     */
+    public long getVersion() {
+      return version_;
+    }
+
+    private void initFields() {
+      number_ = "";
+      identityKey_ = "";
+      devices_ = java.util.Collections.emptyList();
+      version_ = 0L;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getNumberBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getIdentityKeyBytes());
+      }
+      for (int i = 0; i < devices_.size(); i++) {
+        output.writeMessage(3, devices_.get(i));
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeUInt64(4, version_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getNumberBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getIdentityKeyBytes());
+      }
+      for (int i = 0; i < devices_.size(); i++) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(3, devices_.get(i));
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(4, version_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code textsecure.AccountRecord}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecordOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_AccountRecord_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_AccountRecord_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.Builder.class);
+      }
+
+      // Construct using org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getDevicesFieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        number_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        identityKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        if (devicesBuilder_ == null) {
+          devices_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000004);
+        } else {
+          devicesBuilder_.clear();
+        }
+        version_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_AccountRecord_descriptor;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord getDefaultInstanceForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.getDefaultInstance();
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord build() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord buildPartial() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord result = new org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.number_ = number_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.identityKey_ = identityKey_;
+        if (devicesBuilder_ == null) {
+          if (((bitField0_ & 0x00000004) == 0x00000004)) {
+            devices_ = java.util.Collections.unmodifiableList(devices_);
+            bitField0_ = (bitField0_ & ~0x00000004);
+          }
+          result.devices_ = devices_;
+        } else {
+          result.devices_ = devicesBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.version_ = version_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord) {
+          return mergeFrom((org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord other) {
+        if (other == org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord.getDefaultInstance()) return this;
+        if (other.hasNumber()) {
+          bitField0_ |= 0x00000001;
+          number_ = other.number_;
+          onChanged();
+        }
+        if (other.hasIdentityKey()) {
+          bitField0_ |= 0x00000002;
+          identityKey_ = other.identityKey_;
+          onChanged();
+        }
+        if (devicesBuilder_ == null) {
+          if (!other.devices_.isEmpty()) {
+            if (devices_.isEmpty()) {
+              devices_ = other.devices_;
+              bitField0_ = (bitField0_ & ~0x00000004);
+            } else {
+              ensureDevicesIsMutable();
+              devices_.addAll(other.devices_);
+            }
+            onChanged();
+          }
+        } else {
+          if (!other.devices_.isEmpty()) {
+            if (devicesBuilder_.isEmpty()) {
+              devicesBuilder_.dispose();
+              devicesBuilder_ = null;
+              devices_ = other.devices_;
+              bitField0_ = (bitField0_ & ~0x00000004);
+              devicesBuilder_ = 
+                com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders ?
+                   getDevicesFieldBuilder() : null;
+            } else {
+              devicesBuilder_.addAllMessages(other.devices_);
+            }
+          }
+        }
+        if (other.hasVersion()) {
+          setVersion(other.getVersion());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.whispersystems.textsecuregcm.storage.AccountProtos.AccountRecord) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string number = 1;
+      private java.lang.Object number_ = "";
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public boolean hasNumber() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public java.lang.String getNumber() {
+        java.lang.Object ref = number_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          number_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getNumberBytes() {
+        java.lang.Object ref = number_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          number_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public Builder setNumber(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        number_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public Builder clearNumber() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        number_ = getDefaultInstance().getNumber();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string number = 1;</code>
+       */
+      public Builder setNumberBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        number_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string identityKey = 2;
+      private java.lang.Object identityKey_ = "";
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public boolean hasIdentityKey() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public java.lang.String getIdentityKey() {
+        java.lang.Object ref = identityKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          identityKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getIdentityKeyBytes() {
+        java.lang.Object ref = identityKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          identityKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public Builder setIdentityKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        identityKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public Builder clearIdentityKey() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        identityKey_ = getDefaultInstance().getIdentityKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string identityKey = 2;</code>
+       */
+      public Builder setIdentityKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        identityKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // repeated .textsecure.DeviceRecord devices = 3;
+      private java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> devices_ =
+        java.util.Collections.emptyList();
+      private void ensureDevicesIsMutable() {
+        if (!((bitField0_ & 0x00000004) == 0x00000004)) {
+          devices_ = new java.util.ArrayList<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord>(devices_);
+          bitField0_ |= 0x00000004;
+         }
+      }
+
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder> devicesBuilder_;
+
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> getDevicesList() {
+        if (devicesBuilder_ == null) {
+          return java.util.Collections.unmodifiableList(devices_);
+        } else {
+          return devicesBuilder_.getMessageList();
+        }
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public int getDevicesCount() {
+        if (devicesBuilder_ == null) {
+          return devices_.size();
+        } else {
+          return devicesBuilder_.getCount();
+        }
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord getDevices(int index) {
+        if (devicesBuilder_ == null) {
+          return devices_.get(index);
+        } else {
+          return devicesBuilder_.getMessage(index);
+        }
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder setDevices(
+          int index, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord value) {
+        if (devicesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureDevicesIsMutable();
+          devices_.set(index, value);
+          onChanged();
+        } else {
+          devicesBuilder_.setMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder setDevices(
+          int index, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder builderForValue) {
+        if (devicesBuilder_ == null) {
+          ensureDevicesIsMutable();
+          devices_.set(index, builderForValue.build());
+          onChanged();
+        } else {
+          devicesBuilder_.setMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder addDevices(org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord value) {
+        if (devicesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureDevicesIsMutable();
+          devices_.add(value);
+          onChanged();
+        } else {
+          devicesBuilder_.addMessage(value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder addDevices(
+          int index, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord value) {
+        if (devicesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureDevicesIsMutable();
+          devices_.add(index, value);
+          onChanged();
+        } else {
+          devicesBuilder_.addMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder addDevices(
+          org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder builderForValue) {
+        if (devicesBuilder_ == null) {
+          ensureDevicesIsMutable();
+          devices_.add(builderForValue.build());
+          onChanged();
+        } else {
+          devicesBuilder_.addMessage(builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder addDevices(
+          int index, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder builderForValue) {
+        if (devicesBuilder_ == null) {
+          ensureDevicesIsMutable();
+          devices_.add(index, builderForValue.build());
+          onChanged();
+        } else {
+          devicesBuilder_.addMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder addAllDevices(
+          java.lang.Iterable<? extends org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord> values) {
+        if (devicesBuilder_ == null) {
+          ensureDevicesIsMutable();
+          super.addAll(values, devices_);
+          onChanged();
+        } else {
+          devicesBuilder_.addAllMessages(values);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder clearDevices() {
+        if (devicesBuilder_ == null) {
+          devices_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000004);
+          onChanged();
+        } else {
+          devicesBuilder_.clear();
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public Builder removeDevices(int index) {
+        if (devicesBuilder_ == null) {
+          ensureDevicesIsMutable();
+          devices_.remove(index);
+          onChanged();
+        } else {
+          devicesBuilder_.remove(index);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder getDevicesBuilder(
+          int index) {
+        return getDevicesFieldBuilder().getBuilder(index);
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder getDevicesOrBuilder(
+          int index) {
+        if (devicesBuilder_ == null) {
+          return devices_.get(index);  } else {
+          return devicesBuilder_.getMessageOrBuilder(index);
+        }
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public java.util.List<? extends org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder> 
+           getDevicesOrBuilderList() {
+        if (devicesBuilder_ != null) {
+          return devicesBuilder_.getMessageOrBuilderList();
+        } else {
+          return java.util.Collections.unmodifiableList(devices_);
+        }
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder addDevicesBuilder() {
+        return getDevicesFieldBuilder().addBuilder(
+            org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder addDevicesBuilder(
+          int index) {
+        return getDevicesFieldBuilder().addBuilder(
+            index, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .textsecure.DeviceRecord devices = 3;</code>
+       */
+      public java.util.List<org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder> 
+           getDevicesBuilderList() {
+        return getDevicesFieldBuilder().getBuilderList();
+      }
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder> 
+          getDevicesFieldBuilder() {
+        if (devicesBuilder_ == null) {
+          devicesBuilder_ = new com.google.protobuf.RepeatedFieldBuilder<
+              org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder>(
+                  devices_,
+                  ((bitField0_ & 0x00000004) == 0x00000004),
+                  getParentForChildren(),
+                  isClean());
+          devices_ = null;
+        }
+        return devicesBuilder_;
+      }
+
+      // optional uint64 version = 4;
+      private long version_ ;
+      /**
+       * <code>optional uint64 version = 4;</code>
+       */
+      public boolean hasVersion() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional uint64 version = 4;</code>
+       */
+      public long getVersion() {
+        return version_;
+      }
+      /**
+       * <code>optional uint64 version = 4;</code>
+       */
+      public Builder setVersion(long value) {
+        bitField0_ |= 0x00000008;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 version = 4;</code>
+       */
+      public Builder clearVersion() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        version_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:textsecure.AccountRecord)
+    }
+
+    static {
+      defaultInstance = new AccountRecord(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:textsecure.AccountRecord)
+  }
+
+  public interface DeviceRecordOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional uint64 id = 1;
+    /**
+     * <code>optional uint64 id = 1;</code>
+     */
+    boolean hasId();
+    /**
+     * <code>optional uint64 id = 1;</code>
+     */
+    long getId();
+
+    // optional string name = 2;
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    boolean hasName();
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    java.lang.String getName();
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getNameBytes();
+
+    // optional string authToken = 3;
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    boolean hasAuthToken();
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    java.lang.String getAuthToken();
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getAuthTokenBytes();
+
+    // optional string salt = 4;
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    boolean hasSalt();
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    java.lang.String getSalt();
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    com.google.protobuf.ByteString
+        getSaltBytes();
+
+    // optional string signalingKey = 5;
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    boolean hasSignalingKey();
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    java.lang.String getSignalingKey();
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    com.google.protobuf.ByteString
+        getSignalingKeyBytes();
+
+    // optional string gcmId = 6;
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    boolean hasGcmId();
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    java.lang.String getGcmId();
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    com.google.protobuf.ByteString
+        getGcmIdBytes();
+
+    // optional string apnId = 7;
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    boolean hasApnId();
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    java.lang.String getApnId();
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    com.google.protobuf.ByteString
+        getApnIdBytes();
+
+    // optional string voipApnId = 8;
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    boolean hasVoipApnId();
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    java.lang.String getVoipApnId();
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    com.google.protobuf.ByteString
+        getVoipApnIdBytes();
+
+    // optional uint64 pushTimestamp = 9;
+    /**
+     * <code>optional uint64 pushTimestamp = 9;</code>
+     */
+    boolean hasPushTimestamp();
+    /**
+     * <code>optional uint64 pushTimestamp = 9;</code>
+     */
+    long getPushTimestamp();
+
+    // optional bool fetchesMessages = 10;
+    /**
+     * <code>optional bool fetchesMessages = 10;</code>
+     */
+    boolean hasFetchesMessages();
+    /**
+     * <code>optional bool fetchesMessages = 10;</code>
+     */
+    boolean getFetchesMessages();
+
+    // optional uint32 registrationId = 11;
+    /**
+     * <code>optional uint32 registrationId = 11;</code>
+     */
+    boolean hasRegistrationId();
+    /**
+     * <code>optional uint32 registrationId = 11;</code>
+     */
+    int getRegistrationId();
+
+    // optional .textsecure.SignedPreKeyRecord signedPreKey = 12;
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    boolean hasSignedPreKey();
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord getSignedPreKey();
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder getSignedPreKeyOrBuilder();
+
+    // optional uint64 lastSeen = 13;
+    /**
+     * <code>optional uint64 lastSeen = 13;</code>
+     */
+    boolean hasLastSeen();
+    /**
+     * <code>optional uint64 lastSeen = 13;</code>
+     */
+    long getLastSeen();
+
+    // optional uint64 created = 14;
+    /**
+     * <code>optional uint64 created = 14;</code>
+     */
+    boolean hasCreated();
+    /**
+     * <code>optional uint64 created = 14;</code>
+     */
+    long getCreated();
+
+    // optional bool voice = 15;
+    /**
+     * <code>optional bool voice = 15;</code>
+     */
+    boolean hasVoice();
+    /**
+     * <code>optional bool voice = 15;</code>
+     */
+    boolean getVoice();
+
+    // optional string userAgent = 16;
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    boolean hasUserAgent();
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    java.lang.String getUserAgent();
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    com.google.protobuf.ByteString
+        getUserAgentBytes();
+  }
+  /**
+   * Protobuf type {@code textsecure.DeviceRecord}
+   */
+  public static final class DeviceRecord extends
+      com.google.protobuf.GeneratedMessage
+      implements DeviceRecordOrBuilder {
+    // Use DeviceRecord.newBuilder() to construct.
+    private DeviceRecord(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private DeviceRecord(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final DeviceRecord defaultInstance;
+    public static DeviceRecord getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public DeviceRecord getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private DeviceRecord(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              id_ = input.readUInt64();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              name_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              authToken_ = input.readBytes();
+              break;
+            }
+            case 34: {
+              bitField0_ |= 0x00000008;
+              salt_ = input.readBytes();
+              break;
+            }
+            case 42: {
+              bitField0_ |= 0x00000010;
+              signalingKey_ = input.readBytes();
+              break;
+            }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              gcmId_ = input.readBytes();
+              break;
+            }
+            case 58: {
+              bitField0_ |= 0x00000040;
+              apnId_ = input.readBytes();
+              break;
+            }
+            case 66: {
+              bitField0_ |= 0x00000080;
+              voipApnId_ = input.readBytes();
+              break;
+            }
+            case 72: {
+              bitField0_ |= 0x00000100;
+              pushTimestamp_ = input.readUInt64();
+              break;
+            }
+            case 80: {
+              bitField0_ |= 0x00000200;
+              fetchesMessages_ = input.readBool();
+              break;
+            }
+            case 88: {
+              bitField0_ |= 0x00000400;
+              registrationId_ = input.readUInt32();
+              break;
+            }
+            case 98: {
+              org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000800) == 0x00000800)) {
+                subBuilder = signedPreKey_.toBuilder();
+              }
+              signedPreKey_ = input.readMessage(org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(signedPreKey_);
+                signedPreKey_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000800;
+              break;
+            }
+            case 104: {
+              bitField0_ |= 0x00001000;
+              lastSeen_ = input.readUInt64();
+              break;
+            }
+            case 112: {
+              bitField0_ |= 0x00002000;
+              created_ = input.readUInt64();
+              break;
+            }
+            case 120: {
+              bitField0_ |= 0x00004000;
+              voice_ = input.readBool();
+              break;
+            }
+            case 130: {
+              bitField0_ |= 0x00008000;
+              userAgent_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_DeviceRecord_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_DeviceRecord_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<DeviceRecord> PARSER =
+        new com.google.protobuf.AbstractParser<DeviceRecord>() {
+      public DeviceRecord parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new DeviceRecord(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<DeviceRecord> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional uint64 id = 1;
+    public static final int ID_FIELD_NUMBER = 1;
+    private long id_;
+    /**
+     * <code>optional uint64 id = 1;</code>
+     */
+    public boolean hasId() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional uint64 id = 1;</code>
+     */
+    public long getId() {
+      return id_;
+    }
+
+    // optional string name = 2;
+    public static final int NAME_FIELD_NUMBER = 2;
+    private java.lang.Object name_;
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public boolean hasName() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public java.lang.String getName() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          name_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getNameBytes() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        name_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string authToken = 3;
+    public static final int AUTHTOKEN_FIELD_NUMBER = 3;
+    private java.lang.Object authToken_;
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    public boolean hasAuthToken() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    public java.lang.String getAuthToken() {
+      java.lang.Object ref = authToken_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          authToken_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string authToken = 3;</code>
+     */
+    public com.google.protobuf.ByteString
+        getAuthTokenBytes() {
+      java.lang.Object ref = authToken_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        authToken_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string salt = 4;
+    public static final int SALT_FIELD_NUMBER = 4;
+    private java.lang.Object salt_;
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    public boolean hasSalt() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    public java.lang.String getSalt() {
+      java.lang.Object ref = salt_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          salt_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string salt = 4;</code>
+     */
+    public com.google.protobuf.ByteString
+        getSaltBytes() {
+      java.lang.Object ref = salt_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        salt_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string signalingKey = 5;
+    public static final int SIGNALINGKEY_FIELD_NUMBER = 5;
+    private java.lang.Object signalingKey_;
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    public boolean hasSignalingKey() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    public java.lang.String getSignalingKey() {
+      java.lang.Object ref = signalingKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          signalingKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string signalingKey = 5;</code>
+     */
+    public com.google.protobuf.ByteString
+        getSignalingKeyBytes() {
+      java.lang.Object ref = signalingKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        signalingKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string gcmId = 6;
+    public static final int GCMID_FIELD_NUMBER = 6;
+    private java.lang.Object gcmId_;
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    public boolean hasGcmId() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    public java.lang.String getGcmId() {
+      java.lang.Object ref = gcmId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          gcmId_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string gcmId = 6;</code>
+     */
+    public com.google.protobuf.ByteString
+        getGcmIdBytes() {
+      java.lang.Object ref = gcmId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        gcmId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string apnId = 7;
+    public static final int APNID_FIELD_NUMBER = 7;
+    private java.lang.Object apnId_;
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    public boolean hasApnId() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    public java.lang.String getApnId() {
+      java.lang.Object ref = apnId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          apnId_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string apnId = 7;</code>
+     */
+    public com.google.protobuf.ByteString
+        getApnIdBytes() {
+      java.lang.Object ref = apnId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        apnId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string voipApnId = 8;
+    public static final int VOIPAPNID_FIELD_NUMBER = 8;
+    private java.lang.Object voipApnId_;
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    public boolean hasVoipApnId() {
+      return ((bitField0_ & 0x00000080) == 0x00000080);
+    }
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    public java.lang.String getVoipApnId() {
+      java.lang.Object ref = voipApnId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          voipApnId_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string voipApnId = 8;</code>
+     */
+    public com.google.protobuf.ByteString
+        getVoipApnIdBytes() {
+      java.lang.Object ref = voipApnId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        voipApnId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional uint64 pushTimestamp = 9;
+    public static final int PUSHTIMESTAMP_FIELD_NUMBER = 9;
+    private long pushTimestamp_;
+    /**
+     * <code>optional uint64 pushTimestamp = 9;</code>
+     */
+    public boolean hasPushTimestamp() {
+      return ((bitField0_ & 0x00000100) == 0x00000100);
+    }
+    /**
+     * <code>optional uint64 pushTimestamp = 9;</code>
+     */
+    public long getPushTimestamp() {
+      return pushTimestamp_;
+    }
+
+    // optional bool fetchesMessages = 10;
+    public static final int FETCHESMESSAGES_FIELD_NUMBER = 10;
+    private boolean fetchesMessages_;
+    /**
+     * <code>optional bool fetchesMessages = 10;</code>
+     */
+    public boolean hasFetchesMessages() {
+      return ((bitField0_ & 0x00000200) == 0x00000200);
+    }
+    /**
+     * <code>optional bool fetchesMessages = 10;</code>
+     */
+    public boolean getFetchesMessages() {
+      return fetchesMessages_;
+    }
+
+    // optional uint32 registrationId = 11;
+    public static final int REGISTRATIONID_FIELD_NUMBER = 11;
+    private int registrationId_;
+    /**
+     * <code>optional uint32 registrationId = 11;</code>
+     */
+    public boolean hasRegistrationId() {
+      return ((bitField0_ & 0x00000400) == 0x00000400);
+    }
+    /**
+     * <code>optional uint32 registrationId = 11;</code>
+     */
+    public int getRegistrationId() {
+      return registrationId_;
+    }
+
+    // optional .textsecure.SignedPreKeyRecord signedPreKey = 12;
+    public static final int SIGNEDPREKEY_FIELD_NUMBER = 12;
+    private org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord signedPreKey_;
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    public boolean hasSignedPreKey() {
+      return ((bitField0_ & 0x00000800) == 0x00000800);
+    }
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord getSignedPreKey() {
+      return signedPreKey_;
+    }
+    /**
+     * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+     */
+    public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder getSignedPreKeyOrBuilder() {
+      return signedPreKey_;
+    }
+
+    // optional uint64 lastSeen = 13;
+    public static final int LASTSEEN_FIELD_NUMBER = 13;
+    private long lastSeen_;
+    /**
+     * <code>optional uint64 lastSeen = 13;</code>
+     */
+    public boolean hasLastSeen() {
+      return ((bitField0_ & 0x00001000) == 0x00001000);
+    }
+    /**
+     * <code>optional uint64 lastSeen = 13;</code>
+     */
+    public long getLastSeen() {
+      return lastSeen_;
+    }
+
+    // optional uint64 created = 14;
+    public static final int CREATED_FIELD_NUMBER = 14;
+    private long created_;
+    /**
+     * <code>optional uint64 created = 14;</code>
+     */
+    public boolean hasCreated() {
+      return ((bitField0_ & 0x00002000) == 0x00002000);
+    }
+    /**
+     * <code>optional uint64 created = 14;</code>
+     */
+    public long getCreated() {
+      return created_;
+    }
+
+    // optional bool voice = 15;
+    public static final int VOICE_FIELD_NUMBER = 15;
+    private boolean voice_;
+    /**
+     * <code>optional bool voice = 15;</code>
+     */
+    public boolean hasVoice() {
+      return ((bitField0_ & 0x00004000) == 0x00004000);
+    }
+    /**
+     * <code>optional bool voice = 15;</code>
+     */
+    public boolean getVoice() {
+      return voice_;
+    }
+
+    // optional string userAgent = 16;
+    public static final int USERAGENT_FIELD_NUMBER = 16;
+    private java.lang.Object userAgent_;
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    public boolean hasUserAgent() {
+      return ((bitField0_ & 0x00008000) == 0x00008000);
+    }
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    public java.lang.String getUserAgent() {
+      java.lang.Object ref = userAgent_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          userAgent_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string userAgent = 16;</code>
+     */
+    public com.google.protobuf.ByteString
+        getUserAgentBytes() {
+      java.lang.Object ref = userAgent_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        userAgent_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    private void initFields() {
+      id_ = 0L;
+      name_ = "";
+      authToken_ = "";
+      salt_ = "";
+      signalingKey_ = "";
+      gcmId_ = "";
+      apnId_ = "";
+      voipApnId_ = "";
+      pushTimestamp_ = 0L;
+      fetchesMessages_ = false;
+      registrationId_ = 0;
+      signedPreKey_ = org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance();
+      lastSeen_ = 0L;
+      created_ = 0L;
+      voice_ = false;
+      userAgent_ = "";
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeUInt64(1, id_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getAuthTokenBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(4, getSaltBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBytes(5, getSignalingKeyBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, getGcmIdBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBytes(7, getApnIdBytes());
+      }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        output.writeBytes(8, getVoipApnIdBytes());
+      }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        output.writeUInt64(9, pushTimestamp_);
+      }
+      if (((bitField0_ & 0x00000200) == 0x00000200)) {
+        output.writeBool(10, fetchesMessages_);
+      }
+      if (((bitField0_ & 0x00000400) == 0x00000400)) {
+        output.writeUInt32(11, registrationId_);
+      }
+      if (((bitField0_ & 0x00000800) == 0x00000800)) {
+        output.writeMessage(12, signedPreKey_);
+      }
+      if (((bitField0_ & 0x00001000) == 0x00001000)) {
+        output.writeUInt64(13, lastSeen_);
+      }
+      if (((bitField0_ & 0x00002000) == 0x00002000)) {
+        output.writeUInt64(14, created_);
+      }
+      if (((bitField0_ & 0x00004000) == 0x00004000)) {
+        output.writeBool(15, voice_);
+      }
+      if (((bitField0_ & 0x00008000) == 0x00008000)) {
+        output.writeBytes(16, getUserAgentBytes());
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(1, id_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getAuthTokenBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(4, getSaltBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(5, getSignalingKeyBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, getGcmIdBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(7, getApnIdBytes());
+      }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(8, getVoipApnIdBytes());
+      }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(9, pushTimestamp_);
+      }
+      if (((bitField0_ & 0x00000200) == 0x00000200)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(10, fetchesMessages_);
+      }
+      if (((bitField0_ & 0x00000400) == 0x00000400)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(11, registrationId_);
+      }
+      if (((bitField0_ & 0x00000800) == 0x00000800)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(12, signedPreKey_);
+      }
+      if (((bitField0_ & 0x00001000) == 0x00001000)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(13, lastSeen_);
+      }
+      if (((bitField0_ & 0x00002000) == 0x00002000)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(14, created_);
+      }
+      if (((bitField0_ & 0x00004000) == 0x00004000)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(15, voice_);
+      }
+      if (((bitField0_ & 0x00008000) == 0x00008000)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(16, getUserAgentBytes());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code textsecure.DeviceRecord}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecordOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_DeviceRecord_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_DeviceRecord_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.Builder.class);
+      }
+
+      // Construct using org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getSignedPreKeyFieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        id_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        name_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        authToken_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        salt_ = "";
+        bitField0_ = (bitField0_ & ~0x00000008);
+        signalingKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000010);
+        gcmId_ = "";
+        bitField0_ = (bitField0_ & ~0x00000020);
+        apnId_ = "";
+        bitField0_ = (bitField0_ & ~0x00000040);
+        voipApnId_ = "";
+        bitField0_ = (bitField0_ & ~0x00000080);
+        pushTimestamp_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000100);
+        fetchesMessages_ = false;
+        bitField0_ = (bitField0_ & ~0x00000200);
+        registrationId_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000400);
+        if (signedPreKeyBuilder_ == null) {
+          signedPreKey_ = org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance();
+        } else {
+          signedPreKeyBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000800);
+        lastSeen_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00001000);
+        created_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00002000);
+        voice_ = false;
+        bitField0_ = (bitField0_ & ~0x00004000);
+        userAgent_ = "";
+        bitField0_ = (bitField0_ & ~0x00008000);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_DeviceRecord_descriptor;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord getDefaultInstanceForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.getDefaultInstance();
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord build() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord buildPartial() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord result = new org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.id_ = id_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.name_ = name_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.authToken_ = authToken_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.salt_ = salt_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.signalingKey_ = signalingKey_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.gcmId_ = gcmId_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.apnId_ = apnId_;
+        if (((from_bitField0_ & 0x00000080) == 0x00000080)) {
+          to_bitField0_ |= 0x00000080;
+        }
+        result.voipApnId_ = voipApnId_;
+        if (((from_bitField0_ & 0x00000100) == 0x00000100)) {
+          to_bitField0_ |= 0x00000100;
+        }
+        result.pushTimestamp_ = pushTimestamp_;
+        if (((from_bitField0_ & 0x00000200) == 0x00000200)) {
+          to_bitField0_ |= 0x00000200;
+        }
+        result.fetchesMessages_ = fetchesMessages_;
+        if (((from_bitField0_ & 0x00000400) == 0x00000400)) {
+          to_bitField0_ |= 0x00000400;
+        }
+        result.registrationId_ = registrationId_;
+        if (((from_bitField0_ & 0x00000800) == 0x00000800)) {
+          to_bitField0_ |= 0x00000800;
+        }
+        if (signedPreKeyBuilder_ == null) {
+          result.signedPreKey_ = signedPreKey_;
+        } else {
+          result.signedPreKey_ = signedPreKeyBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00001000) == 0x00001000)) {
+          to_bitField0_ |= 0x00001000;
+        }
+        result.lastSeen_ = lastSeen_;
+        if (((from_bitField0_ & 0x00002000) == 0x00002000)) {
+          to_bitField0_ |= 0x00002000;
+        }
+        result.created_ = created_;
+        if (((from_bitField0_ & 0x00004000) == 0x00004000)) {
+          to_bitField0_ |= 0x00004000;
+        }
+        result.voice_ = voice_;
+        if (((from_bitField0_ & 0x00008000) == 0x00008000)) {
+          to_bitField0_ |= 0x00008000;
+        }
+        result.userAgent_ = userAgent_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord) {
+          return mergeFrom((org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord other) {
+        if (other == org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord.getDefaultInstance()) return this;
+        if (other.hasId()) {
+          setId(other.getId());
+        }
+        if (other.hasName()) {
+          bitField0_ |= 0x00000002;
+          name_ = other.name_;
+          onChanged();
+        }
+        if (other.hasAuthToken()) {
+          bitField0_ |= 0x00000004;
+          authToken_ = other.authToken_;
+          onChanged();
+        }
+        if (other.hasSalt()) {
+          bitField0_ |= 0x00000008;
+          salt_ = other.salt_;
+          onChanged();
+        }
+        if (other.hasSignalingKey()) {
+          bitField0_ |= 0x00000010;
+          signalingKey_ = other.signalingKey_;
+          onChanged();
+        }
+        if (other.hasGcmId()) {
+          bitField0_ |= 0x00000020;
+          gcmId_ = other.gcmId_;
+          onChanged();
+        }
+        if (other.hasApnId()) {
+          bitField0_ |= 0x00000040;
+          apnId_ = other.apnId_;
+          onChanged();
+        }
+        if (other.hasVoipApnId()) {
+          bitField0_ |= 0x00000080;
+          voipApnId_ = other.voipApnId_;
+          onChanged();
+        }
+        if (other.hasPushTimestamp()) {
+          setPushTimestamp(other.getPushTimestamp());
+        }
+        if (other.hasFetchesMessages()) {
+          setFetchesMessages(other.getFetchesMessages());
+        }
+        if (other.hasRegistrationId()) {
+          setRegistrationId(other.getRegistrationId());
+        }
+        if (other.hasSignedPreKey()) {
+          mergeSignedPreKey(other.getSignedPreKey());
+        }
+        if (other.hasLastSeen()) {
+          setLastSeen(other.getLastSeen());
+        }
+        if (other.hasCreated()) {
+          setCreated(other.getCreated());
+        }
+        if (other.hasVoice()) {
+          setVoice(other.getVoice());
+        }
+        if (other.hasUserAgent()) {
+          bitField0_ |= 0x00008000;
+          userAgent_ = other.userAgent_;
+          onChanged();
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.whispersystems.textsecuregcm.storage.AccountProtos.DeviceRecord) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional uint64 id = 1;
+      private long id_ ;
+      /**
+       * <code>optional uint64 id = 1;</code>
+       */
+      public boolean hasId() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional uint64 id = 1;</code>
+       */
+      public long getId() {
+        return id_;
+      }
+      /**
+       * <code>optional uint64 id = 1;</code>
+       */
+      public Builder setId(long value) {
+        bitField0_ |= 0x00000001;
+        id_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 id = 1;</code>
+       */
+      public Builder clearId() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        id_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional string name = 2;
+      private java.lang.Object name_ = "";
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public boolean hasName() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public java.lang.String getName() {
+        java.lang.Object ref = name_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          name_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getNameBytes() {
+        java.lang.Object ref = name_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          name_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder setName(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder clearName() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        name_ = getDefaultInstance().getName();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder setNameBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string authToken = 3;
+      private java.lang.Object authToken_ = "";
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public boolean hasAuthToken() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public java.lang.String getAuthToken() {
+        java.lang.Object ref = authToken_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          authToken_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public com.google.protobuf.ByteString
+          getAuthTokenBytes() {
+        java.lang.Object ref = authToken_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          authToken_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public Builder setAuthToken(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        authToken_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public Builder clearAuthToken() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        authToken_ = getDefaultInstance().getAuthToken();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string authToken = 3;</code>
+       */
+      public Builder setAuthTokenBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        authToken_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string salt = 4;
+      private java.lang.Object salt_ = "";
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public boolean hasSalt() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public java.lang.String getSalt() {
+        java.lang.Object ref = salt_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          salt_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public com.google.protobuf.ByteString
+          getSaltBytes() {
+        java.lang.Object ref = salt_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          salt_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public Builder setSalt(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        salt_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public Builder clearSalt() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        salt_ = getDefaultInstance().getSalt();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string salt = 4;</code>
+       */
+      public Builder setSaltBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        salt_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string signalingKey = 5;
+      private java.lang.Object signalingKey_ = "";
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public boolean hasSignalingKey() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public java.lang.String getSignalingKey() {
+        java.lang.Object ref = signalingKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          signalingKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public com.google.protobuf.ByteString
+          getSignalingKeyBytes() {
+        java.lang.Object ref = signalingKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          signalingKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public Builder setSignalingKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        signalingKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public Builder clearSignalingKey() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        signalingKey_ = getDefaultInstance().getSignalingKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string signalingKey = 5;</code>
+       */
+      public Builder setSignalingKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        signalingKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string gcmId = 6;
+      private java.lang.Object gcmId_ = "";
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public boolean hasGcmId() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public java.lang.String getGcmId() {
+        java.lang.Object ref = gcmId_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          gcmId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public com.google.protobuf.ByteString
+          getGcmIdBytes() {
+        java.lang.Object ref = gcmId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          gcmId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public Builder setGcmId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        gcmId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public Builder clearGcmId() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        gcmId_ = getDefaultInstance().getGcmId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string gcmId = 6;</code>
+       */
+      public Builder setGcmIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        gcmId_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string apnId = 7;
+      private java.lang.Object apnId_ = "";
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public boolean hasApnId() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public java.lang.String getApnId() {
+        java.lang.Object ref = apnId_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          apnId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public com.google.protobuf.ByteString
+          getApnIdBytes() {
+        java.lang.Object ref = apnId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          apnId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public Builder setApnId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        apnId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public Builder clearApnId() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        apnId_ = getDefaultInstance().getApnId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string apnId = 7;</code>
+       */
+      public Builder setApnIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        apnId_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string voipApnId = 8;
+      private java.lang.Object voipApnId_ = "";
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public boolean hasVoipApnId() {
+        return ((bitField0_ & 0x00000080) == 0x00000080);
+      }
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public java.lang.String getVoipApnId() {
+        java.lang.Object ref = voipApnId_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          voipApnId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public com.google.protobuf.ByteString
+          getVoipApnIdBytes() {
+        java.lang.Object ref = voipApnId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          voipApnId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public Builder setVoipApnId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000080;
+        voipApnId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public Builder clearVoipApnId() {
+        bitField0_ = (bitField0_ & ~0x00000080);
+        voipApnId_ = getDefaultInstance().getVoipApnId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string voipApnId = 8;</code>
+       */
+      public Builder setVoipApnIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000080;
+        voipApnId_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional uint64 pushTimestamp = 9;
+      private long pushTimestamp_ ;
+      /**
+       * <code>optional uint64 pushTimestamp = 9;</code>
+       */
+      public boolean hasPushTimestamp() {
+        return ((bitField0_ & 0x00000100) == 0x00000100);
+      }
+      /**
+       * <code>optional uint64 pushTimestamp = 9;</code>
+       */
+      public long getPushTimestamp() {
+        return pushTimestamp_;
+      }
+      /**
+       * <code>optional uint64 pushTimestamp = 9;</code>
+       */
+      public Builder setPushTimestamp(long value) {
+        bitField0_ |= 0x00000100;
+        pushTimestamp_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 pushTimestamp = 9;</code>
+       */
+      public Builder clearPushTimestamp() {
+        bitField0_ = (bitField0_ & ~0x00000100);
+        pushTimestamp_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional bool fetchesMessages = 10;
+      private boolean fetchesMessages_ ;
+      /**
+       * <code>optional bool fetchesMessages = 10;</code>
+       */
+      public boolean hasFetchesMessages() {
+        return ((bitField0_ & 0x00000200) == 0x00000200);
+      }
+      /**
+       * <code>optional bool fetchesMessages = 10;</code>
+       */
+      public boolean getFetchesMessages() {
+        return fetchesMessages_;
+      }
+      /**
+       * <code>optional bool fetchesMessages = 10;</code>
+       */
+      public Builder setFetchesMessages(boolean value) {
+        bitField0_ |= 0x00000200;
+        fetchesMessages_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool fetchesMessages = 10;</code>
+       */
+      public Builder clearFetchesMessages() {
+        bitField0_ = (bitField0_ & ~0x00000200);
+        fetchesMessages_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional uint32 registrationId = 11;
+      private int registrationId_ ;
+      /**
+       * <code>optional uint32 registrationId = 11;</code>
+       */
+      public boolean hasRegistrationId() {
+        return ((bitField0_ & 0x00000400) == 0x00000400);
+      }
+      /**
+       * <code>optional uint32 registrationId = 11;</code>
+       */
+      public int getRegistrationId() {
+        return registrationId_;
+      }
+      /**
+       * <code>optional uint32 registrationId = 11;</code>
+       */
+      public Builder setRegistrationId(int value) {
+        bitField0_ |= 0x00000400;
+        registrationId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint32 registrationId = 11;</code>
+       */
+      public Builder clearRegistrationId() {
+        bitField0_ = (bitField0_ & ~0x00000400);
+        registrationId_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // optional .textsecure.SignedPreKeyRecord signedPreKey = 12;
+      private org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord signedPreKey_ = org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder> signedPreKeyBuilder_;
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public boolean hasSignedPreKey() {
+        return ((bitField0_ & 0x00000800) == 0x00000800);
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord getSignedPreKey() {
+        if (signedPreKeyBuilder_ == null) {
+          return signedPreKey_;
+        } else {
+          return signedPreKeyBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public Builder setSignedPreKey(org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord value) {
+        if (signedPreKeyBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          signedPreKey_ = value;
+          onChanged();
+        } else {
+          signedPreKeyBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000800;
+        return this;
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public Builder setSignedPreKey(
+          org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder builderForValue) {
+        if (signedPreKeyBuilder_ == null) {
+          signedPreKey_ = builderForValue.build();
+          onChanged();
+        } else {
+          signedPreKeyBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000800;
+        return this;
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public Builder mergeSignedPreKey(org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord value) {
+        if (signedPreKeyBuilder_ == null) {
+          if (((bitField0_ & 0x00000800) == 0x00000800) &&
+              signedPreKey_ != org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance()) {
+            signedPreKey_ =
+              org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.newBuilder(signedPreKey_).mergeFrom(value).buildPartial();
+          } else {
+            signedPreKey_ = value;
+          }
+          onChanged();
+        } else {
+          signedPreKeyBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000800;
+        return this;
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public Builder clearSignedPreKey() {
+        if (signedPreKeyBuilder_ == null) {
+          signedPreKey_ = org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance();
+          onChanged();
+        } else {
+          signedPreKeyBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000800);
+        return this;
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder getSignedPreKeyBuilder() {
+        bitField0_ |= 0x00000800;
+        onChanged();
+        return getSignedPreKeyFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder getSignedPreKeyOrBuilder() {
+        if (signedPreKeyBuilder_ != null) {
+          return signedPreKeyBuilder_.getMessageOrBuilder();
+        } else {
+          return signedPreKey_;
+        }
+      }
+      /**
+       * <code>optional .textsecure.SignedPreKeyRecord signedPreKey = 12;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder> 
+          getSignedPreKeyFieldBuilder() {
+        if (signedPreKeyBuilder_ == null) {
+          signedPreKeyBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder>(
+                  signedPreKey_,
+                  getParentForChildren(),
+                  isClean());
+          signedPreKey_ = null;
+        }
+        return signedPreKeyBuilder_;
+      }
+
+      // optional uint64 lastSeen = 13;
+      private long lastSeen_ ;
+      /**
+       * <code>optional uint64 lastSeen = 13;</code>
+       */
+      public boolean hasLastSeen() {
+        return ((bitField0_ & 0x00001000) == 0x00001000);
+      }
+      /**
+       * <code>optional uint64 lastSeen = 13;</code>
+       */
+      public long getLastSeen() {
+        return lastSeen_;
+      }
+      /**
+       * <code>optional uint64 lastSeen = 13;</code>
+       */
+      public Builder setLastSeen(long value) {
+        bitField0_ |= 0x00001000;
+        lastSeen_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 lastSeen = 13;</code>
+       */
+      public Builder clearLastSeen() {
+        bitField0_ = (bitField0_ & ~0x00001000);
+        lastSeen_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional uint64 created = 14;
+      private long created_ ;
+      /**
+       * <code>optional uint64 created = 14;</code>
+       */
+      public boolean hasCreated() {
+        return ((bitField0_ & 0x00002000) == 0x00002000);
+      }
+      /**
+       * <code>optional uint64 created = 14;</code>
+       */
+      public long getCreated() {
+        return created_;
+      }
+      /**
+       * <code>optional uint64 created = 14;</code>
+       */
+      public Builder setCreated(long value) {
+        bitField0_ |= 0x00002000;
+        created_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 created = 14;</code>
+       */
+      public Builder clearCreated() {
+        bitField0_ = (bitField0_ & ~0x00002000);
+        created_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional bool voice = 15;
+      private boolean voice_ ;
+      /**
+       * <code>optional bool voice = 15;</code>
+       */
+      public boolean hasVoice() {
+        return ((bitField0_ & 0x00004000) == 0x00004000);
+      }
+      /**
+       * <code>optional bool voice = 15;</code>
+       */
+      public boolean getVoice() {
+        return voice_;
+      }
+      /**
+       * <code>optional bool voice = 15;</code>
+       */
+      public Builder setVoice(boolean value) {
+        bitField0_ |= 0x00004000;
+        voice_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool voice = 15;</code>
+       */
+      public Builder clearVoice() {
+        bitField0_ = (bitField0_ & ~0x00004000);
+        voice_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional string userAgent = 16;
+      private java.lang.Object userAgent_ = "";
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public boolean hasUserAgent() {
+        return ((bitField0_ & 0x00008000) == 0x00008000);
+      }
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public java.lang.String getUserAgent() {
+        java.lang.Object ref = userAgent_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          userAgent_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public com.google.protobuf.ByteString
+          getUserAgentBytes() {
+        java.lang.Object ref = userAgent_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          userAgent_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public Builder setUserAgent(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00008000;
+        userAgent_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public Builder clearUserAgent() {
+        bitField0_ = (bitField0_ & ~0x00008000);
+        userAgent_ = getDefaultInstance().getUserAgent();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string userAgent = 16;</code>
+       */
+      public Builder setUserAgentBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00008000;
+        userAgent_ = value;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:textsecure.DeviceRecord)
+    }
+
+    static {
+      defaultInstance = new DeviceRecord(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:textsecure.DeviceRecord)
+  }
+
+  public interface SignedPreKeyRecordOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional uint64 keyId = 1;
+    /**
+     * <code>optional uint64 keyId = 1;</code>
+     */
+    boolean hasKeyId();
+    /**
+     * <code>optional uint64 keyId = 1;</code>
+     */
+    long getKeyId();
+
+    // optional string publicKey = 2;
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    boolean hasPublicKey();
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    java.lang.String getPublicKey();
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getPublicKeyBytes();
+
+    // optional string signature = 3;
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    boolean hasSignature();
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    java.lang.String getSignature();
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getSignatureBytes();
+  }
+  /**
+   * Protobuf type {@code textsecure.SignedPreKeyRecord}
+   */
+  public static final class SignedPreKeyRecord extends
+      com.google.protobuf.GeneratedMessage
+      implements SignedPreKeyRecordOrBuilder {
+    // Use SignedPreKeyRecord.newBuilder() to construct.
+    private SignedPreKeyRecord(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private SignedPreKeyRecord(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final SignedPreKeyRecord defaultInstance;
+    public static SignedPreKeyRecord getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public SignedPreKeyRecord getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private SignedPreKeyRecord(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              keyId_ = input.readUInt64();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              publicKey_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              signature_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_SignedPreKeyRecord_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_SignedPreKeyRecord_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<SignedPreKeyRecord> PARSER =
+        new com.google.protobuf.AbstractParser<SignedPreKeyRecord>() {
+      public SignedPreKeyRecord parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new SignedPreKeyRecord(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<SignedPreKeyRecord> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional uint64 keyId = 1;
+    public static final int KEYID_FIELD_NUMBER = 1;
+    private long keyId_;
+    /**
+     * <code>optional uint64 keyId = 1;</code>
+     */
+    public boolean hasKeyId() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional uint64 keyId = 1;</code>
+     */
+    public long getKeyId() {
+      return keyId_;
+    }
+
+    // optional string publicKey = 2;
+    public static final int PUBLICKEY_FIELD_NUMBER = 2;
+    private java.lang.Object publicKey_;
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    public boolean hasPublicKey() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    public java.lang.String getPublicKey() {
+      java.lang.Object ref = publicKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          publicKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string publicKey = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getPublicKeyBytes() {
+      java.lang.Object ref = publicKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        publicKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string signature = 3;
+    public static final int SIGNATURE_FIELD_NUMBER = 3;
+    private java.lang.Object signature_;
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    public boolean hasSignature() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    public java.lang.String getSignature() {
+      java.lang.Object ref = signature_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          signature_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string signature = 3;</code>
+     */
+    public com.google.protobuf.ByteString
+        getSignatureBytes() {
+      java.lang.Object ref = signature_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        signature_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    private void initFields() {
+      keyId_ = 0L;
+      publicKey_ = "";
+      signature_ = "";
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeUInt64(1, keyId_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getPublicKeyBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getSignatureBytes());
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(1, keyId_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getPublicKeyBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getSignatureBytes());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code textsecure.SignedPreKeyRecord}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecordOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_SignedPreKeyRecord_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_SignedPreKeyRecord_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.class, org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.Builder.class);
+      }
+
+      // Construct using org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        keyId_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        publicKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        signature_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.internal_static_textsecure_SignedPreKeyRecord_descriptor;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord getDefaultInstanceForType() {
+        return org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance();
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord build() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord buildPartial() {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord result = new org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.keyId_ = keyId_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.publicKey_ = publicKey_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.signature_ = signature_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord) {
+          return mergeFrom((org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord other) {
+        if (other == org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord.getDefaultInstance()) return this;
+        if (other.hasKeyId()) {
+          setKeyId(other.getKeyId());
+        }
+        if (other.hasPublicKey()) {
+          bitField0_ |= 0x00000002;
+          publicKey_ = other.publicKey_;
+          onChanged();
+        }
+        if (other.hasSignature()) {
+          bitField0_ |= 0x00000004;
+          signature_ = other.signature_;
+          onChanged();
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.whispersystems.textsecuregcm.storage.AccountProtos.SignedPreKeyRecord) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional uint64 keyId = 1;
+      private long keyId_ ;
+      /**
+       * <code>optional uint64 keyId = 1;</code>
+       */
+      public boolean hasKeyId() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional uint64 keyId = 1;</code>
+       */
+      public long getKeyId() {
+        return keyId_;
+      }
+      /**
+       * <code>optional uint64 keyId = 1;</code>
+       */
+      public Builder setKeyId(long value) {
+        bitField0_ |= 0x00000001;
+        keyId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint64 keyId = 1;</code>
+       */
+      public Builder clearKeyId() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        keyId_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional string publicKey = 2;
+      private java.lang.Object publicKey_ = "";
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public boolean hasPublicKey() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public java.lang.String getPublicKey() {
+        java.lang.Object ref = publicKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          publicKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getPublicKeyBytes() {
+        java.lang.Object ref = publicKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          publicKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public Builder setPublicKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        publicKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public Builder clearPublicKey() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        publicKey_ = getDefaultInstance().getPublicKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string publicKey = 2;</code>
+       */
+      public Builder setPublicKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        publicKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string signature = 3;
+      private java.lang.Object signature_ = "";
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public boolean hasSignature() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public java.lang.String getSignature() {
+        java.lang.Object ref = signature_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          signature_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public com.google.protobuf.ByteString
+          getSignatureBytes() {
+        java.lang.Object ref = signature_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          signature_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public Builder setSignature(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        signature_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public Builder clearSignature() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        signature_ = getDefaultInstance().getSignature();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string signature = 3;</code>
+       */
+      public Builder setSignatureBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        signature_ = value;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:textsecure.SignedPreKeyRecord)
+    }
+
+    static {
+      defaultInstance = new SignedPreKeyRecord(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:textsecure.SignedPreKeyRecord)
+  }
+
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_textsecure_AccountRecord_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_textsecure_AccountRecord_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_textsecure_DeviceRecord_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_textsecure_DeviceRecord_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_textsecure_SignedPreKeyRecord_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_textsecure_SignedPreKeyRecord_fieldAccessorTable;
+
+  public static com.google.protobuf.Descriptors.FileDescriptor
+      getDescriptor() {
+    return descriptor;
+  }
+  private static com.google.protobuf.Descriptors.FileDescriptor
+      descriptor;
+  static {
+    java.lang.String[] descriptorData = {
+      "\n\023AccountRecord.proto\022\ntextsecure\"p\n\rAcc" +
+      "ountRecord\022\016\n\006number\030\001 \001(\t\022\023\n\013identityKe" +
+      "y\030\002 \001(\t\022)\n\007devices\030\003 \003(\0132\030.textsecure.De" +
+      "viceRecord\022\017\n\007version\030\004 \001(\004\"\323\002\n\014DeviceRe" +
+      "cord\022\n\n\002id\030\001 \001(\004\022\014\n\004name\030\002 \001(\t\022\021\n\tauthTo" +
+      "ken\030\003 \001(\t\022\014\n\004salt\030\004 \001(\t\022\024\n\014signalingKey\030" +
+      "\005 \001(\t\022\r\n\005gcmId\030\006 \001(\t\022\r\n\005apnId\030\007 \001(\t\022\021\n\tv" +
+      "oipApnId\030\010 \001(\t\022\025\n\rpushTimestamp\030\t \001(\004\022\027\n" +
+      "\017fetchesMessages\030\n \001(\010\022\026\n\016registrationId" +
+      "\030\013 \001(\r\0224\n\014signedPreKey\030\014 \001(\0132\036.textsecur",
+      "e.SignedPreKeyRecord\022\020\n\010lastSeen\030\r \001(\004\022\017" +
+      "\n\007created\030\016 \001(\004\022\r\n\005voice\030\017 \001(\010\022\021\n\tuserAg" +
+      "ent\030\020 \001(\t\"I\n\022SignedPreKeyRecord\022\r\n\005keyId" +
+      "\030\001 \001(\004\022\021\n\tpublicKey\030\002 \001(\t\022\021\n\tsignature\030\003" +
+      " \001(\tB9\n(org.whispersystems.textsecuregcm" +
+      ".storageB\rAccountProtos"
+    };
+    com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
+      new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
+        public com.google.protobuf.ExtensionRegistry assignDescriptors(
+            com.google.protobuf.Descriptors.FileDescriptor root) {
+          descriptor = root;
+          internal_static_textsecure_AccountRecord_descriptor =
+            getDescriptor().getMessageTypes().get(0);
+          internal_static_textsecure_AccountRecord_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_textsecure_AccountRecord_descriptor,
+              new java.lang.String[] { "Number", "IdentityKey", "Devices", "Version", });
+          internal_static_textsecure_DeviceRecord_descriptor =
+            getDescriptor().getMessageTypes().get(1);
+          internal_static_textsecure_DeviceRecord_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_textsecure_DeviceRecord_descriptor,
+              new java.lang.String[] { "Id", "Name", "AuthToken", "Salt", "SignalingKey", "GcmId", "ApnId", "VoipApnId", "PushTimestamp", "FetchesMessages", "RegistrationId", "SignedPreKey", "LastSeen", "Created", "Voice", "UserAgent", });
+          internal_static_textsecure_SignedPreKeyRecord_descriptor =
+            getDescriptor().getMessageTypes().get(2);
+          internal_static_textsecure_SignedPreKeyRecord_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_textsecure_SignedPreKeyRecord_descriptor,
+              new java.lang.String[] { "KeyId", "PublicKey", "Signature", });
+          return null;
+        }
+      };
+    com.google.protobuf.Descriptors.FileDescriptor
+      .internalBuildGeneratedFileFrom(descriptorData,
+        new com.google.protobuf.Descriptors.FileDescriptor[] {
+        }, assigner);
+  }
+
+  // @@protoc_insertion_point(outer_class_scope)
+}
@@ -26,11 +26,13 @@ import org.skife.jdbi.v2.sqlobject.Binder;
 import org.skife.jdbi.v2.sqlobject.BinderFactory;
 import org.skife.jdbi.v2.sqlobject.BindingAnnotation;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.Transaction;
 import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.SystemMapper;
 
 import java.io.IOException;
@@ -42,47 +44,128 @@ import java.lang.annotation.Target;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
 public abstract class Accounts {
 
-  private static final String ID     = "id";
-  private static final String NUMBER = "number";
-  private static final String DATA   = "data";
+  private static final String ID      = "id";
+  private static final String NUMBER  = "number";
+  private static final String DATA    = "data";
+  private static final String BINARY  = "binary_data";
+  private static final String VERSION = "version";
+  private static final String CREATED = "created";
 
   private static final ObjectMapper mapper = SystemMapper.getMapper();
 
-  @SqlUpdate("INSERT INTO accounts (" + NUMBER + ", " + DATA + ") VALUES (:number, CAST(:data AS json))")
+  @SqlUpdate("INSERT INTO accounts (" + NUMBER + ", " + DATA + ", " + VERSION + ") VALUES (:number, CAST(:data AS json), :version)")
   @GetGeneratedKeys
   abstract long insertStep(@AccountBinder Account account);
 
-  @SqlUpdate("DELETE FROM accounts WHERE " + NUMBER + " = :number")
-  abstract void removeAccount(@Bind("number") String number);
+  @SqlUpdate("INSERT INTO accounts (" + NUMBER + ", " + BINARY + ", " + VERSION + ") VALUES (:number, :binary_data, :version)")
+  @GetGeneratedKeys
+  abstract long insertBinaryStep(@BinaryAccountBinder Account account);
+
+  @SqlQuery("DELETE FROM accounts WHERE " + NUMBER + " = :number RETURNING " + VERSION)
+  abstract Long removeAccount(@Bind("number") String number);
+
+  @SqlUpdate("UPDATE accounts SET " + DATA + " = CAST(:data AS json), " + BINARY + " = NULL, " + VERSION + " = " + VERSION + " + 1 " +
+             "WHERE " + NUMBER + " = :number AND " + VERSION + " = :version")
+  abstract int updateStep(@AccountBinder Account account);
+
+  @SqlUpdate("UPDATE accounts SET " + BINARY + " = :binary_data, " + DATA + " = NULL, " + VERSION + " = " + VERSION + " + 1 " +
+             "WHERE " + NUMBER + " = :number AND " + VERSION + " = :version")
+  abstract int updateBinaryStep(@BinaryAccountBinder Account account);
+
+  @SqlUpdate("INSERT INTO account_changes (" + NUMBER + ") VALUES (:number)")
+  abstract void insertChange(@Bind("number") String number);
+
+  @SqlBatch("INSERT INTO account_changes (" + NUMBER + ") VALUES (:number)")
+  abstract void insertChanges(@Bind("number") List<String> numbers);
 
-  @SqlUpdate("UPDATE accounts SET " + DATA + " = CAST(:data AS json) WHERE " + NUMBER + " = :number")
-  abstract void update(@AccountBinder Account account);
+  @Mapper(AccountChangeMapper.class)
+  @SqlQuery("SELECT * FROM account_changes WHERE " + CREATED + " >= :from AND " + CREATED + " < :to AND " + ID + " > :id ORDER BY " + ID + " LIMIT :limit")
+  abstract List<Pair<Long, String>> getChanges(@Bind("from") long from, @Bind("to") long to, @Bind("id") long afterId, @Bind("limit") int limit);
+
+  @SqlQuery("SELECT CAST(extract(epoch FROM clock_timestamp()) * 1000 AS bigint) - :window")
+  abstract long getChangeHorizon(@Bind("window") long windowMillis);
+
+  @SqlUpdate("DELETE FROM account_changes WHERE " + CREATED + " < :to")
+  abstract void removeChangesBefore(@Bind("to") long to);
+
+  @SqlBatch("UPDATE accounts SET " + VERSION + " = " + VERSION + " + 1, " + DATA + " = custom_json_object_set_key(" + DATA + ", 'devices', "                             +
+            "(SELECT COALESCE(json_agg(CASE WHEN CAST(device->>'id' AS bigint) = :device_id AND COALESCE(CAST(device->>'lastSeen' AS bigint), 0) < :last_seen " +
+            "THEN custom_json_object_set_key(device, 'lastSeen', :last_seen) ELSE device END), CAST('[]' AS json)) "                                                      +
+            "FROM json_array_elements(" + DATA + "->'devices') AS device)) "                                                                                             +
+            "WHERE " + NUMBER + " = :number AND " + DATA + " IS NOT NULL")
+  abstract int[] updateLastSeenStep(@Bind("number") List<String> numbers, @Bind("device_id") List<Long> deviceIds, @Bind("last_seen") List<Long> lastSeens);
 
   @Mapper(AccountMapper.class)
   @SqlQuery("SELECT * FROM accounts WHERE " + NUMBER + " = :number")
-  abstract Account get(@Bind("number") String number);
+  public abstract Account get(@Bind("number") String number);
 
-  @SqlQuery("SELECT COUNT(DISTINCT " + NUMBER + ") from accounts")
-  abstract long getCount();
+  @SqlQuery("SELECT COALESCE(SUM(count), 0) FROM account_count")
+  public abstract long getCount();
+
+  @SqlUpdate("WITH removed AS (DELETE FROM account_count RETURNING count) " +
+             "INSERT INTO account_count (count) SELECT COALESCE(SUM(count), 0) FROM removed")
+  public abstract void compactCount();
 
   @Mapper(AccountMapper.class)
-  @SqlQuery("SELECT * FROM accounts OFFSET :offset LIMIT :limit")
+  @SqlQuery("SELECT * FROM accounts ORDER BY " + ID + " OFFSET :offset LIMIT :limit")
   abstract List<Account> getAll(@Bind("offset") int offset, @Bind("limit") int length);
 
+  @Mapper(AccountMapper.class)
+  @SqlQuery("SELECT * FROM accounts WHERE " + ID + " > :id ORDER BY " + ID + " LIMIT :limit")
+  public abstract List<Account> getAllFrom(@Bind("id") long id, @Bind("limit") int length);
+
   @Mapper(AccountMapper.class)
   @SqlQuery("SELECT * FROM accounts")
   public abstract Iterator<Account> getAll();
 
   @Transaction(TransactionIsolationLevel.SERIALIZABLE)
   public long create(Account account) {
-    removeAccount(account.getNumber());
+    Long previous = removeAccount(account.getNumber());
+    account.setVersion(previous == null ? 0 : previous + 1);
+    insertChange(account.getNumber());
     return insertStep(account);
   }
 
+  @Transaction(TransactionIsolationLevel.SERIALIZABLE)
+  public long createBinary(Account account) {
+    Long previous = removeAccount(account.getNumber());
+    account.setVersion(previous == null ? 0 : previous + 1);
+    insertChange(account.getNumber());
+    return insertBinaryStep(account);
+  }
+
+  @Transaction
+  public int[] updateLastSeen(List<String> numbers, List<Long> deviceIds, List<Long> lastSeens) {
+    int[]        updated = updateLastSeenStep(numbers, deviceIds, lastSeens);
+    List<String> changed = new LinkedList<>();
+
+    for (int i=0;i<updated.length;i++) {
+      if (updated[i] > 0) changed.add(numbers.get(i));
+    }
+
+    if (!changed.isEmpty()) insertChanges(changed);
+    return updated;
+  }
+
+  @Transaction
+  public int update(Account account) {
+    int updated = updateStep(account);
+    if (updated > 0) insertChange(account.getNumber());
+    return updated;
+  }
+
+  @Transaction
+  public int updateBinary(Account account) {
+    int updated = updateBinaryStep(account);
+    if (updated > 0) insertChange(account.getNumber());
+    return updated;
+  }
+
   @SqlUpdate("VACUUM accounts")
   public abstract void vacuum();
 
@@ -92,8 +175,14 @@ public abstract class Accounts {
         throws SQLException
     {
       try {
-        Account account = mapper.readValue(resultSet.getString(DATA), Account.class);
-//        account.setId(resultSet.getLong(ID));
+        byte[]  binary  = resultSet.getBytes(BINARY);
+        Account account;
+
+        if (binary != null) account = AccountCodec.decode(binary);
+        else                account = mapper.readValue(resultSet.getString(DATA), Account.class);
+
+        account.setId(resultSet.getLong(ID));
+        account.setVersion(resultSet.getLong(VERSION));
 
         return account;
       } catch (IOException e) {
@@ -102,6 +191,15 @@ public abstract class Accounts {
     }
   }
 
+  public static class AccountChangeMapper implements ResultSetMapper<Pair<Long, String>> {
+    @Override
+    public Pair<Long, String> map(int i, ResultSet resultSet, StatementContext statementContext)
+        throws SQLException
+    {
+      return new Pair<>(resultSet.getLong(ID), resultSet.getString(NUMBER));
+    }
+  }
+
   @BindingAnnotation(AccountBinder.AccountBinderFactory.class)
   @Retention(RetentionPolicy.RUNTIME)
   @Target({ElementType.PARAMETER})
@@ -120,6 +218,7 @@ public abstract class Accounts {
 
               sql.bind(NUMBER, account.getNumber());
               sql.bind(DATA, serialized);
+              sql.bind(VERSION, account.getVersion());
             } catch (JsonProcessingException e) {
               throw new IllegalArgumentException(e);
             }
@@ -129,4 +228,26 @@ public abstract class Accounts {
     }
   }
 
+  @BindingAnnotation(BinaryAccountBinder.BinaryAccountBinderFactory.class)
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.PARAMETER})
+  public @interface BinaryAccountBinder {
+    public static class BinaryAccountBinderFactory implements BinderFactory {
+      @Override
+      public Binder build(Annotation annotation) {
+        return new Binder<BinaryAccountBinder, Account>() {
+          @Override
+          public void bind(SQLStatement<?> sql,
+                           BinaryAccountBinder accountBinder,
+                           Account account)
+          {
+            sql.bind(NUMBER, account.getNumber());
+            sql.bind(BINARY, AccountCodec.encode(account));
+            sql.bind(VERSION, account.getVersion());
+          }
+        };
+      }
+    }
+  }
+
 }
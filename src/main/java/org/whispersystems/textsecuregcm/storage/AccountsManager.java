@@ -17,18 +17,37 @@
 package org.whispersystems.textsecuregcm.storage;
 
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.SettableFuture;
+import org.skife.jdbi.v2.exceptions.DBIException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.SystemMapper;
 import org.whispersystems.textsecuregcm.util.Util;
 
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
@@ -37,59 +56,338 @@ public class AccountsManager {
 
   private final Logger logger = LoggerFactory.getLogger(AccountsManager.class);
 
-  private final Accounts         accounts;
-  private final JedisPool        cacheClient;
-  private final DirectoryManager directory;
-  private final ObjectMapper     mapper;
+  private final MetricRegistry metricRegistry  = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          coalescedMeter  = metricRegistry.meter(name(AccountsManager.class, "coalesced_loads"));
+  private final Meter          conflictMeter   = metricRegistry.meter(name(AccountsManager.class, "update_conflicts"));
+  private final Meter          absentHitMeter  = metricRegistry.meter(name(AccountsManager.class, "absent_hit"));
+  private final Meter          absentMissMeter = metricRegistry.meter(name(AccountsManager.class, "absent_miss"));
+
+  private static final int MAX_UPDATE_ATTEMPTS  = 5;
+  private static final int ABSENT_TTL_SECONDS   = 60;
+  private static final int LOAD_TIMEOUT_SECONDS = 10;
+
+  private static final long CHANGE_WINDOW_MILLIS = 60 * 1000;
+
+  /**
+   * How long logged account writes are kept for a directory update that hasn't run.
+   */
+  public static final long CHANGE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private static final String SERIALIZATION_FAILURE = "40001";
+
+  private static final String SET_ABSENT_SCRIPT = "if redis.call('exists', KEYS[1]) == 1 then\n" +
+                                                  "  return 0\n"                                  +
+                                                  "end\n"                                         +
+                                                  "redis.call('setex', KEYS[2], ARGV[1], '1')\n"  +
+                                                  "return 1";
+
+  private final ConcurrentHashMap<String, SettableFuture<Optional<Account>>> loading = new ConcurrentHashMap<>();
+
+  private final Accounts                accounts;
+  private final ReplicaRouter<Accounts> accountReplicas;
+  private final JedisPool               cacheClient;
+  private final DirectoryManager        directory;
+  private final ObjectMapper            mapper;
+
+  private final Optional<AccountCache> accountCache;
+  private final boolean                binaryCache;
+  private final boolean                binaryDatabase;
 
   public AccountsManager(Accounts accounts,
                          DirectoryManager directory,
                          JedisPool cacheClient)
   {
-    this.accounts    = accounts;
-    this.directory   = directory;
-    this.cacheClient = cacheClient;
-    this.mapper      = SystemMapper.getMapper();
+    this(new ReplicaRouter<>(accounts), directory, cacheClient, Optional.<AccountCache>absent(), false, false);
+  }
+
+  public AccountsManager(ReplicaRouter<Accounts> accounts,
+                         DirectoryManager directory,
+                         JedisPool cacheClient,
+                         Optional<AccountCache> accountCache,
+                         boolean binaryCache,
+                         boolean binaryDatabase)
+  {
+    this.accounts        = accounts.getPrimary();
+    this.accountReplicas = accounts;
+    this.directory       = directory;
+    this.cacheClient     = cacheClient;
+    this.accountCache    = accountCache;
+    this.binaryCache     = binaryCache;
+    this.binaryDatabase  = binaryDatabase;
+    this.mapper          = SystemMapper.getMapper();
   }
 
   public long getCount() {
-    return accounts.getCount();
+    return accountReplicas.getReplica().getCount();
+  }
+
+  /**
+   * Folds the account count's delta rows into a single row.
+   */
+  public void compactCount() {
+    accounts.compactCount();
   }
 
   public List<Account> getAll(int offset, int length) {
-    return accounts.getAll(offset, length);
+    return accountReplicas.getReplica().getAll(offset, length);
   }
 
   public Iterator<Account> getAll() {
-    return accounts.getAll();
+    return accountReplicas.getReplica().getAll();
+  }
+
+  /**
+   * Streams every account in id order, fetching fetchSize rows per query.
+   */
+  public Iterator<Account> getAll(int fetchSize) {
+    return new AccountIterator(accountReplicas.getReplica(), fetchSize);
+  }
+
+  /**
+   * Streams every account from the primary, for passes checkpointed against the primary's
+   * change log, which would miss writes a replica hasn't received yet.
+   */
+  public Iterator<Account> getAllFromPrimary(int fetchSize) {
+    return new AccountIterator(accounts, fetchSize);
+  }
+
+  public List<Account> getAllFrom(long id, int length) {
+    return accountReplicas.getReplica().getAllFrom(id, length);
+  }
+
+  /**
+   * Lists the id and number of each account write logged in [from, to), after the given
+   * change id.  Only bounds at or before {@link #getChangeHorizon()} see every write.
+   */
+  public List<Pair<Long, String>> getChanges(long from, long to, long afterId, int length) {
+    return accounts.getChanges(from, to, afterId, length);
+  }
+
+  /**
+   * The latest time by which every logged account write has committed, assuming none
+   * spends longer than {@link #CHANGE_WINDOW_MILLIS} between being logged and committing.
+   * Change ids are assigned before commit, so newer writes may still appear out of order.
+   */
+  public long getChangeHorizon() {
+    return accounts.getChangeHorizon(CHANGE_WINDOW_MILLIS);
+  }
+
+  public void removeChangesBefore(long to) {
+    accounts.removeChangesBefore(to);
   }
 
+  /**
+   * Registration replaces any existing account serializably, so a write which loses to a
+   * concurrent one is retried a bounded number of times.
+   */
   public void create(Account account) {
-    accounts.create(account);
+    for (int attempt = 1;; attempt++) {
+      try {
+        if (binaryDatabase) accounts.createBinary(account);
+        else                accounts.create(account);
+        break;
+      } catch (DBIException e) {
+        if (attempt >= MAX_UPDATE_ATTEMPTS || !isSerializationFailure(e)) throw e;
+        conflictMeter.mark();
+      }
+    }
+
     memcacheSet(account.getNumber(), account);
+    invalidateCache(account.getNumber());
     updateDirectory(account);
   }
 
-  public void update(Account account) {
-    memcacheSet(account.getNumber(), account);
-    accounts.update(account);
-    updateDirectory(account);
+  /**
+   * Writes an account the caller has already changed, provided nobody else has written
+   * it since it was read.  On a conflict the latest copy is read from the primary, the
+   * mutation is applied to it again, and the write is retried a bounded number of times.
+   */
+  public void update(Account account, Mutation mutation) {
+    Account current = account;
+
+    for (int attempt=1;;attempt++) {
+      int updated;
+
+      if (binaryDatabase) updated = accounts.updateBinary(current);
+      else                updated = accounts.update(current);
+
+      if (updated > 0) {
+        current.setVersion(current.getVersion() + 1);
+        account.setVersion(current.getVersion());
+
+        memcacheSet(current.getNumber(), current);
+        invalidateCache(current.getNumber());
+        updateDirectory(current);
+        return;
+      }
+
+      conflictMeter.mark();
+
+      if (attempt >= MAX_UPDATE_ATTEMPTS) {
+        throw new ConcurrentModificationException("Conflicting updates to account: " + account.getNumber());
+      }
+
+      current = accounts.get(account.getNumber());
+
+      if (current == null) {
+        logger.warn("Account removed during update: " + account.getNumber());
+        return;
+      }
+
+      mutation.apply(current);
+    }
+  }
+
+  /**
+   * Persists device lastSeen times without reading the accounts first.  JSON rows have
+   * just that field patched in a single batch and their cached copies dropped.  Binary
+   * rows, which can't be patched in place, and any number the patch didn't match are
+   * read from the primary and rewritten one account at a time through the versioned
+   * update.
+   */
+  public void updateLastSeen(List<String> numbers, List<Long> deviceIds, List<Long> lastSeens) {
+    Map<String, Map<Long, Long>> fallbacks = new HashMap<>();
+
+    if (binaryDatabase) {
+      for (int i=0;i<numbers.size();i++) {
+        addLastSeen(fallbacks, numbers.get(i), deviceIds.get(i), lastSeens.get(i));
+      }
+    } else {
+      int[] updated = accounts.updateLastSeen(numbers, deviceIds, lastSeens);
+
+      for (int i=0;i<updated.length;i++) {
+        if (updated[i] == 0) {
+          addLastSeen(fallbacks, numbers.get(i), deviceIds.get(i), lastSeens.get(i));
+        } else {
+          memcacheDelete(numbers.get(i));
+          invalidateCache(numbers.get(i));
+        }
+      }
+    }
+
+    for (Map.Entry<String, Map<Long, Long>> fallback : fallbacks.entrySet()) {
+      final Map<Long, Long> deviceLastSeens = fallback.getValue();
+
+      Mutation mutation = new Mutation() {
+        @Override
+        public void apply(Account account) {
+          for (Map.Entry<Long, Long> lastSeen : deviceLastSeens.entrySet()) {
+            Optional<Device> device = account.getDevice(lastSeen.getKey());
+
+            if (device.isPresent() && device.get().getLastSeen() < lastSeen.getValue()) {
+              device.get().setLastSeen(lastSeen.getValue());
+            }
+          }
+        }
+      };
+
+      try {
+        Optional<Account> account = getFromPrimary(fallback.getKey());
+        if (!account.isPresent()) continue;
+
+        mutation.apply(account.get());
+        update(account.get(), mutation);
+      } catch (ConcurrentModificationException e) {
+        logger.warn("Giving up on last seen update", e);
+      }
+    }
+  }
+
+  private void addLastSeen(Map<String, Map<Long, Long>> lastSeens, String number, long deviceId, long lastSeen) {
+    Map<Long, Long> devices = lastSeens.get(number);
+
+    if (devices == null) {
+      devices = new HashMap<>();
+      lastSeens.put(number, devices);
+    }
+
+    devices.put(deviceId, lastSeen);
   }
 
   public Optional<Account> get(String number) {
+    if (accountCache.isPresent()) {
+      Optional<Account> account = accountCache.get().get(number);
+      if (account.isPresent()) return account;
+    }
+
     Optional<Account> account = memcacheGet(number);
 
     if (!account.isPresent()) {
-      account = Optional.fromNullable(accounts.get(number));
+      if (memcacheIsAbsent(number)) return account;
+      account = load(number);
+    }
 
-      if (account.isPresent()) {
-        memcacheSet(number, account.get());
-      }
+    if (account.isPresent() && accountCache.isPresent()) {
+      accountCache.get().put(account.get());
     }
 
     return account;
   }
 
+  /**
+   * Reads an account from the database and fills the cache with it, letting only one
+   * such load per number run at a time.  Concurrent misses wait for that load and
+   * take a copy of its result, or read the primary themselves if it takes too long or
+   * they're interrupted.  A number a replica doesn't know may have just been
+   * registered, so it's only cached as absent once the primary agrees.
+   */
+  private Optional<Account> load(String number) {
+    SettableFuture<Optional<Account>> loader   = SettableFuture.create();
+    SettableFuture<Optional<Account>> inFlight = loading.putIfAbsent(number, loader);
+
+    if (inFlight != null) {
+      coalescedMeter.mark();
+
+      try {
+        Optional<Account> account = inFlight.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        if (account.isPresent()) return Optional.of(new Account(account.get()));
+        else                     return account;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Optional.fromNullable(accounts.get(number));
+      } catch (TimeoutException e) {
+        logger.warn("Timed out waiting for account load: " + number);
+        return Optional.fromNullable(accounts.get(number));
+      } catch (ExecutionException e) {
+        if      (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+        else if (e.getCause() instanceof Error)            throw (Error)e.getCause();
+        else                                               throw new RuntimeException(e.getCause());
+      }
+    }
+
+    try {
+      Accounts          source  = accountReplicas.getReplica();
+      Optional<Account> account = Optional.fromNullable(source.get(number));
+
+      if (!account.isPresent() && !accountReplicas.isPrimary(source)) {
+        source  = accounts;
+        account = Optional.fromNullable(source.get(number));
+      }
+
+      if      (account.isPresent() && accountReplicas.isPrimary(source)) memcacheSet(number, account.get());
+      else if (account.isPresent())                                      memcacheSetReplicated(number, account.get());
+      else                                                               memcacheSetAbsent(number);
+
+      loader.set(account.isPresent() ? Optional.of(new Account(account.get())) : account);
+
+      return account;
+    } catch (Throwable t) {
+      loader.setException(t);
+      throw t;
+    } finally {
+      loading.remove(number, loader);
+    }
+  }
+
+  /**
+   * Reads an account straight from the primary, bypassing every cache, for callers
+   * which must see the latest committed write.
+   */
+  public Optional<Account> getFromPrimary(String number) {
+    return Optional.fromNullable(accounts.get(number));
+  }
+
   public boolean isRelayListed(String number) {
     byte[]                  token   = Util.getContactToken(number);
     Optional<ClientContact> contact = directory.get(token);
@@ -107,28 +405,169 @@ public class AccountsManager {
     }
   }
 
+  private void invalidateCache(String number) {
+    if (accountCache.isPresent()) {
+      accountCache.get().invalidate(number);
+    }
+  }
+
   private String getKey(String number) {
     return Account.class.getSimpleName() + Account.MEMCACHE_VERION + number;
   }
 
+  private byte[] getBinaryKey(String number) {
+    return (Account.class.getSimpleName() + Account.MEMCACHE_BINARY_VERSION + number).getBytes();
+  }
+
+  private String getAbsentKey(String number) {
+    return Account.class.getSimpleName() + "Absent" + number;
+  }
+
+  private String getPresentKey(String number) {
+    return Account.class.getSimpleName() + "Present" + number;
+  }
+
+  /**
+   * Writes the configured encoding and deletes the other one, so that nodes
+   * reading either encoding never see a stale copy during a rollout.  Any
+   * negative entry for the number goes with it, which is what lets a newly
+   * created account be found straight away.
+   */
   private void memcacheSet(String number, Account account) {
     try (Jedis jedis = cacheClient.getResource()) {
-      jedis.set(getKey(number), mapper.writeValueAsString(account));
+      jedis.setex(getPresentKey(number), ABSENT_TTL_SECONDS, "1");
+
+      if (binaryCache) {
+        jedis.set(getBinaryKey(number), AccountCodec.encode(account));
+        jedis.del(getKey(number), getAbsentKey(number));
+      } else {
+        jedis.set(getKey(number), mapper.writeValueAsString(account));
+        jedis.del(getBinaryKey(number), getAbsentKey(number).getBytes());
+      }
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private void memcacheDelete(String number) {
+    try (Jedis jedis = cacheClient.getResource()) {
+      jedis.setex(getPresentKey(number), ABSENT_TTL_SECONDS, "1");
+      jedis.del(getKey(number), getAbsentKey(number));
+      jedis.del(getBinaryKey(number));
+    }
+  }
+
+  /**
+   * Caches a copy read from a replica, which may already be stale, for less than the
+   * replica lag bound.  It never replaces a copy written since.
+   */
+  private void memcacheSetReplicated(String number, Account account) {
+    long ttl = accountReplicas.getMaxLagMillis() / 2;
+
+    if (ttl <= 0) return;
+
+    try (Jedis jedis = cacheClient.getResource()) {
+      if (binaryCache) jedis.set(getBinaryKey(number), AccountCodec.encode(account), "NX".getBytes(), "PX".getBytes(), ttl);
+      else             jedis.set(getKey(number), mapper.writeValueAsString(account), "NX", "PX", ttl);
     } catch (JsonProcessingException e) {
       throw new IllegalArgumentException(e);
     }
   }
 
+  /**
+   * Remembers for a short while that a number isn't registered, so that traffic
+   * addressed to it doesn't reach the database on every request.  Every write of the
+   * account first leaves a marker for as long, so a load which read the database
+   * before a registration committed can't hide the new account once it's cached.
+   */
+  private void memcacheSetAbsent(String number) {
+    try (Jedis jedis = cacheClient.getResource()) {
+      jedis.eval(SET_ABSENT_SCRIPT, Arrays.asList(getPresentKey(number), getAbsentKey(number)),
+                 Collections.singletonList(String.valueOf(ABSENT_TTL_SECONDS)));
+    }
+  }
+
+  private boolean memcacheIsAbsent(String number) {
+    try (Jedis jedis = cacheClient.getResource()) {
+      if (jedis.exists(getAbsentKey(number))) {
+        absentHitMeter.mark();
+        return true;
+      }
+
+      absentMissMeter.mark();
+      return false;
+    }
+  }
+
   private Optional<Account> memcacheGet(String number) {
     try (Jedis jedis = cacheClient.getResource()) {
-      String json = jedis.get(getKey(number));
+      Optional<Account> account;
+
+      if (binaryCache) {
+        account = memcacheGetBinary(jedis, number);
+        if (!account.isPresent()) account = memcacheGetJson(jedis, number);
+      } else {
+        account = memcacheGetJson(jedis, number);
+        if (!account.isPresent()) account = memcacheGetBinary(jedis, number);
+      }
 
-      if (json != null) return Optional.of(mapper.readValue(json, Account.class));
-      else              return Optional.absent();
+      return account;
     } catch (IOException e) {
       logger.warn("AccountsManager", "Deserialization error", e);
       return Optional.absent();
     }
   }
 
+  private Optional<Account> memcacheGetJson(Jedis jedis, String number) throws IOException {
+    String json = jedis.get(getKey(number));
+
+    if (json != null) return Optional.of(mapper.readValue(json, Account.class));
+    else              return Optional.absent();
+  }
+
+  private Optional<Account> memcacheGetBinary(Jedis jedis, String number) throws IOException {
+    byte[] serialized = jedis.get(getBinaryKey(number));
+
+    if (serialized != null) return Optional.of(AccountCodec.decode(serialized));
+    else                    return Optional.absent();
+  }
+
+  private static boolean isSerializationFailure(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException && SERIALIZATION_FAILURE.equals(((SQLException)cause).getSQLState())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public interface Mutation {
+    public void apply(Account account);
+  }
+
+  /**
+   * A mutation of a single device, which leaves accounts that no longer
+   * have that device untouched.
+   */
+  public static abstract class DeviceMutation implements Mutation {
+
+    private final long deviceId;
+
+    public DeviceMutation(long deviceId) {
+      this.deviceId = deviceId;
+    }
+
+    @Override
+    public void apply(Account account) {
+      Optional<Device> device = account.getDevice(deviceId);
+
+      if (device.isPresent()) {
+        apply(device.get());
+      }
+    }
+
+    public abstract void apply(Device device);
+  }
+
 }
@@ -102,6 +102,17 @@ public class Device {
     this.userAgent       = userAgent;
   }
 
+  public Device(Device device) {
+    this(device.id, device.name, device.authToken, device.salt,
+         device.signalingKey, device.gcmId, device.apnId,
+         device.voipApnId, device.fetchesMessages,
+         device.registrationId, device.signedPreKey,
+         device.lastSeen, device.created, device.voice,
+         device.userAgent);
+
+    this.pushTimestamp = device.pushTimestamp;
+  }
+
   public String getApnId() {
     return apnId;
   }
@@ -230,6 +241,10 @@ public class Device {
     return pushTimestamp;
   }
 
+  void setPushTimestamp(long pushTimestamp) {
+    this.pushTimestamp = pushTimestamp;
+  }
+
   public void setUserAgent(String userAgent) {
     this.userAgent = userAgent;
   }
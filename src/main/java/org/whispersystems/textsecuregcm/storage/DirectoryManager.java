@@ -20,7 +20,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.protobuf.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.ClientContact;
@@ -29,27 +31,68 @@ import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.Util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import static org.whispersystems.textsecuregcm.storage.PubSubProtos.PubSubMessage;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 public class DirectoryManager {
 
   private final Logger logger = LoggerFactory.getLogger(DirectoryManager.class);
 
-  private static final byte[] DIRECTORY_KEY = {'d', 'i', 'r', 'e', 'c', 't', 'o', 'r', 'y'};
+  private static final byte[] DIRECTORY_KEY  = {'d', 'i', 'r', 'e', 'c', 't', 'o', 'r', 'y'};
+  private static final byte[] STAGING_KEY    = "directory:next".getBytes();
+  private static final String CHECKPOINT_KEY = "directory:checkpoint";
+
+  static final PubSubAddress CHANGES_ADDRESS = new PubSubAddress() {
+    @Override
+    public String serialize() {
+      return "DIRECTORY_CHANGES";
+    }
+  };
+
+  private static final byte[] CHANGES_CHANNEL = CHANGES_ADDRESS.serialize().getBytes();
+
+  private static final int FLAG_PRESENT = 0x01;
+  private static final int FLAG_VOICE   = 0x02;
+
+  private static final int VALUE_BINARY = 0x80;
+  private static final int VALUE_VOICE  = 0x01;
+  private static final int VALUE_RELAY  = 0x02;
+
+  private static final byte[] REPLACE_SCRIPT = ("if redis.call('hget', KEYS[1], ARGV[1]) ~= ARGV[2] then\n" +
+                                                "  return 0\n"                                              +
+                                                "end\n"                                                     +
+                                                "if ARGV[3] == '' then\n"                                   +
+                                                "  redis.call('hdel', KEYS[1], ARGV[1])\n"                  +
+                                                "else\n"                                                    +
+                                                "  redis.call('hset', KEYS[1], ARGV[1], ARGV[3])\n"         +
+                                                "end\n"                                                     +
+                                                "redis.call('publish', ARGV[4], ARGV[5])\n"                 +
+                                                "return 1").getBytes();
+
+  private static final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
-  private final ObjectMapper objectMapper;
   private final JedisPool redisPool;
+  private final boolean   binaryValues;
 
   public DirectoryManager(JedisPool redisPool) {
+    this(redisPool, false);
+  }
+
+  public DirectoryManager(JedisPool redisPool, boolean binaryValues) {
     this.redisPool    = redisPool;
-    this.objectMapper = new ObjectMapper();
-    this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    this.binaryValues = binaryValues;
   }
 
   public void remove(String number) {
@@ -63,19 +106,20 @@ public class DirectoryManager {
   public void remove(byte[] token) {
     try (Jedis jedis = redisPool.getResource()) {
       jedis.hdel(DIRECTORY_KEY, token);
+      jedis.publish(CHANGES_CHANNEL, encodeChange(token, Optional.<ClientContact>absent()));
     }
   }
 
   public void remove(BatchOperationHandle handle, byte[] token) {
     Pipeline pipeline = handle.pipeline;
     pipeline.hdel(DIRECTORY_KEY, token);
+    pipeline.publish(CHANGES_CHANNEL, encodeChange(token, Optional.<ClientContact>absent()));
   }
 
   public void add(ClientContact contact) {
-    TokenValue tokenValue = new TokenValue(contact.getRelay(), contact.isVoice());
-
     try (Jedis jedis = redisPool.getResource()) {
-      jedis.hset(DIRECTORY_KEY, contact.getToken(), objectMapper.writeValueAsBytes(tokenValue));
+      jedis.hset(DIRECTORY_KEY, contact.getToken(), encodeValue(contact));
+      jedis.publish(CHANGES_CHANNEL, encodeChange(contact.getToken(), Optional.of(contact)));
     } catch (JsonProcessingException e) {
       logger.warn("JSON Serialization", e);
     }
@@ -83,18 +127,144 @@ public class DirectoryManager {
 
   public void add(BatchOperationHandle handle, ClientContact contact) {
     try {
-      Pipeline   pipeline   = handle.pipeline;
-      TokenValue tokenValue = new TokenValue(contact.getRelay(), contact.isVoice());
+      Pipeline pipeline = handle.pipeline;
 
-      pipeline.hset(DIRECTORY_KEY, contact.getToken(), objectMapper.writeValueAsBytes(tokenValue));
+      pipeline.hset(DIRECTORY_KEY, contact.getToken(), encodeValue(contact));
+      pipeline.publish(CHANGES_CHANNEL, encodeChange(contact.getToken(), Optional.of(contact)));
     } catch (JsonProcessingException e) {
       logger.warn("JSON Serialization", e);
     }
   }
 
+  /**
+   * Adds a contact only if its token has no entry yet, as when a peer syncs a token
+   * nobody else has claimed.  Once the response shows it was added, the change is
+   * announced with {@link #publishAdded}, so that replicas never see a lost race.
+   */
+  public Response<Long> addIfAbsent(BatchOperationHandle handle, ClientContact contact) throws JsonProcessingException {
+    return handle.pipeline.hsetnx(DIRECTORY_KEY, contact.getToken(), encodeValue(contact));
+  }
+
+  public void publishAdded(BatchOperationHandle handle, ClientContact contact) {
+    handle.pipeline.publish(CHANGES_CHANNEL, encodeChange(contact.getToken(), Optional.of(contact)));
+  }
+
+  /**
+   * Replaces, or removes when absent, a contact whose entry still holds the value it
+   * was read with, and publishes the change.  Returns false if the entry was written
+   * by someone else in the meantime.
+   */
+  public boolean replace(PendingClientContact stored, Optional<ClientContact> contact) throws JsonProcessingException {
+    byte[] expected = stored.response.get();
+
+    if (expected == null) {
+      throw new IllegalArgumentException("No stored entry to replace");
+    }
+
+    try (Jedis jedis = redisPool.getResource()) {
+      List<byte[]> keys = Collections.singletonList(DIRECTORY_KEY);
+      List<byte[]> args = new LinkedList<>();
+      args.add(stored.token);
+      args.add(expected);
+      args.add(contact.isPresent() ? encodeValue(contact.get()) : new byte[0]);
+      args.add(CHANGES_CHANNEL);
+      args.add(encodeChange(stored.token, contact));
+
+      return Long.valueOf(1).equals(jedis.eval(REPLACE_SCRIPT, keys, args));
+    }
+  }
+
+  /**
+   * Staged entries are written to a separate hash and published to no one, until
+   * {@link #commitStaging()} swaps the whole hash in at once.
+   */
+  public void clearStaging() {
+    try (Jedis jedis = redisPool.getResource()) {
+      jedis.del(STAGING_KEY);
+    }
+  }
+
+  public void addStaged(BatchOperationHandle handle, ClientContact contact) {
+    try {
+      handle.pipeline.hset(STAGING_KEY, contact.getToken(), encodeValue(contact));
+    } catch (JsonProcessingException e) {
+      logger.warn("JSON Serialization", e);
+    }
+  }
+
+  public void addStagedIfAbsent(BatchOperationHandle handle, ClientContact contact) {
+    try {
+      handle.pipeline.hsetnx(STAGING_KEY, contact.getToken(), encodeValue(contact));
+    } catch (JsonProcessingException e) {
+      logger.warn("JSON Serialization", e);
+    }
+  }
+
+  /**
+   * Atomically replaces the directory with the staged hash, and tells replicas
+   * to reload since the swap publishes no individual changes.
+   */
+  public void commitStaging() {
+    try (Jedis jedis = redisPool.getResource()) {
+      if (jedis.exists(STAGING_KEY)) jedis.rename(STAGING_KEY, DIRECTORY_KEY);
+      else                           jedis.del(DIRECTORY_KEY);
+
+      jedis.publish(CHANGES_CHANNEL, encodeChange(new byte[0], Optional.<ClientContact>absent()));
+    }
+  }
+
+  /**
+   * The time before which every account change has been applied to the directory,
+   * which is kept alongside it so that losing the directory also forces a full rebuild.
+   */
+  public Optional<Long> getCheckpoint() {
+    try (Jedis jedis = redisPool.getResource()) {
+      String checkpoint = jedis.get(CHECKPOINT_KEY);
+
+      if (checkpoint == null) return Optional.absent();
+      else                    return Optional.of(Long.parseLong(checkpoint));
+    }
+  }
+
+  public void setCheckpoint(long checkpoint) {
+    try (Jedis jedis = redisPool.getResource()) {
+      jedis.set(CHECKPOINT_KEY, String.valueOf(checkpoint));
+    }
+  }
+
+  /**
+   * Reads one page of the directory hash, for replicas which load it wholesale.
+   * The returned cursor is {@link ScanParams#SCAN_POINTER_START} once the scan is complete.
+   */
+  public Pair<String, List<ClientContact>> scan(String cursor, int count) {
+    try (Jedis jedis = redisPool.getResource()) {
+      ScanResult<Map.Entry<byte[], byte[]>> page     = jedis.hscan(DIRECTORY_KEY, cursor.getBytes(), new ScanParams().count(count));
+      List<ClientContact>                   contacts = new LinkedList<>();
+
+      for (Map.Entry<byte[], byte[]> entry : page.getResult()) {
+        try {
+          contacts.add(decodeValue(entry.getKey(), entry.getValue()));
+        } catch (IOException e) {
+          logger.warn("Deserialization Problem: ", e);
+        }
+      }
+
+      return new Pair<>(page.getStringCursor(), contacts);
+    }
+  }
+
   public PendingClientContact get(BatchOperationHandle handle, byte[] token) {
     Pipeline pipeline = handle.pipeline;
-    return new PendingClientContact(objectMapper, token, pipeline.hget(DIRECTORY_KEY, token));
+    return new PendingClientContact(token, pipeline.hget(DIRECTORY_KEY, token));
+  }
+
+  /**
+   * Whether a stored entry already holds exactly what writing this contact would,
+   * in the encoding currently being written, so that rewriting it can be skipped.
+   */
+  public boolean isUnchanged(PendingClientContact stored, ClientContact contact) throws JsonProcessingException {
+    byte[] value = stored.response.get();
+    return value != null && Arrays.equals(value, encodeValue(contact));
   }
 
   public Optional<ClientContact> get(byte[] token) {
@@ -105,10 +275,9 @@ public class DirectoryManager {
         return Optional.absent();
       }
 
-      TokenValue tokenValue = objectMapper.readValue(result, TokenValue.class);
-      return Optional.of(new ClientContact(token, tokenValue.relay, tokenValue.voice));
+      return Optional.of(decodeValue(token, result));
     } catch (IOException e) {
-      logger.warn("JSON Error", e);
+      logger.warn("Deserialization Problem: ", e);
       return Optional.absent();
     }
   }
@@ -132,10 +301,7 @@ public class DirectoryManager {
       for (Pair<byte[], Response<byte[]>> pair : lists) {
         try {
           if (pair.second().get() != null) {
-            TokenValue    tokenValue    = objectMapper.readValue(pair.second().get(), TokenValue.class);
-            ClientContact clientContact = new ClientContact(pair.first(), tokenValue.relay, tokenValue.voice);
-
-            results.add(clientContact);
+            results.add(decodeValue(pair.first(), pair.second().get()));
           }
         } catch (IOException e) {
           logger.warn("Deserialization Problem: ", e);
@@ -146,11 +312,98 @@ public class DirectoryManager {
     }
   }
 
+  /**
+   * Values are written either as legacy JSON or as a single flags byte, with its
+   * high bit set, followed by the relay name if there is one.  JSON values always
+   * begin with '{', so both can be read back during a migration between the two.
+   */
+  private byte[] encodeValue(ClientContact contact) throws JsonProcessingException {
+    if (!binaryValues) {
+      return objectMapper.writeValueAsBytes(new TokenValue(contact.getRelay(), contact.isVoice()));
+    }
+
+    byte[] relay = contact.getRelay() == null ? new byte[0] : contact.getRelay().getBytes(Charsets.UTF_8);
+    int    flags = VALUE_BINARY;
+
+    if (contact.isVoice()) flags |= VALUE_VOICE;
+    if (relay.length > 0)  flags |= VALUE_RELAY;
+
+    return ByteBuffer.allocate(1 + relay.length).put((byte)flags).put(relay).array();
+  }
+
+  private static ClientContact decodeValue(byte[] token, byte[] value) throws IOException {
+    if (value.length == 0 || (value[0] & VALUE_BINARY) == 0) {
+      TokenValue tokenValue = objectMapper.readValue(value, TokenValue.class);
+      return new ClientContact(token, tokenValue.relay, tokenValue.voice);
+    }
+
+    String relay = null;
+
+    if ((value[0] & VALUE_RELAY) != 0) {
+      relay = new String(value, 1, value.length - 1, Charsets.UTF_8);
+    }
+
+    return new ClientContact(token, relay, (value[0] & VALUE_VOICE) != 0);
+  }
+
+  /**
+   * Each add or remove is published with the token, a flags byte and the relay,
+   * so that replicas can apply it without reading the directory back.  An empty
+   * token asks replicas to reload the whole directory.
+   */
+  public static byte[] encodeChange(byte[] token, Optional<ClientContact> contact) {
+    byte[] relay = new byte[0];
+    int    flags = 0;
+
+    if (contact.isPresent()) {
+      flags |= FLAG_PRESENT;
+
+      if (contact.get().isVoice())          flags |= FLAG_VOICE;
+      if (contact.get().getRelay() != null) relay  = contact.get().getRelay().getBytes(Charsets.UTF_8);
+    }
+
+    PubSubMessage message = PubSubMessage.newBuilder()
+                                         .setType(PubSubMessage.Type.DELIVER)
+                                         .setContent(ByteString.copyFrom(ByteBuffer.allocate(2 + token.length + relay.length)
+                                                                                   .put((byte)token.length)
+                                                                                   .put(token)
+                                                                                   .put((byte)flags)
+                                                                                   .put(relay)
+                                                                                   .array()))
+                                         .build();
+
+    return message.toByteArray();
+  }
+
+  static Pair<byte[], Optional<ClientContact>> decodeChange(byte[] content) {
+    ByteBuffer buffer = ByteBuffer.wrap(content);
+    byte[]     token  = new byte[buffer.get() & 0xff];
+
+    buffer.get(token);
+
+    int    flags = buffer.get();
+    byte[] relay = new byte[buffer.remaining()];
+
+    buffer.get(relay);
+
+    if ((flags & FLAG_PRESENT) == 0) {
+      return new Pair<>(token, Optional.<ClientContact>absent());
+    }
+
+    return new Pair<>(token, Optional.of(new ClientContact(token,
+                                                           relay.length == 0 ? null : new String(relay, Charsets.UTF_8),
+                                                           (flags & FLAG_VOICE) != 0)));
+  }
+
   public BatchOperationHandle startBatchOperation() {
     Jedis jedis = redisPool.getResource();
     return new BatchOperationHandle(jedis, jedis.pipelined());
   }
 
+  public void flushBatchOperation(BatchOperationHandle handle) {
+    handle.pipeline.sync();
+  }
+
   public void stopBatchOperation(BatchOperationHandle handle) {
     Pipeline pipeline = handle.pipeline;
     Jedis    jedis    = handle.jedis;
@@ -187,14 +440,12 @@ public class DirectoryManager {
   }
 
   public static class PendingClientContact {
-    private final ObjectMapper     objectMapper;
     private final byte[]           token;
     private final Response<byte[]> response;
 
-    PendingClientContact(ObjectMapper objectMapper, byte[] token, Response<byte[]> response) {
-      this.objectMapper = objectMapper;
-      this.token        = token;
-      this.response     = response;
+    PendingClientContact(byte[] token, Response<byte[]> response) {
+      this.token    = token;
+      this.response = response;
     }
 
     public Optional<ClientContact> get() throws IOException {
@@ -204,8 +455,7 @@ public class DirectoryManager {
         return Optional.absent();
       }
 
-      TokenValue tokenValue = objectMapper.readValue(result, TokenValue.class);
-      return Optional.of(new ClientContact(token, tokenValue.relay, tokenValue.voice));
+      return Optional.of(decodeValue(token, result));
     }
 
   }
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Records device lastSeen touches in memory and writes them behind in periodic
+ * batches, so that the daily rollover doesn't turn every reconnect into an
+ * account update at the same moment.  Touches are patched by number and device
+ * without reading the accounts first.
+ */
+public class LastSeenFlusher implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LastSeenFlusher.class);
+
+  private static final long FLUSH_INTERVAL_SECONDS = 30;
+  private static final int  BATCH_SIZE             = 100;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          touchedMeter   = metricRegistry.meter(name(LastSeenFlusher.class, "touched"));
+  private final Histogram      batchSizes     = metricRegistry.histogram(name(LastSeenFlusher.class, "batch_size"));
+
+  private final Map<Pair<String, Long>, Long> pending = new ConcurrentHashMap<>();
+
+  private final AccountsManager accountsManager;
+
+  private ScheduledExecutorService executor;
+
+  public LastSeenFlusher(AccountsManager accountsManager) {
+    this.accountsManager = accountsManager;
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+      this.executor.awaitTermination(FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    run();
+  }
+
+  public void touch(String number, long deviceId, long lastSeen) {
+    touchedMeter.mark();
+    pending.put(new Pair<>(number, deviceId), lastSeen);
+  }
+
+  @Override
+  public void run() {
+    try {
+      Iterator<Map.Entry<Pair<String, Long>, Long>> iterator = pending.entrySet().iterator();
+
+      while (iterator.hasNext()) {
+        List<String> numbers   = new LinkedList<>();
+        List<Long>   deviceIds = new LinkedList<>();
+        List<Long>   lastSeens = new LinkedList<>();
+
+        for (int i=0;i<BATCH_SIZE && iterator.hasNext();i++) {
+          Map.Entry<Pair<String, Long>, Long> entry = iterator.next();
+          pending.remove(entry.getKey(), entry.getValue());
+
+          numbers.add(entry.getKey().first());
+          deviceIds.add(entry.getKey().second());
+          lastSeens.add(entry.getValue());
+        }
+
+        accountsManager.updateLastSeen(numbers, deviceIds, lastSeens);
+        batchSizes.update(numbers.size());
+      }
+    } catch (Throwable t) {
+      logger.warn("Error flushing last seen", t);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * A lock held in Redis for a limited time, so that it's released if its holder dies.
+ * The holder renews it as it works, and stops working once a renewal fails.
+ */
+public class Lease {
+
+  private static final String RENEW_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then\n"    +
+                                             "  return redis.call('pexpire', KEYS[1], ARGV[2])\n" +
+                                             "end\n"                                              +
+                                             "return 0";
+
+  private static final String RELEASE_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then\n" +
+                                               "  return redis.call('del', KEYS[1])\n"           +
+                                               "end\n"                                           +
+                                               "return 0";
+
+  private final JedisPool jedisPool;
+  private final String    key;
+  private final long      durationMillis;
+  private final String    holder = UUID.randomUUID().toString();
+
+  public Lease(JedisPool jedisPool, String name, long durationMillis) {
+    this.jedisPool      = jedisPool;
+    this.key            = "lease::" + name;
+    this.durationMillis = durationMillis;
+  }
+
+  public boolean acquire() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return "OK".equals(jedis.set(key, holder, "NX", "PX", durationMillis));
+    }
+  }
+
+  public boolean renew() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object renewed = jedis.eval(RENEW_SCRIPT, Collections.singletonList(key),
+                                  Arrays.asList(holder, String.valueOf(durationMillis)));
+
+      return Long.valueOf(1).equals(renewed);
+    }
+  }
+
+  public void release() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.eval(RELEASE_SCRIPT, Collections.singletonList(key), Collections.singletonList(holder));
+    }
+  }
+}
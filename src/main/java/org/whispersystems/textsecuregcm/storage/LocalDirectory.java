@@ -0,0 +1,424 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.dispatch.DispatchChannel;
+import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.whispersystems.textsecuregcm.storage.PubSubProtos.PubSubMessage;
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * An in-memory replica of the contact directory, so that intersections are answered
+ * without a Redis operation per contact.  Tokens live in an open-addressing table of
+ * primitive arrays, which is loaded with HSCAN whenever the change feed published by
+ * {@link DirectoryManager} is (re)subscribed, and kept current by applying that feed.
+ */
+public class LocalDirectory implements Managed, DispatchChannel, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalDirectory.class);
+
+  private static final int  TOKEN_LENGTH        = 10;
+  private static final int  INITIAL_CAPACITY    = 1 << 16;
+  private static final int  SCAN_COUNT          = 1000;
+  private static final long RETRY_DELAY_SECONDS = 10;
+
+  private static final int FLAG_PRESENT = 0x01;
+  private static final int FLAG_VOICE   = 0x02;
+  private static final int RELAY_SHIFT  = 2;
+  private static final int MAX_RELAYS   = 0xffff >> RELAY_SHIFT;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Timer          reloadTimer    = metricRegistry.timer(name(LocalDirectory.class, "reload"));
+
+  private final ReadWriteLock lock   = new ReentrantReadWriteLock();
+  private final List<String>  relays = new ArrayList<>();
+
+  private final DirectoryManager directory;
+  private final PubSubManager    pubSubManager;
+
+  private Table           table   = new Table(INITIAL_CAPACITY);
+  private Table           loading;
+  private Set<ByteBuffer> touched;
+
+  private volatile boolean                  ready;
+  private          ScheduledExecutorService executor;
+
+  public LocalDirectory(DirectoryManager directory, PubSubManager pubSubManager) {
+    this.directory     = directory;
+    this.pubSubManager = pubSubManager;
+    this.relays.add(null);
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.pubSubManager.subscribe(DirectoryManager.CHANGES_ADDRESS, this);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    this.pubSubManager.unsubscribe(DirectoryManager.CHANGES_ADDRESS, this);
+    this.executor.shutdown();
+  }
+
+  /**
+   * False until the first load completes, and again while the change feed is
+   * unsubscribed, during which callers should read the directory itself.
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public Optional<ClientContact> get(byte[] token) {
+    lock.readLock().lock();
+
+    try {
+      return getContact(token);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public List<ClientContact> get(List<byte[]> tokens) {
+    List<ClientContact> results = new LinkedList<>();
+
+    lock.readLock().lock();
+
+    try {
+      for (byte[] token : tokens) {
+        Optional<ClientContact> contact = getContact(token);
+
+        if (contact.isPresent()) {
+          results.add(contact.get());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    return results;
+  }
+
+  @Override
+  public void onDispatchMessage(String channel, byte[] message) {
+    try {
+      PubSubMessage pubSubMessage = PubSubMessage.parseFrom(message);
+
+      if (pubSubMessage.getType() != PubSubMessage.Type.DELIVER) {
+        return;
+      }
+
+      Pair<byte[], Optional<ClientContact>> change = DirectoryManager.decodeChange(pubSubMessage.getContent().toByteArray());
+
+      if (change.first().length == 0) {
+        logger.info("Directory replaced, reloading");
+        executor.execute(this);
+        return;
+      }
+
+      lock.writeLock().lock();
+
+      try {
+        apply(table, change.first(), change.second());
+
+        if (loading != null) {
+          apply(loading, change.first(), change.second());
+          touched.add(ByteBuffer.wrap(change.first()));
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Protobuf parse error", e);
+    }
+  }
+
+  @Override
+  public void onDispatchSubscribed(String channel) {
+    executor.execute(this);
+  }
+
+  @Override
+  public void onDispatchUnsubscribed(String channel) {
+    logger.warn("Directory change channel unsubscribed");
+    ready = false;
+  }
+
+  /**
+   * Loads the whole directory into a fresh table, which is swapped in once complete.
+   * Changes which arrive meanwhile are applied to both tables, and mark their tokens
+   * so that an older value read by the scan doesn't overwrite them.
+   */
+  @Override
+  public void run() {
+    Timer.Context timer = reloadTimer.time();
+
+    try {
+      lock.writeLock().lock();
+
+      try {
+        loading = new Table(table.capacity());
+        touched = new HashSet<>();
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      String cursor = ScanParams.SCAN_POINTER_START;
+
+      do {
+        Pair<String, List<ClientContact>> page = directory.scan(cursor, SCAN_COUNT);
+
+        lock.writeLock().lock();
+
+        try {
+          for (ClientContact contact : page.second()) {
+            if (!touched.contains(ByteBuffer.wrap(contact.getToken()))) {
+              apply(loading, contact.getToken(), Optional.of(contact));
+            }
+          }
+        } finally {
+          lock.writeLock().unlock();
+        }
+
+        cursor = page.first();
+      } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+      lock.writeLock().lock();
+
+      try {
+        table   = loading;
+        loading = null;
+        touched = null;
+        ready   = true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      logger.info("Loaded " + table.size() + " directory entries");
+    } catch (Throwable t) {
+      logger.warn("Directory load failed", t);
+
+      lock.writeLock().lock();
+
+      try {
+        loading = null;
+        touched = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      executor.schedule(this, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private Optional<ClientContact> getContact(byte[] token) {
+    if (token.length != TOKEN_LENGTH) {
+      return Optional.absent();
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(token);
+    int        meta   = table.get(buffer.getLong(), buffer.getShort());
+
+    if (meta == 0) {
+      return Optional.absent();
+    }
+
+    return Optional.of(new ClientContact(token, relays.get(meta >>> RELAY_SHIFT), (meta & FLAG_VOICE) != 0));
+  }
+
+  private void apply(Table table, byte[] token, Optional<ClientContact> contact) {
+    if (token.length != TOKEN_LENGTH) {
+      logger.debug("Ignoring token of length " + token.length);
+      return;
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(token);
+    long       head   = buffer.getLong();
+    short      tail   = buffer.getShort();
+
+    if (!contact.isPresent()) {
+      table.remove(head, tail);
+      return;
+    }
+
+    int meta = FLAG_PRESENT | (getRelayIndex(contact.get().getRelay()) << RELAY_SHIFT);
+
+    if (contact.get().isVoice()) {
+      meta |= FLAG_VOICE;
+    }
+
+    table.put(head, tail, (short)meta);
+  }
+
+  private int getRelayIndex(String relay) {
+    if (relay == null || relay.isEmpty()) {
+      return 0;
+    }
+
+    int index = relays.indexOf(relay);
+
+    if (index == -1) {
+      if (relays.size() > MAX_RELAYS) {
+        throw new IllegalStateException("Too many relays: " + relays.size());
+      }
+
+      relays.add(relay);
+      index = relays.size() - 1;
+    }
+
+    return index;
+  }
+
+  /**
+   * A linear-probing hash table from a 10 byte token, split into its first eight and
+   * last two bytes, to a non-zero 16 bit value.  Removals shift the rest of their probe
+   * run back instead of leaving tombstones.
+   */
+  private static class Table {
+
+    private long[]  heads;
+    private short[] tails;
+    private short[] metas;
+    private int     size;
+
+    private Table(int capacity) {
+      this.heads = new long[capacity];
+      this.tails = new short[capacity];
+      this.metas = new short[capacity];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int capacity() {
+      return metas.length;
+    }
+
+    public int get(long head, short tail) {
+      int mask = metas.length - 1;
+
+      for (int i = slot(head, mask); metas[i] != 0; i = (i + 1) & mask) {
+        if (heads[i] == head && tails[i] == tail) {
+          return metas[i] & 0xffff;
+        }
+      }
+
+      return 0;
+    }
+
+    public void put(long head, short tail, short meta) {
+      if ((size + 1) * 4 > metas.length * 3) {
+        grow();
+      }
+
+      int mask = metas.length - 1;
+      int i    = slot(head, mask);
+
+      while (metas[i] != 0) {
+        if (heads[i] == head && tails[i] == tail) {
+          metas[i] = meta;
+          return;
+        }
+
+        i = (i + 1) & mask;
+      }
+
+      heads[i] = head;
+      tails[i] = tail;
+      metas[i] = meta;
+      size++;
+    }
+
+    public void remove(long head, short tail) {
+      int mask = metas.length - 1;
+      int gap  = slot(head, mask);
+
+      while (metas[gap] != 0 && (heads[gap] != head || tails[gap] != tail)) {
+        gap = (gap + 1) & mask;
+      }
+
+      if (metas[gap] == 0) {
+        return;
+      }
+
+      for (int i = (gap + 1) & mask; metas[i] != 0; i = (i + 1) & mask) {
+        int     home    = slot(heads[i], mask);
+        boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+
+        if (movable) {
+          heads[gap] = heads[i];
+          tails[gap] = tails[i];
+          metas[gap] = metas[i];
+          gap        = i;
+        }
+      }
+
+      heads[gap] = 0;
+      tails[gap] = 0;
+      metas[gap] = 0;
+      size--;
+    }
+
+    private void grow() {
+      long[]  oldHeads = heads;
+      short[] oldTails = tails;
+      short[] oldMetas = metas;
+
+      heads = new long[oldMetas.length * 2];
+      tails = new short[oldMetas.length * 2];
+      metas = new short[oldMetas.length * 2];
+      size  = 0;
+
+      for (int i=0;i<oldMetas.length;i++) {
+        if (oldMetas[i] != 0) {
+          put(oldHeads[i], oldTails[i], oldMetas[i]);
+        }
+      }
+    }
+
+    private static int slot(long head, int mask) {
+      return (int)(head ^ (head >>> 32)) & mask;
+    }
+  }
+}
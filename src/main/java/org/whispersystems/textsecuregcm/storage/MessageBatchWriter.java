@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.util.Constants;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Group-commits concurrent message inserts.  Each shard has its own writer, so a slow
+ * shard doesn't hold up the others.  The first insert to arrive opens a batch, which
+ * is written in a single transaction once the batch window elapses or the batch fills,
+ * and each caller is released with the outcome of that commit.
+ */
+public class MessageBatchWriter implements Managed {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageBatchWriter.class);
+
+  private static final long PICKUP_TIMEOUT_MILLIS = 1000;
+  private static final long WRITE_TIMEOUT_MILLIS  = 10000;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Histogram      batchSizes     = metricRegistry.histogram(name(MessageBatchWriter.class, "batch_size"));
+  private final Meter          retriedMeter   = metricRegistry.meter(name(MessageBatchWriter.class, "retried"));
+
+  private final Map<Messages, ShardWriter> writers = new HashMap<>();
+
+  private final MessageShards messages;
+  private final long          batchWindowMillis;
+  private final int           maxBatchSize;
+
+  private volatile boolean running;
+
+  public MessageBatchWriter(MessageShards messages, long batchWindowMillis, int maxBatchSize) {
+    this.messages          = messages;
+    this.batchWindowMillis = batchWindowMillis;
+    this.maxBatchSize      = maxBatchSize;
+
+    for (Map.Entry<String, Messages> shard : messages.getShards().entrySet()) {
+      writers.put(shard.getValue(), new ShardWriter(shard.getKey(), shard.getValue()));
+    }
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.running = true;
+
+    for (ShardWriter writer : writers.values()) {
+      writer.start();
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    this.running = false;
+
+    for (ShardWriter writer : writers.values()) {
+      writer.join();
+    }
+  }
+
+  /**
+   * A caller whose message hasn't been picked up in time, as when it was queued just as
+   * the writer stopped, takes it back and writes it alone.  One whose message was picked
+   * up waits a bounded time for its batch to commit.
+   */
+  public void store(Envelope message, String destination, long destinationDevice) {
+    Messages    shard  = messages.get(destination);
+    ShardWriter writer = writers.get(shard);
+
+    if (!running || writer == null) {
+      shard.store(message, destination, destinationDevice);
+      return;
+    }
+
+    PendingMessage pending = new PendingMessage(message, destination, destinationDevice);
+    writer.queue.add(pending);
+
+    try {
+      try {
+        pending.result.get(PICKUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        if (writer.queue.remove(pending)) {
+          shard.store(message, destination, destinationDevice);
+          return;
+        }
+
+        pending.result.get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for batch insert", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      else                                          throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private class ShardWriter implements Runnable {
+
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>();
+
+    private final Messages shard;
+    private final Thread   thread;
+
+    private ShardWriter(String name, Messages shard) {
+      this.shard  = shard;
+      this.thread = new Thread(this, MessageBatchWriter.class.getSimpleName() + "-" + name);
+    }
+
+    private void start() {
+      thread.start();
+    }
+
+    private void join() throws InterruptedException {
+      if (thread.isAlive()) thread.join();
+    }
+
+    @Override
+    public void run() {
+      while (running || !queue.isEmpty()) {
+        List<PendingMessage> batch = new LinkedList<>();
+
+        try {
+          collect(batch);
+        } catch (InterruptedException e) {
+          logger.warn("Interrupted", e);
+        } finally {
+          write(batch);
+        }
+      }
+
+      List<PendingMessage> remaining = new LinkedList<>();
+      queue.drainTo(remaining);
+      write(remaining);
+    }
+
+    private void collect(List<PendingMessage> batch) throws InterruptedException {
+      PendingMessage first = queue.poll(1, TimeUnit.SECONDS);
+
+      if (first == null) return;
+
+      long deadline = System.currentTimeMillis() + batchWindowMillis;
+
+      batch.add(first);
+
+      while (batch.size() < maxBatchSize) {
+        long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) {
+          queue.drainTo(batch, maxBatchSize - batch.size());
+          break;
+        }
+
+        PendingMessage next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+
+        if (next == null) break;
+        else              batch.add(next);
+      }
+    }
+
+    /**
+     * Completes every message in the batch, one way or the other, so that no caller is
+     * left waiting on it.  A batch that fails is rolled back whole, so its messages are
+     * retried one at a time, and only those that fail alone fail their callers.
+     */
+    private void write(List<PendingMessage> batch) {
+      if (batch.isEmpty()) return;
+
+      try {
+        store(batch);
+        batchSizes.update(batch.size());
+
+        for (PendingMessage pending : batch) {
+          pending.result.set(null);
+        }
+      } catch (Throwable t) {
+        logger.warn("Batch insert failed", t);
+
+        if (batch.size() == 1) {
+          batch.get(0).result.setException(t);
+          return;
+        }
+
+        retriedMeter.mark(batch.size());
+
+        for (PendingMessage pending : batch) {
+          try {
+            store(Collections.singletonList(pending));
+            pending.result.set(null);
+          } catch (Throwable e) {
+            pending.result.setException(e);
+          }
+        }
+      }
+    }
+
+    private void store(List<PendingMessage> batch) {
+      List<Envelope> envelopes          = new LinkedList<>();
+      List<String>   destinations       = new LinkedList<>();
+      List<Long>     destinationDevices = new LinkedList<>();
+
+      for (PendingMessage pending : batch) {
+        envelopes.add(pending.message);
+        destinations.add(pending.destination);
+        destinationDevices.add(pending.destinationDevice);
+      }
+
+      shard.store(envelopes, destinations, destinationDevices);
+    }
+  }
+
+  private static class PendingMessage {
+    private final Envelope             message;
+    private final String               destination;
+    private final long                 destinationDevice;
+    private final SettableFuture<Void> result = SettableFuture.create();
+
+    private PendingMessage(Envelope message, String destination, long destinationDevice) {
+      this.message           = message;
+      this.destination       = destination;
+      this.destinationDevice = destinationDevice;
+    }
+  }
+}
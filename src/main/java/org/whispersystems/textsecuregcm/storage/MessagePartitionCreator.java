@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Creates the weekly message partitions on every shard ahead of the messages they'll
+ * hold, at startup and hourly after that, whether or not retention is running.
+ */
+public class MessagePartitionCreator implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessagePartitionCreator.class);
+
+  private static final long INTERVAL_MINUTES = 60;
+
+  private final Map<String, Messages> shards;
+
+  private ScheduledExecutorService executor;
+
+  public MessagePartitionCreator(Map<String, Messages> shards) {
+    this.shards = shards;
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, 0, INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  @Override
+  public void run() {
+    long now = System.currentTimeMillis();
+
+    for (Map.Entry<String, Messages> shard : shards.entrySet()) {
+      try {
+        shard.getValue().createPartitions(now);
+      } catch (Throwable t) {
+        logger.warn("Error creating message partitions on shard " + shard.getKey(), t);
+      }
+    }
+  }
+}
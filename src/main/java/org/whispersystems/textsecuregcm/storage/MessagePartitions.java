@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Naming of the weekly partitions of the messages table, which are suffixed with
+ * the UTC date their week starts on.
+ */
+public class MessagePartitions {
+
+  public static final long WEEK_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  public static long getPartitionEnd(String partition) throws ParseException {
+    SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    long start = format.parse(partition.substring(partition.lastIndexOf('_') + 1)).getTime();
+    return start + WEEK_MILLIS;
+  }
+}
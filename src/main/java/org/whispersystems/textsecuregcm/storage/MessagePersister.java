@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Moves queues which have outlived the configured delay (or grown past the configured
+ * depth) out of the {@link MessagesCache} and into the {@link Messages} table.
+ */
+public class MessagePersister implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessagePersister.class);
+
+  private static final int QUEUE_BATCH_SIZE   = 100;
+  private static final int MESSAGE_BATCH_SIZE = 100;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          persistMeter   = metricRegistry.meter(name(MessagePersister.class, "persisted"));
+  private final Meter          contendedMeter = metricRegistry.meter(name(MessagePersister.class, "contended"));
+
+  private final MessagesCache messagesCache;
+  private final MessageShards messages;
+  private final long          persistDelay;
+
+  private ScheduledExecutorService executor;
+
+  public MessagePersister(MessagesCache messagesCache, MessageShards messages, int persistDelayMinutes) {
+    this.messagesCache = messagesCache;
+    this.messages      = messages;
+    this.persistDelay  = TimeUnit.MINUTES.toMillis(persistDelayMinutes);
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, 0, 30, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      Set<String> queues;
+
+      do {
+        queues = messagesCache.getQueuesToPersist(System.currentTimeMillis() - persistDelay, QUEUE_BATCH_SIZE);
+
+        for (String queue : queues) {
+          persistQueue(queue);
+        }
+      } while (queues.size() >= QUEUE_BATCH_SIZE);
+    } catch (Throwable t) {
+      logger.warn("Error persisting cached messages", t);
+    }
+  }
+
+  /**
+   * Each batch is marked in the cache before it's written, and only removed from the
+   * cache afterwards, so that a message acknowledged in between has its new row
+   * deleted again.  A queue is persisted under a claim, which other passes respect,
+   * so rows written by a pass which never completed can be deleted by the next pass
+   * to claim the queue before it writes their messages again.
+   */
+  private void persistQueue(String queue) {
+    String owner = UUID.randomUUID().toString();
+
+    if (!messagesCache.claimForPersist(queue, owner)) {
+      contendedMeter.mark();
+      return;
+    }
+
+    try {
+      MessagesCache.Key                    key      = MessagesCache.Key.fromString(queue);
+      Messages                             shard    = messages.get(key.getDestination());
+      Set<Long>                            orphaned = messagesCache.getPersisting(queue);
+      Optional<List<Pair<Long, Envelope>>> items;
+
+      if (!orphaned.isEmpty()) {
+        shard.removeByCachedIds(key.getDestination(), key.getDestinationDevice(), toArray(orphaned));
+      }
+
+      do {
+        items = messagesCache.getItemsToPersist(queue, owner, MESSAGE_BATCH_SIZE);
+
+        if (!items.isPresent()) {
+          logger.warn("Lost persist claim on " + queue);
+          return;
+        }
+
+        if (items.get().isEmpty()) break;
+
+        List<Envelope> envelopes = new LinkedList<>();
+        List<Long>     cachedIds = new LinkedList<>();
+
+        for (Pair<Long, Envelope> item : items.get()) {
+          envelopes.add(item.second());
+          cachedIds.add(item.first());
+        }
+
+        shard.storePersisted(envelopes, key.getDestination(), key.getDestinationDevice(), cachedIds);
+
+        Optional<List<Long>> acknowledged = messagesCache.removePersisted(queue, owner, items.get());
+
+        if (!acknowledged.isPresent()) {
+          logger.warn("Lost persist claim on " + queue + " after writing a batch");
+          return;
+        }
+
+        if (!acknowledged.get().isEmpty()) {
+          shard.removeByCachedIds(key.getDestination(), key.getDestinationDevice(), toArray(acknowledged.get()));
+        }
+
+        persistMeter.mark(items.get().size() - acknowledged.get().size());
+      } while (items.get().size() >= MESSAGE_BATCH_SIZE);
+
+      messagesCache.unindexIfEmpty(queue);
+    } finally {
+      messagesCache.releasePersistClaim(queue, owner);
+    }
+  }
+
+  private long[] toArray(Collection<Long> ids) {
+    long[] results = new long[ids.size()];
+    int    index   = 0;
+
+    for (long id : ids) {
+      results[index++] = id;
+    }
+
+    return results;
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.skife.jdbi.v2.exceptions.DBIException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Util;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Continuously expires old messages from one message store shard.  Each pass creates
+ * the partitions for the coming weeks, detaches and then drops the weekly partitions
+ * which have aged out entirely, and walks the unpartitioned rows in small id ranges,
+ * pausing between ranges so that retention never competes with live traffic for long.
+ *
+ * Each pass holds a lease on its shard, so that only one node expires it at a time.
+ */
+public class MessageRetention implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageRetention.class);
+
+  private static final long PASS_INTERVAL_MINUTES = 5;
+  private static final long LEASE_MILLIS          = TimeUnit.MINUTES.toMillis(1);
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          removedMeter;
+
+  private final String            shard;
+  private final Messages          messages;
+  private final QueueDepthCounter queueDepthCounter;
+  private final Lease             lease;
+  private final long              retentionMillis;
+  private final int               batchSize;
+  private final long              pauseMillis;
+
+  private volatile boolean running;
+  private volatile double  progress;
+  private volatile long    oldestReceived;
+
+  private ScheduledExecutorService executor;
+
+  public MessageRetention(String shard, Messages messages, QueueDepthCounter queueDepthCounter,
+                          JedisPool jedisPool, int retentionDays, int batchSize, long pauseMillis)
+  {
+    this.shard             = shard;
+    this.messages          = messages;
+    this.queueDepthCounter = queueDepthCounter;
+    this.lease             = new Lease(jedisPool, "message_retention::" + shard, LEASE_MILLIS);
+    this.retentionMillis   = TimeUnit.DAYS.toMillis(retentionDays);
+    this.batchSize         = batchSize;
+    this.pauseMillis       = pauseMillis;
+    this.removedMeter      = metricRegistry.meter(name(MessageRetention.class, shard, "removed"));
+
+    metricRegistry.register(name(MessageRetention.class, shard, "progress"), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return progress;
+      }
+    });
+
+    metricRegistry.register(name(MessageRetention.class, shard, "lag"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        long oldest = oldestReceived;
+        return oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.running  = true;
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, 0, PASS_INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    this.running = false;
+
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  /**
+   * Every node refreshes the age of the oldest message it reports as lag, whether or
+   * not it holds the lease.
+   */
+  @Override
+  public void run() {
+    try {
+      if (lease.acquire()) {
+        try {
+          long passStart = System.currentTimeMillis();
+          long timestamp = passStart - retentionMillis;
+
+          messages.createPartitions(passStart);
+          dropExpiredPartitions(timestamp);
+          removeExpiredRows(timestamp);
+        } finally {
+          lease.release();
+        }
+      }
+
+      oldestReceived = messages.getOldestReceived();
+    } catch (Throwable t) {
+      logger.warn("Error expiring messages on shard " + shard, t);
+    }
+  }
+
+  private boolean isHeld() {
+    return running && lease.renew();
+  }
+
+  /**
+   * A partition that couldn't be detached, because live queries held it for too long,
+   * is retried on the next pass.  Partitions detached by a pass that never finished
+   * are dropped with the rest.
+   */
+  private void dropExpiredPartitions(long timestamp) throws ParseException {
+    for (String partition : messages.getPartitions()) {
+      if (MessagePartitions.getPartitionEnd(partition) <= timestamp) {
+        if (!isHeld()) return;
+
+        try {
+          logger.info("Detaching partition: " + shard + "/" + partition);
+          messages.detachPartition(partition);
+        } catch (DBIException e) {
+          logger.warn("Couldn't detach partition: " + shard + "/" + partition, e);
+        }
+      }
+    }
+
+    for (String partition : messages.getDetachedPartitions()) {
+      if (MessagePartitions.getPartitionEnd(partition) <= timestamp) {
+        if (!isHeld()) return;
+
+        logger.info("Dropping partition: " + shard + "/" + partition);
+        removed(messages.dropDetachedPartition(partition));
+      }
+    }
+  }
+
+  /**
+   * Each range starts at the next id still stored, so that the gaps left by earlier
+   * passes are skipped rather than walked a range at a time.
+   */
+  private void removeExpiredRows(long timestamp) {
+    long minId    = messages.getMinId();
+    long maxId    = messages.getMaxId();
+    long position = minId;
+
+    while (position > 0 && position <= maxId) {
+      if (!isHeld()) return;
+
+      removed(messages.removeOld(timestamp, position, position + batchSize));
+
+      progress = (double)(position + batchSize - minId) / (maxId - minId + 1);
+      position = messages.getNextId(position + batchSize - 1);
+
+      Util.sleep(pauseMillis);
+    }
+
+    progress = 1;
+  }
+
+  private void removed(List<Messages.QueueCount> removed) {
+    for (Messages.QueueCount queue : removed) {
+      queueDepthCounter.decrement(queue.getDestination(), queue.getDestinationDevice(), queue.getCount());
+      removedMeter.mark(queue.getCount());
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import org.skife.jdbi.v2.DBI;
+import org.whispersystems.textsecuregcm.configuration.MessageStoreConfiguration;
+import org.whispersystems.textsecuregcm.util.ConsistentHashRing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.jdbi.DBIFactory;
+import io.dropwizard.setup.Environment;
+
+/**
+ * Routes each destination's queue to one message store shard.
+ */
+public class MessageShards {
+
+  private static final int VIRTUAL_NODES = 128;
+
+  private final Map<String, Messages>        shards;
+  private final ConsistentHashRing<Messages> ring;
+
+  public MessageShards(Map<String, Messages> shards) {
+    this.shards = shards;
+    this.ring   = new ConsistentHashRing<>(shards, VIRTUAL_NODES);
+  }
+
+  public Messages get(String destination) {
+    return ring.get(destination);
+  }
+
+  public Map<String, Messages> getShards() {
+    return shards;
+  }
+
+  /**
+   * Builds a pooled connection to each shard, managed by the environment and named
+   * for its metrics and health check the same way the server's other databases are.
+   */
+  public static Map<String, Messages> build(Environment environment, Map<String, DataSourceFactory> configurations)
+      throws ClassNotFoundException
+  {
+    Map<String, Messages> shards = new HashMap<>();
+
+    for (Map.Entry<String, DataSourceFactory> configuration : configurations.entrySet()) {
+      shards.put(configuration.getKey(), buildDbi(environment, configuration.getKey(), configuration.getValue()).onDemand(Messages.class));
+    }
+
+    return shards;
+  }
+
+  public static DBI buildDbi(Environment environment, String shard, DataSourceFactory configuration)
+      throws ClassNotFoundException
+  {
+    String name = MessageStoreConfiguration.DEFAULT_SHARD.equals(shard) ? "messagedb" : "messagedb-" + shard;
+    return new DBIFactory().build(environment, configuration, name);
+  }
+}
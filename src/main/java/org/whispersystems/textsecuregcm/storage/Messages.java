@@ -1,15 +1,21 @@
 package org.whispersystems.textsecuregcm.storage;
 
+import com.google.protobuf.ByteString;
 import org.skife.jdbi.v2.SQLStatement;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.Binder;
 import org.skife.jdbi.v2.sqlobject.BinderFactory;
 import org.skife.jdbi.v2.sqlobject.BindingAnnotation;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
+import org.skife.jdbi.v2.sqlobject.SqlCall;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.Transaction;
 import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
+import org.skife.jdbi.v2.tweak.Argument;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
+import org.whispersystems.textsecuregcm.entities.AcknowledgedMessage;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
 
@@ -18,6 +24,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
@@ -36,26 +43,103 @@ public abstract class Messages {
   private static final String DESTINATION_DEVICE = "destination_device";
   private static final String MESSAGE            = "message";
   private static final String CONTENT            = "content";
+  private static final String CACHED_ID          = "cached_id";
+  private static final String RECEIVED           = "received";
+  private static final String COUNT              = "count";
 
-  @SqlQuery("INSERT INTO messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ") " +
-            "VALUES (:type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content) " +
-            "RETURNING (SELECT COUNT(id) FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + TYPE + " != " + Envelope.Type.RECEIPT_VALUE + ")")
-  abstract int store(@MessageBinder Envelope message,
-                     @Bind("destination") String destination,
-                     @Bind("destination_device") long destinationDevice);
+  /**
+   * Rows written before the receive time was recorded expire by their sender's timestamp.
+   */
+  private static final String EXPIRED = "(" + RECEIVED + " < :timestamp OR (" + RECEIVED + " IS NULL AND " + TIMESTAMP + " < :timestamp))";
+
+  @SqlUpdate("INSERT INTO incoming_messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ") " +
+             "VALUES (:type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content)")
+  abstract void store(@MessageBinder Envelope message,
+                      @Bind("destination") String destination,
+                      @Bind("destination_device") long destinationDevice);
+
+  @SqlBatch("INSERT INTO incoming_messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ") " +
+            "VALUES (:type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content)")
+  public abstract void store(@MessageBinder List<Envelope> messages,
+                             @Bind("destination") List<String> destinations,
+                             @Bind("destination_device") List<Long> destinationDevices);
+
+  /**
+   * Writes messages persisted from the cache.  A message already written under the same
+   * cache id, by a pass which lost its claim on the queue, isn't written again.
+   */
+  @SqlBatch("INSERT INTO incoming_messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ", " + CACHED_ID + ") " +
+            "SELECT :type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content, CAST(:cached_id AS bigint) " +
+            "WHERE NOT EXISTS (SELECT 1 FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + CACHED_ID + " = CAST(:cached_id AS bigint))")
+  public abstract void storePersisted(@MessageBinder List<Envelope> messages,
+                                      @Bind("destination") String destination,
+                                      @Bind("destination_device") long destinationDevice,
+                                      @Bind("cached_id") List<Long> cachedIds);
+
+  /**
+   * Copies messages from another shard, keeping their receive times and cache ids.  A
+   * message already copied by an earlier, interrupted attempt isn't copied again.
+   */
+  @SqlBatch("INSERT INTO incoming_messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ", " + RECEIVED + ", " + CACHED_ID + ") " +
+            "SELECT :type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content, CAST(:received AS bigint), CAST(:cached_id AS bigint) " +
+            "WHERE NOT EXISTS (SELECT 1 FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + SOURCE + " = :source AND " + TIMESTAMP + " = :timestamp " +
+            "AND " + TYPE + " = :type AND " + RECEIVED + " IS NOT DISTINCT FROM CAST(:received AS bigint) AND " + CACHED_ID + " IS NOT DISTINCT FROM CAST(:cached_id AS bigint))")
+  public abstract void storeMoved(@MessageBinder List<Envelope> messages,
+                                  @Bind("destination")        String destination,
+                                  @Bind("destination_device") List<Long> destinationDevices,
+                                  @Bind("received")           List<Long> received,
+                                  @Bind("cached_id")          List<Long> cachedIds);
 
   @Mapper(MessageMapper.class)
-  @SqlQuery("SELECT * FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device  ORDER BY " + TIMESTAMP + " ASC LIMIT " + RESULT_SET_CHUNK_SIZE)
+  @SqlQuery("SELECT * FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + ID + " > :after_id " +
+            "AND (" + CACHED_ID + " IS NULL OR " + CACHED_ID + " > :after_cached_id) ORDER BY " + ID + " ASC LIMIT :limit")
   abstract List<OutgoingMessageEntity> load(@Bind("destination")        String destination,
-                                            @Bind("destination_device") long destinationDevice);
+                                            @Bind("destination_device") long destinationDevice,
+                                            @Bind("after_id")           long afterId,
+                                            @Bind("after_cached_id")    long afterCachedId,
+                                            @Bind("limit")              int limit);
 
   @Mapper(MessageMapper.class)
-  @SqlQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT " + ID + " FROM messages WHERE " + DESTINATION + " = :destination AND " + SOURCE + " = :source AND " + TIMESTAMP + " = :timestamp ORDER BY " + ID + " LIMIT 1) RETURNING *")
-  abstract OutgoingMessageEntity remove(@Bind("destination") String destination, @Bind("source") String source, @Bind("timestamp") long timestamp);
+  @SqlQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT " + ID + " FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + SOURCE + " = :source AND " + TIMESTAMP + " = :timestamp ORDER BY " + ID + " LIMIT 1) RETURNING *")
+  abstract OutgoingMessageEntity remove(@Bind("destination")        String destination,
+                                        @Bind("destination_device") long destinationDevice,
+                                        @Bind("source")             String source,
+                                        @Bind("timestamp")          long timestamp);
 
   @Mapper(MessageMapper.class)
-  @SqlUpdate("DELETE FROM messages WHERE " + ID + " = :id AND " + DESTINATION + " = :destination")
-  abstract void remove(@Bind("destination") String destination, @Bind("id") long id);
+  @SqlQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT DISTINCT ON (" + SOURCE + ", " + TIMESTAMP + ") " + ID + " FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND (" + SOURCE + ", " + TIMESTAMP + ") IN (SELECT unnest(:sources), unnest(:timestamps)) ORDER BY " + SOURCE + ", " + TIMESTAMP + ", " + ID + ") RETURNING *")
+  abstract List<OutgoingMessageEntity> remove(@Bind("destination")        String destination,
+                                              @Bind("destination_device") long destinationDevice,
+                                              @AcknowledgedMessagesBinder List<AcknowledgedMessage> messages);
+
+  @SqlQuery("DELETE FROM messages WHERE " + ID + " = ANY(:ids) AND " + DESTINATION + " = :destination RETURNING " + TYPE)
+  public abstract List<Integer> remove(@Bind("destination") String destination, @IdArrayBinder long[] ids);
+
+  @SqlQuery("DELETE FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + CACHED_ID + " = ANY(:ids) RETURNING " + TYPE)
+  public abstract List<Integer> removeByCachedIds(@Bind("destination")        String destination,
+                                                  @Bind("destination_device") long destinationDevice,
+                                                  @IdArrayBinder              long[] cachedIds);
+
+  @SqlQuery("WITH RECURSIVE destinations AS (" +
+            "  (SELECT " + DESTINATION + " FROM messages WHERE " + DESTINATION + " > :after ORDER BY " + DESTINATION + " LIMIT 1) " +
+            "  UNION ALL " +
+            "  SELECT (SELECT " + DESTINATION + " FROM messages WHERE " + DESTINATION + " > destinations." + DESTINATION + " ORDER BY " + DESTINATION + " LIMIT 1) " +
+            "  FROM destinations WHERE destinations." + DESTINATION + " IS NOT NULL" +
+            ") SELECT " + DESTINATION + " FROM destinations WHERE " + DESTINATION + " IS NOT NULL LIMIT :limit")
+  public abstract List<String> getDestinationsAfter(@Bind("after") String after, @Bind("limit") int limit);
+
+  @Mapper(QueuedMessageMapper.class)
+  @SqlQuery("SELECT * FROM messages WHERE " + DESTINATION + " = :destination ORDER BY " + ID + " LIMIT :limit")
+  public abstract List<QueuedMessage> loadQueues(@Bind("destination") String destination, @Bind("limit") int limit);
+
+  /**
+   * Receipts don't count towards a queue's depth, so they're neither counted nor evicted here.
+   */
+  @SqlQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT " + ID + " FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + TYPE + " != " + Envelope.Type.RECEIPT_VALUE + " ORDER BY " + ID + " DESC OFFSET :max_depth LIMIT :limit) RETURNING " + TYPE)
+  public abstract List<Integer> removeOverflow(@Bind("destination")        String destination,
+                                               @Bind("destination_device") long destinationDevice,
+                                               @Bind("max_depth")          int maxDepth,
+                                               @Bind("limit")              int limit);
 
   @SqlUpdate("DELETE FROM messages WHERE " + DESTINATION + " = :destination")
   abstract void clear(@Bind("destination") String destination);
@@ -63,8 +147,82 @@ public abstract class Messages {
   @SqlUpdate("DELETE FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device")
   abstract void clear(@Bind("destination") String destination, @Bind("destination_device") long destinationDevice);
 
-  @SqlUpdate("DELETE FROM messages WHERE " + TIMESTAMP + " < :timestamp")
-  public abstract void removeOld(@Bind("timestamp") long timestamp);
+  @Mapper(QueueCountMapper.class)
+  @SqlQuery("WITH removed AS (DELETE FROM ONLY messages WHERE " + EXPIRED + " RETURNING " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + TYPE + ") " +
+            "SELECT " + DESTINATION + ", " + DESTINATION_DEVICE + ", SUM(CASE WHEN " + TYPE + " != " + Envelope.Type.RECEIPT_VALUE + " THEN 1 ELSE 0 END) AS " + COUNT + " " +
+            "FROM removed GROUP BY " + DESTINATION + ", " + DESTINATION_DEVICE)
+  public abstract List<QueueCount> removeOld(@Bind("timestamp") long timestamp);
+
+  @Mapper(QueueCountMapper.class)
+  @SqlQuery("WITH removed AS (DELETE FROM ONLY messages WHERE " + ID + " >= :from_id AND " + ID + " < :to_id AND " + EXPIRED + " RETURNING " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + TYPE + ") " +
+            "SELECT " + DESTINATION + ", " + DESTINATION_DEVICE + ", SUM(CASE WHEN " + TYPE + " != " + Envelope.Type.RECEIPT_VALUE + " THEN 1 ELSE 0 END) AS " + COUNT + " " +
+            "FROM removed GROUP BY " + DESTINATION + ", " + DESTINATION_DEVICE)
+  public abstract List<QueueCount> removeOld(@Bind("timestamp") long timestamp,
+                                             @Bind("from_id")   long fromId,
+                                             @Bind("to_id")     long toId);
+
+  @Mapper(QueueCountMapper.class)
+  @SqlQuery("SELECT " + DESTINATION + ", " + DESTINATION_DEVICE + ", SUM(CASE WHEN " + TYPE + " != " + Envelope.Type.RECEIPT_VALUE + " THEN 1 ELSE 0 END) AS " + COUNT + " " +
+            "FROM messages WHERE " + DESTINATION + " = :destination AND (" + CACHED_ID + " IS NULL OR NOT " + CACHED_ID + " = ANY(:ids)) " +
+            "GROUP BY " + DESTINATION + ", " + DESTINATION_DEVICE)
+  public abstract List<QueueCount> countQueues(@Bind("destination") String destination, @IdArrayBinder long[] excludedCachedIds);
+
+  @SqlQuery("SELECT COALESCE(MIN(" + ID + "), 0) FROM ONLY messages")
+  public abstract long getMinId();
+
+  @SqlQuery("SELECT COALESCE(MAX(" + ID + "), 0) FROM ONLY messages")
+  public abstract long getMaxId();
+
+  @SqlQuery("SELECT COALESCE(MIN(" + ID + "), 0) FROM ONLY messages WHERE " + ID + " > :id")
+  public abstract long getNextId(@Bind("id") long afterId);
+
+  /**
+   * @return When the message with the lowest id, across every partition, was received.
+   */
+  @SqlQuery("SELECT COALESCE(MIN(COALESCE(" + RECEIVED + ", " + TIMESTAMP + ")), 0) FROM (SELECT " + RECEIVED + ", " + TIMESTAMP + " FROM messages ORDER BY " + ID + " LIMIT 1) AS oldest")
+  public abstract long getOldestReceived();
+
+  @SqlQuery("SELECT child.relname FROM pg_inherits JOIN pg_class child ON child.oid = pg_inherits.inhrelid WHERE pg_inherits.inhparent = CAST('messages' AS regclass)")
+  public abstract List<String> getPartitions();
+
+  @SqlQuery("SELECT child.relname FROM pg_class child WHERE child.relkind = 'r' AND child.relname ~ '^messages_[0-9]{8}$' AND pg_table_is_visible(child.oid) " +
+            "AND NOT EXISTS (SELECT 1 FROM pg_inherits WHERE pg_inherits.inhrelid = child.oid)")
+  public abstract List<String> getDetachedPartitions();
+
+  @SqlQuery("SELECT create_messages_partition(:received)")
+  public abstract boolean createPartition(@Bind("received") long received);
+
+  /**
+   * Removes a partition from the messages table, so that it can be counted and dropped
+   * without holding a lock that live queries wait on.
+   */
+  @SqlCall("{call detach_messages_partition(:partition)}")
+  public abstract void detachPartition(@Bind("partition") String partition);
+
+  @Mapper(QueueCountMapper.class)
+  @SqlQuery("SELECT * FROM count_messages_partition(:partition)")
+  public abstract List<QueueCount> countPartition(@Bind("partition") String partition);
+
+  @SqlCall("{call drop_messages_partition(:partition)}")
+  public abstract void dropPartition(@Bind("partition") String partition);
+
+  /**
+   * Creates the partitions for the current and the next week ahead of the messages they'll hold.
+   */
+  public void createPartitions(long now) {
+    createPartition(now);
+    createPartition(now + MessagePartitions.WEEK_MILLIS);
+  }
+
+  /**
+   * @return The queued messages the dropped partition held.
+   */
+  @Transaction
+  public List<QueueCount> dropDetachedPartition(String partition) {
+    List<QueueCount> removed = countPartition(partition);
+    dropPartition(partition);
+    return removed;
+  }
 
   @SqlUpdate("VACUUM messages")
   public abstract void vacuum();
@@ -94,6 +252,108 @@ public abstract class Messages {
     }
   }
 
+  public static class QueuedMessageMapper implements ResultSetMapper<QueuedMessage> {
+    @Override
+    public QueuedMessage map(int i, ResultSet resultSet, StatementContext statementContext)
+        throws SQLException
+    {
+      Envelope.Builder envelope = Envelope.newBuilder()
+                                          .setType(Envelope.Type.valueOf(resultSet.getInt(TYPE)))
+                                          .setRelay(resultSet.getString(RELAY))
+                                          .setTimestamp(resultSet.getLong(TIMESTAMP))
+                                          .setSource(resultSet.getString(SOURCE))
+                                          .setSourceDevice(resultSet.getInt(SOURCE_DEVICE));
+
+      byte[] legacyMessage = resultSet.getBytes(MESSAGE);
+      byte[] content       = resultSet.getBytes(CONTENT);
+
+      if (legacyMessage != null) envelope.setLegacyMessage(ByteString.copyFrom(legacyMessage));
+      if (content != null)       envelope.setContent(ByteString.copyFrom(content));
+
+      return new QueuedMessage(resultSet.getLong(ID), resultSet.getLong(DESTINATION_DEVICE), envelope.build(),
+                               (Long)resultSet.getObject(RECEIVED), (Long)resultSet.getObject(CACHED_ID));
+    }
+  }
+
+  public static class QueueCountMapper implements ResultSetMapper<QueueCount> {
+    @Override
+    public QueueCount map(int i, ResultSet resultSet, StatementContext statementContext)
+        throws SQLException
+    {
+      return new QueueCount(resultSet.getString(DESTINATION),
+                            resultSet.getLong(DESTINATION_DEVICE),
+                            resultSet.getLong(COUNT));
+    }
+  }
+
+  public static class QueuedMessage {
+
+    private final long     id;
+    private final long     destinationDevice;
+    private final Envelope envelope;
+    private final Long     received;
+    private final Long     cachedId;
+
+    public QueuedMessage(long id, long destinationDevice, Envelope envelope, Long received, Long cachedId) {
+      this.id                = id;
+      this.destinationDevice = destinationDevice;
+      this.envelope          = envelope;
+      this.received          = received;
+      this.cachedId          = cachedId;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public long getDestinationDevice() {
+      return destinationDevice;
+    }
+
+    public Envelope getEnvelope() {
+      return envelope;
+    }
+
+    /**
+     * @return The receive time, or null for rows written before it was recorded.
+     */
+    public Long getReceived() {
+      return received;
+    }
+
+    /**
+     * @return The id the message had in the cache, or null if it was stored directly.
+     */
+    public Long getCachedId() {
+      return cachedId;
+    }
+  }
+
+  public static class QueueCount {
+
+    private final String destination;
+    private final long   destinationDevice;
+    private final long   count;
+
+    public QueueCount(String destination, long destinationDevice, long count) {
+      this.destination       = destination;
+      this.destinationDevice = destinationDevice;
+      this.count             = count;
+    }
+
+    public String getDestination() {
+      return destination;
+    }
+
+    public long getDestinationDevice() {
+      return destinationDevice;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
   @BindingAnnotation(MessageBinder.AccountBinderFactory.class)
   @Retention(RetentionPolicy.RUNTIME)
   @Target({ElementType.PARAMETER})
@@ -121,4 +381,81 @@ public abstract class Messages {
   }
 
 
+  @BindingAnnotation(IdArrayBinder.IdArrayBinderFactory.class)
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.PARAMETER})
+  public @interface IdArrayBinder {
+    public static class IdArrayBinderFactory implements BinderFactory {
+      @Override
+      public Binder build(Annotation annotation) {
+        return new Binder<IdArrayBinder, long[]>() {
+          @Override
+          public void bind(SQLStatement<?> sql,
+                           IdArrayBinder idArrayBinder,
+                           final long[] ids)
+          {
+            sql.bind("ids", new Argument() {
+              @Override
+              public void apply(int position, PreparedStatement statement, StatementContext context)
+                  throws SQLException
+              {
+                Long[] values = new Long[ids.length];
+
+                for (int i=0;i<ids.length;i++) {
+                  values[i] = ids[i];
+                }
+
+                statement.setArray(position, statement.getConnection().createArrayOf("int8", values));
+              }
+            });
+          }
+        };
+      }
+    }
+  }
+
+  @BindingAnnotation(AcknowledgedMessagesBinder.AcknowledgedMessagesBinderFactory.class)
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.PARAMETER})
+  public @interface AcknowledgedMessagesBinder {
+    public static class AcknowledgedMessagesBinderFactory implements BinderFactory {
+      @Override
+      public Binder build(Annotation annotation) {
+        return new Binder<AcknowledgedMessagesBinder, List<AcknowledgedMessage>>() {
+          @Override
+          public void bind(SQLStatement<?> sql,
+                           AcknowledgedMessagesBinder acknowledgedMessagesBinder,
+                           List<AcknowledgedMessage> messages)
+          {
+            final String[] sources    = new String[messages.size()];
+            final Long[]   timestamps = new Long[messages.size()];
+
+            for (int i=0;i<messages.size();i++) {
+              sources[i]    = messages.get(i).getSource();
+              timestamps[i] = messages.get(i).getTimestamp();
+            }
+
+            sql.bind("sources", new Argument() {
+              @Override
+              public void apply(int position, PreparedStatement statement, StatementContext context)
+                  throws SQLException
+              {
+                statement.setArray(position, statement.getConnection().createArrayOf("text", sources));
+              }
+            });
+
+            sql.bind("timestamps", new Argument() {
+              @Override
+              public void apply(int position, PreparedStatement statement, StatementContext context)
+                  throws SQLException
+              {
+                statement.setArray(position, statement.getConnection().createArrayOf("int8", timestamps));
+              }
+            });
+          }
+        };
+      }
+    }
+  }
+
 }
@@ -0,0 +1,541 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.google.common.base.Optional;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+/**
+ * A Redis hot tier for offline message queues.
+ *
+ * Each destination device gets a sorted set of message ids, a hash of id to
+ * serialized {@link Envelope}, and a hash of source and timestamp to id.  Queues are
+ * registered in a persist index scored by the time they were first written to, so
+ * that {@link MessagePersister} can move queues which have been sitting for too long
+ * (or have grown too deep) into the {@link Messages} table.
+ *
+ * Ids being persisted are marked first, and acknowledging a marked id leaves a
+ * tombstone, so that the persister can delete the row it has just written for a
+ * message which was acknowledged in the meantime.  A queue is persisted by one pass
+ * at a time, which holds an expiring claim on it and loses its claim if it stalls.
+ */
+public class MessagesCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessagesCache.class);
+
+  private static final String QUEUE_KEY_PREFIX    = "user_queue::";
+  private static final String METADATA_KEY_PREFIX = "user_queue_metadata::";
+  private static final String DEVICES_KEY_PREFIX  = "user_queue_devices::";
+  private static final String INDEX_KEY_PREFIX    = "user_queue_index::";
+  private static final String PERSISTING_PREFIX   = "user_queue_persisting::";
+  private static final String ACKED_KEY_PREFIX    = "user_queue_acked::";
+  private static final String CLAIM_KEY_PREFIX    = "user_queue_claim::";
+  private static final String PERSIST_INDEX_KEY   = "user_queue_persist_index";
+  private static final String COUNTER_KEY         = "user_queue_counter";
+
+  private static final byte[] REMOVE_SCRIPT = ("local message = redis.call('hget', KEYS[2], ARGV[1])\n"    +
+                                               "if redis.call('zrem', KEYS[1], ARGV[1]) == 0 then\n"       +
+                                               "  return nil\n"                                            +
+                                               "end\n"                                                     +
+                                               "redis.call('hdel', KEYS[2], ARGV[1])\n"                    +
+                                               "if redis.call('hget', KEYS[3], ARGV[2]) == ARGV[1] then\n" +
+                                               "  redis.call('hdel', KEYS[3], ARGV[2])\n"                  +
+                                               "end\n"                                                     +
+                                               "if redis.call('sismember', KEYS[4], ARGV[1]) == 1 then\n"  +
+                                               "  redis.call('sadd', KEYS[5], ARGV[1])\n"                  +
+                                               "end\n"                                                     +
+                                               "return message").getBytes();
+
+  private static final long PERSIST_CLAIM_MILLIS = 60 * 1000;
+
+  private static final String BEGIN_PERSIST_SCRIPT = "if redis.call('get', KEYS[3]) ~= ARGV[2] then\n"                                         +
+                                                     "  return false\n"                                                                        +
+                                                     "end\n"                                                                                   +
+                                                     "redis.call('pexpire', KEYS[3], ARGV[3])\n"                                               +
+                                                     "local ids = redis.call('zrangebyscore', KEYS[1], '-inf', '+inf', 'LIMIT', 0, ARGV[1])\n" +
+                                                     "if #ids > 0 then\n"                                                                      +
+                                                     "  redis.call('sadd', KEYS[2], unpack(ids))\n"                                            +
+                                                     "end\n"                                                                                   +
+                                                     "return ids";
+
+  private static final String END_PERSIST_SCRIPT = "if redis.call('get', KEYS[6]) ~= ARGV[1] then\n"                 +
+                                                   "  return false\n"                                                +
+                                                   "end\n"                                                           +
+                                                   "for i = 2, #ARGV, 2 do\n"                                        +
+                                                   "  redis.call('zrem', KEYS[1], ARGV[i])\n"                        +
+                                                   "  redis.call('hdel', KEYS[2], ARGV[i])\n"                        +
+                                                   "  if redis.call('hget', KEYS[3], ARGV[i + 1]) == ARGV[i] then\n" +
+                                                   "    redis.call('hdel', KEYS[3], ARGV[i + 1])\n"                  +
+                                                   "  end\n"                                                         +
+                                                   "end\n"                                                           +
+                                                   "local acked = redis.call('smembers', KEYS[5])\n"                 +
+                                                   "redis.call('del', KEYS[4], KEYS[5])\n"                           +
+                                                   "return acked";
+
+  private static final String RELEASE_CLAIM_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then\n" +
+                                                     "  return redis.call('del', KEYS[1])\n"           +
+                                                     "end\n"                                           +
+                                                     "return 0";
+
+  private final JedisPool jedisPool;
+  private final int       maxQueueDepth;
+
+  public MessagesCache(JedisPool jedisPool, int maxQueueDepth) {
+    this.jedisPool     = jedisPool;
+    this.maxQueueDepth = maxQueueDepth;
+  }
+
+  public int insert(String destination, long destinationDevice, Envelope message) {
+    Key key = new Key(destination, destinationDevice);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      String messageId = String.valueOf(jedis.incr(COUNTER_KEY));
+
+      Transaction transaction = jedis.multi();
+      transaction.hset(key.getMetadataKey(), messageId.getBytes(), message.toByteArray());
+      transaction.zadd(key.getQueueKey(), Double.valueOf(messageId), messageId);
+      transaction.hsetnx(key.getIndexKey(), getIndexField(message.getSource(), message.getTimestamp()), messageId);
+      transaction.sadd(key.getDevicesKey(), String.valueOf(destinationDevice));
+      Response<Long> queueDepth = transaction.zcard(key.getQueueKey());
+      transaction.exec();
+
+      int depth = queueDepth.get().intValue();
+
+      if      (depth == 1)            jedis.zadd(PERSIST_INDEX_KEY, System.currentTimeMillis(), key.toString());
+      else if (depth > maxQueueDepth) jedis.zadd(PERSIST_INDEX_KEY, 0, key.toString());
+
+      return depth;
+    }
+  }
+
+  public List<OutgoingMessageEntity> get(String destination, long destinationDevice, int limit) {
+    return get(destination, destinationDevice, 0, limit);
+  }
+
+  public List<OutgoingMessageEntity> get(String destination, long destinationDevice, long afterId, int limit) {
+    List<OutgoingMessageEntity> results = new LinkedList<>();
+
+    for (Pair<Long, Envelope> item : getItems(new Key(destination, destinationDevice), afterId, limit)) {
+      results.add(constructEntity(item.first(), item.second()));
+    }
+
+    return results;
+  }
+
+  /**
+   * @return The number of cached (non-receipt) messages for a destination device,
+   *         counted the same way as the queue depth counter.
+   */
+  public int getDepth(String destination, long destinationDevice) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      int depth = 0;
+
+      for (byte[] item : jedis.hvals(new Key(destination, destinationDevice).getMetadataKey())) {
+        try {
+          if (Envelope.parseFrom(item).getType() != Envelope.Type.RECEIPT) depth++;
+        } catch (InvalidProtocolBufferException e) {
+          logger.warn("Bad cached message", e);
+        }
+      }
+
+      return depth;
+    }
+  }
+
+  public Optional<OutgoingMessageEntity> remove(String destination, long destinationDevice, long id) {
+    Key key = new Key(destination, destinationDevice);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      byte[] message = jedis.hget(key.getMetadataKey(), String.valueOf(id).getBytes());
+
+      if (message == null) {
+        return Optional.absent();
+      }
+
+      Envelope envelope = Envelope.parseFrom(message);
+      return remove(jedis, key, id, getIndexField(envelope.getSource(), envelope.getTimestamp()));
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Bad cached message", e);
+      return Optional.absent();
+    }
+  }
+
+  public Optional<OutgoingMessageEntity> remove(String destination, long destinationDevice,
+                                                String source, long timestamp)
+  {
+    Key key = new Key(destination, destinationDevice);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      String indexField = getIndexField(source, timestamp);
+      String messageId  = jedis.hget(key.getIndexKey(), indexField);
+
+      if (messageId == null) {
+        return Optional.absent();
+      }
+
+      return remove(jedis, key, Long.parseLong(messageId), indexField);
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Bad cached message", e);
+      return Optional.absent();
+    }
+  }
+
+  public void clear(String destination) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      for (String device : jedis.smembers(DEVICES_KEY_PREFIX + destination)) {
+        clear(jedis, new Key(destination, Long.parseLong(device)));
+      }
+
+      jedis.del(DEVICES_KEY_PREFIX + destination);
+    }
+  }
+
+  public void clear(String destination, long destinationDevice) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Key key = new Key(destination, destinationDevice);
+
+      clear(jedis, key);
+      jedis.srem(key.getDevicesKey(), String.valueOf(destinationDevice));
+    }
+  }
+
+  /**
+   * @return The type of each message cached for a destination, by id, for each of its devices.
+   */
+  Map<Long, Map<Long, Integer>> getTypes(String destination) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Map<Long, Map<Long, Integer>> results = new HashMap<>();
+
+      for (String device : jedis.smembers(DEVICES_KEY_PREFIX + destination)) {
+        Key                key   = new Key(destination, Long.parseLong(device));
+        Map<Long, Integer> types = new HashMap<>();
+
+        for (Map.Entry<byte[], byte[]> item : jedis.hgetAll(key.getMetadataKey()).entrySet()) {
+          try {
+            types.put(Long.parseLong(new String(item.getKey())), Envelope.parseFrom(item.getValue()).getType().getNumber());
+          } catch (InvalidProtocolBufferException e) {
+            logger.warn("Bad cached message", e);
+          }
+        }
+
+        results.put(key.getDestinationDevice(), types);
+      }
+
+      return results;
+    }
+  }
+
+  /**
+   * @return Up to {@code limit} queue keys first written to before {@code maxTimestamp},
+   *         or marked for persistence because they grew past the maximum queue depth.
+   */
+  public Set<String> getQueuesToPersist(long maxTimestamp, int limit) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.zrangeByScore(PERSIST_INDEX_KEY, 0, maxTimestamp, 0, limit);
+    }
+  }
+
+  /**
+   * Claims a queue for one persist pass, unless another pass holds a live claim on it.
+   * The claim expires if it isn't renewed, which each batch the pass takes does.
+   */
+  public boolean claimForPersist(String queue, String owner) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return "OK".equals(jedis.set(Key.fromString(queue).getClaimKey(), owner, "NX", "PX", PERSIST_CLAIM_MILLIS));
+    }
+  }
+
+  public void releasePersistClaim(String queue, String owner) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.eval(RELEASE_CLAIM_SCRIPT, Collections.singletonList(Key.fromString(queue).getClaimKey()),
+                 Collections.singletonList(owner));
+    }
+  }
+
+  /**
+   * @return The ids marked as being persisted by a pass which never completed, whose
+   *         rows may already have been written.  Only a pass which has just claimed the
+   *         queue can be sure that the pass which marked them has stopped.
+   */
+  public Set<Long> getPersisting(String queue) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Set<Long> ids = new HashSet<>();
+
+      for (String id : jedis.smembers(Key.fromString(queue).getPersistingKey())) {
+        ids.add(Long.parseLong(id));
+      }
+
+      return ids;
+    }
+  }
+
+  /**
+   * Marks up to {@code limit} of the oldest messages in a queue as being persisted,
+   * and returns them, renewing the owner's claim.
+   *
+   * @return Absent if the owner's claim on the queue has been lost.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<List<Pair<Long, Envelope>>> getItemsToPersist(String queue, String owner, int limit) {
+    Key key = Key.fromString(queue);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> ids = (List<String>)jedis.eval(BEGIN_PERSIST_SCRIPT,
+                                                  Arrays.asList(key.getQueueKey(), key.getPersistingKey(), key.getClaimKey()),
+                                                  Arrays.asList(String.valueOf(limit), owner, String.valueOf(PERSIST_CLAIM_MILLIS)));
+
+      if (ids == null) return Optional.absent();
+      else             return Optional.of(getItems(jedis, key, ids, false));
+    }
+  }
+
+  /**
+   * Removes messages which have been written to the database from the queue, and
+   * clears the persisting mark.
+   *
+   * @return The ids which were acknowledged while being persisted, whose rows should
+   *         now be deleted, or absent if the owner's claim on the queue has been lost
+   *         and nothing was removed.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<List<Long>> removePersisted(String queue, String owner, List<Pair<Long, Envelope>> persisted) {
+    Key          key  = Key.fromString(queue);
+    List<String> args = new LinkedList<>();
+
+    args.add(owner);
+
+    for (Pair<Long, Envelope> item : persisted) {
+      args.add(String.valueOf(item.first()));
+      args.add(getIndexField(item.second().getSource(), item.second().getTimestamp()));
+    }
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> acked = (List<String>)jedis.eval(END_PERSIST_SCRIPT,
+                                                    Arrays.asList(key.getQueueKey(), new String(key.getMetadataKey()),
+                                                                  key.getIndexKey(), key.getPersistingKey(),
+                                                                  key.getAckedKey(), key.getClaimKey()),
+                                                    args);
+
+      if (acked == null) {
+        return Optional.absent();
+      }
+
+      List<Long> ids = new LinkedList<>();
+
+      for (String id : acked) {
+        ids.add(Long.parseLong(id));
+      }
+
+      return Optional.of(ids);
+    }
+  }
+
+  /**
+   * Drops a queue from the persist index, unless it was written to again in the meantime.
+   */
+  public void unindexIfEmpty(String queue) {
+    Key key = Key.fromString(queue);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.watch(key.getQueueKey());
+
+      if (jedis.zcard(key.getQueueKey()) == 0) {
+        Transaction transaction = jedis.multi();
+        transaction.zrem(PERSIST_INDEX_KEY, queue);
+        transaction.exec();
+      } else {
+        jedis.unwatch();
+      }
+    }
+  }
+
+  private List<Pair<Long, Envelope>> getItems(Key key, long afterId, int limit) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Set<String> ids = jedis.zrangeByScore(key.getQueueKey(), "(" + afterId, "+inf", 0, limit);
+      return getItems(jedis, key, ids, true);
+    }
+  }
+
+  /**
+   * @param removeMissing Whether ids without a message should be treated as corrupt
+   *                      and removed, rather than as acknowledged since they were read.
+   */
+  private List<Pair<Long, Envelope>> getItems(Jedis jedis, Key key, Iterable<String> ids, boolean removeMissing) {
+    List<Pair<Long, Envelope>> results = new LinkedList<>();
+    List<String>               idList  = new LinkedList<>();
+
+    for (String id : ids) {
+      idList.add(id);
+    }
+
+    if (idList.isEmpty()) {
+      return results;
+    }
+
+    byte[][] fields = new byte[idList.size()][];
+    int      index  = 0;
+
+    for (String id : idList) {
+      fields[index++] = id.getBytes();
+    }
+
+    List<byte[]> items = jedis.hmget(key.getMetadataKey(), fields);
+
+    index = 0;
+
+    for (String id : idList) {
+      byte[] item = items.get(index++);
+
+      try {
+        if (item == null && !removeMissing) continue;
+        if (item == null)                   throw new InvalidProtocolBufferException("Missing cached message: " + id);
+
+        results.add(new Pair<>(Long.parseLong(id), Envelope.parseFrom(item)));
+      } catch (InvalidProtocolBufferException e) {
+        logger.warn("Bad cached message", e);
+        jedis.zrem(key.getQueueKey(), id);
+        jedis.hdel(key.getMetadataKey(), id.getBytes());
+      }
+    }
+
+    return results;
+  }
+
+  private Optional<OutgoingMessageEntity> remove(Jedis jedis, Key key, long id, String indexField)
+      throws InvalidProtocolBufferException
+  {
+    byte[] message = (byte[])jedis.eval(REMOVE_SCRIPT,
+                                        Arrays.asList(key.getQueueKey().getBytes(), key.getMetadataKey(),
+                                                      key.getIndexKey().getBytes(), key.getPersistingKey().getBytes(),
+                                                      key.getAckedKey().getBytes()),
+                                        Arrays.asList(String.valueOf(id).getBytes(), indexField.getBytes()));
+
+    if (message == null) {
+      return Optional.absent();
+    }
+
+    return Optional.of(constructEntity(id, Envelope.parseFrom(message)));
+  }
+
+  private String getIndexField(String source, long timestamp) {
+    return source + "::" + timestamp;
+  }
+
+  private OutgoingMessageEntity constructEntity(long id, Envelope message) {
+    return new OutgoingMessageEntity(id, true,
+                                     message.getType().getNumber(),
+                                     message.hasRelay() ? message.getRelay() : null,
+                                     message.getTimestamp(),
+                                     message.getSource(),
+                                     message.getSourceDevice(),
+                                     message.hasLegacyMessage() ? message.getLegacyMessage().toByteArray() : null,
+                                     message.hasContent() ? message.getContent().toByteArray() : null);
+  }
+
+  /**
+   * The persisting mark and acknowledged set go with the queue, since ids from a
+   * pass over the old queue would otherwise apply to the new one.
+   */
+  private void clear(Jedis jedis, Key key) {
+    Transaction transaction = jedis.multi();
+    transaction.del(key.getQueueKey());
+    transaction.del(key.getMetadataKey());
+    transaction.del(key.getIndexKey());
+    transaction.del(key.getPersistingKey());
+    transaction.del(key.getAckedKey());
+    transaction.zrem(PERSIST_INDEX_KEY, key.toString());
+    transaction.exec();
+  }
+
+  static class Key {
+
+    private static final String SEPARATOR = "::";
+
+    private final String destination;
+    private final long   destinationDevice;
+
+    Key(String destination, long destinationDevice) {
+      this.destination       = destination;
+      this.destinationDevice = destinationDevice;
+    }
+
+    static Key fromString(String queue) {
+      int separator = queue.lastIndexOf(SEPARATOR);
+      return new Key(queue.substring(0, separator), Long.parseLong(queue.substring(separator + SEPARATOR.length())));
+    }
+
+    String getDestination() {
+      return destination;
+    }
+
+    long getDestinationDevice() {
+      return destinationDevice;
+    }
+
+    String getQueueKey() {
+      return QUEUE_KEY_PREFIX + toString();
+    }
+
+    byte[] getMetadataKey() {
+      return (METADATA_KEY_PREFIX + toString()).getBytes();
+    }
+
+    String getIndexKey() {
+      return INDEX_KEY_PREFIX + toString();
+    }
+
+    String getPersistingKey() {
+      return PERSISTING_PREFIX + toString();
+    }
+
+    String getAckedKey() {
+      return ACKED_KEY_PREFIX + toString();
+    }
+
+    String getClaimKey() {
+      return CLAIM_KEY_PREFIX + toString();
+    }
+
+    String getDevicesKey() {
+      return DEVICES_KEY_PREFIX + destination;
+    }
+
+    @Override
+    public String toString() {
+      return destination + SEPARATOR + destinationDevice;
+    }
+  }
+}
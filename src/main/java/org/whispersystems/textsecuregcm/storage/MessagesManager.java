@@ -2,42 +2,206 @@ package org.whispersystems.textsecuregcm.storage;
 
 
 import com.google.common.base.Optional;
+import org.whispersystems.textsecuregcm.entities.AcknowledgedMessage;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntityList;
+import org.whispersystems.textsecuregcm.util.Pair;
 
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 public class MessagesManager {
 
-  private final Messages messages;
+  private final MessageShards                messages;
+  private final Optional<MessageBatchWriter> batchWriter;
+  private final Optional<MessagesCache>      messagesCache;
+  private final QueueDepthCounter            queueDepthCounter;
+  private final QueueTrimmer                 queueTrimmer;
+  private final int                          trimDepth;
 
-  public MessagesManager(Messages messages) {
-    this.messages = messages;
+  public MessagesManager(MessageShards messages, Optional<MessageBatchWriter> batchWriter,
+                         Optional<MessagesCache> messagesCache,
+                         QueueDepthCounter queueDepthCounter, QueueTrimmer queueTrimmer,
+                         int maxQueueDepth)
+  {
+    this.messages          = messages;
+    this.batchWriter       = batchWriter;
+    this.messagesCache     = messagesCache;
+    this.queueDepthCounter = queueDepthCounter;
+    this.queueTrimmer      = queueTrimmer;
+    this.trimDepth         = maxQueueDepth + QueueTrimmer.getSlack(maxQueueDepth);
   }
 
   public int insert(String destination, long destinationDevice, Envelope message) {
-    return this.messages.store(message, destination, destinationDevice) + 1;
+    if      (messagesCache.isPresent()) messagesCache.get().insert(destination, destinationDevice, message);
+    else if (batchWriter.isPresent())   batchWriter.get().store(message, destination, destinationDevice);
+    else                                this.messages.get(destination).store(message, destination, destinationDevice);
+
+    if (message.getType() == Envelope.Type.RECEIPT) {
+      return queueDepthCounter.get(destination, destinationDevice);
+    }
+
+    int depth = queueDepthCounter.increment(destination, destinationDevice);
+
+    if (depth > trimDepth) {
+      queueTrimmer.trim(destination, destinationDevice);
+    }
+
+    return depth;
   }
 
   public OutgoingMessageEntityList getMessagesForDevice(String destination, long destinationDevice) {
-    List<OutgoingMessageEntity> messages = this.messages.load(destination, destinationDevice);
+    List<OutgoingMessageEntity> messages = getMessagesForDevice(destination, destinationDevice, new Cursor(), Messages.RESULT_SET_CHUNK_SIZE);
     return new OutgoingMessageEntityList(messages, messages.size() >= Messages.RESULT_SET_CHUNK_SIZE);
   }
 
+  /**
+   * Reads the next page of queued messages after {@code cursor}, stored messages first,
+   * and advances the cursor past them.  Rows persisted from the cache after their cached
+   * copy was read are skipped.
+   */
+  public List<OutgoingMessageEntity> getMessagesForDevice(String destination, long destinationDevice,
+                                                          Cursor cursor, int limit)
+  {
+    List<OutgoingMessageEntity> messages = this.messages.get(destination).load(destination, destinationDevice, cursor.storedId, cursor.cachedId, limit);
+
+    if (messagesCache.isPresent() && messages.size() < limit) {
+      messages = new LinkedList<>(messages);
+      messages.addAll(messagesCache.get().get(destination, destinationDevice, cursor.cachedId, limit - messages.size()));
+    }
+
+    for (OutgoingMessageEntity message : messages) {
+      if (message.isCached()) cursor.cachedId = Math.max(cursor.cachedId, message.getId());
+      else                    cursor.storedId = Math.max(cursor.storedId, message.getId());
+    }
+
+    return messages;
+  }
+
   public void clear(String destination) {
-    this.messages.clear(destination);
+    if (messagesCache.isPresent()) {
+      messagesCache.get().clear(destination);
+    }
+
+    this.messages.get(destination).clear(destination);
+    this.queueDepthCounter.clear(destination);
   }
 
   public void clear(String destination, long deviceId) {
-    this.messages.clear(destination, deviceId);
+    if (messagesCache.isPresent()) {
+      messagesCache.get().clear(destination, deviceId);
+    }
+
+    this.messages.get(destination).clear(destination, deviceId);
+    this.queueDepthCounter.clear(destination, deviceId);
   }
 
-  public Optional<OutgoingMessageEntity> delete(String destination, String source, long timestamp) {
-    return Optional.fromNullable(this.messages.remove(destination, source, timestamp));
+  public Optional<OutgoingMessageEntity> delete(String destination, long destinationDevice, String source, long timestamp) {
+    Optional<OutgoingMessageEntity> removed = Optional.fromNullable(this.messages.get(destination).remove(destination, destinationDevice, source, timestamp));
+
+    if (!removed.isPresent() && messagesCache.isPresent()) {
+      removed = messagesCache.get().remove(destination, destinationDevice, source, timestamp);
+    }
+
+    if (removed.isPresent() && removed.get().getType() != Envelope.Type.RECEIPT_VALUE) {
+      queueDepthCounter.decrement(destination, destinationDevice, 1);
+    }
+
+    return removed;
   }
 
-  public void delete(String destination, long id) {
-    this.messages.remove(destination, id);
+  /**
+   * Removes each acknowledged message from the queue, stored messages in one statement.
+   *
+   * @return The messages which were found and removed.
+   */
+  public List<OutgoingMessageEntity> delete(String destination, long destinationDevice,
+                                            List<AcknowledgedMessage> acknowledged)
+  {
+    List<OutgoingMessageEntity> removed = new LinkedList<>(this.messages.get(destination).remove(destination, destinationDevice, acknowledged));
+
+    if (messagesCache.isPresent() && removed.size() < acknowledged.size()) {
+      Set<Pair<String, Long>> found = new HashSet<>();
+
+      for (OutgoingMessageEntity message : removed) {
+        found.add(new Pair<>(message.getSource(), message.getTimestamp()));
+      }
+
+      for (AcknowledgedMessage message : acknowledged) {
+        if (!found.contains(new Pair<>(message.getSource(), message.getTimestamp()))) {
+          removed.addAll(messagesCache.get().remove(destination, destinationDevice, message.getSource(), message.getTimestamp()).asSet());
+        }
+      }
+    }
+
+    int count = 0;
+
+    for (OutgoingMessageEntity message : removed) {
+      if (message.getType() != Envelope.Type.RECEIPT_VALUE) count++;
+    }
+
+    queueDepthCounter.decrement(destination, destinationDevice, count);
+
+    return removed;
+  }
+
+  public void delete(String destination, long destinationDevice, long[] ids, boolean cached) {
+    int removed = 0;
+
+    if (cached && messagesCache.isPresent()) {
+      List<Long> persisted = new LinkedList<>();
+
+      for (long id : ids) {
+        Optional<OutgoingMessageEntity> message = messagesCache.get().remove(destination, destinationDevice, id);
+
+        if      (!message.isPresent())                                   persisted.add(id);
+        else if (message.get().getType() != Envelope.Type.RECEIPT_VALUE) removed++;
+      }
+
+      if (!persisted.isEmpty()) {
+        for (int type : this.messages.get(destination).removeByCachedIds(destination, destinationDevice, toArray(persisted))) {
+          if (type != Envelope.Type.RECEIPT_VALUE) removed++;
+        }
+      }
+    } else if (!cached) {
+      for (int type : this.messages.get(destination).remove(destination, ids)) {
+        if (type != Envelope.Type.RECEIPT_VALUE) removed++;
+      }
+    }
+
+    queueDepthCounter.decrement(destination, destinationDevice, removed);
+  }
+
+  private long[] toArray(List<Long> ids) {
+    long[] results = new long[ids.size()];
+    int    index   = 0;
+
+    for (long id : ids) {
+      results[index++] = id;
+    }
+
+    return results;
+  }
+
+  /**
+   * Position of a drain through a device's queue.  The stored and cached tiers
+   * are keyed by independent ids, so each keeps its own high-water mark.  Ids are
+   * assigned before commit, so a drain which reached the end has to read the queue
+   * again from the start to pick up stored messages that committed out of order.
+   */
+  public static class Cursor {
+    private long storedId;
+    private long cachedId;
+
+    /**
+     * Moves the cursor back to the start of the queue.
+     */
+    public void reset() {
+      storedId = 0;
+      cachedId = 0;
+    }
   }
 }
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.google.common.base.Optional;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Transaction;
+
+/**
+ * Maintains the number of queued (non-receipt) messages per destination device,
+ * so that the queue depth doesn't need to be counted on every insert.
+ */
+public class QueueDepthCounter {
+
+  private static final String KEY_PREFIX = "queue_depth::";
+
+  private static final int MAX_RECONCILE_ATTEMPTS = 5;
+
+  private static final String DECREMENT_SCRIPT = "local depth = redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2])\n" +
+                                                 "if depth <= 0 then\n"                                              +
+                                                 "  redis.call('hdel', KEYS[1], ARGV[1])\n"                          +
+                                                 "  depth = 0\n"                                                     +
+                                                 "end\n"                                                             +
+                                                 "return depth";
+
+  private final JedisPool jedisPool;
+
+  public QueueDepthCounter(JedisPool jedisPool) {
+    this.jedisPool = jedisPool;
+  }
+
+  public int increment(String destination, long destinationDevice) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.hincrBy(getKey(destination), String.valueOf(destinationDevice), 1).intValue();
+    }
+  }
+
+  public void decrement(String destination, long destinationDevice, long count) {
+    if (count <= 0) return;
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> keys = Collections.singletonList(getKey(destination));
+      List<String> args = new LinkedList<>();
+      args.add(String.valueOf(destinationDevice));
+      args.add(String.valueOf(-count));
+
+      jedis.eval(DECREMENT_SCRIPT, keys, args);
+    }
+  }
+
+  public int get(String destination, long destinationDevice) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      String depth = jedis.hget(getKey(destination), String.valueOf(destinationDevice));
+
+      if (depth == null) return 0;
+      else               return Integer.parseInt(depth);
+    }
+  }
+
+  public void clear(String destination) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.del(getKey(destination));
+    }
+  }
+
+  public void clear(String destination, long destinationDevice) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.hdel(getKey(destination), String.valueOf(destinationDevice));
+    }
+  }
+
+  /**
+   * Replaces a destination's depths with a fresh count.  The count is retried if the
+   * depths change while it's being taken, since the change may or may not be in it.
+   *
+   * @return Whether the count was stored.
+   */
+  public boolean reconcile(String destination, Source source) {
+    String key = getKey(destination);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      for (int i=0;i<MAX_RECONCILE_ATTEMPTS;i++) {
+        jedis.watch(key);
+
+        Map<Long, Long> depths      = source.count(destination);
+        Transaction     transaction = jedis.multi();
+
+        transaction.del(key);
+
+        for (Map.Entry<Long, Long> depth : depths.entrySet()) {
+          if (depth.getValue() > 0) {
+            transaction.hset(key, String.valueOf(depth.getKey()), String.valueOf(depth.getValue()));
+          }
+        }
+
+        if (transaction.exec() != null) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * Replaces a destination's depths with a fresh count, but only once the count can be
+   * trusted.  A write reaches the store before it reaches the depths, so a single count
+   * may include a message whose increment is still on its way.  The count is stored if
+   * it agrees with the previous one, or if the depths haven't moved since the previous
+   * one was taken, and nothing changes them while it's being taken.
+   *
+   * @return The count, with the depths it was taken against.
+   */
+  public Recount reconcile(String destination, Optional<Recount> previous, Source source) {
+    String key = getKey(destination);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.watch(key);
+
+      Map<Long, Long> stored  = getDepths(jedis.hgetAll(key));
+      Map<Long, Long> counted = getNonEmpty(source.count(destination));
+
+      boolean trusted = previous.isPresent() &&
+                        (previous.get().getCounted().equals(counted) || previous.get().getStored().equals(stored));
+
+      if (stored.equals(counted) || !trusted) {
+        jedis.unwatch();
+        return new Recount(stored, counted, false);
+      }
+
+      Transaction transaction = jedis.multi();
+      transaction.del(key);
+
+      for (Map.Entry<Long, Long> depth : counted.entrySet()) {
+        transaction.hset(key, String.valueOf(depth.getKey()), String.valueOf(depth.getValue()));
+      }
+
+      return new Recount(stored, counted, transaction.exec() != null);
+    }
+  }
+
+  /**
+   * Walks the destinations which have a depth, a page at a time.
+   */
+  public ScanResult<String> getDestinations(String cursor, int count) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      ScanResult<String> keys         = jedis.scan(cursor, new ScanParams().match(KEY_PREFIX + "*").count(count));
+      List<String>       destinations = new LinkedList<>();
+
+      for (String key : keys.getResult()) {
+        destinations.add(key.substring(KEY_PREFIX.length()));
+      }
+
+      return new ScanResult<>(keys.getStringCursor(), destinations);
+    }
+  }
+
+  private String getKey(String destination) {
+    return KEY_PREFIX + destination;
+  }
+
+  private Map<Long, Long> getDepths(Map<String, String> fields) {
+    Map<Long, Long> depths = new HashMap<>();
+
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      depths.put(Long.parseLong(field.getKey()), Long.parseLong(field.getValue()));
+    }
+
+    return depths;
+  }
+
+  private Map<Long, Long> getNonEmpty(Map<Long, Long> counted) {
+    Map<Long, Long> depths = new HashMap<>();
+
+    for (Map.Entry<Long, Long> depth : counted.entrySet()) {
+      if (depth.getValue() > 0) depths.put(depth.getKey(), depth.getValue());
+    }
+
+    return depths;
+  }
+
+  public interface Source {
+    /**
+     * @return The number of queued (non-receipt) messages for each of a destination's devices.
+     */
+    public Map<Long, Long> count(String destination);
+  }
+
+  public static class Recount {
+    private final Map<Long, Long> stored;
+    private final Map<Long, Long> counted;
+    private final boolean         applied;
+
+    public Recount(Map<Long, Long> stored, Map<Long, Long> counted, boolean applied) {
+      this.stored  = stored;
+      this.counted = counted;
+      this.applied = applied;
+    }
+
+    public Map<Long, Long> getStored() {
+      return stored;
+    }
+
+    public Map<Long, Long> getCounted() {
+      return counted;
+    }
+
+    public boolean isApplied() {
+      return applied;
+    }
+
+    /**
+     * @return Whether the depths were stored, or already matched the count.
+     */
+    public boolean isSettled() {
+      return applied || stored.equals(counted);
+    }
+  }
+}
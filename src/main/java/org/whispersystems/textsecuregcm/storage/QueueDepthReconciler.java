@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.util.Constants;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Recounts queue depths from the message store, correcting the drift left in the
+ * {@link QueueDepthCounter} when a node dies between writing a message and counting it.
+ * Counted queues are walked a page at a time in the background, by whichever node
+ * holds the lease.  A queue whose count disagrees with its depths is counted again on
+ * the next pass, and only corrected once the second count confirms the first.
+ */
+public class QueueDepthReconciler implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(QueueDepthReconciler.class);
+
+  private static final int  PAGE_SIZE        = 100;
+  private static final int  INTERVAL_SECONDS = 60;
+  private static final long LEASE_MILLIS     = TimeUnit.SECONDS.toMillis(INTERVAL_SECONDS * 3);
+
+  private final MetricRegistry metricRegistry  = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          reconciledMeter = metricRegistry.meter(name(QueueDepthReconciler.class, "reconciled"));
+  private final Meter          failedMeter     = metricRegistry.meter(name(QueueDepthReconciler.class, "failed"));
+
+  private final Map<String, QueueDepthCounter.Recount> unsettled = new HashMap<>();
+
+  private final MessageShards           messages;
+  private final Optional<MessagesCache> messagesCache;
+  private final QueueDepthCounter       queueDepthCounter;
+  private final Lease                   lease;
+
+  private ScheduledExecutorService executor;
+  private String                   cursor = ScanParams.SCAN_POINTER_START;
+
+  public QueueDepthReconciler(MessageShards messages, Optional<MessagesCache> messagesCache,
+                              QueueDepthCounter queueDepthCounter, JedisPool jedisPool)
+  {
+    this.messages          = messages;
+    this.messagesCache     = messagesCache;
+    this.queueDepthCounter = queueDepthCounter;
+    this.lease             = new Lease(jedisPool, "queue_depth_reconciler", LEASE_MILLIS);
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+      this.executor.awaitTermination(INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    lease.release();
+  }
+
+  /**
+   * The lease is kept between passes, so the node holding it carries on walking from
+   * its own cursor.  Queues left unsettled by the last pass are counted again first;
+   * any still unsettled are left for the walk to come back to.
+   */
+  @Override
+  public void run() {
+    try {
+      if (!lease.renew() && !lease.acquire()) {
+        unsettled.clear();
+        return;
+      }
+
+      Map<String, QueueDepthCounter.Recount> previous = new HashMap<>(unsettled);
+      unsettled.clear();
+
+      for (Map.Entry<String, QueueDepthCounter.Recount> recount : previous.entrySet()) {
+        if (!recount(recount.getKey(), Optional.of(recount.getValue())).isSettled()) {
+          failedMeter.mark();
+        }
+      }
+
+      ScanResult<String> page = queueDepthCounter.getDestinations(cursor, PAGE_SIZE);
+
+      for (String destination : page.getResult()) {
+        if (previous.containsKey(destination)) continue;
+
+        QueueDepthCounter.Recount recount = recount(destination, Optional.<QueueDepthCounter.Recount>absent());
+        if (!recount.isSettled()) unsettled.put(destination, recount);
+      }
+
+      cursor = page.getStringCursor();
+    } catch (Throwable t) {
+      logger.warn("Error reconciling queue depths", t);
+    }
+  }
+
+  private QueueDepthCounter.Recount recount(String destination, Optional<QueueDepthCounter.Recount> previous) {
+    QueueDepthCounter.Recount recount = queueDepthCounter.reconcile(destination, previous, new StoreSource());
+    if (recount.isApplied()) reconciledMeter.mark();
+    return recount;
+  }
+
+  public void reconcile(String destination) {
+    if (queueDepthCounter.reconcile(destination, new StoreSource())) {
+      reconciledMeter.mark();
+    } else {
+      logger.warn("Queue depth kept changing while reconciling: " + destination);
+      failedMeter.mark();
+    }
+  }
+
+  /**
+   * Counts both tiers.  Rows copied from the cache are only counted while their cached
+   * copy is gone, so a queue being persisted isn't counted twice.
+   */
+  private class StoreSource implements QueueDepthCounter.Source {
+    @Override
+    public Map<Long, Long> count(String destination) {
+      Map<Long, Long> depths    = new HashMap<>();
+      Set<Long>       cachedIds = new HashSet<>();
+
+      if (messagesCache.isPresent()) {
+        for (Map.Entry<Long, Map<Long, Integer>> device : messagesCache.get().getTypes(destination).entrySet()) {
+          long depth = 0;
+
+          for (Map.Entry<Long, Integer> message : device.getValue().entrySet()) {
+            cachedIds.add(message.getKey());
+            if (message.getValue() != Envelope.Type.RECEIPT_VALUE) depth++;
+          }
+
+          depths.put(device.getKey(), depth);
+        }
+      }
+
+      long[] excluded = new long[cachedIds.size()];
+      int    index    = 0;
+
+      for (long cachedId : cachedIds) {
+        excluded[index++] = cachedId;
+      }
+
+      for (Messages.QueueCount count : messages.get(destination).countQueues(destination, excluded)) {
+        Long depth = depths.get(count.getDestinationDevice());
+        depths.put(count.getDestinationDevice(), count.getCount() + (depth == null ? 0 : depth));
+      }
+
+      return depths;
+    }
+  }
+}
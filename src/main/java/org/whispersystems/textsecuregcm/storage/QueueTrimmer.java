@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Evicts the oldest messages from queues which have grown past the maximum depth,
+ * in batches, off the insert path.  Queues are trimmed back down to the maximum once
+ * they pass it by {@link #getSlack(int)}, so that a full queue isn't scanned on every
+ * insert.  The cache holds the newest part of a queue, so stored messages are evicted
+ * first, down to the room the cached ones leave.  Receipts don't count towards depth.
+ */
+public class QueueTrimmer implements Managed {
+
+  private static final Logger logger = LoggerFactory.getLogger(QueueTrimmer.class);
+
+  private static final int  BATCH_SIZE               = 100;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          evictedMeter   = metricRegistry.meter(name(QueueTrimmer.class, "evicted"));
+
+  private final Set<Pair<String, Long>> pending = Collections.newSetFromMap(new ConcurrentHashMap<Pair<String, Long>, Boolean>());
+
+  private final MessageShards           messages;
+  private final Optional<MessagesCache> messagesCache;
+  private final QueueDepthCounter       queueDepthCounter;
+  private final QueueDepthReconciler    queueDepthReconciler;
+  private final int                     maxQueueDepth;
+
+  private ExecutorService executor;
+
+  public QueueTrimmer(MessageShards messages, Optional<MessagesCache> messagesCache,
+                      QueueDepthCounter queueDepthCounter, QueueDepthReconciler queueDepthReconciler,
+                      int maxQueueDepth)
+  {
+    this.messages             = messages;
+    this.messagesCache        = messagesCache;
+    this.queueDepthCounter    = queueDepthCounter;
+    this.queueDepthReconciler = queueDepthReconciler;
+    this.maxQueueDepth        = maxQueueDepth;
+  }
+
+  /**
+   * @return How far past the maximum depth a queue may grow before it's trimmed.
+   */
+  public static int getSlack(int maxQueueDepth) {
+    return Math.max(1, maxQueueDepth / 10);
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadExecutor();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+      this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  public void trim(final String destination, final long destinationDevice) {
+    final Pair<String, Long> queue = new Pair<>(destination, destinationDevice);
+
+    if (executor == null || !pending.add(queue)) {
+      return;
+    }
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          trimQueue(destination, destinationDevice);
+        } catch (Throwable t) {
+          logger.warn("Error trimming queue", t);
+        } finally {
+          pending.remove(queue);
+        }
+      }
+    });
+  }
+
+  /**
+   * A queue which was over the maximum by its count, but had nothing to evict, has
+   * a count that drifted, so it's recounted instead.
+   */
+  private void trimQueue(String destination, long destinationDevice) {
+    int cachedDepth = messagesCache.isPresent() ? messagesCache.get().getDepth(destination, destinationDevice) : 0;
+    int evicted     = 0;
+
+    if (cachedDepth > maxQueueDepth) {
+      evicted += trimCached(destination, destinationDevice, cachedDepth - maxQueueDepth);
+    }
+
+    evicted += trimStored(destination, destinationDevice, Math.max(0, maxQueueDepth - cachedDepth));
+
+    if (evicted == 0) {
+      queueDepthReconciler.reconcile(destination);
+    }
+  }
+
+  private int trimStored(String destination, long destinationDevice, int keep) {
+    List<Integer> removed;
+    int           evicted = 0;
+
+    do {
+      removed = messages.get(destination).removeOverflow(destination, destinationDevice, keep, BATCH_SIZE);
+
+      queueDepthCounter.decrement(destination, destinationDevice, removed.size());
+      evictedMeter.mark(removed.size());
+      evicted += removed.size();
+    } while (removed.size() >= BATCH_SIZE);
+
+    return evicted;
+  }
+
+  /**
+   * Receipts older than the evicted messages go with them, but only messages which
+   * were still queued count towards the overflow.
+   */
+  private int trimCached(String destination, long destinationDevice, int overflow) {
+    int evicted = 0;
+
+    while (evicted < overflow) {
+      List<OutgoingMessageEntity> oldest = messagesCache.get().get(destination, destinationDevice, Math.min(BATCH_SIZE, overflow - evicted));
+
+      if (oldest.isEmpty()) break;
+
+      int count = 0;
+
+      for (OutgoingMessageEntity message : oldest) {
+        Optional<OutgoingMessageEntity> removed = messagesCache.get().remove(destination, destinationDevice, message.getId());
+
+        if (removed.isPresent() && removed.get().getType() != Envelope.Type.RECEIPT_VALUE) count++;
+      }
+
+      queueDepthCounter.decrement(destination, destinationDevice, count);
+      evictedMeter.mark(count);
+      evicted += count;
+    }
+
+    return evicted;
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.skife.jdbi.v2.util.LongMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.util.Constants;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Polls a streaming replica for how far its replay trails the primary.  A replica
+ * that can't be reached, isn't streaming from the primary, hasn't replayed anything
+ * yet, or trails by more than the allowed lag is reported unhealthy, and reads fall
+ * back to the primary.  A streaming replica which has replayed everything it received
+ * has no lag, however long ago the primary last committed.  One whose WAL receiver
+ * has stopped would otherwise look caught up while it falls behind.
+ */
+public class ReplicaLagMonitor implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+  private static final long   POLL_INTERVAL_MILLIS = 1000;
+  private static final String LAG_QUERY            = "SELECT CASE WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver) THEN NULL "                  +
+                                                     "WHEN pg_last_xlog_receive_location() = pg_last_xlog_replay_location() THEN 0 "         +
+                                                     "ELSE CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS bigint) END";
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+
+  private final String name;
+  private final DBI    dbi;
+  private final long   maxLagMillis;
+
+  private volatile long    lagMillis = -1;
+  private volatile boolean healthy   = false;
+
+  private ScheduledExecutorService executor;
+
+  public ReplicaLagMonitor(String name, DBI dbi, long maxLagMillis) {
+    this.name         = name;
+    this.dbi          = dbi;
+    this.maxLagMillis = maxLagMillis;
+
+    metricRegistry.register(name(ReplicaLagMonitor.class, name, "lag"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return lagMillis;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (this.executor != null) {
+      this.executor.shutdown();
+    }
+  }
+
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getMaxLagMillis() {
+    return maxLagMillis;
+  }
+
+  @Override
+  public void run() {
+    try {
+      Long lag = dbi.withHandle(new HandleCallback<Long>() {
+        @Override
+        public Long withHandle(Handle handle) throws Exception {
+          return handle.createQuery(LAG_QUERY).map(LongMapper.FIRST).first();
+        }
+      });
+
+      lagMillis = lag == null ? -1 : lag;
+      healthy   = lag != null && lag <= maxLagMillis;
+    } catch (Throwable t) {
+      logger.warn("Replica lag check failed: " + name, t);
+      lagMillis = -1;
+      healthy   = false;
+    }
+  }
+}
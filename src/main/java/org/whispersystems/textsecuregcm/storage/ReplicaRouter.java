@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Chooses where a DAO read runs: a healthy replica when one is available, and
+ * the primary otherwise.  Writes and anything that must see its own writes
+ * should always use {@link #getPrimary()}.
+ */
+public class ReplicaRouter<T> {
+
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private final Meter          replicaMeter   = metricRegistry.meter(name(ReplicaRouter.class, "replica_reads"));
+  private final Meter          fallbackMeter  = metricRegistry.meter(name(ReplicaRouter.class, "primary_fallback_reads"));
+
+  private final T                                primary;
+  private final List<Pair<T, ReplicaLagMonitor>> replicas;
+
+  public ReplicaRouter(T primary) {
+    this(primary, new LinkedList<Pair<T, ReplicaLagMonitor>>());
+  }
+
+  public ReplicaRouter(T primary, List<Pair<T, ReplicaLagMonitor>> replicas) {
+    this.primary  = primary;
+    this.replicas = replicas;
+  }
+
+  public T getPrimary() {
+    return primary;
+  }
+
+  public boolean isPrimary(T dao) {
+    return dao == primary;
+  }
+
+  /**
+   * The loosest bound on how stale a replica read may be, which holds whichever
+   * replica served it, or zero without replicas.
+   */
+  public long getMaxLagMillis() {
+    long maxLagMillis = 0;
+
+    for (Pair<T, ReplicaLagMonitor> replica : replicas) {
+      maxLagMillis = Math.max(maxLagMillis, replica.second().getMaxLagMillis());
+    }
+
+    return maxLagMillis;
+  }
+
+  public T getReplica() {
+    if (replicas.isEmpty()) return primary;
+
+    int start = ThreadLocalRandom.current().nextInt(replicas.size());
+
+    for (int i=0;i<replicas.size();i++) {
+      Pair<T, ReplicaLagMonitor> replica = replicas.get((start + i) % replicas.size());
+
+      if (replica.second().isHealthy()) {
+        replicaMeter.mark();
+        return replica.first();
+      }
+    }
+
+    fallbackMeter.mark();
+    return primary;
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2015 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.whispersystems.textsecuregcm.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps keys onto named nodes so that adding or removing a node only moves the
+ * keys which hash to that node's arcs of the ring, rather than rehashing them all.
+ */
+public class ConsistentHashRing<T> {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final TreeMap<Long, T> ring = new TreeMap<>();
+
+  public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("No nodes");
+    }
+
+    for (Map.Entry<String, T> node : nodes.entrySet()) {
+      for (int i=0;i<virtualNodes;i++) {
+        ring.put(hash(node.getKey() + "#" + i), node.getValue());
+      }
+    }
+  }
+
+  public T get(String key) {
+    Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+
+    if (entry == null) return ring.firstEntry().getValue();
+    else               return entry.getValue();
+  }
+
+  private static long hash(String value) {
+    return HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+  }
+}
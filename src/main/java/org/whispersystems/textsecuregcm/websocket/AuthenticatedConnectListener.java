@@ -9,8 +9,8 @@ import org.whispersystems.textsecuregcm.push.ApnFallbackManager;
 import org.whispersystems.textsecuregcm.push.PushSender;
 import org.whispersystems.textsecuregcm.push.ReceiptSender;
 import org.whispersystems.textsecuregcm.storage.Account;
-import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.LastSeenFlusher;
 import org.whispersystems.textsecuregcm.storage.MessagesManager;
 import org.whispersystems.textsecuregcm.storage.PubSubManager;
 import org.whispersystems.textsecuregcm.storage.PubSubProtos;
@@ -20,6 +20,8 @@ import org.whispersystems.textsecuregcm.util.Util;
 import org.whispersystems.websocket.session.WebSocketSessionContext;
 import org.whispersystems.websocket.setup.WebSocketConnectListener;
 
+import java.util.concurrent.ScheduledExecutorService;
+
 import static com.codahale.metrics.MetricRegistry.name;
 
 public class AuthenticatedConnectListener implements WebSocketConnectListener {
@@ -29,22 +31,26 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
   private static final Histogram      durationHistogram = metricRegistry.histogram(name(WebSocketConnection.class, "connected_duration"));
 
   private final ApnFallbackManager apnFallbackManager;
-  private final AccountsManager    accountsManager;
+  private final LastSeenFlusher    lastSeenFlusher;
   private final PushSender         pushSender;
   private final ReceiptSender      receiptSender;
   private final MessagesManager    messagesManager;
   private final PubSubManager      pubSubManager;
 
-  public AuthenticatedConnectListener(AccountsManager accountsManager, PushSender pushSender,
+  private final ScheduledExecutorService executor;
+
+  public AuthenticatedConnectListener(LastSeenFlusher lastSeenFlusher, PushSender pushSender,
                                       ReceiptSender receiptSender,  MessagesManager messagesManager,
-                                      PubSubManager pubSubManager, ApnFallbackManager apnFallbackManager)
+                                      PubSubManager pubSubManager, ApnFallbackManager apnFallbackManager,
+                                      ScheduledExecutorService executor)
   {
-    this.accountsManager    = accountsManager;
+    this.lastSeenFlusher    = lastSeenFlusher;
     this.pushSender         = pushSender;
     this.receiptSender      = receiptSender;
     this.messagesManager    = messagesManager;
     this.pubSubManager      = pubSubManager;
     this.apnFallbackManager = apnFallbackManager;
+    this.executor           = executor;
   }
 
   @Override
@@ -56,7 +62,7 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
     final WebSocketConnectionInfo info        = new WebSocketConnectionInfo(address);
     final WebSocketConnection     connection  = new WebSocketConnection(pushSender, receiptSender,
                                                                         messagesManager, account, device,
-                                                                        context.getClient());
+                                                                        context.getClient(), executor);
 
     pubSubManager.publish(info, PubSubMessage.newBuilder().setType(PubSubMessage.Type.CONNECTED).build());
     updateLastSeen(account, device);
@@ -73,8 +79,7 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
 
   private void updateLastSeen(Account account, Device device) {
     if (device.getLastSeen() != Util.todayInMillis()) {
-      device.setLastSeen(Util.todayInMillis());
-      accountsManager.update(account);
+      lastSeenFlusher.touch(account.getNumber(), device.getId(), Util.todayInMillis());
     }
   }
 }
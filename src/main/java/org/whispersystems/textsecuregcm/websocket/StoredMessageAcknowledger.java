@@ -0,0 +1,129 @@
+package org.whispersystems.textsecuregcm.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.storage.MessagesManager;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates acknowledged stored messages for a single connection and deletes
+ * them in bulk, once a batch fills or shortly after the first one arrives.  Deletes
+ * run on the executor, never on the thread acknowledging, and ids whose delete
+ * failed are kept for the next flush.
+ */
+public class StoredMessageAcknowledger {
+
+  private static final Logger logger = LoggerFactory.getLogger(StoredMessageAcknowledger.class);
+
+  private static final int  BATCH_SIZE         = 50;
+  private static final long FLUSH_DELAY_MILLIS = 100;
+
+  private final MessagesManager          messagesManager;
+  private final ScheduledExecutorService executor;
+  private final String                   destination;
+  private final long                     destinationDevice;
+  private final Object                   flushLock = new Object();
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private List<Long>         storedIds = new LinkedList<>();
+  private List<Long>         cachedIds = new LinkedList<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean            batchFlushQueued;
+
+  public StoredMessageAcknowledger(MessagesManager messagesManager, ScheduledExecutorService executor,
+                                   String destination, long destinationDevice)
+  {
+    this.messagesManager   = messagesManager;
+    this.executor          = executor;
+    this.destination       = destination;
+    this.destinationDevice = destinationDevice;
+  }
+
+  public synchronized void acknowledge(OutgoingMessageEntity message) {
+    if (message.isCached()) cachedIds.add(message.getId());
+    else                    storedIds.add(message.getId());
+
+    if (storedIds.size() + cachedIds.size() >= BATCH_SIZE) {
+      if (!batchFlushQueued) {
+        batchFlushQueued = true;
+        executor.execute(flushTask);
+      }
+    } else if (scheduledFlush == null) {
+      scheduledFlush = executor.schedule(flushTask, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns once every message acknowledged before the call is deleted, even if
+   * another flush had already picked it up.
+   *
+   * @return Whether every delete succeeded.  Ids which failed are kept and retried
+   *         by the next flush.
+   */
+  public boolean flush() {
+    synchronized (flushLock) {
+      List<Long> storedIds;
+      List<Long> cachedIds;
+
+      synchronized (this) {
+        storedIds        = this.storedIds;
+        cachedIds        = this.cachedIds;
+        this.storedIds   = new LinkedList<>();
+        this.cachedIds   = new LinkedList<>();
+        batchFlushQueued = false;
+
+        if (scheduledFlush != null) {
+          scheduledFlush.cancel(false);
+          scheduledFlush = null;
+        }
+      }
+
+      boolean storedDeleted = delete(storedIds, false);
+      boolean cachedDeleted = delete(cachedIds, true);
+
+      if (!storedDeleted || !cachedDeleted) {
+        synchronized (this) {
+          if (!storedDeleted) this.storedIds.addAll(0, storedIds);
+          if (!cachedDeleted) this.cachedIds.addAll(0, cachedIds);
+        }
+      }
+
+      return storedDeleted && cachedDeleted;
+    }
+  }
+
+  private boolean delete(List<Long> ids, boolean cached) {
+    if (ids.isEmpty()) return true;
+
+    try {
+      messagesManager.delete(destination, destinationDevice, toArray(ids), cached);
+      return true;
+    } catch (Exception e) {
+      logger.warn("Failed to delete acknowledged messages", e);
+      return false;
+    }
+  }
+
+  private long[] toArray(List<Long> ids) {
+    long[] results = new long[ids.size()];
+    int    index   = 0;
+
+    for (long id : ids) {
+      results[index++] = id;
+    }
+
+    return results;
+  }
+}
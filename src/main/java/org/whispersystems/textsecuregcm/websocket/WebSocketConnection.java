@@ -13,13 +13,13 @@ import org.whispersystems.textsecuregcm.controllers.NoSuchUserException;
 import org.whispersystems.textsecuregcm.entities.CryptoEncodingException;
 import org.whispersystems.textsecuregcm.entities.EncryptedOutgoingMessage;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
-import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntityList;
 import org.whispersystems.textsecuregcm.push.NotPushRegisteredException;
 import org.whispersystems.textsecuregcm.push.PushSender;
 import org.whispersystems.textsecuregcm.push.ReceiptSender;
 import org.whispersystems.textsecuregcm.push.TransientPushFailureException;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.Messages;
 import org.whispersystems.textsecuregcm.storage.MessagesManager;
 import org.whispersystems.websocket.WebSocketClient;
 import org.whispersystems.websocket.messages.WebSocketResponseMessage;
@@ -28,7 +28,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.ws.rs.WebApplicationException;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import static org.whispersystems.textsecuregcm.storage.PubSubProtos.PubSubMessage;
@@ -37,6 +39,11 @@ public class WebSocketConnection implements DispatchChannel {
 
   private static final Logger logger = LoggerFactory.getLogger(WebSocketConnection.class);
 
+  private static final int PAGE_SIZE     = Messages.RESULT_SET_CHUNK_SIZE;
+  private static final int MAX_IN_FLIGHT = PAGE_SIZE * 2;
+
+  private static final long RETRY_DELAY_SECONDS = 10;
+
   private final ReceiptSender    receiptSender;
   private final PushSender       pushSender;
   private final MessagesManager  messagesManager;
@@ -45,12 +52,27 @@ public class WebSocketConnection implements DispatchChannel {
   private final Device           device;
   private final WebSocketClient  client;
 
+  private final StoredMessageAcknowledger acknowledger;
+  private final ScheduledExecutorService  executor;
+  private final MessagesManager.Cursor    cursor = new MessagesManager.Cursor();
+
+  private int     storedMessagesInFlight  = 0;
+  private boolean storedMessagesPending   = false;
+  private boolean storedMessagesFailed    = false;
+  private boolean storedMessagesDelivered = false;
+  private boolean rereadAllowed           = false;
+  private boolean resetRequested          = false;
+  private boolean retryScheduled          = false;
+  private boolean draining                = false;
+  private boolean closed                  = false;
+
   public WebSocketConnection(PushSender pushSender,
                              ReceiptSender receiptSender,
                              MessagesManager messagesManager,
                              Account account,
                              Device device,
-                             WebSocketClient client)
+                             WebSocketClient client,
+                             ScheduledExecutorService executor)
   {
     this.pushSender      = pushSender;
     this.receiptSender   = receiptSender;
@@ -58,6 +80,8 @@ public class WebSocketConnection implements DispatchChannel {
     this.account         = account;
     this.device          = device;
     this.client          = client;
+    this.executor        = executor;
+    this.acknowledger    = new StoredMessageAcknowledger(messagesManager, executor, account.getNumber(), device.getId());
   }
 
   @Override
@@ -70,7 +94,7 @@ public class WebSocketConnection implements DispatchChannel {
           processStoredMessages();
           break;
         case PubSubMessage.Type.DELIVER_VALUE:
-          sendMessage(Envelope.parseFrom(pubSubMessage.getContent()), Optional.<Long>absent(), false);
+          sendMessage(Envelope.parseFrom(pubSubMessage.getContent()), Optional.<OutgoingMessageEntity>absent());
           break;
         default:
           logger.warn("Unknown pubsub message: " + pubSubMessage.getType().getNumber());
@@ -82,6 +106,11 @@ public class WebSocketConnection implements DispatchChannel {
 
   @Override
   public void onDispatchUnsubscribed(String channel) {
+    synchronized (cursor) {
+      closed = true;
+    }
+
+    acknowledger.flush();
     client.close(1000, "OK");
   }
 
@@ -89,9 +118,8 @@ public class WebSocketConnection implements DispatchChannel {
     processStoredMessages();
   }
 
-  private void sendMessage(final Envelope       message,
-                           final Optional<Long> storedMessageId,
-                           final boolean        requery)
+  private void sendMessage(final Envelope                        message,
+                           final Optional<OutgoingMessageEntity> storedMessage)
   {
     try {
       EncryptedOutgoingMessage                   encryptedMessage = new EncryptedOutgoingMessage(message, device.getSignalingKey());
@@ -102,19 +130,22 @@ public class WebSocketConnection implements DispatchChannel {
         @Override
         public void onSuccess(@Nullable WebSocketResponseMessage response) {
           boolean isReceipt = message.getType() == Envelope.Type.RECEIPT;
+          boolean delivered = isSuccessResponse(response);
 
-          if (isSuccessResponse(response)) {
-            if (storedMessageId.isPresent()) messagesManager.delete(account.getNumber(), storedMessageId.get());
-            if (!isReceipt)                  sendDeliveryReceiptFor(message);
-            if (requery)                     processStoredMessages();
-          } else if (!isSuccessResponse(response) && !storedMessageId.isPresent()) {
+          if (delivered) {
+            if (storedMessage.isPresent()) acknowledger.acknowledge(storedMessage.get());
+            if (!isReceipt)                sendDeliveryReceiptFor(message);
+          } else if (!storedMessage.isPresent()) {
             requeueMessage(message);
           }
+
+          if (storedMessage.isPresent()) onStoredMessageComplete(delivered, !delivered);
         }
 
         @Override
         public void onFailure(@Nonnull Throwable throwable) {
-          if (!storedMessageId.isPresent()) requeueMessage(message);
+          if (!storedMessage.isPresent()) requeueMessage(message);
+          else                            onStoredMessageComplete(false, true);
         }
 
         private boolean isSuccessResponse(WebSocketResponseMessage response) {
@@ -123,6 +154,7 @@ public class WebSocketConnection implements DispatchChannel {
       });
     } catch (CryptoEncodingException e) {
       logger.warn("Bad signaling key", e);
+      if (storedMessage.isPresent()) onStoredMessageComplete(false, false);
     }
   }
 
@@ -149,31 +181,160 @@ public class WebSocketConnection implements DispatchChannel {
     }
   }
 
+  /**
+   * A stored message which failed to send is still queued, behind the cursor.  Once
+   * nothing is in flight and the acknowledged messages are deleted, everything left in
+   * the queue is undelivered, so the cursor is reset to read it again.  Failures are only
+   * retried from here, after a delay or the next stored message, never straight from the
+   * failure, so a message the client keeps rejecting can't spin.
+   */
   private void processStoredMessages() {
-    OutgoingMessageEntityList       messages = messagesManager.getMessagesForDevice(account.getNumber(), device.getId());
-    Iterator<OutgoingMessageEntity> iterator = messages.getMessages().iterator();
-
-    while (iterator.hasNext()) {
-      OutgoingMessageEntity message = iterator.next();
-      Envelope.Builder      builder = Envelope.newBuilder()
-                                              .setType(Envelope.Type.valueOf(message.getType()))
-                                              .setSourceDevice(message.getSourceDevice())
-                                              .setSource(message.getSource())
-                                              .setTimestamp(message.getTimestamp());
-
-      if (message.getMessage() != null) {
-        builder.setLegacyMessage(ByteString.copyFrom(message.getMessage()));
+    synchronized (cursor) {
+      if (storedMessagesFailed && storedMessagesInFlight == 0) {
+        resetRequested = true;
+      } else if (storedMessagesFailed) {
+        scheduleRetry();
+      }
+
+      storedMessagesPending = true;
+      rereadAllowed         = true;
+    }
+
+    drainStoredMessages();
+  }
+
+  /**
+   * @param delivered Whether the client accepted the message.
+   * @param retry Whether the message should be sent again.  A message which can't be
+   *              encoded for this device is neither, and is skipped by the drain.
+   */
+  private void onStoredMessageComplete(boolean delivered, boolean retry) {
+    synchronized (cursor) {
+      storedMessagesInFlight--;
+
+      if (delivered) {
+        storedMessagesDelivered = true;
       }
 
-      if (message.getContent() != null) {
-        builder.setContent(ByteString.copyFrom(message.getContent()));
+      if (retry) {
+        storedMessagesFailed = true;
+        scheduleRetry();
       }
+    }
+
+    drainStoredMessages();
+  }
+
+  private void scheduleRetry() {
+    if (retryScheduled || closed) return;
+
+    retryScheduled = true;
+
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (cursor) {
+          retryScheduled = false;
 
-      if (message.getRelay() != null && !message.getRelay().isEmpty()) {
-        builder.setRelay(message.getRelay());
+          if (closed) return;
+        }
+
+        processStoredMessages();
       }
+    }, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+  }
 
-      sendMessage(builder.build(), Optional.of(message.getId()), !iterator.hasNext() && messages.hasMore());
+  /**
+   * Streams stored messages a page ahead of their acknowledgements, keeping at most
+   * MAX_IN_FLIGHT unacknowledged messages on the wire.  Responses can complete on the
+   * calling thread, so re-entrant calls leave the work to the loop already running.
+   *
+   * A message can commit after others with higher ids were read, behind the cursor, so
+   * once a drain reaches the end, everything sent is acknowledged and something was
+   * delivered, the queue is read once more from the start.  The cursor is only reset
+   * after the acknowledged messages are deleted, which happens outside the cursor's lock;
+   * if the delete fails the reset waits for a retry rather than sending them again.
+   */
+  private void drainStoredMessages() {
+    synchronized (cursor) {
+      if (draining) return;
+      draining = true;
     }
+
+    boolean finished = false;
+
+    try {
+      while (true) {
+        synchronized (cursor) {
+          if (!storedMessagesPending && storedMessagesInFlight == 0 && !storedMessagesFailed &&
+              storedMessagesDelivered && rereadAllowed)
+          {
+            rereadAllowed  = false;
+            resetRequested = true;
+          }
+
+          if (!resetRequested || storedMessagesInFlight != 0) {
+            if (!storedMessagesPending || storedMessagesInFlight > MAX_IN_FLIGHT - PAGE_SIZE) {
+              draining = false;
+              finished = true;
+              return;
+            }
+
+            List<OutgoingMessageEntity> messages = messagesManager.getMessagesForDevice(account.getNumber(), device.getId(), cursor, PAGE_SIZE);
+            storedMessagesPending = messages.size() >= PAGE_SIZE;
+
+            for (OutgoingMessageEntity message : messages) {
+              storedMessagesInFlight++;
+              sendMessage(createEnvelope(message), Optional.of(message));
+            }
+
+            continue;
+          }
+        }
+
+        boolean flushed = acknowledger.flush();
+
+        synchronized (cursor) {
+          resetRequested = false;
+
+          if (flushed) {
+            cursor.reset();
+            storedMessagesFailed    = false;
+            storedMessagesDelivered = false;
+            storedMessagesPending   = true;
+          } else {
+            scheduleRetry();
+          }
+        }
+      }
+    } finally {
+      if (!finished) {
+        synchronized (cursor) {
+          draining = false;
+        }
+      }
+    }
+  }
+
+  private Envelope createEnvelope(OutgoingMessageEntity message) {
+    Envelope.Builder builder = Envelope.newBuilder()
+                                       .setType(Envelope.Type.valueOf(message.getType()))
+                                       .setSourceDevice(message.getSourceDevice())
+                                       .setSource(message.getSource())
+                                       .setTimestamp(message.getTimestamp());
+
+    if (message.getMessage() != null) {
+      builder.setLegacyMessage(ByteString.copyFrom(message.getMessage()));
+    }
+
+    if (message.getContent() != null) {
+      builder.setContent(ByteString.copyFrom(message.getContent()));
+    }
+
+    if (message.getRelay() != null && !message.getRelay().isEmpty()) {
+      builder.setRelay(message.getRelay());
+    }
+
+    return builder.build();
   }
 }
@@ -17,16 +17,21 @@
 package org.whispersystems.textsecuregcm.workers;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.google.common.base.Optional;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
 import org.skife.jdbi.v2.DBI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.WhisperServerConfiguration;
 import org.whispersystems.textsecuregcm.federation.FederatedClientManager;
 import org.whispersystems.textsecuregcm.providers.RedisClientFactory;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
 import org.whispersystems.textsecuregcm.storage.Accounts;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 
 import io.dropwizard.Application;
 import io.dropwizard.cli.ConfiguredCommand;
@@ -55,6 +60,23 @@ public class DirectoryCommand extends EnvironmentCommand<WhisperServerConfigurat
     }, "directory", "Update directory from DB and peers.");
   }
 
+  @Override
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+
+    subparser.addArgument("--full")
+             .action(Arguments.storeTrue())
+             .dest("full")
+             .setDefault(Boolean.FALSE)
+             .help("rebuild from every account, rather than only those changed since the last run");
+
+    subparser.addArgument("--rebuild")
+             .action(Arguments.storeTrue())
+             .dest("rebuild")
+             .setDefault(Boolean.FALSE)
+             .help("rebuild from every account and peer into a staging hash, then swap it in");
+  }
+
   @Override
   protected void run(Environment environment, Namespace namespace,
                      WhisperServerConfiguration configuration)
@@ -74,16 +96,24 @@ public class DirectoryCommand extends EnvironmentCommand<WhisperServerConfigurat
       Accounts               accounts               = dbi.onDemand(Accounts.class);
       JedisPool              cacheClient            = new RedisClientFactory(configuration.getCacheConfiguration().getUrl()).getRedisClientPool();
       JedisPool              redisClient            = new RedisClientFactory(configuration.getDirectoryConfiguration().getUrl()).getRedisClientPool();
-      DirectoryManager       directory              = new DirectoryManager(redisClient);
-      AccountsManager        accountsManager        = new AccountsManager(accounts, directory, cacheClient);
+      DirectoryManager       directory              = new DirectoryManager(redisClient, configuration.getDirectoryConfiguration().isBinaryValues());
+      AccountsManager        accountsManager        = new AccountsManager(new ReplicaRouter<>(accounts), directory, cacheClient, Optional.<AccountCache>absent(),
+                                                                         configuration.getAccountEncodingConfiguration().isBinaryCache(),
+                                                                         configuration.getAccountEncodingConfiguration().isBinaryDatabase());
       FederatedClientManager federatedClientManager = new FederatedClientManager(environment,
                                                                                  configuration.getJerseyClientConfiguration(),
                                                                                  configuration.getFederationConfiguration());
 
       DirectoryUpdater update = new DirectoryUpdater(accountsManager, federatedClientManager, directory);
 
-      update.updateFromLocalDatabase();
-      update.updateFromPeers();
+      if (namespace.getBoolean("rebuild")) {
+        update.rebuild();
+      } else {
+        if (namespace.getBoolean("full")) update.updateFromLocalDatabase();
+        else                              update.updateFromChangeLog();
+
+        update.updateFromPeers();
+      }
     } catch (Exception ex) {
       logger.warn("Directory Exception", ex);
       throw new RuntimeException(ex);
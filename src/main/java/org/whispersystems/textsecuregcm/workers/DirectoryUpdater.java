@@ -16,31 +16,51 @@
  */
 package org.whispersystems.textsecuregcm.workers;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.entities.ClientContactPage;
 import org.whispersystems.textsecuregcm.federation.FederatedClient;
 import org.whispersystems.textsecuregcm.federation.FederatedClientManager;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.DirectoryManager;
 import org.whispersystems.textsecuregcm.storage.DirectoryManager.BatchOperationHandle;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.Util;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.whispersystems.textsecuregcm.storage.DirectoryManager.PendingClientContact;
+import redis.clients.jedis.Response;
 
 public class DirectoryUpdater {
 
-  private static final int CHUNK_SIZE = 10000;
+  private static final int CHUNK_SIZE       = 10000;
+  private static final int MAX_PEER_THREADS = 4;
 
   private final Logger logger = LoggerFactory.getLogger(DirectoryUpdater.class);
 
+  private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+
   private final AccountsManager        accountsManager;
   private final FederatedClientManager federatedClientManager;
   private final DirectoryManager       directory;
@@ -54,112 +74,413 @@ public class DirectoryUpdater {
     this.directory              = directory;
   }
 
+  /**
+   * Applies only the accounts written since the directory's checkpoint, falling
+   * back to a full rebuild from the database when there is no checkpoint yet, or
+   * when it's older than the changes the server keeps.
+   * Writes logged too recently to be sure that every earlier one has committed
+   * are left for the next run.  Changed accounts are read from the primary, since
+   * the caches and replicas may not have caught up with the write that was logged.
+   */
+  public void updateFromChangeLog() {
+    Optional<Long> checkpoint = directory.getCheckpoint();
+
+    if (!checkpoint.isPresent()) {
+      logger.info("No directory checkpoint, updating from all of the local DB.");
+      updateFromLocalDatabase();
+      return;
+    }
+
+    long horizon = accountsManager.getChangeHorizon();
+
+    if (checkpoint.get() < horizon - AccountsManager.CHANGE_RETENTION_MILLIS) {
+      logger.info("Directory checkpoint is older than the change log, updating from all of the local DB.");
+      updateFromLocalDatabase();
+      return;
+    }
+
+    logger.info("Updating local changes from " + checkpoint.get() + " to " + horizon);
+
+    int                      contactsAdded   = 0;
+    int                      contactsRemoved = 0;
+    long                     cursor          = 0;
+    List<Pair<Long, String>> changes;
+
+    do {
+      changes = accountsManager.getChanges(checkpoint.get(), horizon, cursor, CHUNK_SIZE);
+
+      Set<String>          numbers        = new HashSet<>();
+      BatchOperationHandle batchOperation = directory.startBatchOperation();
+
+      try {
+        for (Pair<Long, String> change : changes) {
+          numbers.add(change.second());
+          cursor = change.first();
+        }
+
+        for (String number : numbers) {
+          Optional<Account> account = accountsManager.getFromPrimary(number);
+
+          if (account.isPresent() && account.get().isActive()) {
+            directory.add(batchOperation, new ClientContact(Util.getContactToken(number), null, account.get().isVoiceSupported()));
+            contactsAdded++;
+          } else {
+            directory.remove(batchOperation, number);
+            contactsRemoved++;
+          }
+        }
+      } finally {
+        directory.stopBatchOperation(batchOperation);
+      }
+    } while (changes.size() >= CHUNK_SIZE);
+
+    directory.setCheckpoint(Math.max(checkpoint.get(), horizon));
+    accountsManager.removeChangesBefore(Math.max(checkpoint.get(), horizon));
+
+    logger.info(String.format("Local directory is updated through %d (%d added, %d removed).", horizon, contactsAdded, contactsRemoved));
+  }
+
+  /**
+   * Rebuilds the directory from every active local account and every peer into
+   * a staging hash, which then atomically replaces the directory, so readers never
+   * see a partial rebuild and entries which are no longer valid disappear.  Local
+   * accounts written during the rebuild are replayed from the change log after the
+   * swap.
+   */
+  public void rebuild() throws InterruptedException {
+    long                 checkpoint     = accountsManager.getChangeHorizon();
+    int                  contactsAdded  = 0;
+    BatchOperationHandle batchOperation;
+
+    logger.info("Rebuilding directory from local DB into staging.");
+    directory.clearStaging();
+    batchOperation = directory.startBatchOperation();
+
+    try {
+      Iterator<Account> accounts  = accountsManager.getAllFromPrimary(CHUNK_SIZE);
+      int               processed = 0;
+
+      while (accounts.hasNext()) {
+        Account account = accounts.next();
+
+        if (account.isActive()) {
+          directory.addStaged(batchOperation, new ClientContact(Util.getContactToken(account.getNumber()), null, account.isVoiceSupported()));
+          contactsAdded++;
+        }
+
+        if (++processed % CHUNK_SIZE == 0) {
+          directory.flushBatchOperation(batchOperation);
+          logger.info("Staged " + processed + " local accounts...");
+        }
+      }
+    } finally {
+      directory.stopBatchOperation(batchOperation);
+    }
+
+    logger.info(String.format("Staged %d local contacts.", contactsAdded));
+
+    updateFromPeers(true);
+
+    directory.commitStaging();
+    directory.setCheckpoint(checkpoint);
+
+    logger.info("Directory replaced, replaying local changes made during the rebuild.");
+    updateFromChangeLog();
+  }
+
   public void updateFromLocalDatabase() {
     int                  contactsAdded   = 0;
     int                  contactsRemoved = 0;
+    long                 checkpoint      = accountsManager.getChangeHorizon();
     BatchOperationHandle batchOperation  = directory.startBatchOperation();
 
     try {
       logger.info("Updating from local DB.");
-      int offset = 0;
+      Iterator<Account> accounts  = accountsManager.getAllFromPrimary(CHUNK_SIZE);
+      int               processed = 0;
 
-      for (;;) {
-        List<Account> accounts = accountsManager.getAll(offset, CHUNK_SIZE);
+      while (accounts.hasNext()) {
+        Account account = accounts.next();
 
-        if (accounts == null || accounts.isEmpty()) break;
-        else                                        offset += accounts.size();
+        if (account.isActive()) {
+          byte[]        token         = Util.getContactToken(account.getNumber());
+          ClientContact clientContact = new ClientContact(token, null, account.isVoiceSupported());
 
-        for (Account account : accounts) {
-          if (account.isActive()) {
-            byte[]        token         = Util.getContactToken(account.getNumber());
-            ClientContact clientContact = new ClientContact(token, null, account.isVoiceSupported());
-
-            directory.add(batchOperation, clientContact);
-            contactsAdded++;
-          } else {
-            directory.remove(batchOperation, account.getNumber());
-            contactsRemoved++;
-          }
+          directory.add(batchOperation, clientContact);
+          contactsAdded++;
+        } else {
+          directory.remove(batchOperation, account.getNumber());
+          contactsRemoved++;
         }
 
-        logger.info("Processed " + CHUNK_SIZE + " local accounts...");
+        if (++processed % CHUNK_SIZE == 0) {
+          logger.info("Processed " + processed + " local accounts...");
+        }
       }
     } finally {
       directory.stopBatchOperation(batchOperation);
     }
 
+    directory.setCheckpoint(checkpoint);
+    accountsManager.removeChangesBefore(checkpoint);
+
     logger.info(String.format("Local directory is updated (%d added, %d removed).", contactsAdded, contactsRemoved));
   }
 
-  public void updateFromPeers() {
+  /**
+   * Peers are synced concurrently, each on its own thread from a bounded pool.
+   * Within a peer, the next page of tokens is fetched while the current page's
+   * Redis reads and writes are running.
+   */
+  public void updateFromPeers() throws InterruptedException {
+    updateFromPeers(false);
+  }
+
+  private void updateFromPeers(final boolean staged) throws InterruptedException {
     logger.info("Updating peer directories.");
 
-    int                   contactsAdded   = 0;
-    int                   contactsRemoved = 0;
-    List<FederatedClient> clients         = federatedClientManager.getClients();
+    int                                  contactsAdded   = 0;
+    int                                  contactsRemoved = 0;
+    List<FederatedClient>                clients         = federatedClientManager.getClients();
+    List<Future<Pair<Integer, Integer>>> results         = new LinkedList<>();
 
-    for (FederatedClient client : clients) {
-      logger.info("Updating directory from peer: " + client.getPeerName());
+    if (clients.isEmpty()) {
+      logger.info("No peers configured.");
+      return;
+    }
 
-      int userCount = client.getUserCount();
-      int retrieved = 0;
+    final ExecutorService peerExecutor  = Executors.newFixedThreadPool(Math.min(clients.size(), MAX_PEER_THREADS));
+    final ExecutorService fetchExecutor = Executors.newFixedThreadPool(Math.min(clients.size(), MAX_PEER_THREADS));
 
-      logger.info("Remote peer user count: " + userCount);
+    try {
+      for (final FederatedClient client : clients) {
+        results.add(peerExecutor.submit(new Callable<Pair<Integer, Integer>>() {
+          @Override
+          public Pair<Integer, Integer> call() throws Exception {
+            return updateFromPeer(client, fetchExecutor, staged);
+          }
+        }));
+      }
 
-      while (retrieved < userCount) {
-        logger.info("Retrieving remote tokens...");
-        List<ClientContact>        remoteContacts = client.getUserTokens(retrieved);
-        List<PendingClientContact> localContacts  = new LinkedList<>();
-        BatchOperationHandle       handle         = directory.startBatchOperation();
+      for (Future<Pair<Integer, Integer>> result : results) {
+        try {
+          Pair<Integer, Integer> counts = result.get();
+          contactsAdded   += counts.first();
+          contactsRemoved += counts.second();
+        } catch (ExecutionException e) {
+          logger.warn("Peer directory update failed", e.getCause());
 
-        if (remoteContacts == null) {
-          logger.info("Remote tokens empty, ending...");
-          break;
-        } else {
-          logger.info("Retrieved " + remoteContacts.size() + " remote tokens...");
+          if (staged) {
+            throw new IllegalStateException("Peer directory update failed, not replacing the directory", e.getCause());
+          }
         }
+      }
+    } finally {
+      peerExecutor.shutdown();
+      fetchExecutor.shutdown();
+    }
 
-        for (ClientContact remoteContact : remoteContacts) {
-          localContacts.add(directory.get(handle, remoteContact.getToken()));
+    logger.info("Update from peer directories complete.");
+    logger.info(String.format("Added %d and removed %d remove contacts.", contactsAdded, contactsRemoved));
+  }
+
+  private Pair<Integer, Integer> updateFromPeer(final FederatedClient client, ExecutorService prefetcher, boolean staged)
+      throws InterruptedException, ExecutionException
+  {
+    logger.info("Updating directory from peer: " + client.getPeerName());
+
+    Meter         tokenMeter = metricRegistry.meter(name(DirectoryUpdater.class, "peer", client.getPeerName(), "tokens"));
+    Timer.Context timer      = metricRegistry.timer(name(DirectoryUpdater.class, "peer", client.getPeerName(), "duration")).time();
+
+    try {
+      Optional<ClientContactPage> page = client.getUserTokensAfter(0);
+
+      if (!page.isPresent()) {
+        logger.info("Peer " + client.getPeerName() + " doesn't support cursor paging, falling back to offsets...");
+        return updateFromPeerByOffset(client, prefetcher, tokenMeter, staged);
+      }
+
+      int contactsAdded   = 0;
+      int contactsRemoved = 0;
+      int retrieved       = 0;
+
+      while (page.isPresent() && !page.get().getContacts().isEmpty()) {
+        final long                          cursor = page.get().getCursor();
+        Future<Optional<ClientContactPage>> next   = prefetcher.submit(new Callable<Optional<ClientContactPage>>() {
+          @Override
+          public Optional<ClientContactPage> call() {
+            return client.getUserTokensAfter(cursor);
+          }
+        });
+
+        Pair<Integer, Integer> counts = staged ? stageContacts(client, page.get().getContacts())
+                                              : updateFromContacts(client, page.get().getContacts());
+        contactsAdded   += counts.first();
+        contactsRemoved += counts.second();
+
+        retrieved += page.get().getContacts().size();
+        tokenMeter.mark(page.get().getContacts().size());
+        logger.info("Processed: " + retrieved + " remote tokens from " + client.getPeerName() + ".");
+
+        page = next.get();
+      }
+
+      logger.info("Update from peer " + client.getPeerName() + " complete.");
+      return new Pair<>(contactsAdded, contactsRemoved);
+    } finally {
+      long elapsed = timer.stop();
+      logger.info(String.format("Peer %s synced in %d ms.", client.getPeerName(), TimeUnit.NANOSECONDS.toMillis(elapsed)));
+    }
+  }
+
+  private Pair<Integer, Integer> updateFromPeerByOffset(final FederatedClient client, ExecutorService prefetcher,
+                                                        Meter tokenMeter, boolean staged)
+      throws InterruptedException, ExecutionException
+  {
+    int contactsAdded   = 0;
+    int contactsRemoved = 0;
+    int userCount       = client.getUserCount();
+    int retrieved       = 0;
+
+    logger.info("Remote peer user count: " + userCount);
+
+    List<ClientContact> remoteContacts = client.getUserTokens(0);
+
+    while (retrieved < userCount) {
+      if (remoteContacts == null) {
+        logger.info("Remote tokens empty, ending...");
+        break;
+      } else {
+        logger.info("Retrieved " + remoteContacts.size() + " remote tokens...");
+      }
+
+      final int                   offset = retrieved + remoteContacts.size();
+      Future<List<ClientContact>> next   = null;
+
+      if (offset < userCount && !remoteContacts.isEmpty()) {
+        next = prefetcher.submit(new Callable<List<ClientContact>>() {
+          @Override
+          public List<ClientContact> call() {
+            return client.getUserTokens(offset);
+          }
+        });
+      }
+
+      Pair<Integer, Integer> counts = staged ? stageContacts(client, remoteContacts)
+                                              : updateFromContacts(client, remoteContacts);
+      contactsAdded   += counts.first();
+      contactsRemoved += counts.second();
+
+      retrieved = offset;
+      tokenMeter.mark(remoteContacts.size());
+      logger.info("Processed: " + retrieved + " remote tokens from " + client.getPeerName() + ".");
+
+      if (next == null) break;
+      else              remoteContacts = next.get();
+    }
+
+    return new Pair<>(contactsAdded, contactsRemoved);
+  }
+
+  /**
+   * Peer entries never replace a staged local account, or one already staged for
+   * another peer, which matches how they're merged into the live directory.
+   */
+  private Pair<Integer, Integer> stageContacts(FederatedClient client, List<ClientContact> remoteContacts) {
+    int                  contactsAdded = 0;
+    BatchOperationHandle handle        = directory.startBatchOperation();
+
+    try {
+      for (ClientContact remoteContact : remoteContacts) {
+        if (!remoteContact.isInactive()) {
+          remoteContact.setRelay(client.getPeerName());
+          directory.addStagedIfAbsent(handle, remoteContact);
+          contactsAdded++;
         }
+      }
+    } finally {
+      directory.stopBatchOperation(handle);
+    }
+
+    return new Pair<>(contactsAdded, 0);
+  }
+
+  /**
+   * Other peers sync concurrently, so writes are conditional on what was read: a new
+   * token is only added if nobody has claimed it since, and an entry this peer owns
+   * is only replaced or removed if it hasn't changed since.
+   */
+  private Pair<Integer, Integer> updateFromContacts(FederatedClient client, List<ClientContact> remoteContacts) {
+    int                        contactsAdded   = 0;
+    int                        contactsRemoved = 0;
+    List<PendingClientContact> localContacts   = new LinkedList<>();
+    BatchOperationHandle       handle          = directory.startBatchOperation();
+
+    for (ClientContact remoteContact : remoteContacts) {
+      localContacts.add(directory.get(handle, remoteContact.getToken()));
+    }
+
+    directory.stopBatchOperation(handle);
 
-        directory.stopBatchOperation(handle);
+    List<Pair<ClientContact, Response<Long>>>                 additions    = new LinkedList<>();
+    List<Pair<PendingClientContact, Optional<ClientContact>>> replacements = new LinkedList<>();
 
-        handle = directory.startBatchOperation();
-        Iterator<ClientContact>        remoteContactIterator = remoteContacts.iterator();
-        Iterator<PendingClientContact> localContactIterator  = localContacts.iterator();
+    handle = directory.startBatchOperation();
+    Iterator<ClientContact>        remoteContactIterator = remoteContacts.iterator();
+    Iterator<PendingClientContact> localContactIterator  = localContacts.iterator();
 
-        while (remoteContactIterator.hasNext() && localContactIterator.hasNext()) {
-          try {
-            ClientContact           remoteContact = remoteContactIterator.next();
-            Optional<ClientContact> localContact  = localContactIterator.next().get();
+    try {
+      while (remoteContactIterator.hasNext() && localContactIterator.hasNext()) {
+        try {
+          ClientContact           remoteContact = remoteContactIterator.next();
+          PendingClientContact    storedContact = localContactIterator.next();
+          Optional<ClientContact> localContact  = storedContact.get();
+
+          remoteContact.setRelay(client.getPeerName());
 
-            remoteContact.setRelay(client.getPeerName());
+          if (!remoteContact.isInactive() && !localContact.isPresent()) {
+            additions.add(new Pair<>(remoteContact, directory.addIfAbsent(handle, remoteContact)));
+          } else if (!remoteContact.isInactive() && client.getPeerName().equals(localContact.get().getRelay())) {
+            contactsAdded++;
 
-            if (!remoteContact.isInactive() && (!localContact.isPresent() || client.getPeerName().equals(localContact.get().getRelay()))) {
-              contactsAdded++;
-              directory.add(handle, remoteContact);
-            } else {
-              if (localContact.isPresent() && client.getPeerName().equals(localContact.get().getRelay())) {
-                contactsRemoved++;
-                directory.remove(handle, remoteContact.getToken());
-              }
+            if (!directory.isUnchanged(storedContact, remoteContact)) {
+              replacements.add(new Pair<>(storedContact, Optional.of(remoteContact)));
             }
-          } catch (IOException e) {
-            logger.warn("JSON Serialization Failed: ", e);
+          } else if (localContact.isPresent() && client.getPeerName().equals(localContact.get().getRelay())) {
+            contactsRemoved++;
+            replacements.add(new Pair<>(storedContact, Optional.<ClientContact>absent()));
           }
+        } catch (IOException e) {
+          logger.warn("Directory entry serialization failed: ", e);
         }
+      }
+    } finally {
+      directory.stopBatchOperation(handle);
+    }
 
-        directory.stopBatchOperation(handle);
+    handle = directory.startBatchOperation();
 
-        retrieved += remoteContacts.size();
-        logger.info("Processed: " + retrieved + " remote tokens.");
+    try {
+      for (Pair<ClientContact, Response<Long>> addition : additions) {
+        if (addition.second().get() == 1) {
+          directory.publishAdded(handle, addition.first());
+          contactsAdded++;
+        }
       }
+    } finally {
+      directory.stopBatchOperation(handle);
+    }
 
-      logger.info("Update from peer complete.");
+    for (Pair<PendingClientContact, Optional<ClientContact>> replacement : replacements) {
+      try {
+        if (!directory.replace(replacement.first(), replacement.second())) {
+          logger.info("Directory entry changed during sync, skipping.");
+        }
+      } catch (IOException e) {
+        logger.warn("Directory entry serialization failed: ", e);
+      }
     }
 
-    logger.info("Update from peer directories complete.");
-    logger.info(String.format("Added %d and removed %d remove contacts.", contactsAdded, contactsRemoved));
+    return new Pair<>(contactsAdded, contactsRemoved);
   }
 }
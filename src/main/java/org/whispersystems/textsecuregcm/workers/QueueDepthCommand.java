@@ -0,0 +1,83 @@
+package org.whispersystems.textsecuregcm.workers;
+
+import com.google.common.base.Optional;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.WhisperServerConfiguration;
+import org.whispersystems.textsecuregcm.configuration.MessageCacheConfiguration;
+import org.whispersystems.textsecuregcm.providers.RedisClientFactory;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.MessagesCache;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+import org.whispersystems.textsecuregcm.storage.QueueDepthReconciler;
+
+import java.util.List;
+import java.util.Map;
+
+import io.dropwizard.Application;
+import io.dropwizard.cli.EnvironmentCommand;
+import io.dropwizard.setup.Environment;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Recounts the depth of every stored queue.  Run once to backfill the counters for
+ * queues written before they existed; the server reconciles counted queues itself.
+ */
+public class QueueDepthCommand extends EnvironmentCommand<WhisperServerConfiguration> {
+
+  private final Logger logger = LoggerFactory.getLogger(QueueDepthCommand.class);
+
+  private static final int CHUNK_SIZE = 100;
+
+  public QueueDepthCommand() {
+    super(new Application<WhisperServerConfiguration>() {
+      @Override
+      public void run(WhisperServerConfiguration configuration, Environment environment)
+          throws Exception
+      {
+
+      }
+    }, "queuedepth", "Recount queue depths from the message store");
+  }
+
+  @Override
+  protected void run(Environment environment,
+                     Namespace namespace,
+                     WhisperServerConfiguration config)
+      throws Exception
+  {
+    MessageCacheConfiguration messageCacheConfig = config.getMessageCacheConfiguration();
+    Optional<MessagesCache>   messagesCache      = Optional.absent();
+
+    if (messageCacheConfig.isEnabled()) {
+      messagesCache = Optional.of(new MessagesCache(new RedisClientFactory(messageCacheConfig.getUrl()).getRedisClientPool(),
+                                                    messageCacheConfig.getMaxQueueDepth()));
+    }
+
+    Map<String, Messages> shards            = MessageShards.build(environment, config.getMessageStoreConfiguration().getShards());
+    JedisPool             cacheClient       = new RedisClientFactory(config.getCacheConfiguration().getUrl()).getRedisClientPool();
+    QueueDepthCounter     queueDepthCounter = new QueueDepthCounter(cacheClient);
+    QueueDepthReconciler  reconciler        = new QueueDepthReconciler(new MessageShards(shards), messagesCache, queueDepthCounter, cacheClient);
+
+    for (Map.Entry<String, Messages> shard : shards.entrySet()) {
+      logger.info("Recounting queues: " + shard.getKey() + "...");
+
+      String       after = "";
+      List<String> destinations;
+
+      do {
+        destinations = shard.getValue().getDestinationsAfter(after, CHUNK_SIZE);
+
+        for (String destination : destinations) {
+          reconciler.reconcile(destination);
+          after = destination;
+        }
+      } while (destinations.size() >= CHUNK_SIZE);
+    }
+
+    Thread.sleep(3000);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,127 @@
+package org.whispersystems.textsecuregcm.workers;
+
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.WhisperServerConfiguration;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import io.dropwizard.Application;
+import io.dropwizard.cli.EnvironmentCommand;
+import io.dropwizard.setup.Environment;
+
+/**
+ * Moves queues which live on a shard that no longer owns them, as happens after a
+ * shard is added, to the shard that does.  Only the queues that changed owner are read.
+ *
+ * A message is on both shards between its copy and its removal, and an acknowledgement
+ * only reaches one of them, so the command must run while no server delivers or
+ * acknowledges messages.  It refuses to start unless told that traffic is drained.
+ */
+public class RebalanceMessagesCommand extends EnvironmentCommand<WhisperServerConfiguration> {
+
+  private final Logger logger = LoggerFactory.getLogger(RebalanceMessagesCommand.class);
+
+  private static final int CHUNK_SIZE = 100;
+
+  public RebalanceMessagesCommand() {
+    super(new Application<WhisperServerConfiguration>() {
+      @Override
+      public void run(WhisperServerConfiguration configuration, Environment environment)
+          throws Exception
+      {
+
+      }
+    }, "rebalance", "Move queued messages to the shards that own them, with message traffic drained");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+
+    subparser.addArgument("--drained")
+             .action(Arguments.storeTrue())
+             .dest("drained")
+             .setDefault(Boolean.FALSE)
+             .help("confirm that no server is delivering or acknowledging messages while queues move");
+  }
+
+  @Override
+  protected void run(Environment environment,
+                     Namespace namespace,
+                     WhisperServerConfiguration config)
+      throws Exception
+  {
+    if (!namespace.getBoolean("drained")) {
+      logger.error("Drain message traffic before rebalancing, then run again with --drained");
+      System.exit(1);
+    }
+
+    Map<String, Messages> shards        = MessageShards.build(environment, config.getMessageStoreConfiguration().getShards());
+    MessageShards         messageShards = new MessageShards(shards);
+
+    for (Map.Entry<String, Messages> shard : shards.entrySet()) {
+      logger.info("Rebalancing shard: " + shard.getKey() + "...");
+
+      String       after = "";
+      List<String> destinations;
+
+      do {
+        destinations = shard.getValue().getDestinationsAfter(after, CHUNK_SIZE);
+
+        for (String destination : destinations) {
+          Messages owner = messageShards.get(destination);
+
+          if (owner != shard.getValue()) {
+            move(destination, shard.getValue(), owner);
+          }
+
+          after = destination;
+        }
+      } while (destinations.size() >= CHUNK_SIZE);
+    }
+
+    Thread.sleep(3000);
+    System.exit(0);
+  }
+
+  /**
+   * Each chunk is copied before it's removed, and the copy skips messages that are already
+   * on the target, so a move that's interrupted can simply be run again.
+   */
+  private void move(String destination, Messages from, Messages to) {
+    List<Messages.QueuedMessage> chunk;
+
+    do {
+      chunk = from.loadQueues(destination, CHUNK_SIZE);
+
+      List<Envelope> envelopes          = new LinkedList<>();
+      List<Long>     destinationDevices = new LinkedList<>();
+      List<Long>     received           = new LinkedList<>();
+      List<Long>     cachedIds          = new LinkedList<>();
+      long[]         ids                = new long[chunk.size()];
+      int            index              = 0;
+
+      for (Messages.QueuedMessage message : chunk) {
+        envelopes.add(message.getEnvelope());
+        destinationDevices.add(message.getDestinationDevice());
+        received.add(message.getReceived());
+        cachedIds.add(message.getCachedId());
+        ids[index++] = message.getId();
+      }
+
+      if (!chunk.isEmpty()) {
+        to.storeMoved(envelopes, destination, destinationDevices, received, cachedIds);
+        from.remove(destination, ids);
+      }
+    } while (chunk.size() >= CHUNK_SIZE);
+  }
+}
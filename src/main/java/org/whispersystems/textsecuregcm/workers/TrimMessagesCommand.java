@@ -1,50 +1,104 @@
 package org.whispersystems.textsecuregcm.workers;
 
 import net.sourceforge.argparse4j.inf.Namespace;
-import org.skife.jdbi.v2.DBI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.WhisperServerConfiguration;
+import org.whispersystems.textsecuregcm.providers.RedisClientFactory;
+import org.whispersystems.textsecuregcm.storage.MessagePartitions;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
 import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
 
+import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
-import io.dropwizard.cli.ConfiguredCommand;
-import io.dropwizard.db.DataSourceFactory;
-import io.dropwizard.jdbi.ImmutableListContainerFactory;
-import io.dropwizard.jdbi.ImmutableSetContainerFactory;
-import io.dropwizard.jdbi.OptionalContainerFactory;
-import io.dropwizard.jdbi.args.OptionalArgumentFactory;
-import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.Application;
+import io.dropwizard.cli.EnvironmentCommand;
+import io.dropwizard.setup.Environment;
 
-public class TrimMessagesCommand extends ConfiguredCommand<WhisperServerConfiguration> {
+public class TrimMessagesCommand extends EnvironmentCommand<WhisperServerConfiguration> {
   private final Logger logger = LoggerFactory.getLogger(VacuumCommand.class);
 
   public TrimMessagesCommand() {
-    super("trim", "Trim Messages Database");
+    super(new Application<WhisperServerConfiguration>() {
+      @Override
+      public void run(WhisperServerConfiguration configuration, Environment environment)
+          throws Exception
+      {
+
+      }
+    }, "trim", "Trim Messages Database");
   }
 
   @Override
-  protected void run(Bootstrap<WhisperServerConfiguration> bootstrap,
+  protected void run(Environment environment,
                      Namespace namespace,
                      WhisperServerConfiguration config)
       throws Exception
   {
-    DataSourceFactory messageDbConfig = config.getMessageStoreConfiguration();
-    DBI               messageDbi      = new DBI(messageDbConfig.getUrl(), messageDbConfig.getUser(), messageDbConfig.getPassword());
+    final QueueDepthCounter queueDepthCounter = new QueueDepthCounter(new RedisClientFactory(config.getCacheConfiguration().getUrl()).getRedisClientPool());
+    final long              timestamp         = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(config.getMessageStoreConfiguration().getRetentionDays());
+
+    Map<String, Messages> shards   = MessageShards.build(environment, config.getMessageStoreConfiguration().getShards());
+    ExecutorService       executor = Executors.newFixedThreadPool(shards.size());
+    List<Future<?>>       results  = new LinkedList<>();
+
+    for (final Map.Entry<String, Messages> shard : shards.entrySet()) {
+      final Messages messages = shard.getValue();
 
-    messageDbi.registerArgumentFactory(new OptionalArgumentFactory(messageDbConfig.getDriverClass()));
-    messageDbi.registerContainerFactory(new ImmutableListContainerFactory());
-    messageDbi.registerContainerFactory(new ImmutableSetContainerFactory());
-    messageDbi.registerContainerFactory(new OptionalContainerFactory());
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          trim(shard.getKey(), messages, queueDepthCounter, timestamp);
+          return null;
+        }
+      }));
+    }
 
-    Messages messages  = messageDbi.onDemand(Messages.class);
-    long     timestamp = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(60);
+    for (Future<?> result : results) {
+      result.get();
+    }
 
-    logger.info("Trimming old messages: " + timestamp + "...");
-    messages.removeOld(timestamp);
+    executor.shutdown();
 
     Thread.sleep(3000);
     System.exit(0);
   }
+
+  private void trim(String shard, Messages messages, QueueDepthCounter queueDepthCounter, long timestamp)
+      throws ParseException
+  {
+    messages.createPartitions(System.currentTimeMillis());
+
+    for (String partition : messages.getPartitions()) {
+      if (MessagePartitions.getPartitionEnd(partition) <= timestamp) {
+        logger.info("Detaching partition: " + shard + "/" + partition + "...");
+        messages.detachPartition(partition);
+      }
+    }
+
+    for (String partition : messages.getDetachedPartitions()) {
+      if (MessagePartitions.getPartitionEnd(partition) <= timestamp) {
+        logger.info("Dropping partition: " + shard + "/" + partition + "...");
+
+        for (Messages.QueueCount removed : messages.dropDetachedPartition(partition)) {
+          queueDepthCounter.decrement(removed.getDestination(), removed.getDestinationDevice(), removed.getCount());
+        }
+      }
+    }
+
+    logger.info("Trimming old unpartitioned messages: " + shard + "/" + timestamp + "...");
+
+    for (Messages.QueueCount removed : messages.removeOld(timestamp)) {
+      queueDepthCounter.decrement(removed.getDestination(), removed.getDestinationDevice(), removed.getCount());
+    }
+  }
 }
@@ -2,56 +2,66 @@ package org.whispersystems.textsecuregcm.workers;
 
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.WhisperServerConfiguration;
 import org.whispersystems.textsecuregcm.storage.Accounts;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
 import org.whispersystems.textsecuregcm.storage.Messages;
 import org.whispersystems.textsecuregcm.storage.PendingAccounts;
 
-import io.dropwizard.cli.ConfiguredCommand;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.dropwizard.Application;
+import io.dropwizard.cli.EnvironmentCommand;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.jdbi.ImmutableListContainerFactory;
 import io.dropwizard.jdbi.ImmutableSetContainerFactory;
 import io.dropwizard.jdbi.OptionalContainerFactory;
 import io.dropwizard.jdbi.args.OptionalArgumentFactory;
-import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
 
 
-public class VacuumCommand extends ConfiguredCommand<WhisperServerConfiguration> {
+public class VacuumCommand extends EnvironmentCommand<WhisperServerConfiguration> {
 
   private final Logger logger = LoggerFactory.getLogger(VacuumCommand.class);
 
   public VacuumCommand() {
-    super("vacuum", "Vacuum Postgres Tables");
+    super(new Application<WhisperServerConfiguration>() {
+      @Override
+      public void run(WhisperServerConfiguration configuration, Environment environment)
+          throws Exception
+      {
+
+      }
+    }, "vacuum", "Vacuum Postgres Tables");
   }
 
   @Override
-  protected void run(Bootstrap<WhisperServerConfiguration> bootstrap,
+  protected void run(Environment environment,
                      Namespace namespace,
                      WhisperServerConfiguration config)
       throws Exception
   {
     DataSourceFactory dbConfig        = config.getDataSourceFactory();
-    DataSourceFactory messageDbConfig = config.getMessageStoreConfiguration();
     DBI               dbi             = new DBI(dbConfig.getUrl(), dbConfig.getUser(), dbConfig.getPassword()                     );
-    DBI               messageDbi      = new DBI(messageDbConfig.getUrl(), messageDbConfig.getUser(), messageDbConfig.getPassword());
 
     dbi.registerArgumentFactory(new OptionalArgumentFactory(dbConfig.getDriverClass()));
     dbi.registerContainerFactory(new ImmutableListContainerFactory());
     dbi.registerContainerFactory(new ImmutableSetContainerFactory());
     dbi.registerContainerFactory(new OptionalContainerFactory());
 
-    messageDbi.registerArgumentFactory(new OptionalArgumentFactory(dbConfig.getDriverClass()));
-    messageDbi.registerContainerFactory(new ImmutableListContainerFactory());
-    messageDbi.registerContainerFactory(new ImmutableSetContainerFactory());
-    messageDbi.registerContainerFactory(new OptionalContainerFactory());
-
     Accounts        accounts        = dbi.onDemand(Accounts.class       );
     Keys            keys            = dbi.onDemand(Keys.class           );
     PendingAccounts pendingAccounts = dbi.onDemand(PendingAccounts.class);
-    Messages        messages        = messageDbi.onDemand(Messages.class       );
 
     logger.info("Vacuuming accounts...");
     accounts.vacuum();
@@ -62,8 +72,39 @@ public class VacuumCommand extends ConfiguredCommand<WhisperServerConfiguration>
     logger.info("Vacuuming keys...");
     keys.vacuum();
 
-    logger.info("Vacuuming messages...");
-    messages.vacuum();
+    Map<String, DataSourceFactory> shards   = config.getMessageStoreConfiguration().getShards();
+    ExecutorService                executor = Executors.newFixedThreadPool(shards.size());
+    List<Future<?>>                results  = new LinkedList<>();
+
+    for (final Map.Entry<String, DataSourceFactory> shard : shards.entrySet()) {
+      final DBI      messageDbi = MessageShards.buildDbi(environment, shard.getKey(), shard.getValue());
+      final Messages messages   = messageDbi.onDemand(Messages.class);
+
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          logger.info("Vacuuming messages: " + shard.getKey() + "...");
+          messages.vacuum();
+
+          // VACUUM doesn't recurse into inheriting tables, so each partition is vacuumed by name
+          for (String partition : messages.getPartitions()) {
+            logger.info("Vacuuming messages: " + shard.getKey() + "/" + partition + "...");
+
+            try (Handle handle = messageDbi.open()) {
+              handle.execute("VACUUM \"" + partition + "\"");
+            }
+          }
+
+          return null;
+        }
+      }));
+    }
+
+    for (Future<?> result : results) {
+      result.get();
+    }
+
+    executor.shutdown();
 
     Thread.sleep(3000);
     System.exit(0);
@@ -0,0 +1,70 @@
+package org.whispersystems.textsecuregcm.tests.auth;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.auth.AccountAuthenticator;
+import org.whispersystems.textsecuregcm.auth.AuthenticationCredentials;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import io.dropwizard.auth.basic.BasicCredentials;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AccountAuthenticatorTest {
+
+  private static final String NUMBER   = "+14152222222";
+  private static final String PASSWORD = "secure";
+
+  private final AccountsManager accountsManager = mock(AccountsManager.class);
+
+  private Account              account;
+  private Device               device;
+  private AccountAuthenticator authenticator;
+
+  @Before
+  public void setup() throws Exception {
+    Set<Device> devices = new HashSet<>();
+
+    device = new Device(1, "master", null, null, "signaling", "gcm", null, null, false, 1234, null, 0, 0, false, null);
+    device.setAuthenticationCredentials(new AuthenticationCredentials(PASSWORD));
+    devices.add(device);
+
+    account       = new Account(NUMBER, devices);
+    authenticator = new AccountAuthenticator(accountsManager);
+
+    when(accountsManager.get(NUMBER)).thenReturn(Optional.of(account));
+
+    assertTrue(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+    assertTrue(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+  }
+
+  @Test
+  public void testWrongPasswordWithWarmCache() throws Exception {
+    assertFalse(authenticator.authenticate(new BasicCredentials(NUMBER, "insecure")).isPresent());
+    assertTrue(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+  }
+
+  @Test
+  public void testChangedPasswordWithWarmCache() throws Exception {
+    device.setAuthenticationCredentials(new AuthenticationCredentials("rotated"));
+
+    assertFalse(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+    assertTrue(authenticator.authenticate(new BasicCredentials(NUMBER, "rotated")).isPresent());
+    assertFalse(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+  }
+
+  @Test
+  public void testRemovedDeviceWithWarmCache() throws Exception {
+    account.removeDevice(1);
+
+    assertFalse(authenticator.authenticate(new BasicCredentials(NUMBER, PASSWORD)).isPresent());
+  }
+}
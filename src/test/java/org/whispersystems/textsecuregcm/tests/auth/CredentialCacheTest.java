@@ -0,0 +1,79 @@
+package org.whispersystems.textsecuregcm.tests.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.auth.AuthenticationCredentials;
+import org.whispersystems.textsecuregcm.auth.CredentialCache;
+import org.whispersystems.textsecuregcm.storage.Device;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CredentialCacheTest {
+
+  private static final String NUMBER   = "+14152222222";
+  private static final String PASSWORD = "s\u00e9cure";
+
+  private final CredentialCache           credentialCache = new CredentialCache();
+  private final Device                    device          = mock(Device.class);
+  private final AuthenticationCredentials credentials     = mock(AuthenticationCredentials.class);
+
+  @Before
+  public void setup() {
+    when(device.getId()).thenReturn(1L);
+    when(device.getAuthenticationCredentials()).thenReturn(credentials);
+    when(credentials.getSalt()).thenReturn("salt");
+    when(credentials.getHashedAuthenticationToken()).thenReturn("hashed");
+    when(credentials.verify(PASSWORD)).thenReturn(true);
+  }
+
+  @Test
+  public void testHitSkipsVerification() {
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+
+    verify(credentials, times(1)).verify(anyString());
+  }
+
+  @Test
+  public void testOtherPasswordMisses() {
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+    assertFalse(credentialCache.verify(NUMBER, device, "s\u00e9curf"));
+    assertFalse(credentialCache.verify(NUMBER, device, PASSWORD + "x"));
+
+    verify(credentials, times(3)).verify(anyString());
+  }
+
+  @Test
+  public void testChangedCredentialsMiss() {
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+
+    when(credentials.getHashedAuthenticationToken()).thenReturn("rehashed");
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+
+    when(credentials.getSalt()).thenReturn("resalted");
+    when(credentials.verify(PASSWORD)).thenReturn(false);
+    assertFalse(credentialCache.verify(NUMBER, device, PASSWORD));
+
+    verify(credentials, times(3)).verify(anyString());
+  }
+
+  @Test
+  public void testOtherDeviceMisses() {
+    Device other = mock(Device.class);
+
+    when(other.getId()).thenReturn(2L);
+    when(other.getAuthenticationCredentials()).thenReturn(credentials);
+
+    assertTrue(credentialCache.verify(NUMBER, device, PASSWORD));
+    assertTrue(credentialCache.verify(NUMBER, other, PASSWORD));
+
+    verify(credentials, times(2)).verify(anyString());
+  }
+}
@@ -24,6 +24,7 @@ import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 import org.whispersystems.textsecuregcm.storage.KeyRecord;
 import org.whispersystems.textsecuregcm.storage.Keys;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
 import org.whispersystems.textsecuregcm.tests.util.AuthHelper;
 
 import javax.ws.rs.client.Entity;
@@ -69,8 +70,8 @@ public class KeyControllerTest {
                                                             .addProvider(AuthHelper.getAuthFilter())
                                                             .addProvider(new AuthValueFactoryProvider.Binder())
                                                             .setTestContainerFactory(new GrizzlyWebTestContainerFactory())
-                                                            .addResource(new KeysControllerV1(rateLimiters, keys, accounts, null))
-                                                            .addResource(new KeysControllerV2(rateLimiters, keys, accounts, null))
+                                                            .addResource(new KeysControllerV1(rateLimiters, new ReplicaRouter<>(keys), accounts, null))
+                                                            .addResource(new KeysControllerV2(rateLimiters, new ReplicaRouter<>(keys), accounts, null))
                                                             .build();
 
   @Before
@@ -188,7 +189,7 @@ public class KeyControllerTest {
     assertThat(response.getStatus() == 204);
 
     verify(AuthHelper.VALID_DEVICE).setSignedPreKey(eq(test));
-    verify(accounts).update(eq(AuthHelper.VALID_ACCOUNT));
+    verify(accounts).update(eq(AuthHelper.VALID_ACCOUNT), any(AccountsManager.Mutation.class));
   }
 
   @Test
@@ -419,7 +420,7 @@ public class KeyControllerTest {
     assertThat(lastResortCaptor.getValue().getIdentityKey().equals("foobarbaz"));
 
     verify(AuthHelper.VALID_ACCOUNT).setIdentityKey(eq("foobarbaz"));
-    verify(accounts).update(AuthHelper.VALID_ACCOUNT);
+    verify(accounts).update(eq(AuthHelper.VALID_ACCOUNT), any(AccountsManager.Mutation.class));
   }
 
   @Test
@@ -454,7 +455,7 @@ public class KeyControllerTest {
 
     verify(AuthHelper.VALID_ACCOUNT).setIdentityKey(eq("barbar"));
     verify(AuthHelper.VALID_DEVICE).setSignedPreKey(eq(signedPreKey));
-    verify(accounts).update(AuthHelper.VALID_ACCOUNT);
+    verify(accounts).update(eq(AuthHelper.VALID_ACCOUNT), any(AccountsManager.Mutation.class));
   }
 
 
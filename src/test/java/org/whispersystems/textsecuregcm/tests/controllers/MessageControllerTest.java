@@ -8,6 +8,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.whispersystems.dropwizard.simpleauth.AuthValueFactoryProvider;
 import org.whispersystems.textsecuregcm.controllers.MessageController;
+import org.whispersystems.textsecuregcm.entities.AcknowledgedMessage;
+import org.whispersystems.textsecuregcm.entities.AcknowledgedMessageList;
 import org.whispersystems.textsecuregcm.entities.IncomingMessageList;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import org.whispersystems.textsecuregcm.entities.MismatchedDevices;
@@ -214,20 +216,20 @@ public class MessageControllerTest {
   @Test
   public synchronized void testDeleteMessages() throws Exception {
     long timestamp = System.currentTimeMillis();
-    when(messagesManager.delete(AuthHelper.VALID_NUMBER, "+14152222222", 31337))
+    when(messagesManager.delete(AuthHelper.VALID_NUMBER, 1, "+14152222222", 31337))
         .thenReturn(Optional.of(new OutgoingMessageEntity(31337L,
                                                           Envelope.Type.CIPHERTEXT_VALUE,
                                                           null, timestamp,
                                                           "+14152222222", 1, "hi".getBytes(), null)));
 
-    when(messagesManager.delete(AuthHelper.VALID_NUMBER, "+14152222222", 31338))
+    when(messagesManager.delete(AuthHelper.VALID_NUMBER, 1, "+14152222222", 31338))
         .thenReturn(Optional.of(new OutgoingMessageEntity(31337L,
                                                           Envelope.Type.RECEIPT_VALUE,
                                                           null, System.currentTimeMillis(),
                                                           "+14152222222", 1, null, null)));
 
 
-    when(messagesManager.delete(AuthHelper.VALID_NUMBER, "+14152222222", 31339))
+    when(messagesManager.delete(AuthHelper.VALID_NUMBER, 1, "+14152222222", 31339))
         .thenReturn(Optional.<OutgoingMessageEntity>absent());
 
     Response response = resources.getJerseyTest()
@@ -259,4 +261,35 @@ public class MessageControllerTest {
 
   }
 
+  @Test
+  public synchronized void testAcknowledgeMessages() throws Exception {
+    final long timestamp = System.currentTimeMillis();
+
+    List<OutgoingMessageEntity> removed = new LinkedList<OutgoingMessageEntity>() {{
+      add(new OutgoingMessageEntity(31337L, Envelope.Type.CIPHERTEXT_VALUE, null, timestamp, "+14152222222", 1, "hi".getBytes(), null));
+      add(new OutgoingMessageEntity(31338L, Envelope.Type.RECEIPT_VALUE, null, timestamp, "+14152222222", 1, null, null));
+    }};
+
+    when(messagesManager.delete(eq(AuthHelper.VALID_NUMBER), eq(1L), anyListOf(AcknowledgedMessage.class)))
+        .thenReturn(removed);
+
+    List<AcknowledgedMessage> acknowledged = new LinkedList<AcknowledgedMessage>() {{
+      add(new AcknowledgedMessage("+14152222222", 31337));
+      add(new AcknowledgedMessage("+14152222222", 31338));
+      add(new AcknowledgedMessage("+14152222222", 31339));
+    }};
+
+    Response response = resources.getJerseyTest()
+                                 .target("/v1/messages/acknowledged")
+                                 .request()
+                                 .header("Authorization", AuthHelper.getAuthHeader(AuthHelper.VALID_NUMBER, AuthHelper.VALID_PASSWORD))
+                                 .put(Entity.entity(new AcknowledgedMessageList(acknowledged), MediaType.APPLICATION_JSON_TYPE));
+
+    assertThat("Good Response Code", response.getStatus(), is(equalTo(204)));
+
+    verify(messagesManager).delete(eq(AuthHelper.VALID_NUMBER), eq(1L), anyListOf(AcknowledgedMessage.class));
+    verify(receiptSender).sendReceiptAsync(any(Account.class), eq("+14152222222"), eq(timestamp), eq(Optional.<String>absent()));
+    verifyNoMoreInteractions(receiptSender);
+  }
+
 }
@@ -0,0 +1,103 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.PubSubAddress;
+import org.whispersystems.textsecuregcm.storage.PubSubManager;
+import org.whispersystems.textsecuregcm.storage.PubSubProtos.PubSubMessage;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AccountCacheTest {
+
+  private static final String NUMBER = "+14152222222";
+
+  private final PubSubManager pubSubManager = mock(PubSubManager.class);
+  private final AccountCache  accountCache  = new AccountCache(pubSubManager, 100, 60);
+
+  @Test
+  public void testCopyIn() {
+    Account account = createAccount();
+    accountCache.put(account);
+
+    account.setIdentityKey("changed");
+    account.getDevice(1).get().setName("changed");
+
+    Account cached = accountCache.get(NUMBER).get();
+
+    assertEquals("identity", cached.getIdentityKey());
+    assertEquals("master", cached.getDevice(1).get().getName());
+  }
+
+  @Test
+  public void testCopyOut() {
+    accountCache.put(createAccount());
+
+    Account cached = accountCache.get(NUMBER).get();
+    cached.setIdentityKey("changed");
+    cached.getDevice(1).get().setName("changed");
+
+    Account reread = accountCache.get(NUMBER).get();
+
+    assertEquals("identity", reread.getIdentityKey());
+    assertEquals("master", reread.getDevice(1).get().getName());
+  }
+
+  @Test
+  public void testInvalidatePublishes() {
+    accountCache.put(createAccount());
+    accountCache.invalidate(NUMBER);
+
+    assertFalse(accountCache.get(NUMBER).isPresent());
+    verify(pubSubManager).publish(any(PubSubAddress.class), any(PubSubMessage.class));
+  }
+
+  @Test
+  public void testRemoteInvalidation() {
+    accountCache.put(createAccount());
+    accountCache.put(createAccount("+14153333333"));
+
+    accountCache.onDispatchMessage("ACCOUNT_INVALIDATIONS", PubSubMessage.newBuilder()
+                                                                         .setType(PubSubMessage.Type.DELIVER)
+                                                                         .setContent(ByteString.copyFromUtf8(NUMBER))
+                                                                         .build()
+                                                                         .toByteArray());
+
+    assertFalse(accountCache.get(NUMBER).isPresent());
+    assertTrue(accountCache.get("+14153333333").isPresent());
+  }
+
+  @Test
+  public void testResubscribeClears() {
+    accountCache.put(createAccount());
+    accountCache.onDispatchSubscribed("ACCOUNT_INVALIDATIONS");
+
+    assertFalse(accountCache.get(NUMBER).isPresent());
+  }
+
+  private Account createAccount() {
+    return createAccount(NUMBER);
+  }
+
+  private Account createAccount(String number) {
+    Set<Device> devices = new HashSet<>();
+    devices.add(new Device(1, "master", "token", "salt", "signaling", "gcm", null, null, false, 1234,
+                           null, 1000, 900, true, "agent"));
+
+    Account account = new Account(number, devices);
+    account.setIdentityKey("identity");
+
+    return account;
+  }
+}
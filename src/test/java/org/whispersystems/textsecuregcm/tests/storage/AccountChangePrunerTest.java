@@ -0,0 +1,81 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.storage.AccountChangePruner;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class AccountChangePrunerTest {
+
+  private static final long HORIZON = AccountsManager.CHANGE_RETENTION_MILLIS * 2;
+
+  private final AccountsManager  accountsManager = mock(AccountsManager.class);
+  private final DirectoryManager directory       = mock(DirectoryManager.class);
+  private final JedisPool        jedisPool       = mock(JedisPool.class);
+  private final Jedis            jedis           = mock(Jedis.class);
+
+  private final AccountChangePruner pruner = new AccountChangePruner(accountsManager, directory, jedisPool);
+
+  @Before
+  public void setup() {
+    when(jedisPool.getResource()).thenReturn(jedis);
+    when(accountsManager.getChangeHorizon()).thenReturn(HORIZON);
+  }
+
+  @Test
+  public void testPrunesThroughCheckpoint() {
+    holdLease();
+    when(directory.getCheckpoint()).thenReturn(Optional.of(HORIZON - 1000));
+
+    pruner.run();
+
+    verify(accountsManager).removeChangesBefore(HORIZON - 1000);
+  }
+
+  @Test
+  public void testPrunesStaleChangesWithoutDirectoryUpdates() {
+    holdLease();
+    when(directory.getCheckpoint()).thenReturn(Optional.of(1000L));
+
+    pruner.run();
+
+    verify(accountsManager).removeChangesBefore(HORIZON - AccountsManager.CHANGE_RETENTION_MILLIS);
+  }
+
+  @Test
+  public void testNeverPrunesPastHorizon() {
+    holdLease();
+    when(directory.getCheckpoint()).thenReturn(Optional.of(HORIZON + 1000));
+
+    pruner.run();
+
+    verify(accountsManager).removeChangesBefore(HORIZON);
+  }
+
+  @Test
+  public void testSkipsWithoutLease() {
+    when(directory.getCheckpoint()).thenReturn(Optional.of(HORIZON - 1000));
+
+    pruner.run();
+
+    verify(accountsManager, never()).removeChangesBefore(anyLong());
+  }
+
+  private void holdLease() {
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L);
+  }
+}
@@ -0,0 +1,68 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.auth.AuthenticationCredentials;
+import org.whispersystems.textsecuregcm.entities.SignedPreKey;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountCodec;
+import org.whispersystems.textsecuregcm.storage.Device;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AccountCodecTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Set<Device> devices = new HashSet<>();
+    devices.add(new Device(1, "master", "token", "salt", "signaling", "gcm", null, null, false, 1234,
+                           new SignedPreKey(11, "public", "signature"), 1000, 900, true, "agent"));
+    devices.add(new Device(2, null, "token2", "salt2", "signaling2", null, null, null, true, 5678,
+                           null, 2000, 1900, false, null));
+
+    Account account = new Account("+14152222222", devices);
+    account.setIdentityKey("identity");
+    account.setVersion(7);
+
+    Account decoded = AccountCodec.decode(AccountCodec.encode(account));
+
+    assertEquals("+14152222222", decoded.getNumber());
+    assertEquals("identity", decoded.getIdentityKey());
+    assertEquals(7, decoded.getVersion());
+    assertEquals(2, decoded.getDevices().size());
+
+    Device master = decoded.getDevice(1).get();
+    assertEquals("master", master.getName());
+    assertEquals("signaling", master.getSignalingKey());
+    assertEquals("gcm", master.getGcmId());
+    assertNull(master.getApnId());
+    assertEquals(1234, master.getRegistrationId());
+    assertEquals(new SignedPreKey(11, "public", "signature"), master.getSignedPreKey());
+    assertEquals(1000, master.getLastSeen());
+    assertEquals(900, master.getCreated());
+    assertEquals(account.getDevice(1).get().getPushTimestamp(), master.getPushTimestamp());
+    assertTrue(master.isVoiceSupported());
+    assertEquals("agent", master.getUserAgent());
+
+    AuthenticationCredentials credentials = master.getAuthenticationCredentials();
+    assertEquals("token", credentials.getHashedAuthenticationToken());
+    assertEquals("salt", credentials.getSalt());
+
+    Device linked = decoded.getDevice(2).get();
+    assertNull(linked.getName());
+    assertTrue(linked.getFetchesMessages());
+    assertNull(linked.getSignedPreKey());
+    assertFalse(linked.isVoiceSupported());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownVersion() throws IOException {
+    AccountCodec.decode(new byte[] {(byte)0x7f});
+  }
+}
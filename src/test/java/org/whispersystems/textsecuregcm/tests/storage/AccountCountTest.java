@@ -0,0 +1,95 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+import org.whispersystems.textsecuregcm.metrics.AccountCountGauge;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
+import org.whispersystems.textsecuregcm.storage.AccountCountCompactor;
+import org.whispersystems.textsecuregcm.storage.Accounts;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class AccountCountTest {
+
+  private final Accounts        accounts        = mock(Accounts.class);
+  private final JedisPool       cacheClient     = mock(JedisPool.class);
+  private final Jedis           jedis           = mock(Jedis.class);
+  private final AccountsManager accountsManager = new AccountsManager(new ReplicaRouter<>(accounts), mock(DirectoryManager.class),
+                                                                      cacheClient, Optional.<AccountCache>absent(), false, false);
+
+  @Before
+  public void setup() {
+    when(cacheClient.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testCountReadsMaintainedRows() {
+    when(accounts.getCount()).thenReturn(42L);
+
+    assertEquals(42L, accountsManager.getCount());
+    assertEquals(Long.valueOf(42L), new AccountCountGauge(accountsManager).getValue());
+  }
+
+  @Test
+  public void testCompaction() {
+    new AccountCountCompactor(accountsManager).run();
+    verify(accounts).compactCount();
+  }
+
+  @Test
+  public void testCompactionFailureContained() {
+    doThrow(new UnableToExecuteStatementException("compaction failed", (StatementContext)null)).when(accounts).compactCount();
+
+    new AccountCountCompactor(accountsManager).run();
+    verify(accounts).compactCount();
+  }
+
+  @Test
+  public void testCreateRetriesSerializationFailure() {
+    when(accounts.create(any(Account.class))).thenThrow(getSerializationFailure()).thenReturn(1L);
+
+    accountsManager.create(getAccount());
+
+    verify(accounts, times(2)).create(any(Account.class));
+  }
+
+  @Test
+  public void testCreateRetriesBounded() {
+    when(accounts.create(any(Account.class))).thenThrow(getSerializationFailure());
+
+    try {
+      accountsManager.create(getAccount());
+      fail("create should have failed");
+    } catch (UnableToExecuteStatementException e) {
+      verify(accounts, times(5)).create(any(Account.class));
+    }
+  }
+
+  private UnableToExecuteStatementException getSerializationFailure() {
+    return new UnableToExecuteStatementException(new SQLException("could not serialize access", "40001"), (StatementContext)null);
+  }
+
+  private Account getAccount() {
+    return new Account("+14152222222", new HashSet<Device>());
+  }
+}
@@ -0,0 +1,92 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountIterator;
+import org.whispersystems.textsecuregcm.storage.Accounts;
+import org.whispersystems.textsecuregcm.storage.Device;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class AccountIteratorTest {
+
+  private final Accounts accounts = mock(Accounts.class);
+
+  @Test
+  public void testSeeksFromLastId() {
+    when(accounts.getAllFrom(0, 2)).thenReturn(getAccounts(3, 7));
+    when(accounts.getAllFrom(7, 2)).thenReturn(getAccounts(8, 12));
+    when(accounts.getAllFrom(12, 2)).thenReturn(getAccounts(20));
+
+    assertEquals(getIds(3, 7, 8, 12, 20), drain(new AccountIterator(accounts, 2)));
+
+    verify(accounts).getAllFrom(0, 2);
+    verify(accounts).getAllFrom(7, 2);
+    verify(accounts).getAllFrom(12, 2);
+    verifyNoMoreInteractions(accounts);
+  }
+
+  @Test
+  public void testFullLastPage() {
+    when(accounts.getAllFrom(0, 2)).thenReturn(getAccounts(1, 2));
+    when(accounts.getAllFrom(2, 2)).thenReturn(Collections.<Account>emptyList());
+
+    AccountIterator iterator = new AccountIterator(accounts, 2);
+
+    assertEquals(getIds(1, 2), drain(iterator));
+    assertFalse(iterator.hasNext());
+
+    verify(accounts).getAllFrom(0, 2);
+    verify(accounts).getAllFrom(2, 2);
+    verifyNoMoreInteractions(accounts);
+  }
+
+  @Test
+  public void testEmpty() {
+    when(accounts.getAllFrom(0, 100)).thenReturn(Collections.<Account>emptyList());
+
+    assertFalse(new AccountIterator(accounts, 100).hasNext());
+  }
+
+  private List<Long> drain(AccountIterator iterator) {
+    List<Long> ids = new LinkedList<>();
+
+    while (iterator.hasNext()) {
+      ids.add(iterator.next().getId());
+    }
+
+    return ids;
+  }
+
+  private List<Long> getIds(long... ids) {
+    List<Long> results = new LinkedList<>();
+
+    for (long id : ids) {
+      results.add(id);
+    }
+
+    return results;
+  }
+
+  private List<Account> getAccounts(long... ids) {
+    List<Account> results = new LinkedList<>();
+
+    for (long id : ids) {
+      Account account = new Account("+1415555" + id, new HashSet<Device>());
+      account.setId(id);
+      results.add(account);
+    }
+
+    return results;
+  }
+}
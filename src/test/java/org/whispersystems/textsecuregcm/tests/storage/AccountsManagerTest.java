@@ -0,0 +1,269 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
+import org.whispersystems.textsecuregcm.storage.Accounts;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.ReplicaLagMonitor;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
+import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class AccountsManagerTest {
+
+  private static final String NUMBER = "+14152222222";
+
+  private final Accounts  accounts    = mock(Accounts.class);
+  private final JedisPool cacheClient = mock(JedisPool.class);
+  private final Jedis     jedis       = mock(Jedis.class);
+
+  @Before
+  public void setup() {
+    when(cacheClient.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testAbsentHit() {
+    when(jedis.exists("AccountAbsent" + NUMBER)).thenReturn(true);
+
+    assertFalse(getAccountsManager(false).get(NUMBER).isPresent());
+    verify(accounts, never()).get(NUMBER);
+  }
+
+  @Test
+  public void testAbsentMiss() {
+    assertFalse(getAccountsManager(false).get(NUMBER).isPresent());
+
+    verify(accounts).get(NUMBER);
+    verify(jedis).eval(anyString(), eq(Arrays.asList("AccountPresent" + NUMBER, "AccountAbsent" + NUMBER)),
+                       eq(Collections.singletonList("60")));
+  }
+
+  @Test
+  public void testCreateMarksPresentBeforeClearingAbsent() {
+    Account account = getAccount(1, "identity", 100);
+
+    getAccountsManager(false).create(account);
+
+    InOrder inOrder = inOrder(jedis);
+    inOrder.verify(jedis).setex("AccountPresent" + NUMBER, 60, "1");
+    inOrder.verify(jedis).set(anyString(), anyString());
+    inOrder.verify(jedis).del(any(byte[].class), aryEq(("AccountAbsent" + NUMBER).getBytes()));
+  }
+
+  @Test
+  public void testUpdateRetriesAgainstLatestCopy() {
+    Account stale = getAccount(1, "identity", 100);
+    Account fresh = getAccount(2, "rotated", 100);
+
+    when(accounts.update(any(Account.class))).thenReturn(0, 1);
+    when(accounts.get(NUMBER)).thenReturn(fresh);
+
+    AccountsManager.DeviceMutation mutation = new AccountsManager.DeviceMutation(1) {
+      @Override
+      public void apply(Device device) {
+        device.setName("renamed");
+      }
+    };
+
+    mutation.apply(stale);
+    getAccountsManager(false).update(stale, mutation);
+
+    ArgumentCaptor<Account> written = ArgumentCaptor.forClass(Account.class);
+    verify(accounts, times(2)).update(written.capture());
+
+    Account merged = written.getAllValues().get(1);
+    assertEquals("rotated", merged.getIdentityKey());
+    assertEquals("renamed", merged.getDevice(1).get().getName());
+    assertEquals(3, merged.getVersion());
+    assertEquals(3, stale.getVersion());
+  }
+
+  @Test
+  public void testLastSeenRewriteMergesWithConcurrentUpdate() {
+    Account stale = getAccount(1, "identity", 100);
+    Account fresh = getAccount(2, "rotated", 100);
+
+    when(accounts.updateBinary(any(Account.class))).thenReturn(0, 1);
+    when(accounts.get(NUMBER)).thenReturn(stale, fresh);
+
+    getAccountsManager(true).updateLastSeen(Arrays.asList(NUMBER), Arrays.asList(1L), Arrays.asList(200L));
+
+    ArgumentCaptor<Account> written = ArgumentCaptor.forClass(Account.class);
+    verify(accounts, times(2)).updateBinary(written.capture());
+
+    List<Account> writes = written.getAllValues();
+    assertEquals("rotated", writes.get(1).getIdentityKey());
+    assertEquals(200, writes.get(1).getDevice(1).get().getLastSeen());
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentMissesCoalesce() throws Exception {
+    Accounts        replica         = mock(Accounts.class);
+    Account         account         = getAccount(1, "identity", 100);
+    CountDownLatch  loadStarted     = new CountDownLatch(1);
+    CountDownLatch  loadReleased    = new CountDownLatch(1);
+    AccountsManager accountsManager = getAccountsManager(replica);
+    ExecutorService callers         = Executors.newCachedThreadPool();
+
+    when(replica.get(NUMBER)).thenAnswer(getBlockingAnswer(account, loadStarted, loadReleased));
+
+    try {
+      Future<Optional<Account>> loader = get(callers, accountsManager);
+      loadStarted.await();
+
+      long                            coalesced = getCoalescedMeter().getCount();
+      List<Future<Optional<Account>>> waiters   = new LinkedList<>();
+
+      for (int i=0;i<3;i++) {
+        waiters.add(get(callers, accountsManager));
+      }
+
+      while (getCoalescedMeter().getCount() < coalesced + 3) {
+        Thread.sleep(10);
+      }
+
+      loadReleased.countDown();
+
+      Account loaded = loader.get().get();
+      assertEquals("identity", loaded.getIdentityKey());
+
+      for (Future<Optional<Account>> waiter : waiters) {
+        Account waited = waiter.get().get();
+        assertEquals("identity", waited.getIdentityKey());
+        assertNotSame(loaded, waited);
+      }
+
+      verify(replica, times(1)).get(NUMBER);
+      verifyZeroInteractions(accounts);
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testCoalescedLoadTimeoutReadsPrimary() throws Exception {
+    Accounts        replica         = mock(Accounts.class);
+    CountDownLatch  loadStarted     = new CountDownLatch(1);
+    CountDownLatch  loadReleased    = new CountDownLatch(1);
+    AccountsManager accountsManager = getAccountsManager(replica);
+    ExecutorService callers         = Executors.newCachedThreadPool();
+
+    when(replica.get(NUMBER)).thenAnswer(getBlockingAnswer(getAccount(1, "stale", 100), loadStarted, loadReleased));
+    when(accounts.get(NUMBER)).thenReturn(getAccount(2, "fresh", 100));
+
+    try {
+      get(callers, accountsManager);
+      loadStarted.await();
+
+      long              start  = System.currentTimeMillis();
+      Optional<Account> waited = get(callers, accountsManager).get();
+
+      assertTrue(System.currentTimeMillis() - start >= TimeUnit.SECONDS.toMillis(10));
+      assertEquals("fresh", waited.get().getIdentityKey());
+      verify(accounts).get(NUMBER);
+    } finally {
+      loadReleased.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  private Future<Optional<Account>> get(ExecutorService callers, final AccountsManager accountsManager) {
+    return callers.submit(new Callable<Optional<Account>>() {
+      @Override
+      public Optional<Account> call() throws Exception {
+        return accountsManager.get(NUMBER);
+      }
+    });
+  }
+
+  private Answer<Account> getBlockingAnswer(final Account account,
+                                            final CountDownLatch started,
+                                            final CountDownLatch released)
+  {
+    return new Answer<Account>() {
+      @Override
+      public Account answer(InvocationOnMock invocation) throws Throwable {
+        started.countDown();
+        released.await();
+        return account;
+      }
+    };
+  }
+
+  private Meter getCoalescedMeter() {
+    return SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME)
+                                 .meter(name(AccountsManager.class, "coalesced_loads"));
+  }
+
+  private AccountsManager getAccountsManager(Accounts replica) {
+    ReplicaLagMonitor lagMonitor = mock(ReplicaLagMonitor.class);
+    when(lagMonitor.isHealthy()).thenReturn(true);
+
+    List<Pair<Accounts, ReplicaLagMonitor>> replicas = new LinkedList<>();
+    replicas.add(new Pair<>(replica, lagMonitor));
+
+    return new AccountsManager(new ReplicaRouter<>(accounts, replicas), mock(DirectoryManager.class), cacheClient,
+                               Optional.<AccountCache>absent(), false, false);
+  }
+
+  private AccountsManager getAccountsManager(boolean binary) {
+    return new AccountsManager(new ReplicaRouter<>(accounts), mock(DirectoryManager.class), cacheClient,
+                               Optional.<AccountCache>absent(), binary, binary);
+  }
+
+  private Account getAccount(long version, String identityKey, long lastSeen) {
+    Set<Device> devices = new HashSet<>();
+    devices.add(new Device(1, "master", "token", "salt", "signaling", "gcm", null, null, false, 1234,
+                           null, lastSeen, 0, false, null));
+
+    Account account = new Account(NUMBER, devices);
+    account.setIdentityKey(identityKey);
+    account.setVersion(version);
+
+    return account;
+  }
+}
@@ -0,0 +1,196 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager.BatchOperationHandle;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager.PendingClientContact;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+public class DirectoryManagerTest {
+
+  private static final byte[] TOKEN = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a};
+
+  private final JedisPool redisPool = mock(JedisPool.class);
+  private final Jedis     jedis     = mock(Jedis.class);
+
+  @Before
+  public void setup() {
+    when(redisPool.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testBinaryRoundTrip() {
+    byte[] value = add(new DirectoryManager(redisPool, true), new ClientContact(TOKEN, "relay.example.com", true));
+
+    assertEquals((byte)0x83, value[0]);
+    assertEquals(1 + "relay.example.com".length(), value.length);
+
+    ClientContact contact = get(new DirectoryManager(redisPool, true), value);
+
+    assertArrayEquals(TOKEN, contact.getToken());
+    assertEquals("relay.example.com", contact.getRelay());
+    assertTrue(contact.isVoice());
+  }
+
+  @Test
+  public void testBinaryRoundTripWithoutFlags() {
+    byte[] value = add(new DirectoryManager(redisPool, true), new ClientContact(TOKEN, null, false));
+
+    assertArrayEquals(new byte[] {(byte)0x80}, value);
+
+    ClientContact contact = get(new DirectoryManager(redisPool, true), value);
+
+    assertNull(contact.getRelay());
+    assertFalse(contact.isVoice());
+  }
+
+  @Test
+  public void testJsonRoundTrip() {
+    byte[] value = add(new DirectoryManager(redisPool, false), new ClientContact(TOKEN, "relay.example.com", true));
+
+    assertEquals('{', value[0]);
+    assertEquals(new ClientContact(TOKEN, "relay.example.com", true), get(new DirectoryManager(redisPool, false), value));
+  }
+
+  @Test
+  public void testBinaryReadsLegacyJson() {
+    ClientContact contact = get(new DirectoryManager(redisPool, true), "{\"r\":\"relay.example.com\",\"v\":true}".getBytes());
+
+    assertEquals("relay.example.com", contact.getRelay());
+    assertTrue(contact.isVoice());
+
+    contact = get(new DirectoryManager(redisPool, true), "{\"r\":null,\"v\":false}".getBytes());
+
+    assertNull(contact.getRelay());
+    assertFalse(contact.isVoice());
+  }
+
+  @Test
+  public void testJsonReadsBinary() {
+    byte[] value = add(new DirectoryManager(redisPool, true), new ClientContact(TOKEN, null, true));
+
+    assertEquals(new ClientContact(TOKEN, null, true), get(new DirectoryManager(redisPool, false), value));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPendingContactDecodesBinary() throws IOException {
+    byte[]           value    = add(new DirectoryManager(redisPool, true), new ClientContact(TOKEN, "relay.example.com", false));
+    Pipeline         pipeline = mock(Pipeline.class);
+    Response<byte[]> response = mock(Response.class);
+
+    when(pipeline.hget(any(byte[].class), eq(TOKEN))).thenReturn(response);
+    when(response.get()).thenReturn(value);
+
+    PendingClientContact pending = new DirectoryManager(redisPool, true).get(new BatchOperationHandle(jedis, pipeline), TOKEN);
+
+    assertEquals(new ClientContact(TOKEN, "relay.example.com", false), pending.get().get());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplaceIsConditionalOnStoredValue() throws IOException {
+    byte[]           stored   = {(byte)0x80};
+    Pipeline         pipeline = mock(Pipeline.class);
+    Response<byte[]> response = mock(Response.class);
+
+    when(pipeline.hget(any(byte[].class), eq(TOKEN))).thenReturn(response);
+    when(response.get()).thenReturn(stored);
+    when(jedis.eval(any(byte[].class), anyListOf(byte[].class), anyListOf(byte[].class))).thenReturn(0L, 1L);
+
+    DirectoryManager     directory = new DirectoryManager(redisPool, true);
+    PendingClientContact pending   = directory.get(new BatchOperationHandle(jedis, pipeline), TOKEN);
+
+    assertFalse(directory.replace(pending, Optional.of(new ClientContact(TOKEN, "relay.example.com", true))));
+    assertTrue(directory.replace(pending, Optional.<ClientContact>absent()));
+
+    ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+    verify(jedis, times(2)).eval(any(byte[].class), anyListOf(byte[].class), args.capture());
+
+    List<byte[]> replaced = args.getAllValues().get(0);
+    List<byte[]> removed  = args.getAllValues().get(1);
+
+    assertArrayEquals(TOKEN, replaced.get(0));
+    assertArrayEquals(stored, replaced.get(1));
+    assertEquals((byte)0x83, replaced.get(2)[0]);
+
+    assertArrayEquals(stored, removed.get(1));
+    assertEquals(0, removed.get(2).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  @SuppressWarnings("unchecked")
+  public void testReplaceRequiresStoredValue() throws IOException {
+    Pipeline         pipeline = mock(Pipeline.class);
+    Response<byte[]> response = mock(Response.class);
+
+    when(pipeline.hget(any(byte[].class), eq(TOKEN))).thenReturn(response);
+
+    DirectoryManager directory = new DirectoryManager(redisPool, true);
+    directory.replace(directory.get(new BatchOperationHandle(jedis, pipeline), TOKEN), Optional.<ClientContact>absent());
+  }
+
+  @Test
+  public void testCommitStagingRenames() {
+    when(jedis.exists("directory:next".getBytes())).thenReturn(true);
+
+    new DirectoryManager(redisPool, true).commitStaging();
+
+    verify(jedis).rename("directory:next".getBytes(), "directory".getBytes());
+    verify(jedis, never()).del("directory".getBytes());
+    verify(jedis).publish(any(byte[].class), eq(DirectoryManager.encodeChange(new byte[0], Optional.<ClientContact>absent())));
+  }
+
+  @Test
+  public void testCommitEmptyStagingClears() {
+    when(jedis.exists("directory:next".getBytes())).thenReturn(false);
+
+    new DirectoryManager(redisPool, true).commitStaging();
+
+    verify(jedis, never()).rename(any(byte[].class), any(byte[].class));
+    verify(jedis).del("directory".getBytes());
+    verify(jedis).publish(any(byte[].class), eq(DirectoryManager.encodeChange(new byte[0], Optional.<ClientContact>absent())));
+  }
+
+  private byte[] add(DirectoryManager directory, ClientContact contact) {
+    directory.add(contact);
+
+    ArgumentCaptor<byte[]> value = ArgumentCaptor.forClass(byte[].class);
+    verify(jedis).hset(any(byte[].class), eq(TOKEN), value.capture());
+
+    return value.getValue();
+  }
+
+  private ClientContact get(DirectoryManager directory, byte[] value) {
+    when(jedis.hget(any(byte[].class), eq(TOKEN))).thenReturn(value);
+
+    Optional<ClientContact> contact = directory.get(TOKEN);
+    assertTrue(contact.isPresent());
+
+    return contact.get();
+  }
+}
@@ -0,0 +1,140 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountCache;
+import org.whispersystems.textsecuregcm.storage.Accounts;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.LastSeenFlusher;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class LastSeenFlusherTest {
+
+  private final Accounts  accounts    = mock(Accounts.class);
+  private final JedisPool cacheClient = mock(JedisPool.class);
+  private final Jedis     jedis       = mock(Jedis.class);
+
+  @Before
+  public void setup() {
+    when(cacheClient.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testTouchesCoalesce() {
+    AccountsManager accountsManager = mock(AccountsManager.class);
+    LastSeenFlusher flusher         = new LastSeenFlusher(accountsManager);
+
+    flusher.touch("+14151111111", 1, 100);
+    flusher.touch("+14151111111", 1, 200);
+    flusher.touch("+14151111111", 2, 100);
+
+    flusher.run();
+
+    ArgumentCaptor<List> numbers   = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<List> deviceIds = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<List> lastSeens = ArgumentCaptor.forClass(List.class);
+
+    verify(accountsManager).updateLastSeen(numbers.capture(), deviceIds.capture(), lastSeens.capture());
+    verify(accountsManager, never()).get(anyString());
+
+    assertEquals(2, numbers.getValue().size());
+
+    for (int i=0;i<numbers.getValue().size();i++) {
+      long deviceId = (Long)deviceIds.getValue().get(i);
+      assertEquals(deviceId == 1 ? 200L : 100L, lastSeens.getValue().get(i));
+    }
+
+    flusher.run();
+    verifyNoMoreInteractions(accountsManager);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testTouchesFlushInBatches() {
+    AccountsManager accountsManager = mock(AccountsManager.class);
+    LastSeenFlusher flusher         = new LastSeenFlusher(accountsManager);
+
+    for (int i=0;i<250;i++) {
+      flusher.touch("+1415" + (1000000 + i), 1, 100);
+    }
+
+    flusher.run();
+
+    ArgumentCaptor<List> numbers = ArgumentCaptor.forClass(List.class);
+    verify(accountsManager, times(3)).updateLastSeen(numbers.capture(), anyListOf(Long.class), anyListOf(Long.class));
+
+    Set<Object> flushed = new HashSet<>();
+
+    for (List batch : numbers.getAllValues()) {
+      assertEquals(true, batch.size() <= 100);
+      flushed.addAll(batch);
+    }
+
+    assertEquals(250, flushed.size());
+  }
+
+  @Test
+  public void testUnpatchedRowsFallBackToRewrite() {
+    Account account = getAccount("+14152222222", 1, 100);
+
+    when(accounts.updateLastSeen(anyListOf(String.class), anyListOf(Long.class), anyListOf(Long.class)))
+        .thenReturn(new int[] {1, 0});
+    when(accounts.get("+14152222222")).thenReturn(account);
+    when(accounts.update(any(Account.class))).thenReturn(1);
+
+    getAccountsManager().updateLastSeen(Arrays.asList("+14151111111", "+14152222222"),
+                                        Arrays.asList(1L, 1L),
+                                        Arrays.asList(200L, 200L));
+
+    verify(accounts, never()).get("+14151111111");
+    verify(jedis).setex(eq("AccountPresent+14151111111"), anyInt(), eq("1"));
+
+    ArgumentCaptor<Account> written = ArgumentCaptor.forClass(Account.class);
+    verify(accounts).update(written.capture());
+
+    assertEquals("+14152222222", written.getValue().getNumber());
+    assertEquals(200, written.getValue().getDevice(1).get().getLastSeen());
+  }
+
+  private AccountsManager getAccountsManager() {
+    return new AccountsManager(new ReplicaRouter<>(accounts), mock(DirectoryManager.class), cacheClient,
+                               Optional.<AccountCache>absent(), false, false);
+  }
+
+  private Account getAccount(String number, long version, long lastSeen) {
+    Set<Device> devices = new HashSet<>();
+    devices.add(new Device(1, "master", "token", "salt", "signaling", "gcm", null, null, false, 1234,
+                           null, lastSeen, 0, false, null));
+
+    Account account = new Account(number, devices);
+    account.setVersion(version);
+
+    return account;
+  }
+}
@@ -0,0 +1,72 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.storage.Lease;
+
+import java.util.Collections;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LeaseTest {
+
+  private static final String KEY = "lease::test";
+
+  private final JedisPool jedisPool = mock(JedisPool.class);
+  private final Jedis     jedis     = mock(Jedis.class);
+
+  @Before
+  public void setup() {
+    when(jedisPool.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testAcquire() {
+    Lease lease = new Lease(jedisPool, "test", 1000);
+
+    when(jedis.set(eq(KEY), anyString(), eq("NX"), eq("PX"), eq(1000L))).thenReturn("OK", (String)null);
+
+    assertTrue(lease.acquire());
+    assertFalse(lease.acquire());
+  }
+
+  @Test
+  public void testRenewAndReleaseAsHolder() {
+    Lease lease = new Lease(jedisPool, "test", 1000);
+
+    when(jedis.set(eq(KEY), anyString(), eq("NX"), eq("PX"), eq(1000L))).thenReturn("OK");
+    when(jedis.eval(anyString(), eq(Collections.singletonList(KEY)), anyListOf(String.class))).thenReturn(1L, 0L);
+
+    assertTrue(lease.acquire());
+    assertTrue(lease.renew());
+    assertFalse(lease.renew());
+
+    lease.release();
+
+    ArgumentCaptor<String> holder = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<List>   args   = ArgumentCaptor.forClass(List.class);
+
+    verify(jedis).set(eq(KEY), holder.capture(), eq("NX"), eq("PX"), eq(1000L));
+    verify(jedis, times(3)).eval(anyString(), eq(Collections.singletonList(KEY)), args.capture());
+
+    for (List arguments : args.getAllValues()) {
+      assertEquals(holder.getValue(), arguments.get(0));
+    }
+
+    assertEquals("1000", args.getAllValues().get(0).get(1));
+  }
+}
@@ -0,0 +1,82 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.LocalDirectory;
+import org.whispersystems.textsecuregcm.storage.PubSubManager;
+import org.whispersystems.textsecuregcm.util.Pair;
+import org.whispersystems.textsecuregcm.util.Util;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.ScanParams;
+
+public class LocalDirectoryTest {
+
+  private static final int COUNT = 100000;
+
+  @Test
+  public void testLoadAndApplyChanges() {
+    DirectoryManager    directory = mock(DirectoryManager.class);
+    List<ClientContact> contacts  = new LinkedList<>();
+
+    for (int i=0;i<COUNT;i++) {
+      contacts.add(new ClientContact(getToken(i), i % 10 == 0 ? "relay" : null, i % 3 == 0));
+    }
+
+    when(directory.scan(eq(ScanParams.SCAN_POINTER_START), anyInt())).thenReturn(new Pair<>(ScanParams.SCAN_POINTER_START, contacts));
+
+    LocalDirectory localDirectory = new LocalDirectory(directory, mock(PubSubManager.class));
+
+    assertFalse(localDirectory.isReady());
+    localDirectory.run();
+    assertTrue(localDirectory.isReady());
+
+    for (int i=0;i<COUNT;i++) {
+      Optional<ClientContact> contact = localDirectory.get(getToken(i));
+
+      assertTrue(contact.isPresent());
+      assertEquals(i % 3 == 0, contact.get().isVoice());
+
+      if (i % 10 == 0) assertEquals("relay", contact.get().getRelay());
+      else             assertNull(contact.get().getRelay());
+    }
+
+    assertFalse(localDirectory.get(getToken(COUNT)).isPresent());
+
+    for (int i=0;i<COUNT;i+=2) {
+      localDirectory.onDispatchMessage("DIRECTORY_CHANGES", DirectoryManager.encodeChange(getToken(i), Optional.<ClientContact>absent()));
+    }
+
+    for (int i=0;i<COUNT;i++) {
+      assertEquals(i % 2 != 0, localDirectory.get(getToken(i)).isPresent());
+    }
+
+    localDirectory.onDispatchMessage("DIRECTORY_CHANGES", DirectoryManager.encodeChange(getToken(0), Optional.of(new ClientContact(getToken(0), null, true))));
+
+    assertTrue(localDirectory.get(getToken(0)).get().isVoice());
+
+    List<byte[]> query = new LinkedList<>();
+
+    for (int i=0;i<10;i++) {
+      query.add(getToken(i));
+    }
+
+    assertEquals(6, localDirectory.get(query).size());
+  }
+
+  private byte[] getToken(int index) {
+    return Util.getContactToken("+1415555" + index);
+  }
+}
@@ -0,0 +1,210 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.storage.MessageBatchWriter;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MessageBatchWriterTest {
+
+  private static final String DESTINATION = "+14152222222";
+
+  private final Messages        messages = mock(Messages.class);
+  private final ExecutorService callers  = Executors.newCachedThreadPool();
+
+  @After
+  public void teardown() {
+    callers.shutdownNow();
+  }
+
+  @Test
+  public void testFlushAtBatchSize() throws Exception {
+    MessageBatchWriter writer = getWriter(TimeUnit.MINUTES.toMillis(1), 3);
+    writer.start();
+
+    List<Future<?>> stores = new LinkedList<>();
+
+    for (int i=0;i<3;i++) {
+      stores.add(store(writer, i));
+    }
+
+    for (Future<?> store : stores) {
+      store.get(10, TimeUnit.SECONDS);
+    }
+
+    verify(messages, times(1)).store(anyListOf(Envelope.class), anyListOf(String.class), anyListOf(Long.class));
+
+    writer.stop();
+  }
+
+  @Test
+  public void testFlushOnWindow() throws Exception {
+    MessageBatchWriter writer = getWriter(100, 100);
+    writer.start();
+
+    long start = System.currentTimeMillis();
+    store(writer, 1).get(10, TimeUnit.SECONDS);
+
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    verify(messages, times(1)).store(Collections.singletonList(createEnvelope(1)),
+                                     Collections.singletonList(DESTINATION),
+                                     Collections.singletonList(1L));
+
+    writer.stop();
+  }
+
+  @Test
+  public void testFailurePropagates() throws Exception {
+    doThrow(new IllegalStateException("write failed"))
+        .when(messages).store(anyListOf(Envelope.class), anyListOf(String.class), anyListOf(Long.class));
+
+    MessageBatchWriter writer = getWriter(10, 100);
+    writer.start();
+
+    try {
+      store(writer, 1).get(10, TimeUnit.SECONDS);
+      fail("store should have failed");
+    } catch (ExecutionException e) {
+      assertEquals(IllegalStateException.class, e.getCause().getClass());
+    }
+
+    writer.stop();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFailedBatchRetriesRows() throws Exception {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        List<Envelope> envelopes = (List<Envelope>)invocation.getArguments()[0];
+
+        if (envelopes.size() > 1 || envelopes.get(0).getTimestamp() == 2) {
+          throw new IllegalStateException("write failed");
+        }
+
+        return null;
+      }
+    }).when(messages).store(anyListOf(Envelope.class), anyListOf(String.class), anyListOf(Long.class));
+
+    MessageBatchWriter writer = getWriter(TimeUnit.MINUTES.toMillis(1), 3);
+    writer.start();
+
+    Future<?> first  = store(writer, 1);
+    Future<?> second = store(writer, 2);
+    Future<?> third  = store(writer, 3);
+
+    first.get(10, TimeUnit.SECONDS);
+    third.get(10, TimeUnit.SECONDS);
+
+    try {
+      second.get(10, TimeUnit.SECONDS);
+      fail("store should have failed");
+    } catch (ExecutionException e) {
+      assertEquals(IllegalStateException.class, e.getCause().getClass());
+    }
+
+    verify(messages).store(Collections.singletonList(createEnvelope(1)),
+                           Collections.singletonList(DESTINATION),
+                           Collections.singletonList(1L));
+
+    writer.stop();
+  }
+
+  @Test
+  public void testShardsWriteSeparately() throws Exception {
+    final Messages       slow     = mock(Messages.class);
+    final CountDownLatch released = new CountDownLatch(1);
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        released.await();
+        return null;
+      }
+    }).when(slow).store(anyListOf(Envelope.class), anyListOf(String.class), anyListOf(Long.class));
+
+    Map<String, Messages> shards = new HashMap<>();
+    shards.put("fast", messages);
+    shards.put("slow", slow);
+
+    MessageShards      messageShards = new MessageShards(shards);
+    MessageBatchWriter writer        = new MessageBatchWriter(messageShards, 10, 100);
+    String             fastNumber    = null;
+    String             slowNumber    = null;
+
+    for (int i=0;fastNumber == null || slowNumber == null;i++) {
+      String number = "+1415" + (2000000 + i);
+
+      if (messageShards.get(number) == messages) fastNumber = number;
+      else                                       slowNumber = number;
+    }
+
+    writer.start();
+
+    Future<?> blocked = store(writer, slowNumber, 1);
+    store(writer, fastNumber, 2).get(10, TimeUnit.SECONDS);
+
+    assertFalse(blocked.isDone());
+
+    released.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+
+    writer.stop();
+  }
+
+  private Future<?> store(MessageBatchWriter writer, long timestamp) {
+    return store(writer, DESTINATION, timestamp);
+  }
+
+  private Future<?> store(final MessageBatchWriter writer, final String destination, final long timestamp) {
+    return callers.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        writer.store(createEnvelope(timestamp), destination, 1);
+        return null;
+      }
+    });
+  }
+
+  private MessageBatchWriter getWriter(long batchWindowMillis, int maxBatchSize) {
+    return new MessageBatchWriter(new MessageShards(Collections.singletonMap("shard", messages)), batchWindowMillis, maxBatchSize);
+  }
+
+  private Envelope createEnvelope(long timestamp) {
+    return Envelope.newBuilder()
+                   .setType(Envelope.Type.CIPHERTEXT)
+                   .setSource("+14151111111")
+                   .setSourceDevice(1)
+                   .setTimestamp(timestamp)
+                   .build();
+  }
+}
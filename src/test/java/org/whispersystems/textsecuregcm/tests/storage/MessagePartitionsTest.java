@@ -0,0 +1,81 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.whispersystems.textsecuregcm.storage.MessagePartitionCreator;
+import org.whispersystems.textsecuregcm.storage.MessagePartitions;
+import org.whispersystems.textsecuregcm.storage.Messages;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessagePartitionsTest {
+
+  @Test
+  public void testPartitionEnd() throws Exception {
+    SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    long start = format.parse("20151005").getTime();
+
+    assertEquals(start + TimeUnit.DAYS.toMillis(7), MessagePartitions.getPartitionEnd("messages_20151005"));
+  }
+
+  @Test
+  public void testCreatesThisAndNextWeek() {
+    Messages messages = mock(Messages.class);
+    doCallRealMethod().when(messages).createPartitions(anyLong());
+
+    messages.createPartitions(1000);
+
+    verify(messages).createPartition(1000);
+    verify(messages).createPartition(1000 + MessagePartitions.WEEK_MILLIS);
+  }
+
+  @Test
+  public void testCountsBeforeDropping() {
+    Messages                  messages = mock(Messages.class);
+    List<Messages.QueueCount> counts   = Collections.singletonList(new Messages.QueueCount("+14152222222", 1, 3));
+
+    when(messages.countPartition(anyString())).thenReturn(counts);
+    when(messages.dropDetachedPartition(anyString())).thenCallRealMethod();
+
+    assertEquals(counts, messages.dropDetachedPartition("messages_20151005"));
+
+    InOrder inOrder = inOrder(messages);
+    inOrder.verify(messages).countPartition("messages_20151005");
+    inOrder.verify(messages).dropPartition("messages_20151005");
+  }
+
+  @Test
+  public void testCreatorCoversEveryShard() {
+    Messages              broken  = mock(Messages.class);
+    Messages              healthy = mock(Messages.class);
+    Map<String, Messages> shards  = new HashMap<>();
+
+    shards.put("broken", broken);
+    shards.put("healthy", healthy);
+
+    doThrow(new IllegalStateException("unavailable")).when(broken).createPartitions(anyLong());
+
+    new MessagePartitionCreator(shards).run();
+
+    verify(broken).createPartitions(anyLong());
+    verify(healthy).createPartitions(anyLong());
+  }
+}
@@ -0,0 +1,183 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.storage.MessagePersister;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.MessagesCache;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+
+import static org.junit.Assert.assertNull;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessagePersisterTest {
+
+  private static final String DESTINATION = "+14152222222";
+  private static final String QUEUE       = DESTINATION + "::1";
+
+  private final Messages      messages      = mock(Messages.class);
+  private final MessagesCache messagesCache = mock(MessagesCache.class);
+
+  private final Envelope                   first  = createEnvelope(1111);
+  private final Envelope                   second = createEnvelope(2222);
+  private final List<Pair<Long, Envelope>> items  = Arrays.asList(new Pair<>(1L, first), new Pair<>(2L, second));
+
+  private final AtomicReference<String> claim = new AtomicReference<>();
+
+  @Before
+  public void setup() {
+    when(messagesCache.getQueuesToPersist(anyLong(), anyInt())).thenReturn(Collections.singleton(QUEUE));
+    when(messagesCache.getPersisting(QUEUE)).thenReturn(new HashSet<Long>());
+    when(messagesCache.getItemsToPersist(eq(QUEUE), anyString(), anyInt())).thenReturn(Optional.of(items));
+    when(messagesCache.removePersisted(eq(QUEUE), anyString(), eq(items))).thenReturn(Optional.of(Collections.<Long>emptyList()));
+
+    when(messagesCache.claimForPersist(eq(QUEUE), anyString())).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        return claim.compareAndSet(null, (String)invocation.getArguments()[1]);
+      }
+    });
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        claim.compareAndSet((String)invocation.getArguments()[1], null);
+        return null;
+      }
+    }).when(messagesCache).releasePersistClaim(eq(QUEUE), anyString());
+  }
+
+  @Test
+  public void testAcknowledgedWhilePersisting() {
+    when(messagesCache.removePersisted(eq(QUEUE), anyString(), eq(items))).thenReturn(Optional.of(Collections.singletonList(2L)));
+
+    getPersister().run();
+
+    InOrder inOrder = inOrder(messages, messagesCache);
+    inOrder.verify(messagesCache).claimForPersist(eq(QUEUE), anyString());
+    inOrder.verify(messages).storePersisted(Arrays.asList(first, second), DESTINATION, 1, Arrays.asList(1L, 2L));
+    inOrder.verify(messagesCache).removePersisted(eq(QUEUE), anyString(), eq(items));
+    inOrder.verify(messages).removeByCachedIds(eq(DESTINATION), eq(1L), aryEq(new long[] {2L}));
+    inOrder.verify(messagesCache).unindexIfEmpty(QUEUE);
+    inOrder.verify(messagesCache).releasePersistClaim(eq(QUEUE), anyString());
+
+    assertNull(claim.get());
+  }
+
+  @Test
+  public void testOrphanedRowsRemovedUnderClaim() {
+    when(messagesCache.getPersisting(QUEUE)).thenReturn(new HashSet<>(Arrays.asList(1L, 2L)));
+
+    getPersister().run();
+
+    InOrder inOrder = inOrder(messages, messagesCache);
+    inOrder.verify(messagesCache).claimForPersist(eq(QUEUE), anyString());
+    inOrder.verify(messages).removeByCachedIds(eq(DESTINATION), eq(1L), any(long[].class));
+    inOrder.verify(messages).storePersisted(Arrays.asList(first, second), DESTINATION, 1, Arrays.asList(1L, 2L));
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentPersisters() throws Exception {
+    final CountDownLatch storing  = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+
+    when(messagesCache.getPersisting(QUEUE)).thenReturn(new HashSet<Long>(), new HashSet<>(Arrays.asList(1L, 2L)));
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        storing.countDown();
+        released.await();
+        return null;
+      }
+    }).when(messages).storePersisted(anyListOf(Envelope.class), anyString(), anyLong(), anyListOf(Long.class));
+
+    Thread holder = new Thread(getPersister());
+    holder.start();
+    storing.await();
+
+    getPersister().run();
+
+    released.countDown();
+    holder.join();
+
+    verify(messagesCache, times(2)).claimForPersist(eq(QUEUE), anyString());
+    verify(messagesCache, times(1)).getPersisting(QUEUE);
+    verify(messages, times(1)).storePersisted(anyListOf(Envelope.class), anyString(), anyLong(), anyListOf(Long.class));
+    verify(messages, never()).removeByCachedIds(anyString(), anyLong(), any(long[].class));
+    verify(messagesCache, times(1)).unindexIfEmpty(QUEUE);
+
+    assertNull(claim.get());
+  }
+
+  @Test
+  public void testLostClaimLeavesQueue() {
+    when(messagesCache.removePersisted(eq(QUEUE), anyString(), eq(items))).thenReturn(Optional.<List<Long>>absent());
+
+    getPersister().run();
+
+    verify(messages).storePersisted(Arrays.asList(first, second), DESTINATION, 1, Arrays.asList(1L, 2L));
+    verify(messages, never()).removeByCachedIds(anyString(), anyLong(), any(long[].class));
+    verify(messagesCache, never()).unindexIfEmpty(QUEUE);
+    verify(messagesCache).releasePersistClaim(eq(QUEUE), anyString());
+  }
+
+  @Test
+  public void testClearRemovesPersistState() {
+    JedisPool   jedisPool   = mock(JedisPool.class);
+    Jedis       jedis       = mock(Jedis.class);
+    Transaction transaction = mock(Transaction.class);
+
+    when(jedisPool.getResource()).thenReturn(jedis);
+    when(jedis.multi()).thenReturn(transaction);
+
+    new MessagesCache(jedisPool, 1000).clear(DESTINATION, 1);
+
+    verify(transaction).del("user_queue_persisting::" + QUEUE);
+    verify(transaction).del("user_queue_acked::" + QUEUE);
+    verify(transaction).exec();
+  }
+
+  private MessagePersister getPersister() {
+    return new MessagePersister(messagesCache, new MessageShards(Collections.singletonMap("shard", messages)), 1);
+  }
+
+  private Envelope createEnvelope(long timestamp) {
+    return Envelope.newBuilder()
+                   .setType(Envelope.Type.CIPHERTEXT)
+                   .setSource("+14151111111")
+                   .setSourceDevice(1)
+                   .setTimestamp(timestamp)
+                   .build();
+  }
+}
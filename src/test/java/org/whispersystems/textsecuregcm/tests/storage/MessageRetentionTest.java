@@ -0,0 +1,146 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.textsecuregcm.storage.MessageRetention;
+import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+import org.whispersystems.textsecuregcm.util.Constants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageRetentionTest {
+
+  private static final String DESTINATION = "+14152222222";
+
+  private final JedisPool         jedisPool = mock(JedisPool.class);
+  private final Jedis             jedis     = mock(Jedis.class);
+  private final Messages          messages  = mock(Messages.class);
+  private final QueueDepthCounter counter   = mock(QueueDepthCounter.class);
+
+  @Before
+  public void setup() {
+    when(jedisPool.getResource()).thenReturn(jedis);
+    when(messages.getPartitions()).thenReturn(new LinkedList<String>());
+    when(messages.getDetachedPartitions()).thenReturn(new LinkedList<String>());
+    when(messages.getMinId()).thenReturn(1L);
+    when(messages.getMaxId()).thenReturn(250L);
+    when(messages.removeOld(anyLong(), anyLong(), anyLong())).thenReturn(new LinkedList<Messages.QueueCount>());
+    when(messages.getNextId(anyLong())).thenAnswer(new Answer<Long>() {
+      @Override
+      public Long answer(InvocationOnMock invocation) {
+        return (Long)invocation.getArguments()[0] + 1;
+      }
+    });
+  }
+
+  @Test
+  public void testWalksIdRanges() throws Exception {
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L);
+    when(messages.removeOld(anyLong(), eq(101L), eq(201L))).thenReturn(Collections.singletonList(new Messages.QueueCount(DESTINATION, 1, 5)));
+
+    getRetention("walk").run();
+
+    verify(messages).removeOld(anyLong(), eq(1L), eq(101L));
+    verify(messages).removeOld(anyLong(), eq(101L), eq(201L));
+    verify(messages).removeOld(anyLong(), eq(201L), eq(301L));
+    verify(messages, times(3)).removeOld(anyLong(), anyLong(), anyLong());
+    verify(counter).decrement(DESTINATION, 1, 5);
+  }
+
+  @Test
+  public void testSkipsToNextStoredId() throws Exception {
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L);
+    when(messages.getNextId(100L)).thenReturn(180L);
+    when(messages.getNextId(279L)).thenReturn(0L);
+
+    getRetention("seek").run();
+
+    verify(messages).removeOld(anyLong(), eq(1L), eq(101L));
+    verify(messages).removeOld(anyLong(), eq(180L), eq(280L));
+    verify(messages, times(2)).removeOld(anyLong(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testLagIsOldestMessageAge() throws Exception {
+    long received = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+    when(messages.getOldestReceived()).thenReturn(received);
+
+    getRetention("lag").run();
+
+    Gauge<?> lag = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME)
+                                         .getGauges()
+                                         .get(name(MessageRetention.class, "lag", "lag"));
+
+    long age = (Long)lag.getValue();
+
+    assertTrue(age >= TimeUnit.HOURS.toMillis(1));
+    assertTrue(age < TimeUnit.HOURS.toMillis(1) + TimeUnit.MINUTES.toMillis(1));
+    verify(messages, never()).removeOld(anyLong(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testStopsWhenLeaseLost() throws Exception {
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L, 0L);
+
+    getRetention("lost").run();
+
+    verify(messages).removeOld(anyLong(), eq(1L), eq(101L));
+    verify(messages, times(1)).removeOld(anyLong(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testSkipsWithoutLease() throws Exception {
+    getRetention("held").run();
+
+    verify(messages, never()).createPartitions(anyLong());
+    verify(messages, never()).removeOld(anyLong(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testDropsExpiredPartitions() throws Exception {
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L);
+    when(messages.getPartitions()).thenReturn(Arrays.asList("messages_20150105", "messages_29990101"));
+    when(messages.getDetachedPartitions()).thenReturn(Arrays.asList("messages_20141229", "messages_29990108"));
+    when(messages.dropDetachedPartition("messages_20141229")).thenReturn(Collections.singletonList(new Messages.QueueCount(DESTINATION, 1, 2)));
+
+    getRetention("partitions").run();
+
+    verify(messages).createPartitions(anyLong());
+    verify(messages).detachPartition("messages_20150105");
+    verify(messages, never()).detachPartition("messages_29990101");
+    verify(messages).dropDetachedPartition("messages_20141229");
+    verify(messages, never()).dropDetachedPartition("messages_29990108");
+    verify(counter).decrement(DESTINATION, 1, 2);
+  }
+
+  private MessageRetention getRetention(String shard) {
+    return new MessageRetention(shard, messages, counter, jedisPool, 30, 100, 0);
+  }
+}
@@ -0,0 +1,189 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueueDepthCounterTest {
+
+  private static final String DESTINATION = "+14152222222";
+  private static final String KEY         = "queue_depth::" + DESTINATION;
+
+  private final JedisPool         jedisPool = mock(JedisPool.class);
+  private final Jedis             jedis     = mock(Jedis.class);
+  private final QueueDepthCounter counter   = new QueueDepthCounter(jedisPool);
+
+  @Before
+  public void setup() {
+    when(jedisPool.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testIncrement() {
+    when(jedis.hincrBy(KEY, "1", 1)).thenReturn(7L);
+
+    assertEquals(7, counter.increment(DESTINATION, 1));
+  }
+
+  @Test
+  public void testGet() {
+    when(jedis.hget(KEY, "1")).thenReturn("3");
+
+    assertEquals(3, counter.get(DESTINATION, 1));
+    assertEquals(0, counter.get(DESTINATION, 2));
+  }
+
+  @Test
+  public void testDecrement() {
+    counter.decrement(DESTINATION, 1, 4);
+
+    verify(jedis).eval(anyString(), eq(Collections.singletonList(KEY)), eq(Arrays.asList("1", "-4")));
+  }
+
+  @Test
+  public void testDecrementNothing() {
+    counter.decrement(DESTINATION, 1, 0);
+
+    verify(jedis, never()).eval(anyString(), anyListOf(String.class), anyListOf(String.class));
+  }
+
+  @Test
+  public void testReconcile() {
+    Transaction transaction = mock(Transaction.class);
+
+    when(jedis.multi()).thenReturn(transaction);
+    when(transaction.exec()).thenReturn(new LinkedList<Object>());
+
+    assertTrue(counter.reconcile(DESTINATION, new QueueDepthCounter.Source() {
+      @Override
+      public Map<Long, Long> count(String destination) {
+        Map<Long, Long> depths = new HashMap<>();
+        depths.put(1L, 5L);
+        depths.put(2L, 0L);
+        return depths;
+      }
+    }));
+
+    InOrder inOrder = inOrder(jedis, transaction);
+    inOrder.verify(jedis).watch(KEY);
+    inOrder.verify(transaction).del(KEY);
+    inOrder.verify(transaction).hset(KEY, "1", "5");
+    inOrder.verify(transaction).exec();
+
+    verify(transaction, never()).hset(KEY, "2", "0");
+  }
+
+  @Test
+  public void testReconcileGivesUpOnConflicts() {
+    Transaction transaction = mock(Transaction.class);
+
+    when(jedis.multi()).thenReturn(transaction);
+    when(transaction.exec()).thenReturn(null);
+
+    assertFalse(counter.reconcile(DESTINATION, new QueueDepthCounter.Source() {
+      @Override
+      public Map<Long, Long> count(String destination) {
+        return Collections.singletonMap(1L, 5L);
+      }
+    }));
+
+    verify(jedis, times(5)).watch(KEY);
+    verify(transaction, times(5)).exec();
+  }
+
+  @Test
+  public void testRecountWaitsForConfirmation() {
+    when(jedis.hgetAll(KEY)).thenReturn(Collections.singletonMap("1", "4"));
+
+    QueueDepthCounter.Recount recount = counter.reconcile(DESTINATION, Optional.<QueueDepthCounter.Recount>absent(), getSource(5L));
+
+    assertFalse(recount.isApplied());
+    assertFalse(recount.isSettled());
+    verify(jedis, never()).multi();
+  }
+
+  @Test
+  public void testRecountStoresAgreeingCounts() {
+    Transaction transaction = mock(Transaction.class);
+
+    when(jedis.hgetAll(KEY)).thenReturn(Collections.singletonMap("1", "6"));
+    when(jedis.multi()).thenReturn(transaction);
+    when(transaction.exec()).thenReturn(new LinkedList<Object>());
+
+    QueueDepthCounter.Recount previous = new QueueDepthCounter.Recount(Collections.singletonMap(1L, 4L),
+                                                                       Collections.singletonMap(1L, 5L),
+                                                                       false);
+
+    assertTrue(counter.reconcile(DESTINATION, Optional.of(previous), getSource(5L)).isApplied());
+
+    InOrder inOrder = inOrder(jedis, transaction);
+    inOrder.verify(jedis).watch(KEY);
+    inOrder.verify(transaction).hset(KEY, "1", "5");
+    inOrder.verify(transaction).exec();
+  }
+
+  @Test
+  public void testRecountStoresIdleQueue() {
+    Transaction transaction = mock(Transaction.class);
+
+    when(jedis.hgetAll(KEY)).thenReturn(Collections.singletonMap("1", "4"));
+    when(jedis.multi()).thenReturn(transaction);
+    when(transaction.exec()).thenReturn(new LinkedList<Object>());
+
+    QueueDepthCounter.Recount previous = new QueueDepthCounter.Recount(Collections.singletonMap(1L, 4L),
+                                                                       Collections.singletonMap(1L, 5L),
+                                                                       false);
+
+    assertTrue(counter.reconcile(DESTINATION, Optional.of(previous), getSource(6L)).isApplied());
+    verify(transaction).hset(KEY, "1", "6");
+  }
+
+  @Test
+  public void testRecountSkipsBusyQueue() {
+    when(jedis.hgetAll(KEY)).thenReturn(Collections.singletonMap("1", "5"));
+
+    QueueDepthCounter.Recount previous = new QueueDepthCounter.Recount(Collections.singletonMap(1L, 4L),
+                                                                       Collections.singletonMap(1L, 5L),
+                                                                       false);
+
+    QueueDepthCounter.Recount recount = counter.reconcile(DESTINATION, Optional.of(previous), getSource(6L));
+
+    assertFalse(recount.isApplied());
+    assertFalse(recount.isSettled());
+    verify(jedis, never()).multi();
+  }
+
+  private QueueDepthCounter.Source getSource(final long depth) {
+    return new QueueDepthCounter.Source() {
+      @Override
+      public Map<Long, Long> count(String destination) {
+        return Collections.singletonMap(1L, depth);
+      }
+    };
+  }
+}
@@ -0,0 +1,73 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.MessagesCache;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+import org.whispersystems.textsecuregcm.storage.QueueDepthReconciler;
+
+import java.util.Collections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+public class QueueDepthReconcilerTest {
+
+  private static final String DESTINATION = "+14152222222";
+
+  private final JedisPool         jedisPool = mock(JedisPool.class);
+  private final Jedis             jedis     = mock(Jedis.class);
+  private final QueueDepthCounter counter   = mock(QueueDepthCounter.class);
+
+  private final QueueDepthReconciler reconciler = new QueueDepthReconciler(new MessageShards(Collections.singletonMap("1", mock(Messages.class))),
+                                                                           Optional.<MessagesCache>absent(), counter, jedisPool);
+
+  @Before
+  public void setup() {
+    when(jedisPool.getResource()).thenReturn(jedis);
+  }
+
+  @Test
+  public void testSkipsWithoutLease() {
+    reconciler.run();
+
+    verify(counter, never()).getDestinations(anyString(), anyInt());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testUnsettledQueueCountedAgain() {
+    QueueDepthCounter.Recount unsettled = new QueueDepthCounter.Recount(Collections.singletonMap(1L, 4L),
+                                                                        Collections.singletonMap(1L, 5L),
+                                                                        false);
+
+    when(jedis.set(anyString(), anyString(), eq("NX"), eq("PX"), anyLong())).thenReturn("OK");
+    when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(1L);
+    when(counter.getDestinations(anyString(), anyInt())).thenReturn(new ScanResult<>(ScanParams.SCAN_POINTER_START, Collections.singletonList(DESTINATION)));
+    when(counter.reconcile(eq(DESTINATION), any(Optional.class), any(QueueDepthCounter.Source.class))).thenReturn(unsettled);
+
+    reconciler.run();
+
+    verify(counter).reconcile(eq(DESTINATION), eq(Optional.<QueueDepthCounter.Recount>absent()), any(QueueDepthCounter.Source.class));
+    verify(counter, never()).reconcile(eq(DESTINATION), eq(Optional.of(unsettled)), any(QueueDepthCounter.Source.class));
+
+    reconciler.run();
+
+    verify(counter).reconcile(eq(DESTINATION), eq(Optional.of(unsettled)), any(QueueDepthCounter.Source.class));
+  }
+}
@@ -0,0 +1,100 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.storage.MessageShards;
+import org.whispersystems.textsecuregcm.storage.Messages;
+import org.whispersystems.textsecuregcm.storage.MessagesCache;
+import org.whispersystems.textsecuregcm.storage.QueueDepthCounter;
+import org.whispersystems.textsecuregcm.storage.QueueDepthReconciler;
+import org.whispersystems.textsecuregcm.storage.QueueTrimmer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueueTrimmerTest {
+
+  private static final String DESTINATION = "+14152222222";
+  private static final int    MAX_DEPTH   = 10;
+
+  private final Messages             messages      = mock(Messages.class);
+  private final MessagesCache        messagesCache = mock(MessagesCache.class);
+  private final QueueDepthCounter    counter       = mock(QueueDepthCounter.class);
+  private final QueueDepthReconciler reconciler    = mock(QueueDepthReconciler.class);
+
+  @Test
+  public void testCachedReceiptsDontCount() throws Exception {
+    OutgoingMessageEntity receipt = createMessage(1, Envelope.Type.RECEIPT_VALUE);
+    OutgoingMessageEntity first   = createMessage(2, Envelope.Type.CIPHERTEXT_VALUE);
+    OutgoingMessageEntity second  = createMessage(3, Envelope.Type.CIPHERTEXT_VALUE);
+
+    when(messagesCache.getDepth(DESTINATION, 1)).thenReturn(MAX_DEPTH + 2);
+    when(messagesCache.get(DESTINATION, 1, 2)).thenReturn(Arrays.asList(receipt, first));
+    when(messagesCache.get(DESTINATION, 1, 1)).thenReturn(Collections.singletonList(second));
+    when(messagesCache.remove(DESTINATION, 1, 1)).thenReturn(Optional.of(receipt));
+    when(messagesCache.remove(DESTINATION, 1, 2)).thenReturn(Optional.of(first));
+    when(messagesCache.remove(DESTINATION, 1, 3)).thenReturn(Optional.of(second));
+    when(messages.removeOverflow(eq(DESTINATION), eq(1L), anyInt(), anyInt())).thenReturn(new LinkedList<Integer>());
+
+    trim();
+
+    verify(counter, times(2)).decrement(DESTINATION, 1, 1);
+    verify(messages).removeOverflow(DESTINATION, 1, 0, 100);
+    verify(reconciler, never()).reconcile(anyString());
+  }
+
+  @Test
+  public void testStoredKeepsRoomForCached() throws Exception {
+    List<Integer> removed = Arrays.asList(Envelope.Type.CIPHERTEXT_VALUE, Envelope.Type.CIPHERTEXT_VALUE);
+
+    when(messagesCache.getDepth(DESTINATION, 1)).thenReturn(3);
+    when(messages.removeOverflow(eq(DESTINATION), eq(1L), anyInt(), anyInt())).thenReturn(removed);
+
+    trim();
+
+    verify(messages).removeOverflow(DESTINATION, 1, MAX_DEPTH - 3, 100);
+    verify(messagesCache, never()).remove(anyString(), anyLong(), anyLong());
+    verify(counter).decrement(DESTINATION, 1, 2);
+    verify(reconciler, never()).reconcile(anyString());
+  }
+
+  @Test
+  public void testNothingToEvictReconciles() throws Exception {
+    when(messagesCache.getDepth(DESTINATION, 1)).thenReturn(MAX_DEPTH + 1);
+    when(messagesCache.get(DESTINATION, 1, 1)).thenReturn(Collections.singletonList(createMessage(1, Envelope.Type.CIPHERTEXT_VALUE)),
+                                                          new LinkedList<OutgoingMessageEntity>());
+    when(messagesCache.remove(DESTINATION, 1, 1)).thenReturn(Optional.<OutgoingMessageEntity>absent());
+    when(messages.removeOverflow(eq(DESTINATION), eq(1L), anyInt(), anyInt())).thenReturn(new LinkedList<Integer>());
+
+    trim();
+
+    verify(reconciler).reconcile(DESTINATION);
+  }
+
+  private void trim() throws Exception {
+    QueueTrimmer trimmer = new QueueTrimmer(new MessageShards(Collections.singletonMap("shard", messages)),
+                                            Optional.of(messagesCache), counter, reconciler, MAX_DEPTH);
+
+    trimmer.start();
+    trimmer.trim(DESTINATION, 1);
+    trimmer.stop();
+  }
+
+  private OutgoingMessageEntity createMessage(long id, int type) {
+    return new OutgoingMessageEntity(id, true, type, null, id, "+14151111111", 1, null, null);
+  }
+}
@@ -0,0 +1,86 @@
+package org.whispersystems.textsecuregcm.tests.storage;
+
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.whispersystems.textsecuregcm.storage.ReplicaLagMonitor;
+import org.whispersystems.textsecuregcm.storage.ReplicaRouter;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplicaRouterTest {
+
+  private static final long MAX_LAG_MILLIS = 1000;
+
+  @Test
+  public void testReadsFromCaughtUpReplica() {
+    ReplicaLagMonitor monitor = getMonitor("caught_up", 0L);
+    monitor.run();
+
+    assertTrue(monitor.isHealthy());
+    assertEquals("replica", getRouter(monitor).getReplica());
+  }
+
+  @Test
+  public void testFallsBackOverMaxLag() {
+    ReplicaLagMonitor monitor = getMonitor("lagging", MAX_LAG_MILLIS + 1);
+    monitor.run();
+
+    assertFalse(monitor.isHealthy());
+    assertEquals("primary", getRouter(monitor).getReplica());
+  }
+
+  @Test
+  public void testFallsBackWithoutReplay() {
+    ReplicaLagMonitor monitor = getMonitor("not_replaying", null);
+    monitor.run();
+
+    assertFalse(monitor.isHealthy());
+    assertEquals("primary", getRouter(monitor).getReplica());
+  }
+
+  @Test
+  public void testFallsBackWhenUnreachable() {
+    DBI dbi = mock(DBI.class);
+    when(dbi.withHandle(any(HandleCallback.class))).thenThrow(new RuntimeException("unreachable"));
+
+    ReplicaLagMonitor monitor = new ReplicaLagMonitor("unreachable", dbi, MAX_LAG_MILLIS);
+    monitor.run();
+
+    assertFalse(monitor.isHealthy());
+    assertEquals("primary", getRouter(monitor).getReplica());
+  }
+
+  @Test
+  public void testMaxLagIsLoosestBound() {
+    List<Pair<String, ReplicaLagMonitor>> replicas = new LinkedList<>();
+    replicas.add(new Pair<>("tight", new ReplicaLagMonitor("tight", mock(DBI.class), 500)));
+    replicas.add(new Pair<>("loose", new ReplicaLagMonitor("loose", mock(DBI.class), 5000)));
+
+    assertEquals(5000, new ReplicaRouter<>("primary", replicas).getMaxLagMillis());
+    assertEquals(0, new ReplicaRouter<>("primary").getMaxLagMillis());
+  }
+
+  private ReplicaLagMonitor getMonitor(String name, Long lag) {
+    DBI dbi = mock(DBI.class);
+    when(dbi.withHandle(any(HandleCallback.class))).thenReturn(lag);
+
+    return new ReplicaLagMonitor(name, dbi, MAX_LAG_MILLIS);
+  }
+
+  private ReplicaRouter<String> getRouter(ReplicaLagMonitor monitor) {
+    List<Pair<String, ReplicaLagMonitor>> replicas = new LinkedList<>();
+    replicas.add(new Pair<>("replica", monitor));
+
+    return new ReplicaRouter<>("primary", replicas);
+  }
+}
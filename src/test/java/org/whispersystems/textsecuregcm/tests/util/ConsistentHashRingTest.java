@@ -0,0 +1,90 @@
+package org.whispersystems.textsecuregcm.tests.util;
+
+import org.junit.Test;
+import org.whispersystems.textsecuregcm.util.ConsistentHashRing;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashRingTest {
+
+  @Test
+  public void testStable() {
+    Map<String, String> nodes = new HashMap<String, String>() {{
+      put("one", "one");
+      put("two", "two");
+      put("three", "three");
+    }};
+
+    ConsistentHashRing<String> first  = new ConsistentHashRing<>(nodes, 100);
+    ConsistentHashRing<String> second = new ConsistentHashRing<>(new HashMap<>(nodes), 100);
+
+    for (int i=0;i<1000;i++) {
+      assertEquals(first.get("+1415555" + i), second.get("+1415555" + i));
+    }
+  }
+
+  @Test
+  public void testAddNode() {
+    Map<String, String> nodes = new HashMap<String, String>() {{
+      put("one", "one");
+      put("two", "two");
+      put("three", "three");
+    }};
+
+    ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes, 100);
+
+    nodes.put("four", "four");
+
+    ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes, 100);
+    int                        moved = 0;
+
+    for (int i=0;i<10000;i++) {
+      String key = "+1415555" + i;
+
+      if (!before.get(key).equals(after.get(key))) {
+        assertEquals(after.get(key), "four");
+        moved++;
+      }
+    }
+
+    assertTrue(moved > 1500 && moved < 3500);
+  }
+
+  @Test
+  public void testAddNodeKeepsPlacement() {
+    Map<String, String> nodes = new LinkedHashMap<String, String>() {{
+      put("one", "one");
+      put("two", "two");
+      put("three", "three");
+    }};
+
+    Map<String, String> reordered = new LinkedHashMap<String, String>() {{
+      put("four", "four");
+      put("three", "three");
+      put("two", "two");
+      put("one", "one");
+    }};
+
+    ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes, 100);
+    ConsistentHashRing<String> after  = new ConsistentHashRing<>(reordered, 100);
+
+    nodes.put("four", "four");
+
+    ConsistentHashRing<String> added = new ConsistentHashRing<>(nodes, 100);
+
+    for (int i=0;i<10000;i++) {
+      String key = "+1415555" + i;
+
+      assertEquals(added.get(key), after.get(key));
+
+      if (!added.get(key).equals("four")) {
+        assertEquals(before.get(key), added.get(key));
+      }
+    }
+  }
+}
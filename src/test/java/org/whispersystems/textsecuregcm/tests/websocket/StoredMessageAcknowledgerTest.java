@@ -0,0 +1,99 @@
+package org.whispersystems.textsecuregcm.tests.websocket;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
+import org.whispersystems.textsecuregcm.storage.MessagesManager;
+import org.whispersystems.textsecuregcm.websocket.StoredMessageAcknowledger;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+
+public class StoredMessageAcknowledgerTest {
+
+  private static final String DESTINATION = "+14152222222";
+
+  @Test
+  public void testFlushOnTimer() throws Exception {
+    MessagesManager           messagesManager = mock(MessagesManager.class);
+    ScheduledExecutorService  executor        = mock(ScheduledExecutorService.class);
+    StoredMessageAcknowledger acknowledger    = new StoredMessageAcknowledger(messagesManager, executor, DESTINATION, 1);
+
+    acknowledger.acknowledge(createMessage(1, false));
+    acknowledger.acknowledge(createMessage(2, true));
+
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, atLeastOnce()).schedule(flush.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+    verify(executor, never()).execute(any(Runnable.class));
+    verify(messagesManager, never()).delete(anyString(), anyLong(), any(long[].class), anyBoolean());
+
+    flush.getValue().run();
+
+    verify(messagesManager).delete(eq(DESTINATION), eq(1L), aryEq(new long[] {1}), eq(false));
+    verify(messagesManager).delete(eq(DESTINATION), eq(1L), aryEq(new long[] {2}), eq(true));
+  }
+
+  @Test
+  public void testFlushOnBatchSize() throws Exception {
+    MessagesManager           messagesManager = mock(MessagesManager.class);
+    ScheduledExecutorService  executor        = mock(ScheduledExecutorService.class);
+    StoredMessageAcknowledger acknowledger    = new StoredMessageAcknowledger(messagesManager, executor, DESTINATION, 1);
+
+    long[] expected = new long[50];
+
+    for (int i=0;i<49;i++) {
+      acknowledger.acknowledge(createMessage(i + 1, false));
+      expected[i] = i + 1;
+    }
+
+    verify(executor, never()).execute(any(Runnable.class));
+
+    acknowledger.acknowledge(createMessage(50, false));
+    acknowledger.acknowledge(createMessage(51, false));
+    expected[49] = 50;
+
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, times(1)).execute(flush.capture());
+    verify(messagesManager, never()).delete(anyString(), anyLong(), any(long[].class), anyBoolean());
+
+    flush.getValue().run();
+
+    long[] all = new long[51];
+    System.arraycopy(expected, 0, all, 0, 50);
+    all[50] = 51;
+
+    verify(messagesManager).delete(eq(DESTINATION), eq(1L), aryEq(all), eq(false));
+  }
+
+  @Test
+  public void testFailedFlushRetained() throws Exception {
+    MessagesManager           messagesManager = mock(MessagesManager.class);
+    ScheduledExecutorService  executor        = mock(ScheduledExecutorService.class);
+    StoredMessageAcknowledger acknowledger    = new StoredMessageAcknowledger(messagesManager, executor, DESTINATION, 1);
+
+    doThrow(new RuntimeException("database down")).doNothing()
+        .when(messagesManager).delete(eq(DESTINATION), eq(1L), any(long[].class), eq(false));
+
+    acknowledger.acknowledge(createMessage(1, false));
+    assertFalse(acknowledger.flush());
+
+    acknowledger.acknowledge(createMessage(2, false));
+    assertTrue(acknowledger.flush());
+
+    verify(messagesManager).delete(eq(DESTINATION), eq(1L), aryEq(new long[] {1}), eq(false));
+    verify(messagesManager).delete(eq(DESTINATION), eq(1L), aryEq(new long[] {1, 2}), eq(false));
+
+    assertTrue(acknowledger.flush());
+    verifyNoMoreInteractions(messagesManager);
+  }
+
+  private OutgoingMessageEntity createMessage(long id, boolean cached) {
+    return new OutgoingMessageEntity(id, cached, Envelope.Type.CIPHERTEXT_VALUE, null, id, "+14151111111", 1, "message".getBytes(), null);
+  }
+}
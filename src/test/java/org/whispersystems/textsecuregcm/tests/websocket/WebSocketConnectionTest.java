@@ -5,17 +5,18 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
 import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.whispersystems.textsecuregcm.auth.AccountAuthenticator;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
-import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntityList;
 import org.whispersystems.textsecuregcm.push.ApnFallbackManager;
 import org.whispersystems.textsecuregcm.push.PushSender;
 import org.whispersystems.textsecuregcm.push.ReceiptSender;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.LastSeenFlusher;
 import org.whispersystems.textsecuregcm.storage.MessagesManager;
 import org.whispersystems.textsecuregcm.storage.PubSubManager;
 import org.whispersystems.textsecuregcm.storage.PubSubProtos;
@@ -34,9 +35,12 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import io.dropwizard.auth.basic.BasicCredentials;
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
@@ -58,12 +62,14 @@ public class WebSocketConnectionTest {
   private static final PushSender           pushSender           = mock(PushSender.class);
   private static final ReceiptSender        receiptSender        = mock(ReceiptSender.class);
   private static final ApnFallbackManager   apnFallbackManager   = mock(ApnFallbackManager.class);
+  private static final ScheduledExecutorService executor         = mock(ScheduledExecutorService.class);
+  private static final LastSeenFlusher      lastSeenFlusher      = mock(LastSeenFlusher.class);
 
   @Test
   public void testCredentials() throws Exception {
     MessagesManager               storedMessages         = mock(MessagesManager.class);
     WebSocketAccountAuthenticator webSocketAuthenticator = new WebSocketAccountAuthenticator(accountAuthenticator);
-    AuthenticatedConnectListener  connectListener        = new AuthenticatedConnectListener(accountsManager, pushSender, receiptSender, storedMessages, pubSubManager, apnFallbackManager);
+    AuthenticatedConnectListener  connectListener        = new AuthenticatedConnectListener(lastSeenFlusher, pushSender, receiptSender, storedMessages, pubSubManager, apnFallbackManager, executor);
     WebSocketSessionContext       sessionContext         = mock(WebSocketSessionContext.class);
 
     when(accountAuthenticator.authenticate(eq(new BasicCredentials(VALID_USER, VALID_PASSWORD))))
@@ -105,8 +111,6 @@ public class WebSocketConnectionTest {
       add(createMessage(3L, "sender2", 3333, false, "third"));
     }};
 
-    OutgoingMessageEntityList outgoingMessagesList = new OutgoingMessageEntityList(outgoingMessages, false);
-
     when(device.getId()).thenReturn(2L);
     when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[52]));
 
@@ -125,8 +129,8 @@ public class WebSocketConnectionTest {
     when(accountsManager.get("sender1")).thenReturn(Optional.of(sender1));
     when(accountsManager.get("sender2")).thenReturn(Optional.<Account>absent());
 
-    when(storedMessages.getMessagesForDevice(account.getNumber(), device.getId()))
-        .thenReturn(outgoingMessagesList);
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(outgoingMessages);
 
     final List<SettableFuture<WebSocketResponseMessage>> futures = new LinkedList<>();
     final WebSocketClient                                client  = mock(WebSocketClient.class);
@@ -143,7 +147,7 @@ public class WebSocketConnectionTest {
 
     WebsocketAddress websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
     WebSocketConnection connection = new WebSocketConnection(pushSender, receiptSender, storedMessages,
-                                                             account, device, client);
+                                                             account, device, client, executor);
 
     connection.onDispatchSubscribed(websocketAddress.serialize());
     verify(client, times(3)).sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class));
@@ -157,13 +161,193 @@ public class WebSocketConnectionTest {
     futures.get(0).setException(new IOException());
     futures.get(2).setException(new IOException());
 
-    verify(storedMessages, times(1)).delete(eq(account.getNumber()), eq(2L));
     verify(receiptSender, times(1)).sendReceipt(eq(account), eq("sender1"), eq(2222L), eq(Optional.<String>absent()));
+    verify(storedMessages, never()).delete(anyString(), anyLong(), any(long[].class), anyBoolean());
+
+    connection.onDispatchUnsubscribed(websocketAddress.serialize());
+    verify(storedMessages, times(1)).delete(eq(account.getNumber()), eq(2L), aryEq(new long[] {2L}), eq(false));
+    verify(client).close(anyInt(), anyString());
+  }
+
+  @Test
+  public void testFailedStoredMessageRetried() throws Exception {
+    MessagesManager storedMessages = mock(MessagesManager.class);
+
+    List<OutgoingMessageEntity> outgoingMessages = new LinkedList<OutgoingMessageEntity> () {{
+      add(createMessage(1L, "sender1", 1111, false, "first"));
+    }};
+
+    when(device.getId()).thenReturn(2L);
+    when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[52]));
+
+    when(account.getAuthenticatedDevice()).thenReturn(Optional.of(device));
+    when(account.getNumber()).thenReturn("+14152222222");
+
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(outgoingMessages);
+
+    final List<SettableFuture<WebSocketResponseMessage>> futures = new LinkedList<>();
+    final WebSocketClient                                client  = mock(WebSocketClient.class);
+
+    when(client.sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class)))
+        .thenAnswer(new Answer<SettableFuture<WebSocketResponseMessage>>() {
+          @Override
+          public SettableFuture<WebSocketResponseMessage> answer(InvocationOnMock invocationOnMock) throws Throwable {
+            SettableFuture<WebSocketResponseMessage> future = SettableFuture.create();
+            futures.add(future);
+            return future;
+          }
+        });
+
+    WebsocketAddress websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
+    WebSocketConnection connection = new WebSocketConnection(pushSender, receiptSender, storedMessages,
+                                                             account, device, client, executor);
+
+    connection.onDispatchSubscribed(websocketAddress.serialize());
+    assertEquals(futures.size(), 1);
+
+    futures.get(0).setException(new IOException());
+
+    ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, atLeastOnce()).schedule(retry.capture(), eq(10L), eq(TimeUnit.SECONDS));
+
+    retry.getValue().run();
+
+    verify(client, times(2)).sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class));
+    assertEquals(futures.size(), 2);
+
+    connection.onDispatchUnsubscribed(websocketAddress.serialize());
+    verify(client).close(anyInt(), anyString());
+  }
+
+  @Test
+  public void testBadSignalingKeyDrainTerminates() throws Exception {
+    MessagesManager storedMessages = mock(MessagesManager.class);
+    ScheduledExecutorService retryExecutor = mock(ScheduledExecutorService.class);
+
+    List<OutgoingMessageEntity> outgoingMessages = new LinkedList<OutgoingMessageEntity> () {{
+      add(createMessage(1L, "sender1", 1111, false, "first"));
+      add(createMessage(2L, "sender1", 2222, false, "second"));
+    }};
+
+    when(device.getId()).thenReturn(2L);
+    when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[10]));
+
+    when(account.getAuthenticatedDevice()).thenReturn(Optional.of(device));
+    when(account.getNumber()).thenReturn("+14152222222");
+
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(outgoingMessages);
+
+    WebSocketClient     client           = mock(WebSocketClient.class);
+    WebsocketAddress    websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
+    WebSocketConnection connection       = new WebSocketConnection(pushSender, receiptSender, storedMessages,
+                                                                   account, device, client, retryExecutor);
+
+    connection.onDispatchSubscribed(websocketAddress.serialize());
+
+    verify(storedMessages, times(1)).getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt());
+    verify(client, never()).sendRequest(anyString(), anyString(), any(Optional.class));
+    verify(retryExecutor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    verify(storedMessages, never()).delete(anyString(), anyLong(), any(long[].class), anyBoolean());
 
     connection.onDispatchUnsubscribed(websocketAddress.serialize());
     verify(client).close(anyInt(), anyString());
   }
 
+  @Test
+  public void testDeliveredQueueRereadOnce() throws Exception {
+    MessagesManager storedMessages = mock(MessagesManager.class);
+
+    List<OutgoingMessageEntity> outgoingMessages = new LinkedList<OutgoingMessageEntity> () {{
+      add(createMessage(1L, "sender1", 1111, false, "first"));
+    }};
+
+    when(device.getId()).thenReturn(2L);
+    when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[52]));
+
+    when(account.getAuthenticatedDevice()).thenReturn(Optional.of(device));
+    when(account.getNumber()).thenReturn("+14152222222");
+
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(outgoingMessages);
+
+    final WebSocketResponseMessage response = mock(WebSocketResponseMessage.class);
+    when(response.getStatus()).thenReturn(200);
+
+    WebSocketClient client = mock(WebSocketClient.class);
+
+    when(client.sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class)))
+        .thenAnswer(new Answer<SettableFuture<WebSocketResponseMessage>>() {
+          @Override
+          public SettableFuture<WebSocketResponseMessage> answer(InvocationOnMock invocationOnMock) throws Throwable {
+            SettableFuture<WebSocketResponseMessage> future = SettableFuture.create();
+            future.set(response);
+            return future;
+          }
+        });
+
+    WebsocketAddress    websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
+    WebSocketConnection connection       = new WebSocketConnection(pushSender, receiptSender, storedMessages,
+                                                                   account, device, client, executor);
+
+    connection.onDispatchSubscribed(websocketAddress.serialize());
+
+    verify(storedMessages, times(1)).delete(eq(account.getNumber()), eq(2L), aryEq(new long[] {1L}), eq(false));
+    verify(storedMessages, times(2)).getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt());
+    verify(client, times(2)).sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class));
+
+    connection.onDispatchUnsubscribed(websocketAddress.serialize());
+    verify(client).close(anyInt(), anyString());
+  }
+
+  @Test
+  public void testFailedAcknowledgementNotReread() throws Exception {
+    MessagesManager          storedMessages = mock(MessagesManager.class);
+    ScheduledExecutorService retryExecutor  = mock(ScheduledExecutorService.class);
+
+    List<OutgoingMessageEntity> outgoingMessages = new LinkedList<OutgoingMessageEntity> () {{
+      add(createMessage(1L, "sender1", 1111, false, "first"));
+    }};
+
+    when(device.getId()).thenReturn(2L);
+    when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[52]));
+
+    when(account.getAuthenticatedDevice()).thenReturn(Optional.of(device));
+    when(account.getNumber()).thenReturn("+14152222222");
+
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(outgoingMessages);
+
+    doThrow(new RuntimeException("database down"))
+        .when(storedMessages).delete(anyString(), anyLong(), any(long[].class), anyBoolean());
+
+    final WebSocketResponseMessage response = mock(WebSocketResponseMessage.class);
+    when(response.getStatus()).thenReturn(200);
+
+    WebSocketClient client = mock(WebSocketClient.class);
+
+    when(client.sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class)))
+        .thenAnswer(new Answer<SettableFuture<WebSocketResponseMessage>>() {
+          @Override
+          public SettableFuture<WebSocketResponseMessage> answer(InvocationOnMock invocationOnMock) throws Throwable {
+            SettableFuture<WebSocketResponseMessage> future = SettableFuture.create();
+            future.set(response);
+            return future;
+          }
+        });
+
+    WebsocketAddress    websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
+    WebSocketConnection connection       = new WebSocketConnection(pushSender, receiptSender, storedMessages,
+                                                                   account, device, client, retryExecutor);
+
+    connection.onDispatchSubscribed(websocketAddress.serialize());
+
+    verify(storedMessages, times(1)).getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt());
+    verify(client, times(1)).sendRequest(eq("PUT"), eq("/api/v1/message"), any(Optional.class));
+    verify(retryExecutor).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.SECONDS));
+  }
+
   @Test
   public void testOnlineSend() throws Exception {
     MessagesManager storedMessages = mock(MessagesManager.class);
@@ -183,8 +367,7 @@ public class WebSocketConnectionTest {
                                      .setType(Envelope.Type.CIPHERTEXT)
                                      .build();
 
-    List<OutgoingMessageEntity> pendingMessages     = new LinkedList<>();
-    OutgoingMessageEntityList   pendingMessagesList = new OutgoingMessageEntityList(pendingMessages, false);
+    List<OutgoingMessageEntity> pendingMessages = new LinkedList<>();
 
     when(device.getId()).thenReturn(2L);
     when(device.getSignalingKey()).thenReturn(Base64.encodeBytes(new byte[52]));
@@ -204,8 +387,8 @@ public class WebSocketConnectionTest {
     when(accountsManager.get("sender1")).thenReturn(Optional.of(sender1));
     when(accountsManager.get("sender2")).thenReturn(Optional.<Account>absent());
 
-    when(storedMessages.getMessagesForDevice(account.getNumber(), device.getId()))
-        .thenReturn(pendingMessagesList);
+    when(storedMessages.getMessagesForDevice(eq(account.getNumber()), eq(device.getId()), any(MessagesManager.Cursor.class), anyInt()))
+        .thenReturn(pendingMessages);
 
     final List<SettableFuture<WebSocketResponseMessage>> futures = new LinkedList<>();
     final WebSocketClient                                client  = mock(WebSocketClient.class);
@@ -222,7 +405,7 @@ public class WebSocketConnectionTest {
 
     WebsocketAddress websocketAddress = new WebsocketAddress(account.getNumber(), device.getId());
     WebSocketConnection connection = new WebSocketConnection(pushSender, receiptSender, storedMessages,
-                                                             account, device, client);
+                                                             account, device, client, executor);
 
     connection.onDispatchSubscribed(websocketAddress.serialize());
     connection.onDispatchMessage(websocketAddress.serialize(), PubSubProtos.PubSubMessage.newBuilder()
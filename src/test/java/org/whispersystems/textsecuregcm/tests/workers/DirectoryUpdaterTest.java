@@ -0,0 +1,284 @@
+package org.whispersystems.textsecuregcm.tests.workers;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.whispersystems.textsecuregcm.entities.ClientContact;
+import org.whispersystems.textsecuregcm.entities.ClientContactPage;
+import org.whispersystems.textsecuregcm.federation.FederatedClient;
+import org.whispersystems.textsecuregcm.federation.FederatedClientManager;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager.BatchOperationHandle;
+import org.whispersystems.textsecuregcm.storage.DirectoryManager.PendingClientContact;
+import org.whispersystems.textsecuregcm.util.Pair;
+import org.whispersystems.textsecuregcm.util.Util;
+import org.whispersystems.textsecuregcm.workers.DirectoryUpdater;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+public class DirectoryUpdaterTest {
+
+  private static final String ACTIVE   = "+14152222222";
+  private static final String INACTIVE = "+14153333333";
+
+  private final AccountsManager        accountsManager        = mock(AccountsManager.class);
+  private final FederatedClientManager federatedClientManager = mock(FederatedClientManager.class);
+  private final DirectoryManager       directory              = mock(DirectoryManager.class);
+  private final BatchOperationHandle   handle                 = new BatchOperationHandle(mock(Jedis.class), mock(Pipeline.class));
+
+  private final DirectoryUpdater directoryUpdater = new DirectoryUpdater(accountsManager, federatedClientManager, directory);
+
+  @Before
+  public void setup() {
+    when(directory.startBatchOperation()).thenReturn(handle);
+    when(accountsManager.getFromPrimary(ACTIVE)).thenReturn(Optional.of(getAccount(ACTIVE, true)));
+    when(accountsManager.getFromPrimary(INACTIVE)).thenReturn(Optional.<Account>absent());
+  }
+
+  @Test
+  public void testChangeLogWithoutCheckpoint() {
+    when(directory.getCheckpoint()).thenReturn(Optional.<Long>absent());
+    when(accountsManager.getChangeHorizon()).thenReturn(5000L);
+    when(accountsManager.getAllFromPrimary(10000)).thenReturn(Arrays.asList(getAccount(ACTIVE, true), getAccount(INACTIVE, false)).iterator());
+
+    directoryUpdater.updateFromChangeLog();
+
+    verify(directory).add(eq(handle), eq(new ClientContact(Util.getContactToken(ACTIVE), null, false)));
+    verify(directory).remove(handle, INACTIVE);
+    verify(directory).setCheckpoint(5000L);
+    verify(accountsManager).removeChangesBefore(5000L);
+    verify(accountsManager, never()).getChanges(anyLong(), anyLong(), anyLong(), anyInt());
+    verify(accountsManager, never()).getAll(anyInt());
+  }
+
+  @Test
+  public void testChangeLogAppliesChangesThroughHorizon() {
+    when(directory.getCheckpoint()).thenReturn(Optional.of(1000L));
+    when(accountsManager.getChangeHorizon()).thenReturn(5000L);
+    when(accountsManager.getChanges(1000L, 5000L, 0L, 10000)).thenReturn(Arrays.asList(new Pair<>(1L, ACTIVE),
+                                                                                       new Pair<>(2L, INACTIVE),
+                                                                                       new Pair<>(3L, ACTIVE)));
+
+    directoryUpdater.updateFromChangeLog();
+
+    verify(directory, times(1)).add(eq(handle), eq(new ClientContact(Util.getContactToken(ACTIVE), null, false)));
+    verify(directory, times(1)).remove(handle, INACTIVE);
+    verify(directory).setCheckpoint(5000L);
+    verify(accountsManager).removeChangesBefore(5000L);
+    verify(accountsManager, never()).get(anyString());
+    verify(accountsManager, never()).getAllFromPrimary(anyInt());
+  }
+
+  @Test
+  public void testChangeLogPagesByChangeId() {
+    List<Pair<Long, String>> page = new LinkedList<>();
+
+    for (long i=1;i<=10000;i++) {
+      page.add(new Pair<>(i, ACTIVE));
+    }
+
+    when(directory.getCheckpoint()).thenReturn(Optional.of(1000L));
+    when(accountsManager.getChangeHorizon()).thenReturn(5000L);
+    when(accountsManager.getChanges(1000L, 5000L, 0L, 10000)).thenReturn(page);
+    when(accountsManager.getChanges(1000L, 5000L, 10000L, 10000)).thenReturn(Collections.singletonList(new Pair<>(10001L, INACTIVE)));
+
+    directoryUpdater.updateFromChangeLog();
+
+    verify(accountsManager).getChanges(1000L, 5000L, 0L, 10000);
+    verify(accountsManager).getChanges(1000L, 5000L, 10000L, 10000);
+    verify(directory).remove(handle, INACTIVE);
+    verify(directory).setCheckpoint(5000L);
+  }
+
+  @Test
+  public void testChangeLogCheckpointNeverMovesBack() {
+    when(directory.getCheckpoint()).thenReturn(Optional.of(6000L));
+    when(accountsManager.getChangeHorizon()).thenReturn(5000L);
+    when(accountsManager.getChanges(6000L, 5000L, 0L, 10000)).thenReturn(new LinkedList<Pair<Long, String>>());
+
+    directoryUpdater.updateFromChangeLog();
+
+    verify(directory).setCheckpoint(6000L);
+    verify(accountsManager).removeChangesBefore(6000L);
+  }
+
+  @Test
+  public void testChangeLogOlderThanRetentionRebuilds() {
+    long horizon = AccountsManager.CHANGE_RETENTION_MILLIS + 5000L;
+
+    when(directory.getCheckpoint()).thenReturn(Optional.of(1000L));
+    when(accountsManager.getChangeHorizon()).thenReturn(horizon);
+    when(accountsManager.getAllFromPrimary(10000)).thenReturn(Arrays.asList(getAccount(ACTIVE, true)).iterator());
+
+    directoryUpdater.updateFromChangeLog();
+
+    verify(directory).add(eq(handle), eq(new ClientContact(Util.getContactToken(ACTIVE), null, false)));
+    verify(directory).setCheckpoint(horizon);
+    verify(accountsManager, never()).getChanges(anyLong(), anyLong(), anyLong(), anyInt());
+  }
+
+  @Test
+  public void testPeerSyncWritesConditionally() throws Exception {
+    ClientContact unclaimed = new ClientContact(new byte[] {0x01}, null, false);
+    ClientContact owned     = new ClientContact(new byte[] {0x02}, null, true);
+    ClientContact foreign   = new ClientContact(new byte[] {0x03}, null, false);
+
+    PendingClientContact storedUnclaimed = getStored(unclaimed, Optional.<ClientContact>absent());
+    PendingClientContact storedOwned     = getStored(owned, Optional.of(new ClientContact(owned.getToken(), "peer", false)));
+    PendingClientContact storedForeign   = getStored(foreign, Optional.of(new ClientContact(foreign.getToken(), "other", false)));
+
+    setPeer(unclaimed, owned, foreign);
+
+    Response<Long> claimed = getResponse(0L);
+
+    when(directory.addIfAbsent(handle, unclaimed)).thenReturn(claimed);
+    when(directory.isUnchanged(storedOwned, owned)).thenReturn(false);
+    when(directory.replace(storedOwned, Optional.of(owned))).thenReturn(false);
+
+    directoryUpdater.updateFromPeers();
+
+    verify(directory).addIfAbsent(handle, unclaimed);
+    verify(directory, never()).publishAdded(any(BatchOperationHandle.class), any(ClientContact.class));
+    verify(directory).replace(storedOwned, Optional.of(owned));
+    verify(directory, never()).replace(eq(storedUnclaimed), any(Optional.class));
+    verify(directory, never()).replace(eq(storedForeign), any(Optional.class));
+    verify(directory, never()).addIfAbsent(handle, foreign);
+  }
+
+  @Test
+  public void testPeerSyncAnnouncesWonAdditions() throws Exception {
+    ClientContact unclaimed = new ClientContact(new byte[] {0x01}, null, false);
+
+    getStored(unclaimed, Optional.<ClientContact>absent());
+    setPeer(unclaimed);
+
+    Response<Long> added = getResponse(1L);
+    when(directory.addIfAbsent(handle, unclaimed)).thenReturn(added);
+
+    directoryUpdater.updateFromPeers();
+
+    verify(directory).publishAdded(handle, unclaimed);
+  }
+
+  @Test
+  public void testPeerSyncRemovesOwnedInactive() throws Exception {
+    ClientContact removed = new ClientContact(new byte[] {0x01}, null, false);
+    removed.setInactive(true);
+
+    PendingClientContact stored = getStored(removed, Optional.of(new ClientContact(removed.getToken(), "peer", false)));
+    setPeer(removed);
+
+    when(directory.replace(stored, Optional.<ClientContact>absent())).thenReturn(false);
+
+    directoryUpdater.updateFromPeers();
+
+    verify(directory).replace(stored, Optional.<ClientContact>absent());
+  }
+
+  @Test
+  public void testRebuildStagesSwapsAndReplays() throws Exception {
+    ClientContact remote = new ClientContact(new byte[] {0x01}, null, false);
+    setPeer(remote);
+
+    when(accountsManager.getChangeHorizon()).thenReturn(5000L, 7000L);
+    when(accountsManager.getAllFromPrimary(10000)).thenReturn(Arrays.asList(getAccount(ACTIVE, true), getAccount(INACTIVE, false)).iterator());
+    when(directory.getCheckpoint()).thenReturn(Optional.of(5000L));
+    when(accountsManager.getChanges(5000L, 7000L, 0L, 10000)).thenReturn(Collections.singletonList(new Pair<>(1L, INACTIVE)));
+
+    directoryUpdater.rebuild();
+
+    InOrder inOrder = inOrder(directory, accountsManager);
+    inOrder.verify(accountsManager).getChangeHorizon();
+    inOrder.verify(directory).clearStaging();
+    inOrder.verify(directory).addStaged(handle, new ClientContact(Util.getContactToken(ACTIVE), null, false));
+    inOrder.verify(directory).addStagedIfAbsent(handle, new ClientContact(remote.getToken(), "peer", false));
+    inOrder.verify(directory).commitStaging();
+    inOrder.verify(directory).setCheckpoint(5000L);
+    inOrder.verify(accountsManager).getChanges(5000L, 7000L, 0L, 10000);
+    inOrder.verify(directory).remove(handle, INACTIVE);
+    inOrder.verify(directory).setCheckpoint(7000L);
+
+    verify(directory, times(1)).addStaged(any(BatchOperationHandle.class), any(ClientContact.class));
+    verify(directory, never()).add(any(BatchOperationHandle.class), any(ClientContact.class));
+    verify(directory, never()).addIfAbsent(any(BatchOperationHandle.class), any(ClientContact.class));
+  }
+
+  @Test
+  public void testRebuildKeepsDirectoryWhenPeerFails() throws Exception {
+    FederatedClient client = mock(FederatedClient.class);
+
+    when(client.getPeerName()).thenReturn("peer");
+    when(client.getUserTokensAfter(0)).thenThrow(new IllegalStateException("peer unavailable"));
+    when(federatedClientManager.getClients()).thenReturn(Collections.singletonList(client));
+    when(accountsManager.getAllFromPrimary(10000)).thenReturn(Collections.singletonList(getAccount(ACTIVE, true)).iterator());
+
+    try {
+      directoryUpdater.rebuild();
+      fail("rebuild should have failed");
+    } catch (IllegalStateException e) {
+      verify(directory, never()).commitStaging();
+      verify(directory, never()).setCheckpoint(anyLong());
+    }
+  }
+
+  private void setPeer(ClientContact... contacts) {
+    FederatedClient client = mock(FederatedClient.class);
+
+    when(client.getPeerName()).thenReturn("peer");
+    when(client.getUserTokensAfter(0)).thenReturn(Optional.of(new ClientContactPage(Arrays.asList(contacts), 10)));
+    when(client.getUserTokensAfter(10)).thenReturn(Optional.<ClientContactPage>absent());
+    when(federatedClientManager.getClients()).thenReturn(Collections.singletonList(client));
+  }
+
+  private PendingClientContact getStored(ClientContact contact, Optional<ClientContact> stored)
+      throws Exception
+  {
+    PendingClientContact pending = mock(PendingClientContact.class);
+
+    when(pending.get()).thenReturn(stored);
+    when(directory.get(handle, contact.getToken())).thenReturn(pending);
+
+    return pending;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response<Long> getResponse(long value) {
+    Response<Long> response = mock(Response.class);
+    when(response.get()).thenReturn(value);
+
+    return response;
+  }
+
+  private Account getAccount(String number, boolean active) {
+    Set<Device> devices = new HashSet<>();
+    devices.add(new Device(1, "master", "token", "salt", "signaling", active ? "gcm" : null, null, null, false, 1234,
+                           null, 0, 0, false, null));
+
+    return new Account(number, devices);
+  }
+}